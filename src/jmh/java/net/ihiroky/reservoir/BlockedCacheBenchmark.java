@@ -0,0 +1,149 @@
+package net.ihiroky.reservoir;
+
+import net.ihiroky.reservoir.accessor.ByteBufferCacheAccessor;
+import net.ihiroky.reservoir.accessor.FileCacheAccessor;
+import net.ihiroky.reservoir.accessor.MemoryMappedFileCacheAccessor;
+import net.ihiroky.reservoir.accessor.SlabCacheAccessor;
+import net.ihiroky.reservoir.coder.ByteArrayCoder;
+import net.ihiroky.reservoir.coder.SerializableCoder;
+import net.ihiroky.reservoir.coder.SimpleStringCoder;
+import net.ihiroky.reservoir.coder.StringCoder;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Benchmarks of {@code BasicCache} on the accessors which store encoded values, for each combination of
+ * {@code IndexType}, {@code CacheAccessorType} and {@code Coder}, with values of {@code valueSize} bytes.
+ *
+ * @author Hiroki Itoh
+ */
+public abstract class BlockedCacheBenchmark extends CacheBenchmark {
+
+    /**
+     * Coders of the values, and the values to be encoded by them.
+     */
+    public enum CoderType {
+        SERIALIZABLE(SerializableCoder.class) {
+            @Override
+            Object newValue(int size) {
+                return newString(size);
+            }
+        },
+        STRING(StringCoder.class) {
+            @Override
+            Object newValue(int size) {
+                return newString(size);
+            }
+        },
+        SIMPLE_STRING(SimpleStringCoder.class) {
+            @Override
+            Object newValue(int size) {
+                return newString(size);
+            }
+        },
+        BYTE_ARRAY(ByteArrayCoder.class) {
+            @Override
+            Object newValue(int size) {
+                byte[] bytes = new byte[size];
+                Arrays.fill(bytes, (byte) 'a');
+                return bytes;
+            }
+        },;
+
+        final Class<?> coderClass;
+
+        CoderType(Class<?> coderClass) {
+            this.coderClass = coderClass;
+        }
+
+        abstract Object newValue(int size);
+
+        static String newString(int size) {
+            char[] chars = new char[size];
+            Arrays.fill(chars, 'a');
+            return new String(chars);
+        }
+    }
+
+    @Param({"SIMPLE", "LRU", "FIFO", "FRAGILE_LRU", "FRAGILE_FIFO", "OFF_HEAP", "TINY_LFU"})
+    public Reservoir.IndexType indexType;
+
+    @Param({"BYTE_BUFFER", "SLAB", "MEMORY_MAPPED_FILE", "FILE"})
+    public Reservoir.CacheAccessorType cacheAccessorType;
+
+    @Param({"SERIALIZABLE", "STRING", "SIMPLE_STRING", "BYTE_ARRAY"})
+    public CoderType coderType;
+
+    @Param({"64", "1024", "16384"})
+    public int valueSize;
+
+    private File file;
+
+    /**
+     * The bytes stored per entry, with the overhead of the coders and the blocks.
+     */
+    private long bytesPerEntry() {
+        return (valueSize + 512L) * 2;
+    }
+
+    @Override
+    BasicCache<Integer, Object> createCache() throws IOException {
+        long size = bytesPerEntry() * keys;
+        Reservoir.CacheBuilder builder = Reservoir.newCacheBuilder()
+                .name(getClass().getSimpleName() + '-' + indexType + '-' + cacheAccessorType + '-' + coderType)
+                .indexType(indexType)
+                .cacheAccessorType(cacheAccessorType)
+                .initialCacheSize(keys)
+                .maxCacheSize(keys);
+        String coder = coderType.coderClass.getName();
+        switch (cacheAccessorType) {
+            case BYTE_BUFFER:
+                builder.property(ByteBufferCacheAccessor.class, "direct", "true")
+                        .property(ByteBufferCacheAccessor.class, "size", String.valueOf(size))
+                        .property(ByteBufferCacheAccessor.class, "blockSize", "256")
+                        .property(ByteBufferCacheAccessor.class, "partitions", "4")
+                        .property(ByteBufferCacheAccessor.class, "coder", coder);
+                break;
+            case SLAB:
+                // the size is divided into the 5 size classes equally.
+                builder.property(SlabCacheAccessor.class, "direct", "true")
+                        .property(SlabCacheAccessor.class, "size", String.valueOf(size * 5))
+                        .property(SlabCacheAccessor.class, "minBlockSize", "64")
+                        .property(SlabCacheAccessor.class, "maxBlockSize", "1024")
+                        .property(SlabCacheAccessor.class, "growthFactor", "2")
+                        .property(SlabCacheAccessor.class, "coder", coder);
+                break;
+            case MEMORY_MAPPED_FILE:
+            case FILE:
+                Class<?> accessorClass = (cacheAccessorType == Reservoir.CacheAccessorType.FILE)
+                        ? FileCacheAccessor.class : MemoryMappedFileCacheAccessor.class;
+                file = File.createTempFile(CacheBenchmark.class.getSimpleName(), ".dat");
+                builder.property(accessorClass, "blockSize", "512")
+                        .property(accessorClass, "file.0.path", file.getPath())
+                        .property(accessorClass, "file.0.size", String.valueOf(size))
+                        .property(accessorClass, "coder", coder);
+                break;
+            default:
+                throw new IllegalArgumentException(cacheAccessorType + " does not store encoded values.");
+        }
+        return builder.build();
+    }
+
+    @Override
+    Object newValue() {
+        return coderType.newValue(valueSize);
+    }
+
+    @Override
+    void disposeResources() {
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.ihiroky.reservoir;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@code BasicCache}. The entries of {@code keys} keys are put in advance, and the benchmarks
+ * access them in a stride, so that the index never evicts and every get hits.
+ * <p/>
+ * The parameters are given by {@link HeapCacheBenchmark} and {@link BlockedCacheBenchmark}, which are split
+ * so that every combination of the parameters is valid and distinct. The number of threads is given by
+ * their subclasses.
+ *
+ * @author Hiroki Itoh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class CacheBenchmark {
+
+    /**
+     * The position of the next key, which is held by each thread.
+     */
+    @State(Scope.Thread)
+    public static class KeyCursor {
+
+        private int position;
+
+        @Setup
+        public void setUp() {
+            position = (int) Thread.currentThread().getId();
+        }
+
+        Integer next(int keys) {
+            // 7919 is a prime, so that the cursor visits all keys.
+            position = (position + 7919) % keys;
+            return position;
+        }
+    }
+
+    @Param({"1024"})
+    public int keys;
+
+    private BasicCache<Integer, Object> cache;
+    private Object value;
+
+    /**
+     * Creates the cache to benchmark, which can hold {@code keys} entries.
+     */
+    abstract BasicCache<Integer, Object> createCache() throws IOException;
+
+    /**
+     * Creates the value put into the cache.
+     */
+    abstract Object newValue();
+
+    /**
+     * Releases the resources other than the cache, such as files.
+     */
+    void disposeResources() {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cache = createCache();
+        value = newValue();
+        for (int i = 0; i < keys; i++) {
+            cache.put(i, value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (cache != null) {
+            cache.dispose();
+            cache = null;
+        }
+        disposeResources();
+    }
+
+    @Benchmark
+    public Object get(KeyCursor cursor) {
+        return cache.get(cursor.next(keys));
+    }
+
+    @Benchmark
+    public void put(KeyCursor cursor) {
+        cache.put(cursor.next(keys), value);
+    }
+
+    @Benchmark
+    public boolean containsKey(KeyCursor cursor) {
+        return cache.containsKey(cursor.next(keys));
+    }
+}
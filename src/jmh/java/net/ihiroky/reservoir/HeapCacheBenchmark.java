@@ -0,0 +1,36 @@
+package net.ihiroky.reservoir;
+
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Arrays;
+
+/**
+ * Benchmarks of {@code BasicCache} on the {@code HEAP} accessor for each {@code IndexType}. The accessor holds
+ * the values as they are, so neither a coder nor the size of the values is a parameter, and the {@code OFF_HEAP}
+ * index, which needs encoded refs, is not benchmarked.
+ *
+ * @author Hiroki Itoh
+ */
+public abstract class HeapCacheBenchmark extends CacheBenchmark {
+
+    @Param({"SIMPLE", "LRU", "FIFO", "FRAGILE_LRU", "FRAGILE_FIFO", "TINY_LFU"})
+    public Reservoir.IndexType indexType;
+
+    @Override
+    BasicCache<Integer, Object> createCache() {
+        return Reservoir.newCacheBuilder()
+                .name(getClass().getSimpleName() + '-' + indexType)
+                .indexType(indexType)
+                .cacheAccessorType(Reservoir.CacheAccessorType.HEAP)
+                .initialCacheSize(keys)
+                .maxCacheSize(keys)
+                .build();
+    }
+
+    @Override
+    Object newValue() {
+        char[] chars = new char[64];
+        Arrays.fill(chars, 'a');
+        return new String(chars);
+    }
+}
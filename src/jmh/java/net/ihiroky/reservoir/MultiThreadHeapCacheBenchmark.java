@@ -0,0 +1,12 @@
+package net.ihiroky.reservoir;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs {@link HeapCacheBenchmark} by 4 threads sharing a cache.
+ *
+ * @author Hiroki Itoh
+ */
+@Threads(4)
+public class MultiThreadHeapCacheBenchmark extends HeapCacheBenchmark {
+}
@@ -0,0 +1,12 @@
+package net.ihiroky.reservoir;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Runs {@link BlockedCacheBenchmark} by a single thread.
+ *
+ * @author Hiroki Itoh
+ */
+@Threads(1)
+public class SingleThreadCacheBenchmark extends BlockedCacheBenchmark {
+}
@@ -17,6 +17,7 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
     private final String name;
     private List<CacheEventListener<K, V>> eventListenerList;
     private StringResolver<K> keyResolver;
+    private volatile CacheStatistics statistics;
 
     @SuppressWarnings("unchecked")
     static <K, V> IndexEventListener<K, Ref<V>> nullIndexEventListener() {
@@ -42,6 +43,22 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
 
     abstract protected boolean hasConcurrentIndex();
 
+    /**
+     * Called when the statistics are enabled or disabled.
+     *
+     * @param statistics the new statistics, or null if disabled.
+     */
+    abstract protected void statisticsChanged(CacheStatistics statistics);
+
+    /**
+     * Returns the statistics to record into.
+     *
+     * @return the statistics, or null if disabled.
+     */
+    protected CacheStatistics statistics() {
+        return statistics;
+    }
+
     @Override
     public void addEventListener(CacheEventListener<K, V> eventListener) {
         if (eventListener != null) {
@@ -98,6 +115,95 @@ public abstract class AbstractCache<K, V> implements Cache<K, V> {
         keyResolver = (resolver != null) ? resolver : (StringResolver<K>) nullStringKeyResolver();
     }
 
+    @Override
+    public boolean isStatisticsEnabled() {
+        return statistics != null;
+    }
+
+    @Override
+    public synchronized void setStatisticsEnabled(boolean enabled) {
+        if (enabled == (statistics != null)) {
+            return;
+        }
+        statistics = enabled ? new CacheStatistics() : null;
+        statisticsChanged(statistics);
+    }
+
+    @Override
+    public void resetStatistics() {
+        CacheStatistics s = statistics;
+        if (s != null) {
+            s.reset();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getHits() : 0;
+    }
+
+    @Override
+    public long getMisses() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getMisses() : 0;
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return (requests > 0) ? (double) hits / requests : 0d;
+    }
+
+    @Override
+    public long getPuts() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getPuts() : 0;
+    }
+
+    @Override
+    public long getRemoves() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getRemoves() : 0;
+    }
+
+    @Override
+    public long getEvictions() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getEvictions() : 0;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getGetLatency() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.getLatency.summary() : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getPutLatency() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.putLatency.summary() : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getRemoveLatency() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.removeLatency.summary() : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getEncodeLatency() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.encodeLatency.summary() : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getDecodeLatency() {
+        CacheStatistics s = statistics;
+        return (s != null) ? s.decodeLatency.summary() : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
     @Override
     public void writeTo(OutputStream outputStream, StreamingCoder<K, V> coder) throws Exception {
         coder.write(Pattern.compile(".*"), this, outputStream);
@@ -0,0 +1,19 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by a {@code CacheAccessor} which can read values without blocking the caller, such as
+ * a file based accessor. {@link Cache#getAsync(Object)} uses this to overlap the latency of the storage.
+ *
+ * @param <V> the type of the value.
+ * @author Hiroki Itoh
+ */
+public interface AsyncReadSupport<V> {
+
+    /**
+     * Reads the value of {@code ref} asynchronously.
+     *
+     * @param ref a ref created by the accessor.
+     * @return the future of the value.
+     */
+    CacheFuture<V> readAsync(Ref<V> ref);
+}
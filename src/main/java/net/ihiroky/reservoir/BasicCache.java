@@ -1,11 +1,25 @@
 package net.ihiroky.reservoir;
 
+import net.ihiroky.reservoir.accessor.AbstractBlockedByteCacheAccessor;
+import net.ihiroky.reservoir.accessor.NoEnoughFreeBlockException;
 import net.ihiroky.reservoir.index.ConcurrentLinkedHashMapIndex;
+import net.ihiroky.reservoir.index.ExpiringIndex;
+import net.ihiroky.reservoir.index.SimpleIndex;
+import net.ihiroky.reservoir.index.TinyLFUIndex;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created on 12/09/18, 20:17
@@ -17,6 +31,8 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
     private Index<K, Ref<V>> index;
     private CacheAccessor<K, V> cacheAccessor;
     private RefIndexEventListener refIndexEventListener;
+    private volatile ExecutorService bulkExecutor;
+    private volatile int bulkSplitSize;
 
     BasicCache(String name, Index<K, Ref<V>> index, CacheAccessor<K, V> cacheAccessor) {
         super(name);
@@ -24,69 +40,338 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
         this.cacheAccessor = cacheAccessor;
         this.refIndexEventListener = new RefIndexEventListener();
         index.setEventListener(refIndexEventListener);
-        MBeanSupport.registerMBean(this, getName());
+        if (cacheAccessor instanceof PersistenceSupport) {
+            @SuppressWarnings("unchecked")
+            PersistenceSupport<K, V> persistenceSupport = (PersistenceSupport<K, V>) cacheAccessor;
+            persistenceSupport.restore(index);
+        }
+        MBeanSupport.registerMXBean(this, CacheMBean.class, getName());
     }
 
     @Override
     public V get(K key) {
+        CacheStatistics statistics = statistics();
+        if (statistics == null) {
+            Ref<V> ref = index.get(key);
+            return (ref != null) ? ref.value() : null;
+        }
+        long start = System.nanoTime();
         Ref<V> ref = index.get(key);
-        return (ref != null) ? ref.value() : null;
+        V value = (ref != null) ? ref.value() : null;
+        statistics.recordGet(ref != null, start);
+        return value;
+    }
+
+    @Override
+    public CacheFuture<V> getAsync(K key) {
+        try {
+            Ref<V> ref = index.get(key);
+            CacheStatistics statistics = statistics();
+            if (statistics != null) {
+                statistics.recordGets((ref != null) ? 1 : 0, (ref != null) ? 0 : 1);
+            }
+            if (ref == null) {
+                return CacheFuture.completed(null);
+            }
+            if (cacheAccessor instanceof AsyncReadSupport) {
+                @SuppressWarnings("unchecked")
+                AsyncReadSupport<V> asyncReadSupport = (AsyncReadSupport<V>) cacheAccessor;
+                return asyncReadSupport.readAsync(ref);
+            }
+            return CacheFuture.completed(ref.value());
+        } catch (RuntimeException re) {
+            CacheFuture<V> future = new CacheFuture<V>();
+            future.setException(re);
+            return future;
+        }
     }
 
     @Override
     public Map<K, V> get(Collection<K> keySet) {
         Collection<Map.Entry<K, Ref<V>>> refs = index.get(keySet);
-        Map<K, V> result = new HashMap<K, V>(refs.size());
-        for (Map.Entry<K, Ref<V>> entry : refs) {
-            result.put(entry.getKey(), entry.getValue().value());
+        Map<K, V> result = valuesOf(refs, false);
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordGets(result.size(), keySet.size() - result.size());
         }
         return result;
     }
 
     @Override
     public void put(K key, V value) {
-        cacheAccessor.update(key, value, index);
+        put(key, value, index);
+    }
+
+    private void put(K key, V value, Index<K, Ref<V>> target) {
+        CacheStatistics statistics = statistics();
+        if (statistics == null) {
+            cacheAccessor.update(key, value, target);
+            return;
+        }
+        long start = System.nanoTime();
+        cacheAccessor.update(key, value, target);
+        statistics.recordPut(start);
     }
 
     @Override
     public void put(Map<K, V> keyValues) {
-        cacheAccessor.update(keyValues, index);
+        ExecutorService executor = supportsParallelBulk() ? bulkExecutorFor(keyValues.size()) : null;
+        if (executor == null) {
+            cacheAccessor.update(keyValues, index);
+        } else {
+            final List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>(keyValues.entrySet());
+            runInChunks(executor, entries.size(), new Chunk() {
+                @Override
+                public void run(int from, int to) {
+                    Map<K, V> chunk = new HashMap<K, V>((to - from) * 4 / 3 + 1);
+                    for (Map.Entry<K, V> entry : entries.subList(from, to)) {
+                        chunk.put(entry.getKey(), entry.getValue());
+                    }
+                    cacheAccessor.update(chunk, index);
+                }
+            });
+        }
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordPuts(keyValues.size());
+        }
+    }
+
+    /**
+     * Puts an entry which expires after {@code timeToLive} since this put.
+     * The cache must be built with the expiration by {@code Reservoir.CacheBuilder}.
+     *
+     * @throws UnsupportedOperationException if the cache is built without the expiration
+     */
+    public void put(K key, V value, long timeToLive, TimeUnit unit) {
+        put(key, value, timeToLive, 0, unit);
+    }
+
+    /**
+     * Puts an entry which expires after {@code timeToLive} since this put or {@code timeToIdle} since the last
+     * access. 0 means no limit. The cache must be built with the expiration by {@code Reservoir.CacheBuilder}.
+     *
+     * @throws UnsupportedOperationException if the cache is built without the expiration
+     */
+    public void put(K key, V value, long timeToLive, long timeToIdle, TimeUnit unit) {
+        if (!(index instanceof ExpiringIndex)) {
+            throw new UnsupportedOperationException("the cache is built without expiration.");
+        }
+        // the expiration is set with the write, so it is never set to an entry evicted in the meantime.
+        put(key, value, ((ExpiringIndex<K, Ref<V>>) index).withExpiration(timeToLive, timeToIdle, unit));
     }
 
     @Override
     public void remove(K key) {
+        CacheStatistics statistics = statistics();
+        long start = (statistics != null) ? System.nanoTime() : 0;
         Ref<V> ref = index.remove(key);
         cacheAccessor.remove(key, ref);
+        if (statistics != null) {
+            statistics.recordRemove(ref != null, start);
+        }
     }
 
     @Override
     public void remove(Collection<K> keys) {
         Collection<Map.Entry<K, Ref<V>>> refEntries = index.remove(keys);
-        cacheAccessor.remove(refEntries);
+        ExecutorService executor = bulkExecutorFor(refEntries.size());
+        if (executor == null) {
+            cacheAccessor.remove(refEntries);
+        } else {
+            final List<Map.Entry<K, Ref<V>>> refs = asList(refEntries);
+            runInChunks(executor, refs.size(), new Chunk() {
+                @Override
+                public void run(int from, int to) {
+                    cacheAccessor.remove(refs.subList(from, to));
+                }
+            });
+        }
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordRemoves(refEntries.size());
+        }
     }
 
     @Override
     public V poll(K key) {
+        CacheStatistics statistics = statistics();
+        long start = (statistics != null) ? System.nanoTime() : 0;
         Ref<V> ref = index.remove(key);
-        if (ref == null) {
-            return null;
+        V value = null;
+        if (ref != null) {
+            value = ref.value();
+            cacheAccessor.remove(key, ref);
+        }
+        if (statistics != null) {
+            statistics.recordRemove(ref != null, start);
         }
-        V value = ref.value();
-        cacheAccessor.remove(key, ref);
         return value;
     }
 
     @Override
     public Map<K, V> poll(Collection<K> keys) {
         Collection<Map.Entry<K, Ref<V>>> refEntries = index.remove(keys);
+        Map<K, V> result = valuesOf(refEntries, true);
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordRemoves(refEntries.size());
+        }
+        return result;
+    }
+
+    /**
+     * Reads the values of {@code refEntries}, and removes them from the cache accessor if {@code remove} is true.
+     * The values are decoded in parallel by the bulk executor if it is set.
+     */
+    private Map<K, V> valuesOf(Collection<Map.Entry<K, Ref<V>>> refEntries, final boolean remove) {
+        ExecutorService executor = bulkExecutorFor(refEntries.size());
         Map<K, V> result = new HashMap<K, V>(refEntries.size());
-        for (Map.Entry<K, Ref<V>> refEntry : refEntries) {
-            result.put(refEntry.getKey(), refEntry.getValue().value());
+        if (executor == null) {
+            for (Map.Entry<K, Ref<V>> refEntry : refEntries) {
+                result.put(refEntry.getKey(), refEntry.getValue().value());
+            }
+            if (remove) {
+                cacheAccessor.remove(refEntries);
+            }
+            return result;
+        }
+
+        final List<Map.Entry<K, Ref<V>>> refs = asList(refEntries);
+        final Object[] values = new Object[refs.size()];
+        runInChunks(executor, refs.size(), new Chunk() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    values[i] = refs.get(i).getValue().value();
+                }
+                if (remove) {
+                    cacheAccessor.remove(refs.subList(from, to));
+                }
+            }
+        });
+        for (int i = 0; i < values.length; i++) {
+            @SuppressWarnings("unchecked") V value = (V) values[i];
+            result.put(refs.get(i).getKey(), value);
         }
-        cacheAccessor.remove(refEntries);
         return result;
     }
 
+    private static <E> List<E> asList(Collection<E> collection) {
+        return (collection instanceof List) ? (List<E>) collection : new ArrayList<E>(collection);
+    }
+
+    /**
+     * Sets an executor to run the operations on multiple keys in parallel. The entries of {@link #get(Collection)},
+     * {@link #put(Map)}, {@link #remove(Collection)} and {@link #poll(Collection)} are split into chunks of
+     * {@code splitSize} entries, and the chunks are decoded, encoded or freed by the executor and the calling
+     * thread. {@link #put(Map)} runs in parallel only if the index is concurrent. The operations on no more than
+     * {@code splitSize} entries run on the calling thread. The executor is not shut down by this cache.
+     *
+     * @param executor  the executor, or null to run the operations on the calling thread.
+     * @param splitSize the number of the entries in a chunk.
+     * @throws IllegalArgumentException if {@code executor} is not null and {@code splitSize} is not positive.
+     */
+    public void setBulkExecutor(ExecutorService executor, int splitSize) {
+        if (executor != null && splitSize <= 0) {
+            throw new IllegalArgumentException("splitSize must be positive.");
+        }
+        this.bulkSplitSize = splitSize;
+        this.bulkExecutor = executor;
+    }
+
+    private ExecutorService bulkExecutorFor(int entries) {
+        ExecutorService executor = bulkExecutor;
+        return (executor != null && entries > bulkSplitSize) ? executor : null;
+    }
+
+    /**
+     * A part of an operation on the entries in [{@code from}, {@code to}).
+     */
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs {@code chunk} over {@code entries} entries split by the bulk split size. The first chunk runs on
+     * the calling thread, and the others run by {@code executor} (or on the calling thread if rejected).
+     * This method returns after all the chunks complete, even if interrupted. If some chunks fail, the first
+     * failure is thrown; the failed keys of {@link NoEnoughFreeBlockException}s are merged into it.
+     */
+    private void runInChunks(ExecutorService executor, int entries, final Chunk chunk) {
+        int splitSize = Math.max(bulkSplitSize, 1);
+        List<Future<?>> futures = new ArrayList<Future<?>>(entries / splitSize + 1);
+        List<Throwable> failures = new ArrayList<Throwable>(0);
+        for (int from = splitSize; from < entries; from += splitSize) {
+            final int f = from;
+            final int t = Math.min(from + splitSize, entries);
+            Callable<Void> task = new Callable<Void>() {
+                @Override
+                public Void call() {
+                    chunk.run(f, t);
+                    return null;
+                }
+            };
+            try {
+                futures.add(executor.submit(task));
+            } catch (RejectedExecutionException ree) {
+                runChunk(chunk, f, t, failures);
+            }
+        }
+        runChunk(chunk, 0, Math.min(splitSize, entries), failures);
+
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            for (;;) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                } catch (ExecutionException ee) {
+                    failures.add(ee.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (!failures.isEmpty()) {
+            throw failureOf(failures);
+        }
+    }
+
+    private static void runChunk(Chunk chunk, int from, int to, List<Throwable> failures) {
+        try {
+            chunk.run(from, to);
+        } catch (RuntimeException re) {
+            failures.add(re);
+        } catch (Error e) {
+            failures.add(e);
+        }
+    }
+
+    private static RuntimeException failureOf(List<Throwable> failures) {
+        Throwable first = failures.get(0);
+        if (first instanceof NoEnoughFreeBlockException && failures.size() > 1) {
+            Collection<Object> failedKeys = new ArrayList<Object>();
+            for (Throwable failure : failures) {
+                if (failure instanceof NoEnoughFreeBlockException) {
+                    failedKeys.addAll(((NoEnoughFreeBlockException) failure).failedKeys());
+                }
+            }
+            return new NoEnoughFreeBlockException(first.getMessage(), first.getCause(), failedKeys);
+        }
+        if (first instanceof RuntimeException) {
+            return (RuntimeException) first;
+        }
+        if (first instanceof Error) {
+            throw (Error) first;
+        }
+        return new IllegalStateException("failed to run a bulk operation.", first);
+    }
+
     @Override
     public boolean containsKey(K key) {
         return index.contains(key);
@@ -99,6 +384,11 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
 
     @Override
     public void dispose() {
+        if (cacheAccessor instanceof PersistenceSupport) {
+            @SuppressWarnings("unchecked")
+            PersistenceSupport<K, V> persistenceSupport = (PersistenceSupport<K, V>) cacheAccessor;
+            persistenceSupport.checkpoint(index);
+        }
         cacheAccessor.dispose();
         MBeanSupport.unregisterMBean(this, getName());
     }
@@ -109,9 +399,26 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
         refIndexEventListener.nextListener = (indexEventListener != null) ? indexEventListener : nullListener;
     }
 
+    @Override
+    protected void statisticsChanged(CacheStatistics statistics) {
+        if (cacheAccessor instanceof StatisticsSupport) {
+            ((StatisticsSupport) cacheAccessor).setStatistics(statistics);
+        }
+    }
+
     @Override
     protected boolean hasConcurrentIndex() {
-        return index instanceof ConcurrentLinkedHashMapIndex;
+        Index<K, Ref<V>> i = ExpiringIndex.unwrap(index);
+        return i instanceof ConcurrentLinkedHashMapIndex || i instanceof TinyLFUIndex;
+    }
+
+    /**
+     * Returns true if the index can be updated by the chunks of a bulk put in parallel. This is wider than
+     * {@link #hasConcurrentIndex()}, which the main cache of a {@code CompoundCache} must satisfy to demote
+     * behind; a {@code SimpleIndex} is backed by a {@code ConcurrentHashMap}, so it can be updated in parallel too.
+     */
+    private boolean supportsParallelBulk() {
+        return hasConcurrentIndex() || ExpiringIndex.unwrap(index) instanceof SimpleIndex;
     }
 
     @Override
@@ -140,6 +447,63 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
         };
     }
 
+    /**
+     * Returns an iterator of the encoded keys and values, which are read from the stored bytes without decoding.
+     * The cache accessor must store the encoded keys by {@link KeyCoderSupport#setKeyCoder(Coder)}.
+     *
+     * @return an iterator of the encoded entries.
+     * @throws UnsupportedOperationException if the cache accessor does not store the encoded keys.
+     */
+    public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> encodedIterator() {
+        if (getKeyCoder() == null) {
+            throw new UnsupportedOperationException("the cache accessor does not store encoded keys.");
+        }
+        final Iterator<Map.Entry<K, Ref<V>>> base = index.entrySet().iterator();
+        return new Iterator<Map.Entry<ByteBuffer, ByteBuffer>>() {
+            @Override
+            public boolean hasNext() {
+                return base.hasNext();
+            }
+
+            @Override
+            public Map.Entry<ByteBuffer, ByteBuffer> next() {
+                EncodedRef<V> ref = (EncodedRef<V>) base.next().getValue();
+                return Pair.newImmutableEntry(ref.encodedKey(), ref.encodedValue());
+            }
+
+            @Override
+            public void remove() {
+                base.remove();
+            }
+        };
+    }
+
+    /**
+     * Returns the coder of keys used by the cache accessor.
+     *
+     * @return the coder of keys, or null if the cache accessor does not store the encoded keys.
+     */
+    public Coder<K> getKeyCoder() {
+        if (cacheAccessor instanceof KeyCoderSupport) {
+            @SuppressWarnings("unchecked")
+            KeyCoderSupport<K> keyCoderSupport = (KeyCoderSupport<K>) cacheAccessor;
+            return keyCoderSupport.getKeyCoder();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the coder of values used by the cache accessor.
+     *
+     * @return the coder of values, or null if the cache accessor does not store the encoded values.
+     */
+    public Coder<V> getValueCoder() {
+        if (cacheAccessor instanceof AbstractBlockedByteCacheAccessor) {
+            return ((AbstractBlockedByteCacheAccessor<K, V>) cacheAccessor).getCoder();
+        }
+        return null;
+    }
+
     private abstract class RefEntryIterator<E> implements Iterator<Map.Entry<K, E>> {
 
         Iterator<Map.Entry<K, Ref<V>>> base = index.entrySet().iterator();
@@ -183,6 +547,10 @@ public class BasicCache<K, V> extends AbstractCache<K, V> implements CacheMBean
             for (CacheEventListener<K, V> eventListener : eventListenerIterable()) {
                 eventListener.onCacheOut(BasicCache.this, key, cacheRef);
             }
+            CacheStatistics statistics = statistics();
+            if (statistics != null) {
+                statistics.recordEviction();
+            }
             boolean result = nextListener.onCacheOut(index, key, cacheRef);
             cacheAccessor.remove(key, value); // cacheAccessor must use raw ref.
             return result;
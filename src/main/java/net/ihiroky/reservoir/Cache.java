@@ -19,6 +19,14 @@ public interface Cache<K, V> extends CacheMBean, Iterable<Map.Entry<K, V>> {
 
     Map<K, V> get(Collection<K> keys);
 
+    /**
+     * Gets the value of {@code key} without waiting for the storage, if the accessor supports it.
+     *
+     * @param key the key.
+     * @return the future of the value, which is completed with null if this cache has no entry.
+     */
+    CacheFuture<V> getAsync(K key);
+
     void put(K key, V value);
 
     void put(Map<K, V> keyValues);
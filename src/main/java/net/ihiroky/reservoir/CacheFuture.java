@@ -0,0 +1,195 @@
+package net.ihiroky.reservoir;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@code Future} of a value retrieved from a cache asynchronously, which calls back on the completion.
+ * <p/>
+ * The callbacks added before the completion are called by the thread which completes this future, such as
+ * an I/O thread of the cache accessor; so they should not block. The callbacks added after the completion
+ * are called by the adding thread.
+ *
+ * @param <V> the type of the value.
+ * @author Hiroki Itoh
+ */
+public class CacheFuture<V> implements Future<V> {
+
+    /**
+     * Receives the result of a {@code CacheFuture}.
+     *
+     * @param <V> the type of the value.
+     */
+    public interface Callback<V> {
+
+        /**
+         * Called when the value is retrieved.
+         *
+         * @param value the value, or null if the cache has no entry.
+         */
+        void onCompleted(V value);
+
+        /**
+         * Called when the retrieval fails or is cancelled.
+         *
+         * @param cause the cause, which is a {@code CancellationException} if the future is cancelled.
+         */
+        void onFailed(Throwable cause);
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(CacheFuture.class);
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    // guarded by this.
+    private boolean done;
+    private V value;
+    private Throwable cause;
+    private List<Callback<V>> callbacks;
+
+    /**
+     * Returns a future completed with {@code value}.
+     *
+     * @param value the value.
+     * @param <V>   the type of the value.
+     * @return the completed future.
+     */
+    public static <V> CacheFuture<V> completed(V value) {
+        CacheFuture<V> future = new CacheFuture<V>();
+        future.set(value);
+        return future;
+    }
+
+    /**
+     * Completes this future with {@code value}.
+     *
+     * @param value the value.
+     * @return false if this future is already completed.
+     */
+    public boolean set(V value) {
+        return complete(value, null);
+    }
+
+    /**
+     * Completes this future with {@code cause}.
+     *
+     * @param cause the cause of the failure.
+     * @return false if this future is already completed.
+     */
+    public boolean setException(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause must not be null.");
+        }
+        return complete(null, cause);
+    }
+
+    private boolean complete(V value, Throwable cause) {
+        List<Callback<V>> callbacks;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.value = value;
+            this.cause = cause;
+            this.done = true;
+            callbacks = this.callbacks;
+            this.callbacks = null;
+        }
+        latch.countDown();
+        if (callbacks != null) {
+            for (Callback<V> callback : callbacks) {
+                call(callback, value, cause);
+            }
+        }
+        return true;
+    }
+
+    private void call(Callback<V> callback, V value, Throwable cause) {
+        try {
+            if (cause == null) {
+                callback.onCompleted(value);
+            } else {
+                callback.onFailed(cause);
+            }
+        } catch (RuntimeException re) {
+            logger.warn("[call] exception in the callback.", re);
+        }
+    }
+
+    /**
+     * Adds a callback called on the completion. If this future is already completed, the callback is called
+     * immediately.
+     *
+     * @param callback the callback.
+     */
+    public void addCallback(Callback<V> callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback must not be null.");
+        }
+        V v;
+        Throwable c;
+        synchronized (this) {
+            if (!done) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<Callback<V>>(1);
+                }
+                callbacks.add(callback);
+                return;
+            }
+            v = value;
+            c = cause;
+        }
+        call(callback, v, c);
+    }
+
+    /**
+     * Cancels the retrieval. The I/O already issued is not interrupted, but its result is discarded.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, new CancellationException());
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cause instanceof CancellationException;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private synchronized V result() throws ExecutionException {
+        if (cause instanceof CancellationException) {
+            throw (CancellationException) cause;
+        }
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return value;
+    }
+}
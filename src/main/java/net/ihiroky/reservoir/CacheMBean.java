@@ -25,4 +25,32 @@ public interface CacheMBean {
     void removeEntry(String key);
 
     boolean containsEntry(String key);
+
+    boolean isStatisticsEnabled();
+
+    void setStatisticsEnabled(boolean enabled);
+
+    void resetStatistics();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getPuts();
+
+    long getRemoves();
+
+    long getEvictions();
+
+    LatencyHistogram.Summary getGetLatency();
+
+    LatencyHistogram.Summary getPutLatency();
+
+    LatencyHistogram.Summary getRemoveLatency();
+
+    LatencyHistogram.Summary getEncodeLatency();
+
+    LatencyHistogram.Summary getDecodeLatency();
 }
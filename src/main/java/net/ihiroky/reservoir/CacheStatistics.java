@@ -0,0 +1,114 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Statistics of a cache: the hits, misses, puts, removes and evictions, and the latencies of the gets, puts,
+ * removes, and the encodes and the decodes by the cache accessor. The operations on multiple keys are counted,
+ * but their latencies are not recorded. The counters are striped, so the recording threads rarely contend.
+ *
+ * @author Hiroki Itoh
+ */
+public class CacheStatistics {
+
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter puts = new StripedCounter();
+    private final StripedCounter removes = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+    final LatencyHistogram getLatency = new LatencyHistogram();
+    final LatencyHistogram putLatency = new LatencyHistogram();
+    final LatencyHistogram removeLatency = new LatencyHistogram();
+    final LatencyHistogram encodeLatency = new LatencyHistogram();
+    final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+    void recordGet(boolean hit, long startNanos) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        getLatency.record(System.nanoTime() - startNanos);
+    }
+
+    void recordGets(int hits, int misses) {
+        this.hits.add(hits);
+        this.misses.add(misses);
+    }
+
+    void recordPut(long startNanos) {
+        puts.increment();
+        putLatency.record(System.nanoTime() - startNanos);
+    }
+
+    void recordPuts(int count) {
+        puts.add(count);
+    }
+
+    void recordRemove(boolean removed, long startNanos) {
+        if (removed) {
+            removes.increment();
+        }
+        removeLatency.record(System.nanoTime() - startNanos);
+    }
+
+    void recordRemoves(int count) {
+        removes.add(count);
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    /**
+     * Records the latency to encode a value.
+     *
+     * @param startNanos {@code System.nanoTime()} when the encoding started.
+     */
+    public void recordEncode(long startNanos) {
+        encodeLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records the latency to decode a value.
+     *
+     * @param startNanos {@code System.nanoTime()} when the decoding started.
+     */
+    public void recordDecode(long startNanos) {
+        decodeLatency.record(System.nanoTime() - startNanos);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Clears the statistics.
+     */
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removes.reset();
+        evictions.reset();
+        getLatency.reset();
+        putLatency.reset();
+        removeLatency.reset();
+        encodeLatency.reset();
+        decodeLatency.reset();
+    }
+}
@@ -47,25 +47,82 @@ public final class CompoundCache<K, V> extends AbstractCache<K, V> implements Ca
         demoteExecutor = demoteBehind ?
                 Executors.newSingleThreadExecutor(new CountThreadFactory("CompoundCacheDemotion")) : null;
 
-        MBeanSupport.registerMBean(this, getName());
+        MBeanSupport.registerMXBean(this, CacheMBean.class, getName());
     }
 
     @Override
     public V get(K key) {
+        CacheStatistics statistics = statistics();
+        long start = (statistics != null) ? System.nanoTime() : 0;
         V value = mainCache.get(key);
-        if (value != null) {
-            return value;
+        if (value == null) {
+            value = subCache.get(key);
+            if (promoteOnGet && value != null) {
+                mainCache.put(key, value);
+                subCache.remove(key);
+            }
         }
-        value = subCache.get(key);
-        if (promoteOnGet && value != null) {
-            mainCache.put(key, value);
-            subCache.remove(key);
+        if (statistics != null) {
+            statistics.recordGet(value != null, start);
         }
         return value;
     }
 
+    @Override
+    public CacheFuture<V> getAsync(final K key) {
+        final CacheFuture<V> future = new CacheFuture<V>();
+        mainCache.getAsync(key).addCallback(new CacheFuture.Callback<V>() {
+            @Override
+            public void onCompleted(V value) {
+                if (value != null) {
+                    recordGetAsync(true);
+                    future.set(value);
+                    return;
+                }
+                subCache.getAsync(key).addCallback(new CacheFuture.Callback<V>() {
+                    @Override
+                    public void onCompleted(V value) {
+                        if (promoteOnGet && value != null) {
+                            mainCache.put(key, value);
+                            subCache.remove(key);
+                        }
+                        recordGetAsync(value != null);
+                        future.set(value);
+                    }
+
+                    @Override
+                    public void onFailed(Throwable cause) {
+                        future.setException(cause);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailed(Throwable cause) {
+                future.setException(cause);
+            }
+        });
+        return future;
+    }
+
+    private void recordGetAsync(boolean hit) {
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordGets(hit ? 1 : 0, hit ? 0 : 1);
+        }
+    }
+
     @Override
     public Map<K, V> get(Collection<K> keySet) {
+        Map<K, V> result = getFromTiers(keySet);
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordGets(result.size(), keySet.size() - result.size());
+        }
+        return result;
+    }
+
+    private Map<K, V> getFromTiers(Collection<K> keySet) {
         Map<K, V> retrieved = mainCache.get(keySet);
         int retrievedSize = retrieved.size();
         int requiredSize = keySet.size();
@@ -99,18 +156,36 @@ public final class CompoundCache<K, V> extends AbstractCache<K, V> implements Ca
 
     @Override
     public void put(K key, V value) {
+        CacheStatistics statistics = statistics();
+        long start = (statistics != null) ? System.nanoTime() : 0;
         mainCache.put(key, value);
+        if (statistics != null) {
+            statistics.recordPut(start);
+        }
     }
 
     @Override
     public void put(Map<K, V> keyValues) {
         mainCache.put(keyValues);
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordPuts(keyValues.size());
+        }
     }
 
     @Override
     public void remove(K key) {
-        mainCache.remove(key);
-        subCache.remove(key);
+        CacheStatistics statistics = statistics();
+        if (statistics == null) {
+            mainCache.remove(key);
+            subCache.remove(key);
+            return;
+        }
+        long start = System.nanoTime();
+        // polls to know whether an entry is removed.
+        boolean removed = mainCache.poll(key) != null;
+        removed |= subCache.poll(key) != null;
+        statistics.recordRemove(removed, start);
     }
 
     @Override
@@ -121,10 +196,15 @@ public final class CompoundCache<K, V> extends AbstractCache<K, V> implements Ca
 
     @Override
     public V poll(K key) {
+        CacheStatistics statistics = statistics();
+        long start = (statistics != null) ? System.nanoTime() : 0;
         V result = mainCache.poll(key);
         if (result == null) {
             result = subCache.poll(key);
         }
+        if (statistics != null) {
+            statistics.recordRemove(result != null, start);
+        }
         return result;
     }
 
@@ -133,6 +213,10 @@ public final class CompoundCache<K, V> extends AbstractCache<K, V> implements Ca
         Map<K, V> result0 = mainCache.poll(keys);
         Map<K, V> result1 = subCache.poll(keys);
         result0.putAll(result1);
+        CacheStatistics statistics = statistics();
+        if (statistics != null) {
+            statistics.recordRemoves(result0.size());
+        }
         return result0;
     }
 
@@ -213,6 +297,54 @@ public final class CompoundCache<K, V> extends AbstractCache<K, V> implements Ca
         return subCache.hasConcurrentIndex();
     }
 
+    /**
+     * Enables or disables the statistics of the main cache and the sub cache together.
+     */
+    @Override
+    protected void statisticsChanged(CacheStatistics statistics) {
+        mainCache.setStatisticsEnabled(statistics != null);
+        subCache.setStatisticsEnabled(statistics != null);
+    }
+
+    /**
+     * Returns the number of the entries evicted from the sub cache, which leave this cache.
+     */
+    @Override
+    public long getEvictions() {
+        return isStatisticsEnabled() ? subCache.getEvictions() : 0;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getEncodeLatency() {
+        return isStatisticsEnabled()
+                ? LatencyHistogram.summaryOf(encodeLatencyOf(mainCache), encodeLatencyOf(subCache))
+                : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getDecodeLatency() {
+        return isStatisticsEnabled()
+                ? LatencyHistogram.summaryOf(decodeLatencyOf(mainCache), decodeLatencyOf(subCache))
+                : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    private static LatencyHistogram encodeLatencyOf(AbstractCache<?, ?> cache) {
+        CacheStatistics statistics = cache.statistics();
+        return (statistics != null) ? statistics.encodeLatency : null;
+    }
+
+    private static LatencyHistogram decodeLatencyOf(AbstractCache<?, ?> cache) {
+        CacheStatistics statistics = cache.statistics();
+        return (statistics != null) ? statistics.decodeLatency : null;
+    }
+
+    @Override
+    public void resetStatistics() {
+        super.resetStatistics();
+        mainCache.resetStatistics();
+        subCache.resetStatistics();
+    }
+
     private class DemoteEventListener implements IndexEventListener<K, Ref<V>> {
 
         @Override
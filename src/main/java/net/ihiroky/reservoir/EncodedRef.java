@@ -0,0 +1,25 @@
+package net.ihiroky.reservoir;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@code Ref} which holds its value as encoded bytes, and optionally the encoded key next to the value.
+ *
+ * @author Hiroki Itoh
+ */
+public interface EncodedRef<V> extends Ref<V> {
+
+    /**
+     * Returns the encoded key.
+     *
+     * @return the encoded key, or null if the key is not stored with the value.
+     */
+    ByteBuffer encodedKey();
+
+    /**
+     * Returns the encoded value.
+     *
+     * @return the encoded value.
+     */
+    ByteBuffer encodedValue();
+}
@@ -0,0 +1,19 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by an {@code Index} which can evict an entry on demand, regardless of its size. A
+ * {@code CacheAccessor} uses this to bound a cache by the bytes of the values: when there is no free block
+ * to store a value, the accessor evicts entries until the value fits.
+ *
+ * @author Hiroki Itoh
+ */
+public interface EvictionSupport {
+
+    /**
+     * Evicts an entry which the replacement policy of the index chooses next, calling
+     * {@link IndexEventListener#onCacheOut(Index, Object, Object)}.
+     *
+     * @return true if an entry is evicted, or false if there is no entry to evict.
+     */
+    boolean evict();
+}
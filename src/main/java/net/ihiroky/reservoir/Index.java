@@ -6,8 +6,6 @@ import java.util.Set;
 
 /**
  * Created on 12/09/18, 14:58
- * <p/>
- * TODO timed expiration index.
  *
  * @author Hiroki Itoh
  */
@@ -0,0 +1,25 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by a {@code CacheAccessor} which can store encoded keys next to the values.
+ *
+ * @author Hiroki Itoh
+ */
+public interface KeyCoderSupport<K> {
+
+    /**
+     * Sets a coder to encode keys. The encoded key is stored with the value, and refs created after this call
+     * are {@link EncodedRef}s which return the encoded key.
+     *
+     * @param keyCoder a coder of keys, or null not to store keys.
+     * @throws IllegalStateException if some values are already stored.
+     */
+    void setKeyCoder(Coder<K> keyCoder);
+
+    /**
+     * Returns the coder set by {@link #setKeyCoder(Coder)}.
+     *
+     * @return the coder of keys, or null if not set.
+     */
+    Coder<K> getKeyCoder();
+}
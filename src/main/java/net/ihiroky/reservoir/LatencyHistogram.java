@@ -0,0 +1,232 @@
+package net.ihiroky.reservoir;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free histogram of latencies in nanoseconds, in the same layout as HdrHistogram with 2 significant
+ * digits: the latencies less than 128 nanoseconds are counted exactly, and the larger ones are counted in
+ * 64 buckets per power of two, so the error of a percentile is less than 1/64. The latencies longer than
+ * {@code 2^40} nanoseconds (about 18 minutes) are counted in the last bucket.
+ * <p/>
+ * The counts are striped by the threads like {@link StripedCounter}, so the recording threads rarely contend
+ * for a bucket; a stripe is allocated on the first record of the threads which select it, and the stripes are
+ * merged when the summary is read.
+ *
+ * @author Hiroki Itoh
+ */
+public class LatencyHistogram {
+
+    /**
+     * A snapshot of a histogram. The latencies are in nanoseconds.
+     */
+    public static class Summary implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        @ConstructorProperties({"count", "meanNanos", "p50Nanos", "p90Nanos", "p99Nanos", "p999Nanos", "maxNanos"})
+        public Summary(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanNanos() {
+            return mean;
+        }
+
+        public long getP50Nanos() {
+            return p50;
+        }
+
+        public long getP90Nanos() {
+            return p90;
+        }
+
+        public long getP99Nanos() {
+            return p99;
+        }
+
+        public long getP999Nanos() {
+            return p999;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count:" + count + ", mean:" + mean + ", p50:" + p50 + ", p90:" + p90
+                    + ", p99:" + p99 + ", p999:" + p999 + ", max:" + max;
+        }
+    }
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+    private final StripedCounter total = new StripedCounter();
+    private final AtomicLong max = new AtomicLong();
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    private static final int MAX_SHIFT = 40 - 1 - SUB_BUCKET_BITS;
+    private static final int BUCKETS = LINEAR_BUCKETS + MAX_SHIFT * SUB_BUCKETS;
+
+    /** the number of the stripes, a power of two; at most 16 because a stripe has 2240 counts. */
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int min = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        while (stripes < min) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /** A summary of no latency. */
+    public static final Summary EMPTY_SUMMARY = new Summary(0, 0, 0, 0, 0, 0, 0);
+
+    static int bucketOf(long nanos) {
+        if (nanos < LINEAR_BUCKETS) {
+            return (nanos > 0) ? (int) nanos : 0;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+        if (shift > MAX_SHIFT) {
+            return BUCKETS - 1;
+        }
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest latency counted in {@code bucket}.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        stripe().incrementAndGet(bucketOf(nanos));
+        total.add(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    private AtomicLongArray stripe() {
+        int i = StripedCounter.threadHash() & (STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(i);
+        if (stripe == null) {
+            stripe = new AtomicLongArray(BUCKETS);
+            if (!stripes.compareAndSet(i, null, stripe)) {
+                stripe = stripes.get(i);
+            }
+        }
+        return stripe;
+    }
+
+    /**
+     * Returns the snapshot of this histogram.
+     *
+     * @return the snapshot.
+     */
+    public Summary summary() {
+        return summaryOf(this);
+    }
+
+    /**
+     * Returns the snapshot of the merged histograms.
+     *
+     * @param histograms the histograms to merge. Null elements are ignored.
+     * @return the snapshot.
+     */
+    public static Summary summaryOf(LatencyHistogram... histograms) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        long max = 0;
+        for (LatencyHistogram h : histograms) {
+            if (h == null) {
+                continue;
+            }
+            for (int s = 0; s < STRIPES; s++) {
+                AtomicLongArray stripe = h.stripes.get(s);
+                if (stripe == null) {
+                    continue;
+                }
+                for (int i = 0; i < BUCKETS; i++) {
+                    long c = stripe.get(i);
+                    counts[i] += c;
+                    count += c;
+                }
+            }
+            total += h.total.sum();
+            max = Math.max(max, h.max.get());
+        }
+        if (count == 0) {
+            return EMPTY_SUMMARY;
+        }
+        return new Summary(count, total / count,
+                percentile(counts, count, max, 0.5d), percentile(counts, count, max, 0.9d),
+                percentile(counts, count, max, 0.99d), percentile(counts, count, max, 0.999d), max);
+    }
+
+    private static long percentile(long[] counts, long count, long max, double p) {
+        long rank = (long) Math.ceil(count * p);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= rank) {
+                return Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Clears the recorded latencies. The latencies recorded while clearing may be lost.
+     */
+    public void reset() {
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray stripe = stripes.get(s);
+            if (stripe == null) {
+                continue;
+            }
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        total.reset();
+        max.set(0);
+    }
+}
@@ -2,6 +2,7 @@ package net.ihiroky.reservoir;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.lang.management.ManagementFactory;
 
 /**
@@ -39,6 +40,22 @@ public class MBeanSupport {
         }
     }
 
+    /**
+     * Registers {@code object} as an MXBean of {@code mxBeanInterface}, so that the attributes of non open types
+     * are converted to open types such as {@code CompositeData} and readable by any JMX client.
+     */
+    public static <T> void registerMXBean(T object, Class<T> mxBeanInterface, String name) {
+        ObjectName objectName = createObjectName(object, name);
+        if (objectName != null) {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            try {
+                mBeanServer.registerMBean(new StandardMBean(object, mxBeanInterface, true), objectName);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     public static void unregisterMBean(Object object, String name) {
         ObjectName objectName = createObjectName(object, name);
         if (objectName != null) {
@@ -0,0 +1,27 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by a {@code CacheAccessor} which can keep its entries across restarts. The accessor writes
+ * a checkpoint of the index and its free blocks when the cache is disposed, and the next accessor prepared
+ * with the same files restores the entries into a new index without reading the values.
+ *
+ * @author Hiroki Itoh
+ */
+public interface PersistenceSupport<K, V> {
+
+    /**
+     * Puts the entries restored from the checkpoint into {@code index}. This is called once just after
+     * the cache is created, and does nothing if there is no checkpoint to restore.
+     *
+     * @param index an index to put the restored entries.
+     */
+    void restore(Index<K, Ref<V>> index);
+
+    /**
+     * Writes the entries of {@code index} and the free blocks of this accessor into the checkpoint.
+     * This is called just before this accessor is disposed; the entries must not be updated concurrently.
+     *
+     * @param index an index which has the entries to write.
+     */
+    void checkpoint(Index<K, Ref<V>> index);
+}
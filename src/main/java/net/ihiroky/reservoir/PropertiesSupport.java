@@ -83,6 +83,19 @@ public final class PropertiesSupport {
         return defaultValue;
     }
 
+    public static double doubleValue(Properties props, String key, double defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException nfe) {
+                logger.info("[doubleValue] failed to parse property({}:{}), use default:{}",
+                        key, value, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
     public static Object newInstance(Properties props, String key, Class<?> defaultClass) {
         String value = props.getProperty(key);
         if (value != null) {
@@ -0,0 +1,18 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by a {@code CacheAccessor} whose {@code Ref}s can be encoded into bytes, so that the refs
+ * can be stored in an index outside the Java heap.
+ *
+ * @author Hiroki Itoh
+ */
+public interface RefCoderProvider<V> {
+
+    /**
+     * Returns a coder of refs created by this accessor. A ref decoded by the coder holds a copy of the value
+     * at the time of the decoding.
+     *
+     * @return a coder of refs.
+     */
+    Coder<Ref<V>> getRefCoder();
+}
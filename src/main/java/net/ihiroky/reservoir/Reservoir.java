@@ -4,15 +4,22 @@ import net.ihiroky.reservoir.accessor.ByteBufferCacheAccessor;
 import net.ihiroky.reservoir.accessor.FileCacheAccessor;
 import net.ihiroky.reservoir.accessor.HeapCacheAccessor;
 import net.ihiroky.reservoir.accessor.MemoryMappedFileCacheAccessor;
+import net.ihiroky.reservoir.accessor.SlabCacheAccessor;
+import net.ihiroky.reservoir.coder.SerializableCoder;
 import net.ihiroky.reservoir.index.ConcurrentFIFOIndex;
 import net.ihiroky.reservoir.index.ConcurrentLRUIndex;
+import net.ihiroky.reservoir.index.ExpiringIndex;
 import net.ihiroky.reservoir.index.FIFOIndex;
 import net.ihiroky.reservoir.index.LRUIndex;
+import net.ihiroky.reservoir.index.OffHeapIndex;
 import net.ihiroky.reservoir.index.SimpleIndex;
+import net.ihiroky.reservoir.index.TinyLFUIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Hiroki Itoh
@@ -26,42 +33,82 @@ public final class Reservoir {
     public enum IndexType {
         SIMPLE {
             @Override
-            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize) {
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
                 return new SimpleIndex<K, Ref<V>>(toInt(initialSize));
             }
         },
         LRU {
             @Override
-            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize) {
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
                 return new ConcurrentLRUIndex<K, Ref<V>>(initialSize, maxSize);
             }
         },
         FIFO {
             @Override
-            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize) {
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
                 return new ConcurrentFIFOIndex<K, Ref<V>>(initialSize, maxSize);
             }
         },
         FRAGILE_LRU {
             @Override
-            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize) {
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
                 return new LRUIndex<K, Ref<V>>(toInt(initialSize), toInt(maxSize));
             }
         },
         FRAGILE_FIFO {
             @Override
-            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize) {
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
                 return new FIFOIndex<K, Ref<V>>(toInt(initialSize), toInt(maxSize));
             }
+        },
+        OFF_HEAP {
+            @Override
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
+                if (!(cacheAccessor instanceof RefCoderProvider)) {
+                    throw new IllegalArgumentException(
+                            "OFF_HEAP index is not supported by " + cacheAccessor.getClass().getName());
+                }
+                if (keyCoder == null) {
+                    @SuppressWarnings("unchecked")
+                    Coder<K> c = (Coder<K>) PropertiesSupport.newInstance(
+                            props, KEY_OFF_HEAP_INDEX_KEY_CODER, SerializableCoder.class);
+                    c.init(props);
+                    keyCoder = c;
+                }
+                @SuppressWarnings("unchecked")
+                RefCoderProvider<V> refCoderProvider = (RefCoderProvider<V>) cacheAccessor;
+                return new OffHeapIndex<K, Ref<V>>(toInt(initialSize), keyCoder, refCoderProvider.getRefCoder());
+            }
+        },
+        TINY_LFU {
+            @Override
+            <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                           CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props) {
+                return new TinyLFUIndex<K, Ref<V>>(initialSize, maxSize);
+            }
         },;
 
         int toInt(long value) {
             return (value > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) value;
         }
 
-        abstract <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize);
+        /**
+         * Creates an index for a cache which stores values through {@code cacheAccessor}. The types except
+         * {@code OFF_HEAP} ignore {@code cacheAccessor}, {@code keyCoder} and {@code props}.
+         * {@code keyCoder} may be null if it is not specified.
+         */
+        abstract <K, V> Index<K, Ref<V>> create(long initialSize, long maxSize,
+                                                CacheAccessor<K, V> cacheAccessor, Coder<K> keyCoder, Properties props);
     }
 
+    private static final String KEY_OFF_HEAP_INDEX_KEY_CODER = "reservoir.OffHeapIndex.keyCoder";
+
     public enum CacheAccessorType {
         HEAP {
             @Override
@@ -86,6 +133,12 @@ public final class Reservoir {
             <K, V> CacheAccessor<K, V> create() {
                 return new FileCacheAccessor<K, V>();
             }
+        },
+        SLAB {
+            @Override
+            <K, V> CacheAccessor<K, V> create() {
+                return new SlabCacheAccessor<K, V>();
+            }
         },;
 
         abstract <K, V> CacheAccessor<K, V> create();
@@ -125,9 +178,9 @@ public final class Reservoir {
             long size, int blockSize, int partitions, Coder<V> coder) {
 
         String name = randomName();
-        Index<K, Ref<V>> index = IndexType.SIMPLE.create(16, -1);
         ByteBufferCacheAccessor<K, V> cacheAccessor = new ByteBufferCacheAccessor<K, V>();
         cacheAccessor.prepare(name, true, size, blockSize, partitions, coder);
+        Index<K, Ref<V>> index = IndexType.SIMPLE.create(16, -1, cacheAccessor, null, null);
         return new BasicCache<K, V>(name, index, cacheAccessor);
     }
 
@@ -148,9 +201,9 @@ public final class Reservoir {
     public static <K, V> BasicCache<K, V> createOffHeapCache(
             String name, long size, int blockSize, int partitions, Coder<V> coder) {
 
-        Index<K, Ref<V>> index = IndexType.SIMPLE.create(16, -1);
         ByteBufferCacheAccessor<K, V> cacheAccessor = new ByteBufferCacheAccessor<K, V>();
         cacheAccessor.prepare(name, true, size, blockSize, partitions, coder);
+        Index<K, Ref<V>> index = IndexType.SIMPLE.create(16, -1, cacheAccessor, null, null);
         return new BasicCache<K, V>(name, index, cacheAccessor);
     }
 
@@ -208,6 +261,12 @@ public final class Reservoir {
         private long initialCacheSize;
         private long maxCacheSize;
         private IndexType indexType;
+        private Coder<?> keyCoder;
+        private long timeToLiveNanos;
+        private long timeToIdleNanos;
+        private boolean statistics;
+        private ExecutorService bulkExecutor;
+        private int bulkSplitSize;
 
         private Logger logger = LoggerFactory.getLogger(CacheBuilder.class);
 
@@ -219,6 +278,86 @@ public final class Reservoir {
             super.clear();
             maxCacheSize = Long.MAX_VALUE;
             indexType = IndexType.LRU;
+            keyCoder = null;
+            timeToLiveNanos = -1;
+            timeToIdleNanos = -1;
+            statistics = false;
+            bulkExecutor = null;
+            bulkSplitSize = 0;
+        }
+
+        /**
+         * Sets a coder of keys. The cache accessor stores the encoded keys next to the values, and
+         * the {@code OFF_HEAP} index uses it to encode keys. The cache accessor must implement
+         * {@link KeyCoderSupport}.
+         *
+         * @param keyCoder a coder of keys.
+         * @return this builder.
+         */
+        public CacheBuilder keyCoder(Coder<?> keyCoder) {
+            this.keyCoder = keyCoder;
+            return this;
+        }
+
+        /**
+         * Sets the time to live of entries since they are written. An expired entry is cached out.
+         * 0 means no default limit; the expiration can still be set per entry with
+         * {@link BasicCache#put(Object, Object, long, long, java.util.concurrent.TimeUnit)}.
+         *
+         * @param duration the time to live
+         * @param unit the unit of {@code duration}
+         * @return this builder.
+         */
+        public CacheBuilder expireAfterWrite(long duration, TimeUnit unit) {
+            if (duration >= 0) {
+                this.timeToLiveNanos = unit.toNanos(duration);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the time to idle of entries since they are accessed last. An expired entry is cached out.
+         * 0 means no default limit; the expiration can still be set per entry with
+         * {@link BasicCache#put(Object, Object, long, long, java.util.concurrent.TimeUnit)}.
+         *
+         * @param duration the time to idle
+         * @param unit the unit of {@code duration}
+         * @return this builder.
+         */
+        public CacheBuilder expireAfterAccess(long duration, TimeUnit unit) {
+            if (duration >= 0) {
+                this.timeToIdleNanos = unit.toNanos(duration);
+            }
+            return this;
+        }
+
+        /**
+         * Enables the statistics of the cache, which can also be enabled later by
+         * {@link CacheMBean#setStatisticsEnabled(boolean)}.
+         *
+         * @param statistics true to enable the statistics.
+         * @return this builder.
+         */
+        public CacheBuilder statistics(boolean statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        /**
+         * Sets an executor to run the operations on multiple keys in parallel.
+         * See {@link BasicCache#setBulkExecutor(ExecutorService, int)}.
+         *
+         * @param executor  the executor, which is not shut down by the cache.
+         * @param splitSize the number of the entries processed by a task.
+         * @return this builder.
+         */
+        public CacheBuilder bulkExecutor(ExecutorService executor, int splitSize) {
+            if (executor != null && splitSize <= 0) {
+                throw new IllegalArgumentException("splitSize must be positive.");
+            }
+            this.bulkExecutor = executor;
+            this.bulkSplitSize = splitSize;
+            return this;
         }
 
         public CacheBuilder indexType(IndexType indexType) {
@@ -246,16 +385,45 @@ public final class Reservoir {
             if (maxCacheSize < initialCacheSize) {
                 maxCacheSize = initialCacheSize;
             }
-            Index<K, Ref<V>> index = indexType.create(initialCacheSize, maxCacheSize);
             CacheAccessor<K, V> cacheAccessor = cacheAccessorType.create();
+            @SuppressWarnings("unchecked") Coder<K> kc = (Coder<K>) keyCoder;
+            if (kc != null) {
+                if (!(cacheAccessor instanceof KeyCoderSupport)) {
+                    throw new IllegalArgumentException(
+                            "keyCoder is not supported by " + cacheAccessor.getClass().getName());
+                }
+                // set before prepare, so that a persistent accessor can check the key coder of the checkpoint.
+                @SuppressWarnings("unchecked")
+                KeyCoderSupport<K> keyCoderSupport = (KeyCoderSupport<K>) cacheAccessor;
+                keyCoderSupport.setKeyCoder(kc);
+            }
             cacheAccessor.prepare(name, props);
+            Index<K, Ref<V>> index;
+            try {
+                index = indexType.create(initialCacheSize, maxCacheSize, cacheAccessor, kc, props);
+                if (timeToLiveNanos >= 0 || timeToIdleNanos >= 0) {
+                    index = new ExpiringIndex<K, Ref<V>>(index,
+                            Math.max(timeToLiveNanos, 0), Math.max(timeToIdleNanos, 0), TimeUnit.NANOSECONDS);
+                }
+            } catch (RuntimeException re) {
+                cacheAccessor.dispose();
+                throw re;
+            }
 
             logger.debug("[build] name : {}", name);
             logger.debug("[build] maxCacheSize : {}", maxCacheSize);
             logger.debug("[build] initialCacheSize : {}", initialCacheSize);
+            logger.debug("[build] keyCoder : {}", kc);
+            logger.debug("[build] timeToLiveNanos : {}", timeToLiveNanos);
+            logger.debug("[build] timeToIdleNanos : {}", timeToIdleNanos);
             logger.debug("[build] index : {}", index);
             logger.debug("[build] cacheAccessor : {}", cacheAccessor);
-            return new BasicCache<K, V>(name, index, cacheAccessor);
+            logger.debug("[build] statistics : {}", statistics);
+            logger.debug("[build] bulkExecutor : {}, bulkSplitSize : {}", bulkExecutor, bulkSplitSize);
+            BasicCache<K, V> cache = new BasicCache<K, V>(name, index, cacheAccessor);
+            cache.setStatisticsEnabled(statistics);
+            cache.setBulkExecutor(bulkExecutor, bulkSplitSize);
+            return cache;
         }
     }
 
@@ -0,0 +1,17 @@
+package net.ihiroky.reservoir;
+
+/**
+ * Implemented by a {@code CacheAccessor} which records the latencies of the encodes and the decodes
+ * into the statistics of the cache.
+ *
+ * @author Hiroki Itoh
+ */
+public interface StatisticsSupport {
+
+    /**
+     * Sets the statistics to record into.
+     *
+     * @param statistics the statistics, or null to stop recording.
+     */
+    void setStatistics(CacheStatistics statistics);
+}
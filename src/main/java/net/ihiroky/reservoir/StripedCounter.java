@@ -0,0 +1,69 @@
+package net.ihiroky.reservoir;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which spreads the increments of the threads over cache line padded cells, so that the threads
+ * rarely contend for a cell. The sum is not an atomic snapshot while the counter is updated.
+ *
+ * @author Hiroki Itoh
+ */
+final class StripedCounter {
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    /** 8 longs = 64 bytes, a cell per cache line. */
+    private static final int PADDING_SHIFT = 3;
+
+    private static final int STRIPES;
+
+    static {
+        int stripes = 1;
+        int min = Runtime.getRuntime().availableProcessors() * 2;
+        while (stripes < min) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    StripedCounter() {
+        cells = new AtomicLongArray(STRIPES << PADDING_SHIFT);
+        mask = STRIPES - 1;
+    }
+
+    /**
+     * Returns a hash of the current thread to select a stripe.
+     */
+    static int threadHash() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private int cellIndex() {
+        return (threadHash() & mask) << PADDING_SHIFT;
+    }
+
+    void increment() {
+        cells.incrementAndGet(cellIndex());
+    }
+
+    void add(long delta) {
+        cells.addAndGet(cellIndex(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i << PADDING_SHIFT);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i << PADDING_SHIFT, 0);
+        }
+    }
+}
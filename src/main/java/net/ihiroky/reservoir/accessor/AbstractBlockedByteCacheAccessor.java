@@ -1,10 +1,20 @@
 package net.ihiroky.reservoir.accessor;
 
 import net.ihiroky.reservoir.CacheAccessor;
+import net.ihiroky.reservoir.CacheFuture;
+import net.ihiroky.reservoir.CacheStatistics;
 import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.EncodedRef;
+import net.ihiroky.reservoir.EvictionSupport;
 import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.KeyCoderSupport;
+import net.ihiroky.reservoir.LatencyHistogram;
 import net.ihiroky.reservoir.MBeanSupport;
 import net.ihiroky.reservoir.Ref;
+import net.ihiroky.reservoir.RefCoderProvider;
+import net.ihiroky.reservoir.StatisticsSupport;
+import net.ihiroky.reservoir.index.ExpiringIndex;
+import net.ihiroky.reservoir.index.OffHeapIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,10 +22,11 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -23,45 +34,290 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * @author Hiroki Itoh
  */
-public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAccessor<K, V>, BlockedByteCacheAccessorMBean {
+public abstract class AbstractBlockedByteCacheAccessor<K, V>
+        implements CacheAccessor<K, V>, BlockedByteCacheAccessorMBean, RefCoderProvider<V>, KeyCoderSupport<K>,
+        StatisticsSupport {
 
     private String name;
     private ByteBlockManager[] byteBlockManagers;
+    private PartitionSelector partitionSelector;
     private int blockSize;
+    private boolean extent;
     private long wholeBlocks;
+    private Coder<V> coder;
     private Coder.Encoder<V> encoder;
     private Coder.Decoder<V> decoder;
+    private volatile Coder<K> keyCoder;
+    private volatile Coder.Encoder<K> keyEncoder;
+    private volatile CacheStatistics statistics;
+    private volatile StageTiming stageTiming;
+
+    /** The eviction in progress on the current thread, which counts the blocks freed by the evicted values. */
+    private final ThreadLocal<Eviction> eviction = new ThreadLocal<Eviction>();
+    private final AtomicInteger evictingThreads = new AtomicInteger();
 
     private Logger logger = LoggerFactory.getLogger(AbstractBlockedByteCacheAccessor.class);
 
     private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
-    private static final List<ByteBlock> EMPTY_LIST = Collections.emptyList();
+    private static final long[] EMPTY_BLOCKS = new long[0];
+
+    /*
+     * A block allocated to a value is held as a long, not as a ByteBlock object:
+     * [63-48] index of the ByteBlockManager, [47-32] number of adjacent blocks - 1, [31-0] index of the block.
+     */
+    private static final int MANAGER_SHIFT = 48;
+    private static final int BLOCKS_SHIFT = 32;
+    private static final long SHORT_MASK = 0xFFFFL;
+    private static final long INT_MASK = 0xFFFFFFFFL;
+    static final int MAX_MANAGERS = 1 << 16;
+    static final int MAX_BLOCKS_PER_RUN = 1 << 16;
+
+    /** The maximum number of the blocks allocated in advance at once for a batch. */
+    private static final int MAX_BATCH_BLOCKS = 256;
+
+    /** Locks shared by all values, selected by the identity hash code of a value. */
+    private static final ReentrantReadWriteLock[] LOCKS;
+    private static final int LOCK_MASK;
+
+    static {
+        int stripes = 1;
+        int min = Runtime.getRuntime().availableProcessors() * 16;
+        while (stripes < min) {
+            stripes <<= 1;
+        }
+        ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        LOCKS = locks;
+        LOCK_MASK = stripes - 1;
+    }
+
+    /**
+     * Packs a block allocated to a value into a long.
+     *
+     * @param managerIndex an index of the {@code ByteBlockManager} which allocates the block.
+     * @param block        the allocated block.
+     * @param blocks       the number of adjacent blocks in {@code block}.
+     * @return the packed block.
+     */
+    protected static long pack(int managerIndex, ByteBlock block, int blocks) {
+        return ((long) managerIndex << MANAGER_SHIFT)
+                | ((long) (blocks - 1) << BLOCKS_SHIFT)
+                | (block.getBlockIndex() & INT_MASK);
+    }
+
+    static int managerIndexOf(long packed) {
+        return (int) (packed >>> MANAGER_SHIFT);
+    }
+
+    static int blocksOf(long packed) {
+        return (int) ((packed >>> BLOCKS_SHIFT) & SHORT_MASK) + 1;
+    }
+
+    static long blockIndexOf(long packed) {
+        return packed & INT_MASK;
+    }
+
+    private ByteBlock blockOf(long packed) {
+        return byteBlockManagers[managerIndexOf(packed)].blockAt(blockIndexOf(packed), blocksOf(packed));
+    }
+
+    private long capacityOf(long packed) {
+        return byteBlockManagers[managerIndexOf(packed)].maxBlockSize() * blocksOf(packed);
+    }
 
-    private ByteBlock allocate(K key, int listPosition) {
-        ByteBlockManager[] bbbArray = byteBlockManagers;
-        int length = bbbArray.length;
+    /**
+     * Reads {@code packed} into {@code byteBuffer} until the block or the buffer runs out.
+     *
+     * @throws RuntimeException if the bytes are not read; the block is freed or the end of the storage is reached.
+     */
+    private void readBlock(long packed, ByteBuffer byteBuffer) {
+        long capacity = capacityOf(packed);
+        int expected = (byteBuffer.remaining() < capacity) ? byteBuffer.remaining() : (int) capacity;
+        int read = blockOf(packed).get(0, byteBuffer);
+        if (read != expected) {
+            throw new RuntimeException("failed to read block " + Long.toHexString(packed)
+                    + ", read:" + read + ", expected:" + expected);
+        }
+    }
+
+    /**
+     * Writes {@code byteBuffer} into {@code packed} until the block or the buffer runs out.
+     *
+     * @throws RuntimeException if the bytes are not written; the block is freed.
+     */
+    private void writeBlock(long packed, ByteBuffer byteBuffer) {
+        if (blockOf(packed).put(0, byteBuffer) < 0) {
+            throw new RuntimeException("failed to write block " + Long.toHexString(packed) + ", which is freed.");
+        }
+    }
+
+    /**
+     * Allocates {@code blocks} adjacent blocks from one of the partitions in [{@code from}, {@code from + length}).
+     * The partition is selected by the number of its free blocks, and the allocation fails without locking
+     * any partition if the whole partitions don't have enough free blocks.
+     *
+     * @param from   the index of the first partition.
+     * @param length the number of the partitions.
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated block packed by {@link #pack(int, ByteBlock, int)}, or -1 if no block is allocated.
+     */
+    protected long allocateFrom(int from, int length, int blocks) {
+        return partitionSelector.allocate(from, length, blocks);
+    }
+
+    private long allocateBlock() {
+        long block = partitionSelector.allocate(0, byteBlockManagers.length, 1);
+        if (block == PartitionSelector.NO_BLOCK) {
+            throw new IllegalStateException("no free block.");
+        }
+        return block;
+    }
 
-        int bbbIndex = positiveHash(key, listPosition) % length;
-        ByteBlock newBlock = bbbArray[bbbIndex].allocate();
-        if (newBlock != null) {
-            return newBlock;
+    /**
+     * Allocates adjacent blocks to store {@code bytes}. If no partition has a free run of the length,
+     * the length is halved until it becomes a single block.
+     */
+    private long allocateExtent(int bytes) {
+        int length = byteBlockManagers.length;
+        int maxBlocks = (bytes + blockSize - 1) / blockSize;
+        if (maxBlocks > MAX_BLOCKS_PER_RUN) {
+            maxBlocks = MAX_BLOCKS_PER_RUN;
         }
-        for (int i = 1; i < length; i++) {
-            newBlock = bbbArray[(bbbIndex + i) % length].allocate();
-            if (newBlock != null) {
-                return newBlock;
+        for (int blocks = maxBlocks; blocks > 1; blocks >>>= 1) {
+            long block = partitionSelector.allocate(0, length, blocks);
+            if (block != PartitionSelector.NO_BLOCK) {
+                return block;
             }
         }
-        throw new IllegalStateException("no free block.");
+        return allocateBlock();
     }
 
-    private static int positiveHash(Object key, int listPosition) {
-        int result = 17;
-        if (key != null) {
-            result = 31 * result + key.hashCode();
+    private void freeBlocks(long[] blocks, int from, int to) {
+        Eviction e = (evictingThreads.get() > 0) ? eviction.get() : null;
+        long block;
+        for (int i = to - 1; i >= from; i--) {
+            block = blocks[i];
+            if (!deferFree(block)) {
+                releaseBlock(block);
+            }
+            if (e != null) {
+                // a deferred block is counted too, since it is reclaimed before the write is retried.
+                e.freed += usableBytes(block, e.bytes);
+            }
         }
-        result = 31 * result + listPosition;
-        return result & 0x7FFFFFFF;
+    }
+
+    /**
+     * Frees a block, which is allocated to a value or deferred by {@link #deferFree(long)}.
+     *
+     * @param block the block packed by {@link #pack(int, ByteBlock, int)}.
+     */
+    protected final void releaseBlock(long block) {
+        blockOf(block).free();
+        partitionSelector.release(managerIndexOf(block), blocksOf(block));
+    }
+
+    /**
+     * Returns the bytes of a freed {@code block} which can be used to store a value of {@code bytes}.
+     * Eviction stops when the evicted values have freed the usable bytes as many as the value to store.
+     *
+     * @param block the block packed by {@link #pack(int, ByteBlock, int)}.
+     * @param bytes the number of bytes of an encoded value to store.
+     * @return the usable bytes; the capacity of the block by default.
+     */
+    protected long usableBytes(long block, int bytes) {
+        return capacityOf(block);
+    }
+
+    /**
+     * Returns true if {@code block} must not be overwritten. A value stored in pinned blocks is written into
+     * new blocks when it is updated.
+     *
+     * @param block the block packed by {@link #pack(int, ByteBlock, int)}.
+     * @return true if the block is pinned.
+     */
+    protected boolean isPinned(long block) {
+        return false;
+    }
+
+    /**
+     * Called when a block of a value is to be freed. If this returns true, the block stays allocated until
+     * it is freed by {@link #releaseBlock(long)}.
+     *
+     * @param block the block packed by {@link #pack(int, ByteBlock, int)}.
+     * @return true if the block is not freed now.
+     */
+    protected boolean deferFree(long block) {
+        return false;
+    }
+
+    /**
+     * Called when no free block is found, before entries are evicted.
+     *
+     * @return true if some blocks are freed.
+     */
+    protected boolean reclaimBlocks() {
+        return false;
+    }
+
+    /**
+     * Counts the free blocks of the partitions again. This must be called if the free lists of the partitions
+     * are changed directly, before this accessor is used concurrently.
+     */
+    protected void recountFreeBlocks() {
+        partitionSelector = new PartitionSelector(byteBlockManagers);
+    }
+
+    /**
+     * Takes a block from {@code batch} if any, or allocates a block by {@link #allocate(Object, int, int)}.
+     */
+    private long allocate(K key, int listPosition, int bytes, BlockBatch batch) {
+        if (batch != null) {
+            long block = batch.poll();
+            if (block != PartitionSelector.NO_BLOCK) {
+                return block;
+            }
+        }
+        return allocate(key, listPosition, bytes);
+    }
+
+    /**
+     * Allocates a block to store the value of {@code key} from the {@code listPosition}th block.
+     *
+     * @param key          a key of the value.
+     * @param listPosition an index of the block in the block list of the value.
+     * @param bytes        the number of bytes left to store.
+     * @return the allocated block packed by {@link #pack(int, ByteBlock, int)}.
+     * @throws IllegalStateException if no free block is found.
+     */
+    protected long allocate(K key, int listPosition, int bytes) {
+        return extent ? allocateExtent(bytes) : allocateBlock();
+    }
+
+    /**
+     * Returns the number of the single blocks which {@link #allocate(Object, int, int)} allocates from the whole
+     * partitions to store {@code bytes}. {@link #update(Map, Index)} allocates the blocks for the values in
+     * advance, acquiring the lock of each partition once for many blocks.
+     *
+     * @param bytes the number of bytes of an encoded value.
+     * @return the number of the blocks, or 0 if the blocks can't be allocated in advance.
+     */
+    protected int batchBlocksFor(int bytes) {
+        return extent ? 0 : (bytes + blockSize - 1) / blockSize;
+    }
+
+    /**
+     * Returns the total capacity of the blocks which {@link #allocate(Object, int, int)} allocates
+     * to store {@code bytes}. If blocks already allocated to a value don't have this capacity, they are freed and
+     * allocated again when the value is updated.
+     *
+     * @param bytes the number of bytes of an encoded value.
+     * @return the total capacity, or -1 if the blocks already allocated can be reused whatever their capacity is.
+     */
+    protected long capacityFor(int bytes) {
+        return extent ? ((long) bytes + blockSize - 1) / blockSize * blockSize : -1;
     }
 
     @Override
@@ -88,6 +344,42 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
         return byteBlockManagers.length;
     }
 
+    @Override
+    public long[] getPartitionFreeBlocks() {
+        long[] result = new long[byteBlockManagers.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = partitionSelector.freeBlocks(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getPartitionAllocations() {
+        long[] result = new long[byteBlockManagers.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = partitionSelector.allocations(i);
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getPartitionContentions() {
+        long[] result = new long[byteBlockManagers.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = partitionSelector.contentions(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the coder of values given to {@code prepare()}.
+     *
+     * @return the coder of values, or null if this accessor is not prepared.
+     */
+    public Coder<V> getCoder() {
+        return coder;
+    }
+
     @Override
     public String getEncoderClassName() {
         return (encoder != null) ? encoder.getClass().getName() : "";
@@ -98,45 +390,193 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
         return (decoder != null) ? decoder.getClass().getName() : "";
     }
 
-    private class BlockedByteRef extends ReentrantReadWriteLock implements Ref<V> {
+    @Override
+    public int getStageTimingSampleInterval() {
+        StageTiming timing = stageTiming;
+        return (timing != null) ? timing.interval() : 0;
+    }
+
+    @Override
+    public void setStageTimingSampleInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval must be >= 0.");
+        }
+        stageTiming = (interval > 0) ? new StageTiming(interval) : null;
+        logger.info("[setStageTimingSampleInterval] {}", interval);
+    }
+
+    @Override
+    public void resetStageTiming() {
+        StageTiming timing = stageTiming;
+        if (timing != null) {
+            timing.reset();
+        }
+    }
+
+    private LatencyHistogram.Summary stageSummary(int stage) {
+        StageTiming timing = stageTiming;
+        return (timing != null) ? timing.summary(stage) : LatencyHistogram.EMPTY_SUMMARY;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getEncodeStageLatency() {
+        return stageSummary(StageTiming.ENCODE);
+    }
+
+    @Override
+    public LatencyHistogram.Summary getLockWaitStageLatency() {
+        return stageSummary(StageTiming.LOCK_WAIT);
+    }
+
+    @Override
+    public LatencyHistogram.Summary getAllocateStageLatency() {
+        return stageSummary(StageTiming.ALLOCATE);
+    }
+
+    @Override
+    public LatencyHistogram.Summary getWriteStageLatency() {
+        return stageSummary(StageTiming.WRITE);
+    }
+
+    @Override
+    public LatencyHistogram.Summary getReadStageLatency() {
+        return stageSummary(StageTiming.READ);
+    }
+
+    @Override
+    public LatencyHistogram.Summary getDecodeStageLatency() {
+        return stageSummary(StageTiming.DECODE);
+    }
+
+    /**
+     * Single blocks allocated in advance for a batch of values. The blocks are allocated up to the demand of
+     * the values not stored yet when the batch runs out, and the blocks left are freed by {@link #release()}.
+     */
+    private class BlockBatch {
+
+        private final long[] blocks;
+        private int next;
+        private int size;
+        private int demand;
+
+        BlockBatch(int maxDemand) {
+            blocks = new long[(maxDemand < MAX_BATCH_BLOCKS) ? maxDemand : MAX_BATCH_BLOCKS];
+        }
+
+        void setDemand(int demand) {
+            this.demand = demand;
+        }
+
+        long poll() {
+            if (next == size) {
+                if (demand <= 0) {
+                    return PartitionSelector.NO_BLOCK;
+                }
+                next = 0;
+                size = partitionSelector.allocate(0, byteBlockManagers.length,
+                        (demand < blocks.length) ? demand : blocks.length, blocks, 0);
+                if (size == 0) {
+                    return PartitionSelector.NO_BLOCK;
+                }
+            }
+            demand--;
+            return blocks[next++];
+        }
+
+        void release() {
+            freeBlocks(blocks, next, size);
+            next = size = 0;
+        }
+    }
+
+    /**
+     * A reference to a value stored in blocks. The blocks are held as a long array packed by
+     * {@link #pack(int, ByteBlock, int)}, and are guarded by one of the striped locks.
+     */
+    private class BlockedByteRef implements EncodedRef<V> {
 
-        List<ByteBlock> blockList;
+        long[] blocks;
         int bytes;
+        boolean freed;
+
+        /** incremented on every change of the blocks, to validate the reads without the lock. */
+        int version;
+
+        /** an id given by {@link #nextRefId()}, passed to {@link #updated} and {@link #removed}. */
+        long id;
 
         BlockedByteRef() {
-            blockList = EMPTY_LIST;
+            blocks = EMPTY_BLOCKS;
+        }
+
+        BlockedByteRef(long id) {
+            this.blocks = EMPTY_BLOCKS;
+            this.id = id;
+        }
+
+        private ReentrantReadWriteLock lock() {
+            return LOCKS[System.identityHashCode(this) & LOCK_MASK];
         }
 
         @Override
         public V value() {
+            return decode(encodedValue());
+        }
+
+        @Override
+        public ByteBuffer encodedKey() {
+            if (keyEncoder == null) {
+                return null;
+            }
             ByteBuffer byteBuffer = asByteBuffer();
-            return byteBuffer.hasRemaining() ? decoder.decode(byteBuffer) : null;
+            if (!byteBuffer.hasRemaining()) {
+                return byteBuffer;
+            }
+            int keyLength = byteBuffer.getInt();
+            byteBuffer.limit(byteBuffer.position() + keyLength);
+            return byteBuffer.slice();
+        }
+
+        @Override
+        public ByteBuffer encodedValue() {
+            return valueOf(asByteBuffer());
         }
 
         void update(K key, V value) {
-            ByteBuffer encoded = encoder.encode(value);
-            flush(key, encoded);
+            flush(key, encode(key, value), null, false);
         }
 
-        void free() {
-            WriteLock writeLock = writeLock();
+        /**
+         * Frees the blocks of this ref. If {@code key} is not null, {@link #removed(Object, long)} is called
+         * before the blocks are freed.
+         */
+        void free(K key) {
+            ReentrantReadWriteLock.WriteLock writeLock = lock().writeLock();
             writeLock.lock();
             try {
-                for (ByteBlock block : blockList) {
-                    block.free();
+                if (freed) {
+                    return;
+                }
+                if (key != null) {
+                    removed(key, id);
                 }
+                version++;
+                freeBlocks(blocks, 0, blocks.length);
+                blocks = EMPTY_BLOCKS;
                 bytes = 0;
-                blockList.clear();
+                freed = true;
             } finally {
                 writeLock.unlock();
             }
         }
 
-        private ByteBuffer asByteBuffer() {
-            byte[] buffer = new byte[blockSize];
-            int read;
+        ByteBuffer asByteBuffer() {
+            StageTiming timing = stageTiming;
+            if (timing != null && timing.sample(StageTiming.READ)) {
+                return asByteBuffer(timing);
+            }
             ByteBuffer bb;
-            ReadLock readLock = readLock();
+            ReentrantReadWriteLock.ReadLock readLock = lock().readLock();
             readLock.lock();
             try {
                 int length = bytes;
@@ -144,11 +584,9 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
                     return EMPTY_BUFFER;
                 }
                 bb = ByteBuffer.allocate(length);
-                for (ByteBlock block : blockList) {
-                    // TODO direct copy
-                    read = block.get(0, buffer, 0, length);
-                    bb.put(buffer, 0, read);
-                    if ((length -= read) == 0) {
+                for (long block : blocks) {
+                    readBlock(block, bb);
+                    if (!bb.hasRemaining()) {
                         break;
                     }
                 }
@@ -159,39 +597,122 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
             return bb;
         }
 
-        private void flush(K key, ByteBuffer byteBuffer) {
-            byte[] buffer = new byte[blockSize];
+        /**
+         * Samples the time to wait for the lock, and to copy the blocks into the returned buffer.
+         */
+        private ByteBuffer asByteBuffer(StageTiming timing) {
+            long start = System.nanoTime();
+            ReentrantReadWriteLock.ReadLock readLock = lock().readLock();
+            readLock.lock();
+            long locked = System.nanoTime();
+            ByteBuffer bb;
+            try {
+                timing.record(StageTiming.LOCK_WAIT, locked - start);
+                int length = bytes;
+                if (length == 0) {
+                    return EMPTY_BUFFER;
+                }
+                bb = ByteBuffer.allocate(length);
+                for (long block : blocks) {
+                    readBlock(block, bb);
+                    if (!bb.hasRemaining()) {
+                        break;
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            timing.record(StageTiming.READ, System.nanoTime() - locked);
+            bb.flip();
+            return bb;
+        }
+
+        /**
+         * Writes {@code byteBuffer} into the blocks of this ref. The blocks to be added are taken from
+         * {@code batch} if it is not null. If {@code log} is true, {@link #updated(Object, long, ByteBuffer)}
+         * is called after the write under the same lock, so the updates of this ref are passed in order.
+         *
+         * @return false if this ref is already freed; the blocks are not allocated.
+         * @throws IllegalStateException if no free block is found; all the blocks of this ref are freed
+         * unless the value is in the pinned blocks, which are kept.
+         */
+        boolean flush(K key, ByteBuffer byteBuffer, BlockBatch batch, boolean log) {
+            StageTiming timing = stageTiming;
+            if (timing != null && !timing.sample(StageTiming.WRITE)) {
+                timing = null;
+            }
+            long start = (timing != null) ? System.nanoTime() : 0;
+            long allocateNanos = 0;
             int listPosition = 0;
-            int length;
             int inputLength = byteBuffer.remaining();
-            ByteBlock block;
-            WriteLock writeLock = writeLock();
+            ByteBuffer entry = log ? byteBuffer.duplicate() : null;
+            ReentrantReadWriteLock.WriteLock writeLock = lock().writeLock();
             writeLock.lock();
+            long locked = (timing != null) ? System.nanoTime() : 0;
+            long[] current = blocks;
+            long[] newBlocks = current;
+            long[] moved = null;
+            int movedBytes = bytes;
             try {
-                if (blockList == EMPTY_LIST) {
-                    blockList = new ArrayList<ByteBlock>();
+                if (freed) {
+                    // removed or evicted from the index; the blocks written here would never be freed.
+                    return false;
+                }
+                version++;
+                long requiredCapacity = capacityFor(inputLength);
+                if (current.length > 0 && isPinned(current[0])) {
+                    // not to overwrite the pinned blocks, which are freed after the write.
+                    moved = current;
+                    blocks = current = newBlocks = EMPTY_BLOCKS;
+                } else if (requiredCapacity != -1 && capacity(current) != requiredCapacity) {
+                    // reallocate to avoid to keep too large blocks or to split the value into many blocks.
+                    freeBlocks(current, 0, current.length);
+                    blocks = current = newBlocks = EMPTY_BLOCKS;
                 }
-                bytes = inputLength;
                 while (byteBuffer.hasRemaining()) {
-                    length = (byteBuffer.remaining() >= buffer.length) ? buffer.length : byteBuffer.remaining();
-                    // TODO direct copy
-                    byteBuffer.get(buffer, 0, length);
-                    if (listPosition < blockList.size()) {
-                        block = blockList.get(listPosition);
+                    long block;
+                    if (listPosition < current.length) {
+                        block = current[listPosition];
+                    } else if (timing == null) {
+                        block = allocate(key, listPosition, byteBuffer.remaining(), batch);
                     } else {
-                        block = allocate(key, listPosition);
-                        blockList.add(block);
+                        long allocateStart = System.nanoTime();
+                        block = allocate(key, listPosition, byteBuffer.remaining(), batch);
+                        allocateNanos += System.nanoTime() - allocateStart;
+                    }
+                    if (listPosition >= current.length) {
+                        if (listPosition == newBlocks.length) {
+                            newBlocks = Arrays.copyOf(newBlocks, (listPosition == 0) ? 1 : listPosition * 2);
+                        }
+                        newBlocks[listPosition] = block;
                     }
                     listPosition++;
-                    block.put(0, buffer, 0, length);
+                    writeBlock(block, byteBuffer);
                 }
-                for (int i = blockList.size() - 1; i >= listPosition; i--) {
-                    blockList.remove(i).free();
+                if (log) {
+                    updated(key, id, entry);
                 }
+                freeBlocks(current, listPosition, current.length);
+                blocks = (listPosition == newBlocks.length)
+                        ? newBlocks : (listPosition == 0) ? EMPTY_BLOCKS : Arrays.copyOf(newBlocks, listPosition);
+                bytes = inputLength;
+                if (moved != null) {
+                    freeBlocks(moved, 0, moved.length);
+                }
+                if (timing != null) {
+                    timing.record(StageTiming.LOCK_WAIT, locked - start);
+                    timing.record(StageTiming.ALLOCATE, allocateNanos);
+                    timing.record(StageTiming.WRITE, System.nanoTime() - locked - allocateNanos);
+                }
+                return true;
             } catch (RuntimeException re) {
-                for (Iterator<ByteBlock> i = blockList.iterator(); i.hasNext(); ) {
-                    i.next().free();
-                    i.remove();
+                freeBlocks(newBlocks, 0, (listPosition > current.length) ? listPosition : current.length);
+                if (moved != null) {
+                    blocks = moved;
+                    bytes = movedBytes;
+                } else {
+                    blocks = EMPTY_BLOCKS;
+                    bytes = 0;
                 }
                 throw re;
             } finally {
@@ -199,18 +720,95 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
             }
         }
 
+        /**
+         * Reads the blocks in parallel by {@code executor}, and completes {@code future} by the thread which
+         * reads the last block. If the blocks are changed while reading, the value is read again synchronously.
+         */
+        void readAsync(final CacheFuture<V> future, Executor executor) {
+            final long[] blocks;
+            final int bytes;
+            final int version;
+            ReentrantReadWriteLock.ReadLock readLock = lock().readLock();
+            readLock.lock();
+            try {
+                blocks = this.blocks;
+                bytes = this.bytes;
+                version = this.version;
+            } finally {
+                readLock.unlock();
+            }
+            if (bytes == 0) {
+                future.set(null);
+                return;
+            }
+
+            final ByteBuffer whole = ByteBuffer.allocate(bytes);
+            int n = 0;
+            int[] offsets = new int[blocks.length];
+            for (int offset = 0; n < blocks.length && offset < bytes; n++) {
+                offsets[n] = offset;
+                offset += capacityOf(blocks[n]);
+            }
+            final AtomicInteger left = new AtomicInteger(n);
+            for (int i = 0; i < n; i++) {
+                final long block = blocks[i];
+                final ByteBuffer part = whole.duplicate();
+                part.position(offsets[i]);
+                Runnable read = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (future.isDone()) {
+                            return; // cancelled or failed.
+                        }
+                        try {
+                            readBlock(block, part);
+                            if (left.decrementAndGet() == 0) {
+                                future.set(isReadValid(version) ? decodeValue(whole) : value());
+                            }
+                        } catch (RuntimeException re) {
+                            future.setException(re);
+                        }
+                    }
+                };
+                try {
+                    executor.execute(read);
+                } catch (RejectedExecutionException ree) {
+                    read.run();
+                }
+            }
+        }
+
+        private boolean isReadValid(int version) {
+            ReentrantReadWriteLock.ReadLock readLock = lock().readLock();
+            readLock.lock();
+            try {
+                return this.version == version;
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private long capacity(long[] blocks) {
+            long capacity = 0;
+            for (long block : blocks) {
+                capacity += capacityOf(block);
+            }
+            return capacity;
+        }
+
         @Override
         public String toString() {
             StringBuilder b = new StringBuilder();
-            ReadLock lock = readLock();
+            ReentrantReadWriteLock.ReadLock lock = lock().readLock();
             lock.lock();
             try {
-                if (blockList.size() == 0) {
+                long[] blocks = this.blocks;
+                if (blocks.length == 0) {
                     return "[]";
                 }
-                b.append('[').append(blockList.get(0).getBlockIndex());
-                for (int i = 1; i < blockList.size(); i++) {
-                    b.append(',').append(blockList.get(i).getBlockIndex());
+                b.append('[').append(blockIndexOf(blocks[0]));
+                for (int i = 1; i < blocks.length; i++) {
+                    b.append(',').append(blockIndexOf(blocks[i]));
                 }
             } finally {
                 lock.unlock();
@@ -219,18 +817,367 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
         }
     }
 
+    /**
+     * A ref decoded by the ref coder, which holds a copy of the value read at the decoding.
+     */
+    private class CopiedBlockedByteRef extends BlockedByteRef {
+
+        ByteBuffer copy;
+
+        @Override
+        ByteBuffer asByteBuffer() {
+            return copy.duplicate();
+        }
+    }
+
+    private class RefCoder implements Coder<Ref<V>>, Coder.Encoder<Ref<V>>, Coder.Decoder<Ref<V>> {
+
+        @Override
+        public void init(Properties props) {
+        }
+
+        @Override
+        public Encoder<Ref<V>> createEncoder() {
+            return this;
+        }
+
+        @Override
+        public Decoder<Ref<V>> createDecoder() {
+            return this;
+        }
+
+        /**
+         * Encodes a ref into [int bytes][int the number of blocks][long packed block]...[long id]
+         */
+        @Override
+        public ByteBuffer encode(Ref<V> value) {
+            @SuppressWarnings("unchecked") BlockedByteRef ref = (BlockedByteRef) value;
+            long[] blocks = ref.blocks;
+            ByteBuffer bb = ByteBuffer.allocate(8 + blocks.length * 8 + 8);
+            bb.putInt(ref.bytes).putInt(blocks.length);
+            for (long block : blocks) {
+                bb.putLong(block);
+            }
+            bb.putLong(ref.id);
+            bb.flip();
+            return bb;
+        }
+
+        @Override
+        public Ref<V> decode(ByteBuffer byteBuffer) {
+            CopiedBlockedByteRef ref = new CopiedBlockedByteRef();
+            int bytes = byteBuffer.getInt();
+            long[] blocks = new long[byteBuffer.getInt()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = byteBuffer.getLong();
+            }
+            ref.id = byteBuffer.getLong();
+            ByteBuffer copy = ByteBuffer.allocate(bytes);
+            for (int i = 0; i < blocks.length && copy.hasRemaining(); i++) {
+                readBlock(blocks[i], copy);
+            }
+            copy.flip();
+            ref.blocks = blocks;
+            ref.bytes = bytes;
+            ref.copy = copy;
+            return ref;
+        }
+    }
+
+    /**
+     * Returns the value part of an encoded entry.
+     */
+    private ByteBuffer valueOf(ByteBuffer entry) {
+        if (keyEncoder != null && entry.hasRemaining()) {
+            int keyLength = entry.getInt();
+            entry.position(entry.position() + keyLength);
+        }
+        return entry.slice();
+    }
+
+    private V decodeValue(ByteBuffer entry) {
+        return decode(valueOf(entry));
+    }
+
+    private V decode(ByteBuffer value) {
+        if (!value.hasRemaining()) {
+            return null;
+        }
+        CacheStatistics statistics = this.statistics;
+        StageTiming timing = stageTiming;
+        if (statistics == null && (timing == null || !timing.sample(StageTiming.DECODE))) {
+            return decoder.decode(value);
+        }
+        long start = System.nanoTime();
+        V decoded = decoder.decode(value);
+        if (statistics != null) {
+            statistics.recordDecode(start);
+        }
+        if (timing != null) {
+            timing.record(StageTiming.DECODE, System.nanoTime() - start);
+        }
+        return decoded;
+    }
+
+    /**
+     * Reads the value of {@code ref} by {@code executor}. Each block of the value is read by a task, so
+     * the blocks are read in parallel, and the task which reads the last block completes the future.
+     *
+     * @param ref      a ref created by this accessor.
+     * @param executor an executor to read the blocks.
+     * @return the future of the value.
+     */
+    protected CacheFuture<V> readAsync(Ref<V> ref, Executor executor) {
+        if (!(ref instanceof AbstractBlockedByteCacheAccessor.BlockedByteRef)) {
+            // a copy decoded by the ref coder.
+            return CacheFuture.completed(ref.value());
+        }
+        @SuppressWarnings("unchecked") BlockedByteRef blockedByteRef = (BlockedByteRef) ref;
+        CacheFuture<V> future = new CacheFuture<V>();
+        blockedByteRef.readAsync(future, executor);
+        return future;
+    }
+
+    /**
+     * Encodes the value, following [int key length][key] if the key coder is set.
+     */
+    private ByteBuffer encode(K key, V value) {
+        CacheStatistics statistics = this.statistics;
+        StageTiming timing = stageTiming;
+        if (timing != null && !timing.sample(StageTiming.ENCODE)) {
+            timing = null;
+        }
+        long start = (statistics != null || timing != null) ? System.nanoTime() : 0;
+        ByteBuffer encodedValue = encoder.encode(value);
+        if (statistics != null) {
+            statistics.recordEncode(start);
+        }
+        if (timing != null) {
+            timing.record(StageTiming.ENCODE, System.nanoTime() - start);
+        }
+        Coder.Encoder<K> keyEncoder = this.keyEncoder;
+        if (keyEncoder == null) {
+            return encodedValue;
+        }
+        ByteBuffer encodedKey = keyEncoder.encode(key);
+        ByteBuffer entry = ByteBuffer.allocate(4 + encodedKey.remaining() + encodedValue.remaining());
+        entry.putInt(encodedKey.remaining()).put(encodedKey).put(encodedValue);
+        entry.flip();
+        return entry;
+    }
+
+    @Override
+    public void setKeyCoder(Coder<K> keyCoder) {
+        if (byteBlockManagers != null && getAllocatedBlocks() > 0) {
+            throw new IllegalStateException("the key coder can't be changed after values are stored.");
+        }
+        this.keyCoder = keyCoder;
+        this.keyEncoder = (keyCoder != null) ? keyCoder.createEncoder() : null;
+        logger.info("[setKeyCoder] keyCoder: {}", keyCoder);
+    }
+
+    @Override
+    public Coder<K> getKeyCoder() {
+        return keyCoder;
+    }
+
+    @Override
+    public void setStatistics(CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns a coder of refs created by this accessor. A ref is encoded into its block pointers, and
+     * the decoded ref holds a copy of the value. An index which stores the encoded refs must decode them
+     * under the same lock as it replaces the refs; then the blocks of a replaced ref are freed only after
+     * the replacement, so the decoding never reads freed blocks.
+     *
+     * @return a coder of refs.
+     */
+    @Override
+    public Coder<Ref<V>> getRefCoder() {
+        return new RefCoder();
+    }
+
+    /**
+     * Evicts entries from {@code index} until the blocks freed by the evicted values can store {@code bytes}.
+     * Only the blocks freed by this thread are counted, not the ones freed by the other threads at the same time.
+     *
+     * @return true if some usable blocks are freed.
+     */
+    private boolean evict(Index<K, Ref<V>> index, int bytes) {
+        if (!(index instanceof EvictionSupport)) {
+            return false;
+        }
+        EvictionSupport evictionSupport = (EvictionSupport) index;
+        Eviction e = new Eviction(bytes);
+        eviction.set(e);
+        evictingThreads.incrementAndGet();
+        try {
+            while (e.freed < bytes && evictionSupport.evict()) {
+                // e.freed is counted in freeBlocks() called by the listener of the index.
+            }
+        } finally {
+            evictingThreads.decrementAndGet();
+            eviction.remove();
+        }
+        return e.freed > 0;
+    }
+
+    /**
+     * Writes {@code encoded} into {@code ref}. If no free block is found, entries are evicted from {@code index}
+     * and the write is retried, so the cache is bounded by the blocks instead of failing.
+     *
+     * @return false if {@code ref} is already freed.
+     * @throws IllegalStateException if no free block is found and no entry can be evicted.
+     */
+    private boolean store(BlockedByteRef ref, K key, ByteBuffer encoded, Index<K, Ref<V>> index,
+                          BlockBatch batch, boolean log) {
+        for (;;) {
+            try {
+                return ref.flush(key, encoded.duplicate(), batch, log);
+            } catch (IllegalStateException ise) {
+                if (!reclaimBlocks() && !evict(index, encoded.remaining())) {
+                    throw ise;
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes {@code ref} by the ref coder under the read lock of the ref, so the blocks and the length
+     * are read consistently while the ref is written concurrently.
+     *
+     * @param ref a ref created by this accessor.
+     * @return the encoded ref.
+     */
+    protected ByteBuffer encodeRef(Ref<V> ref) {
+        @SuppressWarnings("unchecked") BlockedByteRef blockedByteRef = (BlockedByteRef) ref;
+        ReentrantReadWriteLock.ReadLock readLock = blockedByteRef.lock().readLock();
+        readLock.lock();
+        try {
+            return new RefCoder().encode(ref);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Creates a ref to the blocks encoded by the ref coder without reading the value. The blocks must be
+     * already allocated, for example by the free lists restored from a checkpoint.
+     *
+     * @param encodedRef a ref encoded by the coder returned by {@link #getRefCoder()}.
+     * @return the ref.
+     * @throws IllegalArgumentException if the encoded ref has blocks out of this accessor.
+     */
+    protected Ref<V> restoreRef(ByteBuffer encodedRef) {
+        BlockedByteRef ref = new BlockedByteRef();
+        int bytes = encodedRef.getInt();
+        long[] blocks = new long[encodedRef.getInt()];
+        for (int i = 0; i < blocks.length; i++) {
+            long block = encodedRef.getLong();
+            try {
+                blockOf(block); // checks the range of the block.
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new IllegalArgumentException("invalid block: " + Long.toHexString(block), ioobe);
+            }
+            blocks[i] = block;
+        }
+        ref.id = encodedRef.getLong();
+        ref.blocks = blocks;
+        ref.bytes = bytes;
+        return ref;
+    }
+
+    /**
+     * Returns the id of {@code ref} given by {@link #nextRefId()}.
+     *
+     * @param ref a ref created by this accessor.
+     * @return the id.
+     */
+    protected long idOf(Ref<V> ref) {
+        @SuppressWarnings("unchecked") BlockedByteRef blockedByteRef = (BlockedByteRef) ref;
+        return blockedByteRef.id;
+    }
+
+    /**
+     * Returns the blocks of {@code ref} packed by {@link #pack(int, ByteBlock, int)}.
+     *
+     * @param ref a ref created by this accessor.
+     * @return the blocks, which must not be modified.
+     */
+    protected long[] blockListOf(Ref<V> ref) {
+        @SuppressWarnings("unchecked") BlockedByteRef blockedByteRef = (BlockedByteRef) ref;
+        ReentrantReadWriteLock.ReadLock readLock = blockedByteRef.lock().readLock();
+        readLock.lock();
+        try {
+            return blockedByteRef.blocks;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
     private void updateEntry(K key, V value, Index<K, Ref<V>> index) {
         if (key == null) {
             return;
         }
 
-        BlockedByteRef ref = new BlockedByteRef();
-        @SuppressWarnings("unchecked")
-        BlockedByteRef oldRef = (BlockedByteRef) index.putIfAbsent(key, ref);
-        if (oldRef != null) {
-            ref = oldRef;
+        storeEntry(key, encode(key, value), index, null);
+    }
+
+    /**
+     * Stores an encoded value of {@code key} into a new ref which has {@code id}, and replaces the ref in
+     * {@code index}. Neither {@link #updated(Object, long, ByteBuffer)} nor {@link #removed(Object, long)}
+     * is called.
+     *
+     * @param key     the key.
+     * @param id      the id of the new ref.
+     * @param encoded the encoded value, following [int key length][key] if the key coder is set.
+     * @param index   the index to put the ref into.
+     */
+    protected void restoreEntry(K key, long id, ByteBuffer encoded, Index<K, Ref<V>> index) {
+        BlockedByteRef newRef = new BlockedByteRef(id);
+        store(newRef, key, encoded, index, null, false);
+        Ref<V> oldRef;
+        try {
+            oldRef = index.put(key, newRef);
+        } catch (RuntimeException re) {
+            free(newRef);
+            throw re;
+        }
+        free(oldRef);
+    }
+
+    private void storeEntry(K key, ByteBuffer encoded, Index<K, Ref<V>> index, BlockBatch batch) {
+        if (ExpiringIndex.unwrap(index) instanceof OffHeapIndex) {
+            // the index holds copies of refs, so store the value into new blocks and replace the ref.
+            BlockedByteRef newRef = new BlockedByteRef(nextRefId());
+            store(newRef, key, encoded, index, batch, true);
+            Ref<V> oldRef;
+            try {
+                oldRef = index.put(key, newRef);
+            } catch (RuntimeException re) {
+                free(key, newRef);
+                throw re;
+            }
+            // the put of the new ref supersedes the old one, so no remove is logged.
+            free(oldRef);
+            return;
+        }
+
+        for (;;) {
+            BlockedByteRef ref = new BlockedByteRef(nextRefId());
+            @SuppressWarnings("unchecked")
+            BlockedByteRef oldRef = (BlockedByteRef) index.putIfAbsent(key, ref);
+            if (oldRef != null) {
+                ref = oldRef;
+            }
+            if (store(ref, key, encoded, index, batch, true)) {
+                return;
+            }
+            // the ref is removed or evicted (possibly by this update) in the meantime, so replace it.
+            index.removeSilently(key, ref);
         }
-        ref.update(key, value);
     }
 
     @Override
@@ -245,48 +1192,138 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
         updateEntry(key, value, index);
     }
 
+    /**
+     * Stores the values in a batch. The values are encoded at first, and then the single blocks to store them
+     * are allocated in advance if {@link #batchBlocksFor(int)} is positive, so that the lock of a partition is
+     * acquired once for many blocks instead of once for each block.
+     */
     @Override
     public void update(Map<K, V> keyValues, Index<K, Ref<V>> index) {
-        Iterator<Map.Entry<K, V>> iterator = keyValues.entrySet().iterator();
-        Map.Entry<K, V> entry = null;
+        int size = keyValues.size();
+        @SuppressWarnings("unchecked") K[] keys = (K[]) new Object[size];
+        ByteBuffer[] encoded = new ByteBuffer[size];
+        int n = 0;
+        for (Map.Entry<K, V> entry : keyValues.entrySet()) {
+            K key = entry.getKey();
+            if (key != null) {
+                keys[n] = key;
+                encoded[n] = encode(key, entry.getValue());
+                n++;
+            }
+        }
+        int[] demands = new int[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            demands[i] = demands[i + 1] + batchBlocksFor(encoded[i].remaining());
+        }
+
+        BlockBatch batch = (demands[0] > 1) ? new BlockBatch(demands[0]) : null;
+        int i = 0;
         try {
-            while (iterator.hasNext()) {
-                entry = iterator.next();
-                updateEntry(entry.getKey(), entry.getValue(), index);
+            for (; i < n; i++) {
+                if (batch != null) {
+                    batch.setDemand(demands[i]);
+                }
+                storeEntry(keys[i], encoded[i], index, batch);
             }
         } catch (IllegalStateException ise) {
-            Collection<Object> failedKeys = new ArrayList<Object>();
-            failedKeys.add(entry.getKey()); // entry is surely non null.
-            while (iterator.hasNext()) {
-                failedKeys.add(iterator.next().getKey());
+            Collection<Object> failedKeys = new ArrayList<Object>(n - i);
+            for (; i < n; i++) {
+                failedKeys.add(keys[i]);
             }
             throw new NoEnoughFreeBlockException(
                     "failed to update blocks.", ise, failedKeys);
+        } finally {
+            if (batch != null) {
+                batch.release();
+            }
         }
     }
 
-    @Override
-    public void remove(K key, Ref<V> ref) {
+    /**
+     * Returns an id of a new ref stored by {@link #update(Object, Object, Index)} or {@link #update(Map, Index)}.
+     *
+     * @return the id, 0 by default.
+     */
+    protected long nextRefId() {
+        return 0;
+    }
+
+    /**
+     * Called after the value of {@code key} is written into the ref which has {@code id} by
+     * {@link #update(Object, Object, Index)} or {@link #update(Map, Index)}. This is called under the write lock
+     * of the ref, so the updates of the same ref are passed in the order of the writes.
+     *
+     * @param key     the key.
+     * @param id      the id of the ref.
+     * @param encoded the encoded value, following [int key length][key] if the key coder is set.
+     */
+    protected void updated(K key, long id, ByteBuffer encoded) {
+    }
+
+    /**
+     * Called before the blocks of the ref which has {@code id} are freed by {@link #remove(Object, Ref)} or
+     * {@link #remove(Collection)}. This is called under
+     * the write lock of the ref, after all the updates of the ref.
+     *
+     * @param key the key.
+     * @param id  the id of the ref.
+     */
+    protected void removed(K key, long id) {
+    }
+
+    /**
+     * Frees the blocks of {@code ref}.
+     *
+     * @param ref the ref created by this accessor, or null.
+     */
+    protected void free(Ref<V> ref) {
+        free(null, ref);
+    }
+
+    private void free(K key, Ref<V> ref) {
         if (ref != null) {
             @SuppressWarnings("unchecked") BlockedByteRef blockedByteRef = (BlockedByteRef) ref;
-            blockedByteRef.free();
+            blockedByteRef.free(key);
         }
     }
 
+    @Override
+    public void remove(K key, Ref<V> ref) {
+        free(key, ref);
+    }
+
     @Override
     public void remove(Collection<Map.Entry<K, Ref<V>>> refs) {
         for (Map.Entry<K, Ref<V>> entry : refs) {
-            @SuppressWarnings("unchecked") BlockedByteRef ref = (BlockedByteRef) entry.getValue();
-            if (ref != null) {
-                ref.free();
-            }
+            remove(entry.getKey(), entry.getValue());
         }
     }
 
     protected void prepare(String name, ByteBlockManager[] byteBlockManagers, int blockSize, Coder<V> coder) {
+        prepare(name, byteBlockManagers, blockSize, coder, false);
+    }
+
+    /**
+     * Prepares this accessor.
+     *
+     * @param name              a name of this accessor.
+     * @param byteBlockManagers managers to allocate blocks from.
+     * @param blockSize         the size of a block.
+     * @param coder             a coder to encode and decode values.
+     * @param extent            true if a value larger than {@code blockSize} is stored in adjacent blocks
+     *                          allocated by {@link ByteBlockManager#allocate(int)}.
+     */
+    protected void prepare(String name, ByteBlockManager[] byteBlockManagers, int blockSize,
+                           Coder<V> coder, boolean extent) {
+        if (byteBlockManagers.length > MAX_MANAGERS) {
+            throw new IllegalArgumentException("the number of byteBlockManagers must be <= " + MAX_MANAGERS);
+        }
         this.name = name;
         this.byteBlockManagers = byteBlockManagers;
+        this.partitionSelector = new PartitionSelector(byteBlockManagers);
         this.blockSize = blockSize;
+        this.extent = extent;
+        this.coder = coder;
         this.decoder = coder.createDecoder();
         this.encoder = coder.createEncoder();
 
@@ -299,10 +1336,11 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
         logger.info("[prepare] name: {}", name);
         logger.info("[prepare] byteBlockManagers: {}", Arrays.toString(byteBlockManagers));
         logger.info("[prepare] blockSize: {}", blockSize);
+        logger.info("[prepare] extent: {}", extent);
         logger.info("[prepare] coder: {}", coder);
         logger.info("[prepare] whileBlock: {}", wholeBlocks);
 
-        MBeanSupport.registerMBean(this, name);
+        MBeanSupport.registerMXBean(this, BlockedByteCacheAccessorMBean.class, name);
         for (ByteBlockManager bbb : byteBlockManagers) {
             MBeanSupport.registerMBean(bbb, bbb.getName());
         }
@@ -318,4 +1356,17 @@ public abstract class AbstractBlockedByteCacheAccessor<K, V> implements CacheAcc
             }
         }
     }
+
+    /**
+     * The bytes to store and the usable bytes freed by an eviction.
+     */
+    private static class Eviction {
+
+        final int bytes;
+        long freed;
+
+        Eviction(int bytes) {
+            this.bytes = bytes;
+        }
+    }
 }
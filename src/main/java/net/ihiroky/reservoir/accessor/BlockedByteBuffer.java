@@ -6,6 +6,9 @@ import java.util.List;
 
 /**
  * Created on 12/09/28, 9:31
+ * <p/>
+ * Blocks are read and written through a duplicate of the byte buffer created for each access, so the position
+ * of the underlying buffer is never changed and the blocks can be accessed in parallel without locking.
  *
  * @author Hiroki Itoh
  */
@@ -47,6 +50,15 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
         this.name = name;
     }
 
+    /**
+     * Returns a duplicate of the byte buffer positioned at {@code index} and limited to {@code length} bytes.
+     */
+    private ByteBuffer viewOf(int index, int length) {
+        ByteBuffer bb = byteBuffer.duplicate();
+        bb.limit(index + length).position(index);
+        return bb;
+    }
+
     @Override
     public ByteBlock allocate() {
         int block;
@@ -65,13 +77,51 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
         return new Block(block);
     }
 
-    private synchronized void free(int blockIndex) {
+    @Override
+    public synchronized int allocate(int count, ByteBlock[] blocks, int offset) {
+        int allocated = 0;
+        ByteBlock block;
+        while (allocated < count && (block = allocate()) != null) {
+            blocks[offset + allocated++] = block;
+        }
+        return allocated;
+    }
+
+    /**
+     * Allocates a block if {@code blocks} is 1, or returns null because the free list can't find adjacent blocks.
+     *
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated block or null.
+     */
+    @Override
+    public ByteBlock allocate(int blocks) {
+        return (blocks == 1) ? allocate() : null;
+    }
+
+    @Override
+    public ByteBlock blockAt(long blockIndex, int blocks) {
+        if (blockIndex < 0 || blocks <= 0 || blockIndex + blocks > maxBlocks) {
+            throw new IndexOutOfBoundsException("blockIndex:" + blockIndex + ", blocks:" + blocks);
+        }
+        return new Block((int) blockIndex, blocks);
+    }
+
+    @Override
+    public long maxBlockSize() {
+        return bytesPerBlock;
+    }
+
+    void free(int blockIndex, int blocks) {
+        for (int i = 0; i < blocks; i++) {
+            free(blockIndex + i);
+        }
+    }
+
+    synchronized void free(int blockIndex) {
         int index = blockIndex * bytesPerBlock;
         if (freeTailIndex != INVALID_INDEX) {
             int magic = (int) (((long) index - freeTailIndex - bytesPerBlock) % maxLength);
-            synchronized (byteBuffer) {
-                byteBuffer.putInt(freeTailIndex, magic);
-            }
+            byteBuffer.putInt(freeTailIndex, magic);
             freeTailIndex = index;
         } else {
             freeHeadIndex = freeTailIndex = index;
@@ -86,10 +136,7 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
     }
 
     private int nextIndex(int index) {
-        int next;
-        synchronized (byteBuffer) {
-            next = byteBuffer.getInt(index);
-        }
+        int next = byteBuffer.getInt(index);
         return (int) (((long) index + next + bytesPerBlock) % maxLength);
     }
 
@@ -112,9 +159,7 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
     }
 
     public ByteBuffer byteBufferView() {
-        synchronized (byteBuffer) {
-            return byteBuffer.asReadOnlyBuffer();
-        }
+        return byteBuffer.asReadOnlyBuffer();
     }
 
     @Override
@@ -160,17 +205,25 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
     @Override
     public String toString() {
         return "name:" + name + ", maxLength:" + maxLength + ", maxBlocks:" + maxBlocks
-                + ", allocatedBlocks:" + allocatedBlocks;
+                + ", allocatedBlocks:" + getAllocatedBlocks();
     }
 
     public class Block implements ByteBlock {
 
-        private int blockIndex;
+        private volatile int blockIndex;
+        private final int blocks;
+        private final int capacity;
 
         private static final int INVALID = -1;
 
         public Block(int blockIndex) {
+            this(blockIndex, 1);
+        }
+
+        public Block(int blockIndex, int blocks) {
             this.blockIndex = blockIndex;
+            this.blocks = blocks;
+            this.capacity = blocks * bytesPerBlock;
         }
 
         @Override
@@ -188,75 +241,102 @@ public class BlockedByteBuffer implements BlockedByteBufferMBean, ByteBlockManag
                 b = blockIndex;
                 blockIndex = INVALID;
             }
-            BlockedByteBuffer.this.free(b);
+            if (blocks == 1) {
+                BlockedByteBuffer.this.free(b);
+            } else {
+                BlockedByteBuffer.this.free(b, blocks);
+            }
         }
 
         @Override
         public long capacity() {
-            return bytesPerBlock;
+            return capacity;
         }
 
         @Override
         public int get(int position) {
-            if (position < 0 || position >= bytesPerBlock) {
-                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
-            }
-            int bufferOffset = bytesPerBlock * blockIndex + position;
-            int read;
-            synchronized (byteBuffer) {
-                read = (blockIndex != INVALID) ? (byteBuffer.get(bufferOffset) & 0xFF) : -1;
+            if (position < 0 || position >= capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + capacity);
             }
-            return read;
+            int b = blockIndex;
+            return (b != INVALID) ? (byteBuffer.get(bytesPerBlock * b + position) & 0xFF) : -1;
         }
 
         @Override
         public int get(int position, byte[] bytes, int offset, int length) {
-            if (position < 0 || position > bytesPerBlock) {
-                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            if (position < 0 || position > capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + capacity);
             }
-            int left = bytesPerBlock - position;
-            int read = (length <= left) ? length : left;
-            int bufferOffset = blockIndex * bytesPerBlock + position;
-            boolean valid;
-            synchronized (byteBuffer) {
-                if (valid = (blockIndex != INVALID)) {
-                    byteBuffer.position(bufferOffset);
-                    byteBuffer.get(bytes, offset, read);
-                }
+            int b = blockIndex;
+            if (b == INVALID) {
+                return -1;
             }
-            return valid ? read : -1;
+            int left = capacity - position;
+            int read = (length <= left) ? length : left;
+            viewOf(b * bytesPerBlock + position, read).get(bytes, offset, read);
+            return read;
         }
 
         @Override
         public int put(int position, int b) {
-            if (position < 0 || position >= bytesPerBlock) {
-                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            if (position < 0 || position >= capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + capacity);
             }
-            int bufferOffset = blockIndex * bytesPerBlock + position;
-            boolean valid;
-            synchronized (byteBuffer) {
-                if (valid = (blockIndex != INVALID)) {
-                    byteBuffer.put(bufferOffset, (byte) b);
-                }
+            int bi = blockIndex;
+            if (bi == INVALID) {
+                return -1;
             }
-            return valid ? 1 : -1;
+            byteBuffer.put(bi * bytesPerBlock + position, (byte) b);
+            return 1;
         }
 
         @Override
         public int put(int position, byte[] bytes, int offset, int length) {
-            if (position < 0 || (position + length) > bytesPerBlock) {
-                throw new IndexOutOfBoundsException("position:" + position + ", length:" + length + ", capacity:" + bytesPerBlock);
+            if (position < 0 || (position + length) > capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", length:" + length + ", capacity:" + capacity);
             }
-            int written = (length <= bytesPerBlock) ? length : bytesPerBlock;
-            int bufferOffset = blockIndex * bytesPerBlock + position;
-            boolean valid;
-            synchronized (byteBuffer) {
-                if (valid = (blockIndex != INVALID)) {
-                    byteBuffer.position(bufferOffset);
-                    byteBuffer.put(bytes, offset, written);
-                }
+            int b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int written = (length <= capacity) ? length : capacity;
+            viewOf(b * bytesPerBlock + position, written).put(bytes, offset, written);
+            return written;
+        }
+
+        @Override
+        public int get(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + capacity);
+            }
+            int b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = capacity - position;
+            int remaining = byteBuffer.remaining();
+            int read = (remaining <= left) ? remaining : left;
+            byteBuffer.put(viewOf(b * bytesPerBlock + position, read));
+            return read;
+        }
+
+        @Override
+        public int put(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > capacity) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + capacity);
+            }
+            int b = blockIndex;
+            if (b == INVALID) {
+                return -1;
             }
-            return valid ? written : -1;
+            int left = capacity - position;
+            int remaining = byteBuffer.remaining();
+            int written = (remaining <= left) ? remaining : left;
+            int limit = byteBuffer.limit();
+            byteBuffer.limit(byteBuffer.position() + written);
+            viewOf(b * bytesPerBlock + position, written).put(byteBuffer);
+            byteBuffer.limit(limit);
+            return written;
         }
     }
 }
@@ -1,5 +1,7 @@
 package net.ihiroky.reservoir.accessor;
 
+import net.ihiroky.reservoir.LatencyHistogram;
+
 import javax.management.MXBean;
 
 /**
@@ -18,7 +20,64 @@ public interface BlockedByteCacheAccessorMBean {
 
     int getPartitions();
 
+    /**
+     * Returns the number of the free blocks of each partition.
+     */
+    long[] getPartitionFreeBlocks();
+
+    /**
+     * Returns the number of the allocations from each partition.
+     */
+    long[] getPartitionAllocations();
+
+    /**
+     * Returns the number of the allocations from each partition which another thread is allocating from
+     * the same partition at the same time.
+     */
+    long[] getPartitionContentions();
+
     String getEncoderClassName();
 
     String getDecoderClassName();
+
+    /**
+     * Returns the interval of the samples of the stage timing, or 0 if the stage timing is disabled.
+     */
+    int getStageTimingSampleInterval();
+
+    /**
+     * Enables the stage timing, which samples the time spent in each stage once in {@code interval}
+     * executions of the stage. The interval is rounded up to a power of two. 0 disables the stage timing.
+     */
+    void setStageTimingSampleInterval(int interval);
+
+    void resetStageTiming();
+
+    /**
+     * Returns the time to encode a value, including its key if the key coder is set.
+     */
+    LatencyHistogram.Summary getEncodeStageLatency();
+
+    /**
+     * Returns the time to acquire the lock of a value to read or write its blocks.
+     */
+    LatencyHistogram.Summary getLockWaitStageLatency();
+
+    /**
+     * Returns the time to allocate the blocks for a value in a write, including the waits for
+     * the partitions. 0 if the blocks are reused.
+     */
+    LatencyHistogram.Summary getAllocateStageLatency();
+
+    /**
+     * Returns the time to write a value into its blocks, excluding the lock wait and the allocation.
+     */
+    LatencyHistogram.Summary getWriteStageLatency();
+
+    /**
+     * Returns the time to copy the blocks of a value into a heap buffer, excluding the lock wait.
+     */
+    LatencyHistogram.Summary getReadStageLatency();
+
+    LatencyHistogram.Summary getDecodeStageLatency();
 }
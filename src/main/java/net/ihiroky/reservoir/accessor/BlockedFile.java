@@ -1,21 +1,41 @@
 package net.ihiroky.reservoir.accessor;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Created on 12/09/28, 9:31
+ * <p/>
+ * Blocks are read and written by the positional I/O of {@code FileChannel}, which doesn't change the position
+ * of the file, so the blocks can be accessed in parallel without locking the file. An I/O error on a block is
+ * thrown as a {@code RuntimeException} which has the {@code IOException} as its cause; it is not
+ * an {@code IllegalStateException}, which means no free block for the accessors.
+ * <p/>
+ * A file channel is closed if a thread is interrupted while it reads or writes the channel, and the other threads
+ * fail with {@code AsynchronousCloseException}. So the file is opened again with {@code mode} and the I/O is
+ * retried, unless this file is closed by {@link #close()}. The interrupt status of the interrupted thread is
+ * restored after the retry.
  *
  * @author Hiroki Itoh
  */
-public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
+public class BlockedFile implements ByteBlockManager, BlockedFileMBean, FreeListSupport {
 
     private String name;
     private final String filePath;
-    private final RandomAccessFile randomAccessFile;
+    private final String mode;
+    private final Object reopenLock = new Object();
+    private volatile RandomAccessFile randomAccessFile;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
     private final long bytesPerBlock;
     private long freeHeadIndex;
     private long freeTailIndex;
@@ -26,7 +46,24 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
     private static final int INVALID_INDEX = -1;
     static final int MIN_BYTES_PER_BLOCK = 8;
 
+    /** the maximum number of blocks, which is addressed by an index of the {@code BitSet} to rebuild a free list. */
+    static final long MAX_BLOCKS = Integer.MAX_VALUE;
+
     public BlockedFile(String filePath, RandomAccessFile randomAccessFile, int bytesPerBlock) throws IOException {
+        this(filePath, randomAccessFile, bytesPerBlock, FileInfo.Mode.READ_WRITE);
+    }
+
+    /**
+     * Creates a blocked file on {@code randomAccessFile}.
+     *
+     * @param filePath         the path of the file to open again when the channel is closed by an interrupt.
+     * @param randomAccessFile the opened file.
+     * @param bytesPerBlock    the bytes of a block.
+     * @param mode             the mode to open the file again.
+     * @throws IOException if an I/O error occurs.
+     */
+    public BlockedFile(String filePath, RandomAccessFile randomAccessFile, int bytesPerBlock,
+                       FileInfo.Mode mode) throws IOException {
         if (randomAccessFile == null) {
             throw new NullPointerException("byteBuffer must not be null.");
         }
@@ -37,11 +74,17 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
         if (capacity < bytesPerBlock) {
             throw new IllegalArgumentException("file must be larger than bytesPerBlock.");
         }
+        long blocks = capacity / bytesPerBlock;
+        if (blocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("the number of blocks " + blocks + " exceeds " + MAX_BLOCKS
+                    + ". Use the larger blocks or split the file.");
+        }
 
         this.filePath = filePath;
+        this.mode = mode.value;
         this.randomAccessFile = randomAccessFile;
+        this.channel = randomAccessFile.getChannel();
         this.bytesPerBlock = bytesPerBlock;
-        long blocks = capacity / bytesPerBlock;
         this.maxBlocks = blocks;
         this.maxLength = blocks * bytesPerBlock;
         this.freeHeadIndex = 0;
@@ -52,6 +95,18 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
         this.name = name;
     }
 
+    /**
+     * Returns a view of an allocated block. A run of adjacent blocks is not supported.
+     */
+    @Override
+    public ByteBlock blockAt(long blockIndex, int blocks) {
+        if (blockIndex < 0 || blocks != 1 || blockIndex >= maxBlocks) {
+            throw new IndexOutOfBoundsException("blockIndex:" + blockIndex + ", blocks:" + blocks);
+        }
+        return new Block(blockIndex);
+    }
+
+    @Override
     public long maxBlockSize() {
         return bytesPerBlock;
     }
@@ -77,15 +132,35 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
         return new Block(block);
     }
 
+    @Override
+    public synchronized int allocate(int count, ByteBlock[] blocks, int offset) {
+        int allocated = 0;
+        ByteBlock block;
+        while (allocated < count && (block = allocate()) != null) {
+            blocks[offset + allocated++] = block;
+        }
+        return allocated;
+    }
+
+    /**
+     * Allocates a block if {@code blocks} is 1, or returns null because the free list can't find adjacent blocks.
+     *
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated block or null.
+     */
+    @Override
+    public ByteBlock allocate(int blocks) {
+        return (blocks == 1) ? allocate() : null;
+    }
+
     private synchronized void free(long blockIndex) {
         long index = blockIndex * bytesPerBlock;
         if (freeTailIndex != INVALID_INDEX) {
             long magic = (index - freeTailIndex - bytesPerBlock) % maxLength;
+            ByteBuffer link = ByteBuffer.allocate(8);
+            link.putLong(0, magic);
             try {
-                synchronized (randomAccessFile) {
-                    randomAccessFile.seek(freeTailIndex);
-                    randomAccessFile.writeLong(magic);
-                }
+                write(link, freeTailIndex);
             } catch (IOException ioe) {
                 throw new RuntimeException(ioe);
             }
@@ -102,12 +177,122 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
     }
 
     private long nextIndex(long index) throws IOException {
-        long next;
-        synchronized (randomAccessFile) {
-            randomAccessFile.seek(index);
-            next = randomAccessFile.readLong();
+        ByteBuffer link = ByteBuffer.allocate(8);
+        if (read(link, index) != 8) {
+            throw new IOException("failed to read the link at " + index);
+        }
+        return (index + link.getLong(0) + bytesPerBlock) % maxLength;
+    }
+
+    /**
+     * Reads bytes from {@code position} of the file until {@code byteBuffer} is filled or the end of the file.
+     *
+     * @return the number of bytes read.
+     */
+    private int read(ByteBuffer byteBuffer, long position) throws IOException {
+        int read = 0;
+        boolean interrupted = false;
+        try {
+            while (byteBuffer.hasRemaining()) {
+                FileChannel c = channel;
+                int n;
+                try {
+                    n = c.read(byteBuffer, position + read);
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                    continue;
+                }
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return read;
+    }
+
+    private void write(ByteBuffer byteBuffer, long position) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (byteBuffer.hasRemaining()) {
+                FileChannel c = channel;
+                try {
+                    position += c.write(byteBuffer, position);
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the file again if {@code closedChannel} is still the channel of this file.
+     *
+     * @param closedChannel the channel closed while it is used.
+     * @return true if the current thread is interrupted; the interrupt status is cleared to retry the I/O.
+     * @throws ClosedChannelException if this file is closed by {@link #close()}.
+     * @throws IOException if the file can't be opened.
+     */
+    private boolean reopen(FileChannel closedChannel) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        synchronized (reopenLock) {
+            if (closed) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new ClosedChannelException();
+            }
+            if (channel == closedChannel) {
+                RandomAccessFile newFile = new RandomAccessFile(filePath, mode);
+                randomAccessFile = newFile;
+                channel = newFile.getChannel();
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * Forces the written blocks to the storage.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void force() throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                FileChannel c = channel;
+                try {
+                    c.force(false);
+                    return;
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Closes the file opened by this instance. The file passed to the constructor is closed too.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void close() throws IOException {
+        synchronized (reopenLock) {
+            closed = true;
+            randomAccessFile.close();
         }
-        return (index + next + bytesPerBlock) % maxLength;
     }
 
     public synchronized List<Number> freeBlockListView() {
@@ -127,13 +312,53 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
     }
 
     @Override
-    public byte get(long index) throws Exception {
-        int b;
-        synchronized (randomAccessFile) {
-            randomAccessFile.seek(index);
-            b = randomAccessFile.read();
+    public synchronized void writeFreeList(DataOutput out) throws IOException {
+        out.writeLong(freeHeadIndex);
+        out.writeLong(freeTailIndex);
+        out.writeLong(allocatedBlocks);
+    }
+
+    @Override
+    public synchronized void readFreeList(DataInput in) throws IOException {
+        long head = in.readLong();
+        long tail = in.readLong();
+        long allocated = in.readLong();
+        if (head < INVALID_INDEX || head >= maxLength || tail < INVALID_INDEX || tail >= maxLength
+                || allocated < 0 || allocated > maxBlocks) {
+            throw new IOException("invalid free list. head:" + head + ", tail:" + tail + ", allocated:" + allocated);
+        }
+        freeHeadIndex = head;
+        freeTailIndex = tail;
+        allocatedBlocks = allocated;
+    }
+
+    @Override
+    public synchronized void rebuildFreeList(BitSet allocated) throws IOException {
+        long head = INVALID_INDEX;
+        long tail = INVALID_INDEX;
+        long free = 0;
+        ByteBuffer link = ByteBuffer.allocate(8);
+        for (int block = allocated.nextClearBit(0); block < maxBlocks; block = allocated.nextClearBit(block + 1)) {
+            long index = (long) block * bytesPerBlock;
+            if (tail != INVALID_INDEX) {
+                link.clear();
+                link.putLong(0, (index - tail - bytesPerBlock) % maxLength);
+                write(link, tail);
+            } else {
+                head = index;
+            }
+            tail = index;
+            free++;
         }
-        return (b != -1) ? (byte) (b & 0xFF) : -1;
+        freeHeadIndex = head;
+        freeTailIndex = tail;
+        allocatedBlocks = maxBlocks - free;
+    }
+
+    @Override
+    public byte get(long index) throws Exception {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(1);
+        return (read(byteBuffer, index) == 1) ? byteBuffer.get(0) : -1;
     }
 
     public synchronized boolean hasFreeBlock() {
@@ -186,7 +411,7 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
 
     public class Block implements ByteBlock {
 
-        private long blockIndex;
+        private volatile long blockIndex;
 
         private static final int INVALID = -1;
 
@@ -218,18 +443,16 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
             if (position < 0 || position >= bytesPerBlock) {
                 throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
             }
-            long bufferOffset = bytesPerBlock * blockIndex + position;
-            int read = -1;
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1);
             try {
-                synchronized (randomAccessFile) {
-                    if (blockIndex != INVALID) {
-                        randomAccessFile.seek(bufferOffset);
-                        read = randomAccessFile.read();
-                    }
-                }
-            } catch (IOException ignored) {
+                return (read(byteBuffer, b * bytesPerBlock + position) == 1) ? byteBuffer.get(0) & 0xFF : -1;
+            } catch (IOException ioe) {
+                throw new RuntimeException("failed to read block " + b + " of " + filePath, ioe);
             }
-            return read;
         }
 
         public int get(int position, byte[] bytes, int offset, int length) {
@@ -238,60 +461,67 @@ public class BlockedFile implements ByteBlockManager, BlockedFileMBean {
             }
             int left = (int) (bytesPerBlock - position);
             int read = (length <= left) ? length : left;
-            long bufferOffset = blockIndex * bytesPerBlock + position;
-            try {
-                synchronized (randomAccessFile) {
-                    if (blockIndex != INVALID) {
-                        randomAccessFile.seek(bufferOffset);
-                        randomAccessFile.read(bytes, offset, read);
-                    } else {
-                        read = -1;
-                    }
-                }
-            } catch (IOException ioe) {
-                read = -1;
-            }
-            return read;
+            return get(position, ByteBuffer.wrap(bytes, offset, read));
         }
 
         public int put(int position, int b) {
             if (position < 0 || position >= bytesPerBlock) {
                 throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
             }
-            long bufferOffset = blockIndex * bytesPerBlock + position;
-            int read = 1;
-            try {
-                synchronized (randomAccessFile) {
-                    if (blockIndex != INVALID) {
-                        randomAccessFile.seek(bufferOffset);
-                        randomAccessFile.write(b);
-                    } else {
-                        read = -1;
-                    }
-                }
-            } catch (IOException ioe) {
-                read = -1;
-            }
-            return read;
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1);
+            byteBuffer.put(0, (byte) b);
+            return put(position, byteBuffer);
         }
 
         public int put(int position, byte[] bytes, int offset, int length) {
             if (position < 0 || (position + length) > bytesPerBlock) {
                 throw new IndexOutOfBoundsException("position:" + position + ", length:" + length + ", capacity:" + bytesPerBlock);
             }
-            int written = (int) ((length <= bytesPerBlock) ? length : bytesPerBlock);
-            long bufferOffset = blockIndex * bytesPerBlock + position;
+            return put(position, ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        public int get(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = (int) (bytesPerBlock - position);
+            int remaining = byteBuffer.remaining();
+            int read = (remaining <= left) ? remaining : left;
+            int limit = byteBuffer.limit();
+            byteBuffer.limit(byteBuffer.position() + read);
             try {
-                synchronized (randomAccessFile) {
-                    if (blockIndex != INVALID) {
-                        randomAccessFile.seek(bufferOffset);
-                        randomAccessFile.write(bytes, offset, written);
-                    } else {
-                        written = -1;
-                    }
-                }
+                // less than the bytes to read only at the end of the file.
+                return read(byteBuffer, b * bytesPerBlock + position);
+            } catch (IOException ioe) {
+                throw new RuntimeException("failed to read block " + b + " of " + filePath, ioe);
+            } finally {
+                byteBuffer.limit(limit);
+            }
+        }
+
+        public int put(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = (int) (bytesPerBlock - position);
+            int remaining = byteBuffer.remaining();
+            int written = (remaining <= left) ? remaining : left;
+            int limit = byteBuffer.limit();
+            byteBuffer.limit(byteBuffer.position() + written);
+            try {
+                write(byteBuffer, b * bytesPerBlock + position);
             } catch (IOException ioe) {
-                written = -1;
+                throw new RuntimeException("failed to write block " + b + " of " + filePath, ioe);
+            } finally {
+                byteBuffer.limit(limit);
             }
             return written;
         }
@@ -0,0 +1,527 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@code ByteBlockManager} which maps a file as a series of segments.
+ * <p/>
+ * A {@code MappedByteBuffer} is limited to {@code Integer.MAX_VALUE} bytes, so the file is mapped into segments
+ * of {@code segmentSize} bytes (rounded down to a multiple of the block size, so that no block straddles two
+ * segments), and the blocks are addressed by long indices. As {@link BlockedFile}, the free list is linked
+ * by the long links written in the free blocks.
+ * <p/>
+ * The bytes written into each segment since its last force are counted, and {@link #flush()} forces only
+ * the dirty segments. If the dirty bytes of the whole segments reach the threshold set by
+ * {@link #setFlushTrigger(long, Runnable)}, the trigger is run by the writing thread, for example to wake up
+ * a background flusher.
+ *
+ * @author Hiroki Itoh
+ */
+public class BlockedMappedFile implements ByteBlockManager, BlockedMappedFileMBean, FreeListSupport {
+
+    private String name;
+    private final String filePath;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer[] segments;
+    private final int bytesPerBlock;
+    private final int blocksPerSegment;
+    private final long maxLength;
+    private final long maxBlocks;
+    private long freeHeadIndex;
+    private long freeTailIndex;
+    private volatile long allocatedBlocks;
+
+    private final AtomicLongArray dirtyBytes;
+    private final AtomicLong wholeDirtyBytes;
+    private final Object flushLock = new Object();
+    private volatile long flushTriggerBytes = Long.MAX_VALUE;
+    private volatile Runnable flushTrigger;
+
+    private static final int INVALID_INDEX = -1;
+
+    /**
+     * Maps a file.
+     *
+     * @param filePath         a path of the file.
+     * @param randomAccessFile the file opened in the read-write mode.
+     * @param bytesPerBlock    the size of a block.
+     * @param segmentSize      the maximum size of a segment.
+     * @throws IOException if an I/O error occurs.
+     */
+    public BlockedMappedFile(String filePath, RandomAccessFile randomAccessFile,
+                             int bytesPerBlock, int segmentSize) throws IOException {
+        if (randomAccessFile == null) {
+            throw new NullPointerException("randomAccessFile must not be null.");
+        }
+        if (bytesPerBlock < BlockedFile.MIN_BYTES_PER_BLOCK) {
+            throw new IllegalArgumentException("bytesPerBlock must be >= " + BlockedFile.MIN_BYTES_PER_BLOCK);
+        }
+        if (segmentSize < bytesPerBlock) {
+            throw new IllegalArgumentException("segmentSize must be >= bytesPerBlock.");
+        }
+        long capacity = randomAccessFile.length();
+        if (capacity < bytesPerBlock) {
+            throw new IllegalArgumentException("file must be larger than bytesPerBlock.");
+        }
+        long blocks = capacity / bytesPerBlock;
+        if (blocks > BlockedFile.MAX_BLOCKS) {
+            throw new IllegalArgumentException("the number of blocks " + blocks + " exceeds " + BlockedFile.MAX_BLOCKS
+                    + ". Use the larger blocks or split the file.");
+        }
+
+        this.filePath = filePath;
+        this.randomAccessFile = randomAccessFile;
+        this.bytesPerBlock = bytesPerBlock;
+        this.blocksPerSegment = segmentSize / bytesPerBlock;
+        this.maxBlocks = blocks;
+        this.maxLength = blocks * bytesPerBlock;
+        this.freeHeadIndex = 0;
+        this.freeTailIndex = maxLength - bytesPerBlock;
+
+        long segmentBytes = (long) blocksPerSegment * bytesPerBlock;
+        int count = (int) ((maxLength + segmentBytes - 1) / segmentBytes);
+        FileChannel channel = randomAccessFile.getChannel();
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long position = i * segmentBytes;
+            long size = Math.min(segmentBytes, maxLength - position);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        }
+        this.segments = segments;
+        this.dirtyBytes = new AtomicLongArray(count);
+        this.wholeDirtyBytes = new AtomicLong();
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the segment which contains the byte at {@code index}.
+     */
+    private MappedByteBuffer segmentOf(long index) {
+        return segments[(int) (index / bytesPerBlock / blocksPerSegment)];
+    }
+
+    /**
+     * Returns the offset in the segment of the byte at {@code index}.
+     */
+    private int offsetOf(long index) {
+        return (int) ((index / bytesPerBlock % blocksPerSegment) * bytesPerBlock + index % bytesPerBlock);
+    }
+
+    /**
+     * Counts {@code bytes} written at {@code index} as dirty.
+     */
+    private void markDirty(long index, int bytes) {
+        dirtyBytes.addAndGet((int) (index / bytesPerBlock / blocksPerSegment), bytes);
+        long whole = wholeDirtyBytes.addAndGet(bytes);
+        long threshold = flushTriggerBytes;
+        if (whole >= threshold && whole - bytes < threshold) {
+            Runnable trigger = flushTrigger;
+            if (trigger != null) {
+                trigger.run();
+            }
+        }
+    }
+
+    /**
+     * Sets a trigger run when the dirty bytes reach {@code bytes}.
+     *
+     * @param bytes   the threshold of the dirty bytes.
+     * @param trigger the trigger, or null to remove the trigger.
+     */
+    void setFlushTrigger(long bytes, Runnable trigger) {
+        this.flushTriggerBytes = (trigger != null && bytes > 0) ? bytes : Long.MAX_VALUE;
+        this.flushTrigger = trigger;
+    }
+
+    /**
+     * Returns a duplicate of the segment positioned at the byte at {@code index} and limited to
+     * {@code length} bytes, to read or write in bulk without changing the position of the segment.
+     */
+    private ByteBuffer viewOf(long index, int length) {
+        int offset = offsetOf(index);
+        ByteBuffer bb = segmentOf(index).duplicate();
+        bb.limit(offset + length).position(offset);
+        return bb;
+    }
+
+    /**
+     * Returns a view of an allocated block. A run of adjacent blocks is not supported.
+     */
+    @Override
+    public ByteBlock blockAt(long blockIndex, int blocks) {
+        if (blockIndex < 0 || blocks != 1 || blockIndex >= maxBlocks) {
+            throw new IndexOutOfBoundsException("blockIndex:" + blockIndex + ", blocks:" + blocks);
+        }
+        return new Block(blockIndex);
+    }
+
+    @Override
+    public long maxBlockSize() {
+        return bytesPerBlock;
+    }
+
+    @Override
+    public ByteBlock allocate() {
+        long block;
+        synchronized (this) {
+            if (freeHeadIndex == INVALID_INDEX) {
+                return null;
+            }
+            block = freeHeadIndex / bytesPerBlock;
+            if (freeHeadIndex != freeTailIndex) {
+                freeHeadIndex = nextIndex(freeHeadIndex);
+            } else {
+                freeHeadIndex = freeTailIndex = INVALID_INDEX;
+            }
+            allocatedBlocks++;
+        }
+        return new Block(block);
+    }
+
+    @Override
+    public synchronized int allocate(int count, ByteBlock[] blocks, int offset) {
+        int allocated = 0;
+        ByteBlock block;
+        while (allocated < count && (block = allocate()) != null) {
+            blocks[offset + allocated++] = block;
+        }
+        return allocated;
+    }
+
+    /**
+     * Allocates a block if {@code blocks} is 1, or returns null because the free list can't find adjacent blocks.
+     *
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated block or null.
+     */
+    @Override
+    public ByteBlock allocate(int blocks) {
+        return (blocks == 1) ? allocate() : null;
+    }
+
+    private synchronized void free(long blockIndex) {
+        long index = blockIndex * bytesPerBlock;
+        if (freeTailIndex != INVALID_INDEX) {
+            long magic = (index - freeTailIndex - bytesPerBlock) % maxLength;
+            segmentOf(freeTailIndex).putLong(offsetOf(freeTailIndex), magic);
+            markDirty(freeTailIndex, 8);
+            freeTailIndex = index;
+        } else {
+            freeHeadIndex = freeTailIndex = index;
+        }
+        allocatedBlocks--;
+    }
+
+    @Override
+    public synchronized void free() {
+        freeHeadIndex = freeTailIndex = 0;
+        allocatedBlocks = 0;
+    }
+
+    private long nextIndex(long index) {
+        long next = segmentOf(index).getLong(offsetOf(index));
+        return (index + next + bytesPerBlock) % maxLength;
+    }
+
+    @Override
+    public synchronized List<Number> freeBlockListView() {
+        List<Number> list = new LinkedList<Number>();
+        for (long index = freeHeadIndex; index != freeTailIndex; ) {
+            list.add(index / bytesPerBlock);
+            index = nextIndex(index);
+        }
+        if (freeTailIndex != INVALID_INDEX) {
+            list.add(freeTailIndex / bytesPerBlock);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized void writeFreeList(DataOutput out) throws IOException {
+        out.writeLong(freeHeadIndex);
+        out.writeLong(freeTailIndex);
+        out.writeLong(allocatedBlocks);
+    }
+
+    @Override
+    public synchronized void readFreeList(DataInput in) throws IOException {
+        long head = in.readLong();
+        long tail = in.readLong();
+        long allocated = in.readLong();
+        if (head < INVALID_INDEX || head >= maxLength || tail < INVALID_INDEX || tail >= maxLength
+                || allocated < 0 || allocated > maxBlocks) {
+            throw new IOException("invalid free list. head:" + head + ", tail:" + tail + ", allocated:" + allocated);
+        }
+        freeHeadIndex = head;
+        freeTailIndex = tail;
+        allocatedBlocks = allocated;
+    }
+
+    @Override
+    public synchronized void rebuildFreeList(BitSet allocated) {
+        long head = INVALID_INDEX;
+        long tail = INVALID_INDEX;
+        long free = 0;
+        for (int block = allocated.nextClearBit(0); block < maxBlocks; block = allocated.nextClearBit(block + 1)) {
+            long index = (long) block * bytesPerBlock;
+            if (tail != INVALID_INDEX) {
+                segmentOf(tail).putLong(offsetOf(tail), (index - tail - bytesPerBlock) % maxLength);
+                markDirty(tail, 8);
+            } else {
+                head = index;
+            }
+            tail = index;
+            free++;
+        }
+        freeHeadIndex = head;
+        freeTailIndex = tail;
+        allocatedBlocks = maxBlocks - free;
+    }
+
+    /**
+     * Forces the changes of the dirty segments to the storage. The allocations and the writes are not blocked
+     * while forcing.
+     *
+     * @return the dirty bytes forced.
+     */
+    public long flush() {
+        long flushed = 0;
+        synchronized (flushLock) {
+            for (int i = 0; i < segments.length; i++) {
+                long dirty = dirtyBytes.getAndSet(i, 0);
+                if (dirty > 0) {
+                    segments[i].force();
+                    wholeDirtyBytes.addAndGet(-dirty);
+                    flushed += dirty;
+                }
+            }
+        }
+        return flushed;
+    }
+
+    @Override
+    public byte get(long index) {
+        return segmentOf(index).get(offsetOf(index));
+    }
+
+    @Override
+    public synchronized boolean hasFreeBlock() {
+        return (freeHeadIndex != INVALID_INDEX);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getFilePath() {
+        return filePath;
+    }
+
+    @Override
+    public long getFileLength() {
+        try {
+            return randomAccessFile.length();
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    @Override
+    public long getBytesPerBlock() {
+        return bytesPerBlock;
+    }
+
+    @Override
+    public long getLength() {
+        return maxLength;
+    }
+
+    @Override
+    public long getBlocks() {
+        return maxBlocks;
+    }
+
+    @Override
+    public long getAllocatedBlocks() {
+        return allocatedBlocks;
+    }
+
+    @Override
+    public int getSegments() {
+        return segments.length;
+    }
+
+    @Override
+    public long getSegmentSize() {
+        return (long) blocksPerSegment * bytesPerBlock;
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        return wholeDirtyBytes.get();
+    }
+
+    @Override
+    public int getDirtySegments() {
+        int dirty = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (dirtyBytes.get(i) > 0) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    @Override
+    public String toString() {
+        return "name:" + name + ", path:" + filePath + ", maxLength:" + maxLength + ", maxBlocks:" + maxBlocks
+                + ", segments:" + segments.length + ", allocatedBlocks:" + allocatedBlocks;
+    }
+
+    public class Block implements ByteBlock {
+
+        private volatile long blockIndex;
+
+        private static final int INVALID = -1;
+
+        public Block(long blockIndex) {
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public long getBlockIndex() {
+            return blockIndex;
+        }
+
+        @Override
+        public void free() {
+            long b;
+            synchronized (this) {
+                if (blockIndex == INVALID) {
+                    return;
+                }
+                b = blockIndex;
+                blockIndex = INVALID;
+            }
+            BlockedMappedFile.this.free(b);
+        }
+
+        @Override
+        public long capacity() {
+            return bytesPerBlock;
+        }
+
+        @Override
+        public int get(int position) {
+            if (position < 0 || position >= bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            long index = b * bytesPerBlock + position;
+            return segmentOf(index).get(offsetOf(index)) & 0xFF;
+        }
+
+        @Override
+        public int get(int position, byte[] bytes, int offset, int length) {
+            if (position < 0 || position > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = bytesPerBlock - position;
+            int read = (length <= left) ? length : left;
+            long index = b * bytesPerBlock + position;
+            viewOf(index, read).get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int put(int position, int b) {
+            if (position < 0 || position >= bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long bi = blockIndex;
+            if (bi == INVALID) {
+                return -1;
+            }
+            long index = bi * bytesPerBlock + position;
+            segmentOf(index).put(offsetOf(index), (byte) b);
+            markDirty(index, 1);
+            return 1;
+        }
+
+        @Override
+        public int put(int position, byte[] bytes, int offset, int length) {
+            if (position < 0 || (position + length) > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", length:" + length + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            long index = b * bytesPerBlock + position;
+            viewOf(index, length).put(bytes, offset, length);
+            markDirty(index, length);
+            return length;
+        }
+
+        @Override
+        public int get(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = bytesPerBlock - position;
+            int remaining = byteBuffer.remaining();
+            int read = (remaining <= left) ? remaining : left;
+            long index = b * bytesPerBlock + position;
+            byteBuffer.put(viewOf(index, read));
+            return read;
+        }
+
+        @Override
+        public int put(int position, ByteBuffer byteBuffer) {
+            if (position < 0 || position > bytesPerBlock) {
+                throw new IndexOutOfBoundsException("position:" + position + ", capacity:" + bytesPerBlock);
+            }
+            long b = blockIndex;
+            if (b == INVALID) {
+                return -1;
+            }
+            int left = bytesPerBlock - position;
+            int remaining = byteBuffer.remaining();
+            int written = (remaining <= left) ? remaining : left;
+            long index = b * bytesPerBlock + position;
+            int limit = byteBuffer.limit();
+            byteBuffer.limit(byteBuffer.position() + written);
+            viewOf(index, written).put(byteBuffer);
+            byteBuffer.limit(limit);
+            markDirty(index, written);
+            return written;
+        }
+    }
+}
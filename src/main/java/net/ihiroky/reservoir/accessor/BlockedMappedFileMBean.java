@@ -0,0 +1,14 @@
+package net.ihiroky.reservoir.accessor;
+
+import javax.management.MXBean;
+
+/**
+ * @author Hiroki Itoh
+ */
+@MXBean
+public interface BlockedMappedFileMBean extends BlockedFileMBean {
+    int getSegments();
+    long getSegmentSize();
+    long getDirtyBytes();
+    int getDirtySegments();
+}
@@ -1,5 +1,7 @@
 package net.ihiroky.reservoir.accessor;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created on 12/10/31, 12:04
  *
@@ -19,4 +21,26 @@ public interface ByteBlock {
     int put(int position, int b);
 
     int put(int position, byte[] bytes, int offset, int length);
+
+    /**
+     * Transfers bytes from this block into the given buffer, starting at {@code position} of this block.
+     * The number of bytes transferred is the smaller of {@code byteBuffer.remaining()} and the bytes left
+     * in this block. The position of {@code byteBuffer} is advanced by the number.
+     *
+     * @param position   a position in this block.
+     * @param byteBuffer a buffer into which bytes are to be written.
+     * @return the number of bytes transferred, or -1 if this block is already freed.
+     */
+    int get(int position, ByteBuffer byteBuffer);
+
+    /**
+     * Transfers bytes from the given buffer into this block, starting at {@code position} of this block.
+     * The number of bytes transferred is the smaller of {@code byteBuffer.remaining()} and the bytes left
+     * in this block. The position of {@code byteBuffer} is advanced by the number.
+     *
+     * @param position   a position in this block.
+     * @param byteBuffer a buffer from which bytes are to be read.
+     * @return the number of bytes transferred, or -1 if this block is already freed.
+     */
+    int put(int position, ByteBuffer byteBuffer);
 }
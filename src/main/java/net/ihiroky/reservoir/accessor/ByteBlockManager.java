@@ -10,6 +10,45 @@ import java.util.List;
 public interface ByteBlockManager {
     ByteBlock allocate();
 
+    /**
+     * Allocates a run of adjacent blocks as one {@code ByteBlock}, whose capacity is
+     * {@code blocks} times as large as the block size.
+     *
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated block, or null if there is no free run of the length or this manager
+     * can't allocate adjacent blocks.
+     */
+    ByteBlock allocate(int blocks);
+
+    /**
+     * Allocates up to {@code count} single blocks at once. A manager which allocates under a lock acquires
+     * the lock once for the blocks.
+     *
+     * @param count the number of the blocks to allocate.
+     * @param blocks the array to store the allocated blocks.
+     * @param offset the index of {@code blocks} to store the first block.
+     * @return the number of the allocated blocks, which is less than {@code count} if this manager doesn't
+     * have enough free blocks.
+     */
+    int allocate(int count, ByteBlock[] blocks, int offset);
+
+    /**
+     * Returns a {@code ByteBlock} to access blocks already allocated by this manager. The returned block is
+     * a view; freeing it frees the blocks.
+     *
+     * @param blockIndex the index of the (first) block returned by {@link ByteBlock#getBlockIndex()}.
+     * @param blocks the number of the adjacent blocks.
+     * @return the view of the blocks.
+     */
+    ByteBlock blockAt(long blockIndex, int blocks);
+
+    /**
+     * Returns the size of a block in bytes.
+     *
+     * @return the size of a block.
+     */
+    long maxBlockSize();
+
     void free();
 
     boolean hasFreeBlock();
@@ -24,6 +24,7 @@ public class ByteBufferCacheAccessor<K, V> extends AbstractBlockedByteCacheAcces
     private static final String KEY_BLOCK_SIZE = "reservoir.ByteBufferCacheAccessor.blockSize";
     private static final String KEY_PARTITIONS = "reservoir.ByteBufferCacheAccessor.partitions";
     private static final String KEY_CODER = "reservoir.ByteBufferCacheAccessor.coder";
+    private static final String KEY_ALLOCATION = "reservoir.ByteBufferCacheAccessor.allocation";
 
     private static final String KEY_PARTITION_PREFIX = "partition.";
     private static final String KEY_DIRECT_SUFFIX = ".direct";
@@ -33,32 +34,84 @@ public class ByteBufferCacheAccessor<K, V> extends AbstractBlockedByteCacheAcces
     private static final long DEFAULT_SIZE = 512 * 1024 * 1024;
     private static final int DEFAULT_BLOCK_SIZE = 512;
     private static final int DEFAULT_PARTITIONS = 16;
+    private static final Allocation DEFAULT_ALLOCATION = Allocation.FREE_LIST;
+
+    /**
+     * Strategies to allocate blocks in each partition.
+     */
+    public enum Allocation {
+        /**
+         * Blocks are allocated from a free list in FIFO order under the partition monitor.
+         */
+        FREE_LIST {
+            @Override
+            BlockedByteBuffer create(ByteBuffer byteBuffer, int blockSize) {
+                return new BlockedByteBuffer(byteBuffer, blockSize);
+            }
+        },
+        /**
+         * Blocks are allocated from a lock free stack.
+         */
+        LOCK_FREE {
+            @Override
+            BlockedByteBuffer create(ByteBuffer byteBuffer, int blockSize) {
+                return new ConcurrentBlockedByteBuffer(byteBuffer, blockSize);
+            }
+        },
+        /**
+         * A value larger than the block size is stored in adjacent blocks if possible.
+         */
+        EXTENT {
+            @Override
+            BlockedByteBuffer create(ByteBuffer byteBuffer, int blockSize) {
+                return new ExtentBlockedByteBuffer(byteBuffer, blockSize);
+            }
+        },;
+
+        abstract BlockedByteBuffer create(ByteBuffer byteBuffer, int blockSize);
+    }
 
     public void prepare(String name, int blockSize, Coder<V> coder, Collection<ByteBufferInfo> byteBufferInfos) {
+        prepare(name, blockSize, DEFAULT_ALLOCATION, coder, byteBufferInfos);
+    }
+
+    public void prepare(String name, int blockSize, Allocation allocation,
+                        Coder<V> coder, Collection<ByteBufferInfo> byteBufferInfos) {
         if (name == null) {
             throw new NullPointerException("name must not be null.");
         }
         if (coder == null) {
             throw new NullPointerException("coder must not be null.");
         }
+        if (allocation == null) {
+            throw new NullPointerException("allocation must not be null.");
+        }
 
         BlockedByteBuffer[] bbbArray = new BlockedByteBuffer[byteBufferInfos.size()];
         int count = 0;
         for (ByteBufferInfo byteBufferInfo : byteBufferInfos) {
             ByteBuffer byteBuffer = byteBufferInfo.direct
                     ? ByteBuffer.allocateDirect(byteBufferInfo.capacity) : ByteBuffer.allocate(byteBufferInfo.capacity);
-            bbbArray[count++] = new BlockedByteBuffer(byteBuffer, blockSize);
+            bbbArray[count++] = allocation.create(byteBuffer, blockSize);
         }
-        prepare(name, bbbArray, blockSize, coder);
+        prepare(name, bbbArray, blockSize, coder, allocation == Allocation.EXTENT);
     }
 
     public void prepare(String name, boolean direct, long size, int blockSize, int partitionsHint, Coder<V> coder) {
+        prepare(name, direct, size, blockSize, partitionsHint, DEFAULT_ALLOCATION, coder);
+    }
+
+    public void prepare(String name, boolean direct, long size, int blockSize, int partitionsHint,
+                        Allocation allocation, Coder<V> coder) {
         if (name == null) {
             throw new NullPointerException("name must not be null.");
         }
         if (coder == null) {
             throw new NullPointerException("coder must not be null.");
         }
+        if (allocation == null) {
+            throw new NullPointerException("allocation must not be null.");
+        }
         if (size < blockSize
                 || blockSize < BlockedByteBuffer.MIN_BYTES_PER_BLOCK
                 || partitionsHint <= 0
@@ -83,12 +136,12 @@ public class ByteBufferCacheAccessor<K, V> extends AbstractBlockedByteCacheAcces
             }
             ByteBuffer byteBuffer = direct ?
                     ByteBuffer.allocateDirect(bbbSize) : ByteBuffer.allocate(bbbSize);
-            bbbArray[i] = new BlockedByteBuffer(byteBuffer, blockSize);
+            bbbArray[i] = allocation.create(byteBuffer, blockSize);
             bbbArray[i].setName(name + '-' + String.format("%5d", i));
             left -= bbbSize;
         }
 
-        prepare(name, bbbArray, blockSize, coder);
+        prepare(name, bbbArray, blockSize, coder, allocation == Allocation.EXTENT);
     }
 
     @Override
@@ -98,17 +151,30 @@ public class ByteBufferCacheAccessor<K, V> extends AbstractBlockedByteCacheAcces
         @SuppressWarnings("unchecked")
         Coder<V> coder = (Coder<V>) PropertiesSupport.newInstance(props, KEY_CODER, SerializableCoder.class);
         coder.init(props);
+        Allocation allocation = parseAllocation(props);
 
         Collection<ByteBufferInfo> byteBufferInfos = parseByteBufferInfo(props);
         if (byteBufferInfos.size() > 0) {
-            prepare(name, blockSize, coder, byteBufferInfos);
+            prepare(name, blockSize, allocation, coder, byteBufferInfos);
             return;
         }
 
         boolean direct = PropertiesSupport.booleanValue(props, KEY_DIRECT, DEFAULT_DIRECT);
         long size = PropertiesSupport.longValue(props, KEY_SIZE, DEFAULT_SIZE);
         int partitions = PropertiesSupport.intValue(props, KEY_PARTITIONS, DEFAULT_PARTITIONS);
-        prepare(name, direct, size, blockSize, partitions, coder);
+        prepare(name, direct, size, blockSize, partitions, allocation, coder);
+    }
+
+    private Allocation parseAllocation(Properties props) {
+        String value = props.getProperty(KEY_ALLOCATION);
+        if (value == null) {
+            return DEFAULT_ALLOCATION;
+        }
+        try {
+            return Allocation.valueOf(value);
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("failed to parse property. key:" + KEY_ALLOCATION + ", value:" + value, iae);
+        }
     }
 
     private Collection<ByteBufferInfo> parseByteBufferInfo(Properties props) {
@@ -0,0 +1,158 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@code BlockedByteBuffer} which allocates and frees blocks without locking.
+ * <p/>
+ * Freed blocks are kept in a Treiber stack. The link to the next free block is stored in the first four bytes
+ * of each free block, and the head of the stack is packed into an {@code AtomicLong} with a stamp to avoid
+ * the ABA problem. Blocks which have never been allocated are handed out from a bump pointer, so the buffer
+ * is not touched until the block is used.
+ *
+ * @author Hiroki Itoh
+ */
+public class ConcurrentBlockedByteBuffer extends BlockedByteBuffer {
+
+    private final ByteBuffer byteBuffer;
+    private final AtomicLong freeHead;
+    private final AtomicInteger unusedHead;
+    private final AtomicInteger allocatedBlocks;
+
+    private static final int INVALID_INDEX = -1;
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+    private static final int STAMP_SHIFT = 32;
+
+    public ConcurrentBlockedByteBuffer(ByteBuffer byteBuffer, int bytesPerBlock) {
+        super(byteBuffer, bytesPerBlock);
+        this.byteBuffer = byteBuffer;
+        this.freeHead = new AtomicLong(pack(INVALID_INDEX, 0));
+        this.unusedHead = new AtomicInteger();
+        this.allocatedBlocks = new AtomicInteger();
+    }
+
+    private static long pack(int blockIndex, int stamp) {
+        return ((long) stamp << STAMP_SHIFT) | (blockIndex & INDEX_MASK);
+    }
+
+    private static int blockIndexOf(long head) {
+        return (int) head;
+    }
+
+    private static int stampOf(long head) {
+        return (int) (head >>> STAMP_SHIFT);
+    }
+
+    private int nextOf(int blockIndex) {
+        return byteBuffer.getInt(blockIndex * getBytesPerBlock());
+    }
+
+    @Override
+    public ByteBlock allocate() {
+        int block = pop();
+        if (block == INVALID_INDEX) {
+            block = bump();
+            if (block == INVALID_INDEX) {
+                return null;
+            }
+        }
+        allocatedBlocks.incrementAndGet();
+        return new Block(block);
+    }
+
+    /**
+     * Allocates the blocks one by one without the monitor of this buffer, which the other threads
+     * don't have to wait for.
+     */
+    @Override
+    public int allocate(int count, ByteBlock[] blocks, int offset) {
+        int allocated = 0;
+        ByteBlock block;
+        while (allocated < count && (block = allocate()) != null) {
+            blocks[offset + allocated++] = block;
+        }
+        return allocated;
+    }
+
+    private int pop() {
+        long head;
+        int block;
+        do {
+            head = freeHead.get();
+            block = blockIndexOf(head);
+            if (block == INVALID_INDEX) {
+                return INVALID_INDEX;
+            }
+            // the next link may be overwritten by the other thread if the block is popped concurrently,
+            // but then the stamp is also changed and the following CAS fails.
+        } while (!freeHead.compareAndSet(head, pack(nextOf(block), stampOf(head) + 1)));
+        return block;
+    }
+
+    private int bump() {
+        int maxBlocks = (int) getBlocks();
+        int block;
+        do {
+            block = unusedHead.get();
+            if (block >= maxBlocks) {
+                return INVALID_INDEX;
+            }
+        } while (!unusedHead.compareAndSet(block, block + 1));
+        return block;
+    }
+
+    @Override
+    void free(int blockIndex) {
+        int offset = blockIndex * getBytesPerBlock();
+        long head;
+        do {
+            head = freeHead.get();
+            byteBuffer.putInt(offset, blockIndexOf(head));
+        } while (!freeHead.compareAndSet(head, pack(blockIndex, stampOf(head) + 1)));
+        allocatedBlocks.decrementAndGet();
+    }
+
+    @Override
+    public void free() {
+        long head;
+        do {
+            head = freeHead.get();
+        } while (!freeHead.compareAndSet(head, pack(INVALID_INDEX, stampOf(head) + 1)));
+        unusedHead.set(0);
+        allocatedBlocks.set(0);
+    }
+
+    /**
+     * Returns free blocks. The result is not a snapshot if the other threads are allocating or freeing blocks.
+     *
+     * @return a list of free block indices, the stacked blocks first and then the blocks never allocated.
+     */
+    @Override
+    public List<Number> freeBlockListView() {
+        List<Number> list = new LinkedList<Number>();
+        int maxBlocks = (int) getBlocks();
+        int block = blockIndexOf(freeHead.get());
+        for (int i = 0; i < maxBlocks && block >= 0 && block < maxBlocks; i++) {
+            list.add(block);
+            block = nextOf(block);
+        }
+        for (block = unusedHead.get(); block < maxBlocks; block++) {
+            list.add(block);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean hasFreeBlock() {
+        return blockIndexOf(freeHead.get()) != INVALID_INDEX || unusedHead.get() < getBlocks();
+    }
+
+    @Override
+    public long getAllocatedBlocks() {
+        return allocatedBlocks.get();
+    }
+}
@@ -0,0 +1,142 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code BlockedByteBuffer} which can allocate a run of adjacent blocks (an extent) as one {@code ByteBlock}.
+ * <p/>
+ * Free blocks are managed by a bitmap, one bit per block, and a run is searched with next fit from the end of
+ * the last allocation. A value stored in an extent is read and written with a single bulk copy, and needs only
+ * one {@code Block} object.
+ *
+ * @author Hiroki Itoh
+ */
+public class ExtentBlockedByteBuffer extends BlockedByteBuffer {
+
+    /** bit 1 means the block is allocated. */
+    private final long[] allocationBits;
+    private final int maxBlocks;
+    private int cursor;
+    private volatile int allocatedBlocks;
+
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_MASK = 0x3F;
+    private static final long ALL_ALLOCATED = -1L;
+
+    public ExtentBlockedByteBuffer(ByteBuffer byteBuffer, int bytesPerBlock) {
+        super(byteBuffer, bytesPerBlock);
+        this.maxBlocks = (int) getBlocks();
+        this.allocationBits = new long[(maxBlocks + WORD_MASK) >>> WORD_SHIFT];
+    }
+
+    private boolean isAllocated(int block) {
+        return (allocationBits[block >>> WORD_SHIFT] & (1L << (block & WORD_MASK))) != 0;
+    }
+
+    private void setAllocated(int block, int blocks, boolean allocated) {
+        for (int i = block; i < block + blocks; i++) {
+            if (allocated) {
+                allocationBits[i >>> WORD_SHIFT] |= 1L << (i & WORD_MASK);
+            } else {
+                allocationBits[i >>> WORD_SHIFT] &= ~(1L << (i & WORD_MASK));
+            }
+        }
+    }
+
+    /**
+     * Finds the head of a free run which has {@code blocks} blocks in [{@code from}, {@code to}).
+     */
+    private int findRun(int blocks, int from, int to) {
+        int runHead = from;
+        int runLength = 0;
+        for (int i = from; i < to; ) {
+            if ((i & WORD_MASK) == 0 && allocationBits[i >>> WORD_SHIFT] == ALL_ALLOCATED) {
+                i += Long.SIZE;
+                runHead = i;
+                runLength = 0;
+                continue;
+            }
+            if (isAllocated(i)) {
+                runHead = i + 1;
+                runLength = 0;
+            } else if (++runLength == blocks) {
+                return runHead;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    @Override
+    public ByteBlock allocate() {
+        return allocate(1);
+    }
+
+    @Override
+    public ByteBlock allocate(int blocks) {
+        if (blocks <= 0 || blocks > maxBlocks) {
+            return null;
+        }
+        int block;
+        synchronized (this) {
+            if (maxBlocks - allocatedBlocks < blocks) {
+                return null;
+            }
+            block = findRun(blocks, cursor, maxBlocks);
+            if (block == -1) {
+                int to = cursor + blocks - 1;
+                block = findRun(blocks, 0, (to < maxBlocks) ? to : maxBlocks);
+                if (block == -1) {
+                    return null;
+                }
+            }
+            setAllocated(block, blocks, true);
+            cursor = (block + blocks < maxBlocks) ? block + blocks : 0;
+            allocatedBlocks += blocks;
+        }
+        return new Block(block, blocks);
+    }
+
+    @Override
+    void free(int blockIndex) {
+        free(blockIndex, 1);
+    }
+
+    @Override
+    synchronized void free(int blockIndex, int blocks) {
+        setAllocated(blockIndex, blocks, false);
+        allocatedBlocks -= blocks;
+    }
+
+    @Override
+    public synchronized void free() {
+        for (int i = 0; i < allocationBits.length; i++) {
+            allocationBits[i] = 0L;
+        }
+        cursor = 0;
+        allocatedBlocks = 0;
+    }
+
+    @Override
+    public synchronized List<Number> freeBlockListView() {
+        List<Number> list = new ArrayList<Number>(maxBlocks - allocatedBlocks);
+        for (int i = 0; i < maxBlocks; i++) {
+            if (!isAllocated(i)) {
+                list.add(i);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public boolean hasFreeBlock() {
+        return allocatedBlocks < maxBlocks;
+    }
+
+    @Override
+    public long getAllocatedBlocks() {
+        return allocatedBlocks;
+    }
+}
@@ -1,27 +1,77 @@
 package net.ihiroky.reservoir.accessor;
 
+import net.ihiroky.reservoir.AsyncReadSupport;
+import net.ihiroky.reservoir.CacheFuture;
 import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.CountThreadFactory;
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.PersistenceSupport;
 import net.ihiroky.reservoir.PropertiesSupport;
+import net.ihiroky.reservoir.Ref;
 import net.ihiroky.reservoir.coder.SerializableCoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Created on 12/10/31, 15:18
+ * <p/>
+ * If a checkpoint file is specified, the accessor is persistent. When the cache is disposed, the accessor writes
+ * the keys and the block pointers of the entries, and the free lists of the files into the checkpoint file.
+ * The next accessor prepared with the same files, block size and coders restores the free lists and the entries
+ * from the checkpoint without reading the values. The keys are encoded by the key coder, which must be set before
+ * the preparation. Without a valid checkpoint, the files are truncated. Without the write-ahead log, the restored
+ * checkpoint is deleted, so a crash after the restart never restores the stale checkpoint.
+ * <p/>
+ * If a write-ahead log is specified, the puts and the removes are appended to the log and forced to the storage
+ * in groups, every {@code syncInterval} milliseconds or {@code syncBytes} bytes. A record is appended under
+ * the write lock of the ref and has the id of the ref, so the records of a key are replayed in the order of
+ * the writes. The restored checkpoint is kept as the base of the recovery and marked in use; the blocks it refers
+ * to are never overwritten, and are freed only after the log is forced with the records which supersede them.
+ * If the accessor is prepared with the checkpoint in use, such as after a crash, the entries are restored from
+ * the checkpoint, the free lists are linked again from the blocks which the entries don't use, and the log is
+ * replayed on top of them. Without a valid checkpoint, the log is replayed into the truncated files. The log is
+ * truncated only when a new checkpoint replaces the old one.
+ * <p/>
+ * When the records in the log reach {@code checkpointBytes}, a background thread writes a new checkpoint in use
+ * while the entries are written concurrently, and rolls the log over to the records appended after it started.
+ * Every block is treated as pinned while the checkpoint is written, so the blocks it refers to are never
+ * overwritten until the records which supersede them are forced.
+ * <p/>
+ * {@link #readAsync(Ref)} reads the blocks of a value in parallel by a pool of {@code readThreads} threads,
+ * which is created on the first asynchronous read.
  *
  * @author Hiroki Itoh
  */
-public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K, V> {
+public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K, V>
+        implements PersistenceSupport<K, V>, AsyncReadSupport<V> {
 
     private Logger logger = LoggerFactory.getLogger(FileCacheAccessor.class);
 
@@ -32,8 +82,61 @@ public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K,
     private static final String KEY_PATH_SUFFIX = ".path";
     private static final String KEY_SIZE_SUFFIX = ".size";
     private static final String KEY_MODE_SUFFIX = ".mode";
+    private static final String KEY_CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String KEY_WAL_SUFFIX = ".wal";
+    private static final String KEY_WAL_SYNC_INTERVAL_SUFFIX = ".wal.syncInterval";
+    private static final String KEY_WAL_SYNC_BYTES_SUFFIX = ".wal.syncBytes";
+    private static final String KEY_WAL_CHECKPOINT_BYTES_SUFFIX = ".wal.checkpointBytes";
+    private static final String KEY_READ_THREADS_SUFFIX = ".readThreads";
+
+    private static final int DEFAULT_READ_THREADS = 4;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+
+    private static final long CHECKPOINT_MAGIC = 0x52737276436b7074L;
+    private static final int CHECKPOINT_VERSION = 2;
+    private static final int CHECKPOINT_STATE_OFFSET = 8 + 4;
+
+    /** the state of a checkpoint written by {@link #checkpoint(Index)}. */
+    private static final byte CHECKPOINT_CLEAN = 0;
+
+    /** the state of a checkpoint restored by an accessor with the write-ahead log; the free lists may be stale. */
+    private static final byte CHECKPOINT_IN_USE = 1;
 
     private volatile Collection<RandomAccessFile> randomAccessFiles = Collections.emptyList();
+    private ByteBlockManager[] byteBlockManagers;
+    private Collection<FileInfo> fileInfos;
+    private int blockSize;
+    private String coderClassName;
+    private File checkpointFile;
+    private boolean checkpointInUse;
+    private DataInputStream checkpointEntries;
+    private File walFile;
+    private long walSyncIntervalMillis;
+    private long walSyncBytes;
+    private long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+    private WriteAheadLog wal;
+    private Coder.Encoder<K> walKeyEncoder;
+    private Set<Long> removedRefIds;
+    private final AtomicLong refIds = new AtomicLong();
+
+    /** the blocks referred by the restored checkpoint, for each partition; null if nothing is pinned. */
+    private volatile AtomicLongArray[] pinnedBlocks;
+
+    // guarded by deferredLock.
+    private final Object deferredLock = new Object();
+    private long[] deferredBlocks = new long[16];
+    private int deferredSize;
+    private int readThreads = DEFAULT_READ_THREADS;
+    private ExecutorService readExecutor;
+
+    /** serializes the checkpoints. */
+    private final Object checkpointLock = new Object();
+    private final AtomicBoolean checkpointScheduled = new AtomicBoolean();
+    private ExecutorService checkpointExecutor;
+    private boolean checkpointExecutorClosed;
+
+    /** true while a checkpoint is written concurrently with the writes; every block is treated as pinned. */
+    private volatile boolean checkpointing;
 
     private String getClassName() {
         String className = this.getClass().getName();
@@ -78,9 +181,21 @@ public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K,
         @SuppressWarnings("unchecked")
         Coder<V> coder = (Coder<V>) PropertiesSupport.newInstance(
                 props, KEY_PREFIX + cn + KEY_CODER_SUFFIX, SerializableCoder.class);
+        String checkpointPath = props.getProperty(KEY_PREFIX + cn + KEY_CHECKPOINT_SUFFIX);
+        String walPath = props.getProperty(KEY_PREFIX + cn + KEY_WAL_SUFFIX);
+        setReadThreads(PropertiesSupport.intValue(
+                props, KEY_PREFIX + cn + KEY_READ_THREADS_SUFFIX, DEFAULT_READ_THREADS));
+        if (walPath != null) {
+            setWriteAheadLog(new File(walPath),
+                    PropertiesSupport.longValue(props, KEY_PREFIX + cn + KEY_WAL_SYNC_INTERVAL_SUFFIX, 100),
+                    PropertiesSupport.longValue(props, KEY_PREFIX + cn + KEY_WAL_SYNC_BYTES_SUFFIX, 1024 * 1024));
+            setCheckpointBytes(PropertiesSupport.longValue(
+                    props, KEY_PREFIX + cn + KEY_WAL_CHECKPOINT_BYTES_SUFFIX, DEFAULT_CHECKPOINT_BYTES));
+        }
 
         try {
-            prepare(name, blockSize, coder, fileUnitMap.values());
+            prepare(name, blockSize, coder, fileUnitMap.values(),
+                    (checkpointPath != null) ? new File(checkpointPath) : null);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -88,6 +203,64 @@ public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K,
 
     public void prepare(String name, int blockSize, Coder<V> coder,
                         Collection<FileInfo> fileInfos) throws IOException {
+        prepare(name, blockSize, coder, fileInfos, null);
+    }
+
+    /**
+     * Enables the write-ahead log. This must be called before the preparation, and requires the key coder.
+     *
+     * @param file               the log file.
+     * @param syncIntervalMillis the interval to force the log to the storage, or 0 not to force periodically.
+     * @param syncBytes          the bytes appended to the log to force it, or 0 to force on every append.
+     */
+    public void setWriteAheadLog(File file, long syncIntervalMillis, long syncBytes) {
+        if (syncIntervalMillis < 0 || syncBytes < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis and syncBytes must be >= 0.");
+        }
+        this.walFile = file;
+        this.walSyncIntervalMillis = syncIntervalMillis;
+        this.walSyncBytes = syncBytes;
+    }
+
+    /**
+     * Sets the bytes of the records in the write-ahead log to write a checkpoint and roll the log over while
+     * the entries are written. This must be called before the preparation, and requires the checkpoint file.
+     *
+     * @param checkpointBytes the bytes of the records, or 0 to write a checkpoint only on the disposal.
+     */
+    public void setCheckpointBytes(long checkpointBytes) {
+        if (checkpointBytes < 0) {
+            throw new IllegalArgumentException("checkpointBytes must be >= 0.");
+        }
+        this.checkpointBytes = checkpointBytes;
+    }
+
+    /**
+     * Sets the number of the threads to read the values asynchronously. This must be called before
+     * the first asynchronous read.
+     *
+     * @param readThreads the number of the threads.
+     */
+    public void setReadThreads(int readThreads) {
+        if (readThreads <= 0) {
+            throw new IllegalArgumentException("readThreads must be positive.");
+        }
+        this.readThreads = readThreads;
+    }
+
+    /**
+     * Prepares this accessor.
+     *
+     * @param name           a name of this accessor.
+     * @param blockSize      the size of a block.
+     * @param coder          a coder to encode and decode values.
+     * @param fileInfos      files to store the values.
+     * @param checkpointFile a file to write the checkpoint into and to restore the entries from,
+     *                       or null if this accessor is not persistent.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void prepare(String name, int blockSize, Coder<V> coder,
+                        Collection<FileInfo> fileInfos, File checkpointFile) throws IOException {
 
         if (name == null || coder == null || fileInfos == null) {
             throw new NullPointerException();
@@ -99,38 +272,706 @@ public class FileCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K,
         if (fileInfos.isEmpty()) {
             throw new IllegalArgumentException("fileUnitList is empty.");
         }
+        if (walFile != null && getKeyCoder() == null) {
+            throw new IllegalArgumentException("the write-ahead log requires the key coder.");
+        }
 
-        ByteBlockManager[] array = new ByteBlockManager[fileInfos.size()];
-        Collection<RandomAccessFile> randomAccessFiles = new ArrayList<RandomAccessFile>(fileInfos.size());
-        int count = 0;
         for (FileInfo fileInfo : fileInfos) {
             if (fileInfo.size < blockSize) {
                 fileInfo.size = blockSize;
             }
-            RandomAccessFile randomAccessFile = new RandomAccessFile(fileInfo.file, fileInfo.mode.value);
-            randomAccessFiles.add(randomAccessFile);
-            randomAccessFile.setLength(fileInfo.size);
-            ByteBlockManager byteBlockManager = createInstance(
-                    name + '-' + String.format("%5d", count), fileInfo.file, randomAccessFile, blockSize);
-            array[count++] = byteBlockManager;
         }
+        this.fileInfos = fileInfos;
+        this.blockSize = blockSize;
+        this.coderClassName = coder.getClass().getName();
+        this.checkpointFile = checkpointFile;
+
+        DataInputStream checkpoint = openCheckpoint();
+        ByteBlockManager[] array = new ByteBlockManager[fileInfos.size()];
+        Collection<RandomAccessFile> randomAccessFiles = new ArrayList<RandomAccessFile>(fileInfos.size());
+        boolean restorable = false;
+        try {
+            int count = 0;
+            for (FileInfo fileInfo : fileInfos) {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(fileInfo.file, fileInfo.mode.value);
+                randomAccessFiles.add(randomAccessFile);
+                if (checkpoint == null) {
+                    // the free list is linked in the file, and starts from the zero-filled file.
+                    randomAccessFile.setLength(0);
+                }
+                randomAccessFile.setLength(fileInfo.size);
+                ByteBlockManager byteBlockManager = createInstance(
+                        name + '-' + String.format("%5d", count), fileInfo.file, randomAccessFile, blockSize);
+                array[count++] = byteBlockManager;
+            }
+            if (checkpoint != null) {
+                for (ByteBlockManager byteBlockManager : array) {
+                    ((FreeListSupport) byteBlockManager).readFreeList(checkpoint);
+                }
+                restorable = true;
+            }
+        } finally {
+            if (checkpoint != null && !restorable) {
+                checkpoint.close();
+            }
+        }
+        // the entries are read by restore().
+        this.checkpointEntries = restorable ? checkpoint : null;
 
         this.randomAccessFiles = randomAccessFiles;
+        this.byteBlockManagers = array;
+        logger.info("[prepare] checkpointFile: {}, restorable: {}", checkpointFile, restorable);
         prepare(name, array, blockSize, coder);
+
+        if (walFile != null) {
+            Coder<K> keyCoder = getKeyCoder();
+            wal = new WriteAheadLog(walFile, coderClassName + ',' + keyCoder.getClass().getName(),
+                    walSyncIntervalMillis, walSyncBytes);
+            walKeyEncoder = keyCoder.createEncoder();
+            if (restorable && !checkpointInUse) {
+                // the records are older than the checkpoint.
+                wal.truncate();
+            } else if (!wal.isEmpty()) {
+                scanWriteAheadLog();
+            }
+            logger.info("[prepare] walFile: {}, syncInterval: {}, syncBytes: {}",
+                    new Object[]{walFile, walSyncIntervalMillis, walSyncBytes});
+        }
+    }
+
+    /**
+     * Opens the checkpoint file and reads its header.
+     *
+     * @return the stream positioned at the free lists, or null if there is no checkpoint which matches
+     * the files, the block size and the coders of this accessor.
+     */
+    private DataInputStream openCheckpoint() throws IOException {
+        if (checkpointFile == null || !checkpointFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+        boolean matched = false;
+        try {
+            matched = readHeader(in);
+        } catch (IOException ioe) {
+            logger.warn("[openCheckpoint] failed to read " + checkpointFile, ioe);
+        } finally {
+            if (!matched) {
+                in.close();
+            }
+        }
+        return matched ? in : null;
+    }
+
+    private boolean readHeader(DataInputStream in) throws IOException {
+        if (in.readLong() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+            logger.warn("[readHeader] {} is not a checkpoint.", checkpointFile);
+            return false;
+        }
+        byte state = in.readByte();
+        if (state != CHECKPOINT_CLEAN && state != CHECKPOINT_IN_USE) {
+            logger.warn("[readHeader] {} has an unknown state: {}.", checkpointFile, state);
+            return false;
+        }
+        if (state == CHECKPOINT_IN_USE && walFile == null) {
+            logger.warn("[readHeader] {} is in use, but the write-ahead log is not specified.", checkpointFile);
+            return false;
+        }
+        checkpointInUse = (state == CHECKPOINT_IN_USE);
+        Coder<K> keyCoder = getKeyCoder();
+        if (in.readInt() != blockSize
+                || !in.readUTF().equals(coderClassName)
+                || !in.readUTF().equals((keyCoder != null) ? keyCoder.getClass().getName() : "")
+                || in.readInt() != fileInfos.size()) {
+            logger.warn("[readHeader] the block size, the coders or the files are changed since {}.", checkpointFile);
+            return false;
+        }
+        for (FileInfo fileInfo : fileInfos) {
+            if (!in.readUTF().equals(fileInfo.file.getAbsolutePath()) || in.readLong() != fileInfo.size) {
+                logger.warn("[readHeader] {} is changed since {}.", fileInfo.file, checkpointFile);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeHeader(DataOutputStream out, byte state) throws IOException {
+        Coder<K> keyCoder = getKeyCoder();
+        out.writeLong(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+        out.writeByte(state);
+        out.writeInt(blockSize);
+        out.writeUTF(coderClassName);
+        out.writeUTF((keyCoder != null) ? keyCoder.getClass().getName() : "");
+        out.writeInt(fileInfos.size());
+        for (FileInfo fileInfo : fileInfos) {
+            out.writeUTF(fileInfo.file.getAbsolutePath());
+            out.writeLong(fileInfo.size);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the state of the checkpoint in place, and forces it to the storage.
+     */
+    private void markCheckpoint(byte state) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(checkpointFile, "rw");
+        try {
+            file.seek(CHECKPOINT_STATE_OFFSET);
+            file.writeByte(state);
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    @Override
+    public void restore(Index<K, Ref<V>> index) {
+        restoreCheckpoint(index);
+        replayWriteAheadLog(index);
+    }
+
+    /**
+     * Reads the ids of the removed refs and the largest id in the log, and truncates a torn record
+     * before any append.
+     */
+    private void scanWriteAheadLog() throws IOException {
+        final Set<Long> removed = new HashSet<Long>();
+        final long[] maxId = new long[1];
+        int records = wal.replay(new WriteAheadLog.Handler() {
+            @Override
+            public void handle(byte type, long id, ByteBuffer payload) {
+                if (type == WriteAheadLog.REMOVE) {
+                    removed.add(id);
+                }
+                if (id > maxId[0]) {
+                    maxId[0] = id;
+                }
+            }
+        });
+        removedRefIds = removed;
+        updateRefIds(maxId[0]);
+        logger.info("[scanWriteAheadLog] {} records are found in {}.", records, walFile);
+    }
+
+    private void updateRefIds(long id) {
+        for (;;) {
+            long current = refIds.get();
+            if (current >= id || refIds.compareAndSet(current, id)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replays the log on top of the restored entries. A put is applied if its ref is not removed in the log,
+     * and the ref in the index is not newer; a remove is applied if the ref in the index is removed.
+     * The records are already in the log, so they are not appended again.
+     */
+    private void replayWriteAheadLog(final Index<K, Ref<V>> index) {
+        final Set<Long> removed = removedRefIds;
+        if (removed == null) {
+            return;
+        }
+        removedRefIds = null;
+
+        final Coder.Decoder<K> keyDecoder = getKeyCoder().createDecoder();
+        int records;
+        try {
+            records = wal.replay(new WriteAheadLog.Handler() {
+                @Override
+                public void handle(byte type, long id, ByteBuffer payload) {
+                    ByteBuffer key = payload.duplicate();
+                    if (type == WriteAheadLog.PUT) {
+                        if (removed.contains(id)) {
+                            return;
+                        }
+                        int keyLength = key.getInt();
+                        key.limit(key.position() + keyLength);
+                        K k = keyDecoder.decode(key.slice());
+                        Ref<V> current = index.get(k);
+                        if (current == null || idOf(current) <= id) {
+                            restoreEntry(k, id, payload, index);
+                        }
+                    } else if (type == WriteAheadLog.REMOVE) {
+                        K k = keyDecoder.decode(key);
+                        Ref<V> current = index.get(k);
+                        if (current != null && idOf(current) == id) {
+                            free(index.remove(k));
+                        }
+                    }
+                }
+            });
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to replay " + walFile, ioe);
+        }
+        logger.info("[replayWriteAheadLog] {} records are replayed from {}.", records, walFile);
+    }
+
+    private void restoreCheckpoint(Index<K, Ref<V>> index) {
+        DataInputStream in = checkpointEntries;
+        if (in == null) {
+            return;
+        }
+        checkpointEntries = null;
+
+        Coder.Decoder<K> keyDecoder = getKeyCoder().createDecoder();
+        BitSet[] allocated = newBitSets();
+        long maxId = 0;
+        int entries = 0;
+        try {
+            try {
+                if (wal != null && !checkpointInUse) {
+                    // the restored entries are changed only through the log from now.
+                    markCheckpoint(CHECKPOINT_IN_USE);
+                }
+                byte[] keyBytes;
+                byte[] refBytes;
+                int keyLength;
+                while ((keyLength = in.readInt()) >= 0) {
+                    keyBytes = new byte[keyLength];
+                    in.readFully(keyBytes);
+                    refBytes = new byte[in.readInt()];
+                    in.readFully(refBytes);
+                    Ref<V> ref = restoreRef(ByteBuffer.wrap(refBytes));
+                    setBlocks(allocated, blockListOf(ref));
+                    if (idOf(ref) > maxId) {
+                        maxId = idOf(ref);
+                    }
+                    index.put(keyDecoder.decode(ByteBuffer.wrap(keyBytes)), ref);
+                    entries++;
+                }
+            } finally {
+                in.close();
+            }
+            if (checkpointInUse) {
+                // the links in the free blocks may be overwritten after the checkpoint is restored last time.
+                for (int i = 0; i < allocated.length; i++) {
+                    ((FreeListSupport) byteBlockManagers[i]).rebuildFreeList(allocated[i]);
+                }
+                recountFreeBlocks();
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to restore from " + checkpointFile, ioe);
+        }
+        if (wal != null) {
+            pinBlocks(allocated);
+            updateRefIds(maxId);
+        } else if (!checkpointFile.delete()) {
+            logger.warn("[restore] failed to delete {}", checkpointFile);
+        }
+        logger.info("[restore] {} entries are restored from {}.", entries, checkpointFile);
+    }
+
+    private BitSet[] newBitSets() {
+        BitSet[] bitSets = new BitSet[byteBlockManagers.length];
+        for (int i = 0; i < bitSets.length; i++) {
+            bitSets[i] = new BitSet();
+        }
+        return bitSets;
+    }
+
+    private static void setBlocks(BitSet[] bitSets, long[] blocks) {
+        for (long block : blocks) {
+            int blockIndex = (int) blockIndexOf(block);
+            bitSets[managerIndexOf(block)].set(blockIndex, blockIndex + blocksOf(block));
+        }
+    }
+
+    private void pinBlocks(BitSet[] blocks) {
+        AtomicLongArray[] pinned = new AtomicLongArray[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            BitSet bitSet = blocks[i];
+            long[] words = new long[(bitSet.length() + 63) >>> 6];
+            for (int b = bitSet.nextSetBit(0); b >= 0; b = bitSet.nextSetBit(b + 1)) {
+                words[b >>> 6] |= 1L << b;
+            }
+            pinned[i] = new AtomicLongArray(words);
+        }
+        pinnedBlocks = pinned;
+    }
+
+    @Override
+    protected boolean isPinned(long block) {
+        if (checkpointing) {
+            return true;
+        }
+        AtomicLongArray[] pinned = pinnedBlocks;
+        if (pinned == null) {
+            return false;
+        }
+        AtomicLongArray words = pinned[managerIndexOf(block)];
+        long blockIndex = blockIndexOf(block);
+        int word = (int) (blockIndex >>> 6);
+        return word < words.length() && (words.get(word) & (1L << blockIndex)) != 0;
+    }
+
+    private void unpin(long block) {
+        AtomicLongArray[] pinned = pinnedBlocks;
+        if (pinned == null) {
+            return; // deferred while the first checkpoint is written.
+        }
+        AtomicLongArray words = pinned[managerIndexOf(block)];
+        long blockIndex = blockIndexOf(block);
+        int word = (int) (blockIndex >>> 6);
+        if (word >= words.length()) {
+            return;
+        }
+        long bit = 1L << blockIndex;
+        for (;;) {
+            long current = words.get(word);
+            if (words.compareAndSet(word, current, current & ~bit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Defers freeing a pinned block until the log is forced with the record which supersedes the block.
+     * The record is appended before the block is freed.
+     */
+    @Override
+    protected boolean deferFree(long block) {
+        if (!isPinned(block)) {
+            return false;
+        }
+        synchronized (deferredLock) {
+            if (deferredSize == deferredBlocks.length) {
+                deferredBlocks = Arrays.copyOf(deferredBlocks, deferredSize * 2);
+            }
+            deferredBlocks[deferredSize++] = block;
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean reclaimBlocks() {
+        return releaseDeferredBlocks();
+    }
+
+    /**
+     * Forces the log, and frees the blocks deferred before it.
+     *
+     * @return true if some blocks are freed.
+     */
+    private boolean releaseDeferredBlocks() {
+        long[] blocks;
+        int size;
+        synchronized (deferredLock) {
+            if (deferredSize == 0) {
+                return false;
+            }
+            blocks = deferredBlocks;
+            size = deferredSize;
+            deferredBlocks = new long[16];
+            deferredSize = 0;
+        }
+        try {
+            wal.sync();
+        } catch (IOException ioe) {
+            logger.warn("[releaseDeferredBlocks] failed to sync " + walFile, ioe);
+            for (int i = 0; i < size; i++) {
+                deferFree(blocks[i]);
+            }
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            unpin(blocks[i]);
+            releaseBlock(blocks[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public void checkpoint(Index<K, Ref<V>> index) {
+        if (checkpointFile == null) {
+            return;
+        }
+        if (getKeyCoder() == null) {
+            logger.warn("[checkpoint] no checkpoint is written because the key coder is not set.");
+            return;
+        }
+
+        synchronized (checkpointLock) {
+            if (pinnedBlocks != null) {
+                // the deferred blocks are written as free blocks.
+                releaseDeferredBlocks();
+            }
+            int entries;
+            try {
+                entries = writeCheckpoint(index, CHECKPOINT_CLEAN, null);
+            } catch (IOException ioe) {
+                throw new RuntimeException("failed to write checkpoint " + checkpointFile, ioe);
+            }
+            logger.info("[checkpoint] {} entries are written into {}.", entries, checkpointFile);
+
+            if (wal != null) {
+                try {
+                    wal.truncate();
+                } catch (IOException ioe) {
+                    // the checkpoint is preferred to the log on the next preparation.
+                    logger.warn("[checkpoint] failed to truncate " + walFile, ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a checkpoint in use while the entries are written concurrently, and discards the records appended
+     * to the log before it starts. The records appended after it starts are kept, and replayed on top of it
+     * after a crash. The blocks it refers to are pinned instead of the blocks of the old checkpoint.
+     */
+    private void rollOver(Index<K, Ref<V>> index) {
+        synchronized (checkpointLock) {
+            WriteAheadLog log = wal;
+            if (log == null) {
+                return;
+            }
+            BitSet[] allocated = newBitSets();
+            long recordBytes;
+            int entries;
+            checkpointing = true;
+            try {
+                // the entries are read after the mark, so the discarded records are in the checkpoint.
+                recordBytes = log.getRecordBytes();
+                entries = writeCheckpoint(index, CHECKPOINT_IN_USE, allocated);
+                pinBlocks(allocated);
+            } catch (IOException ioe) {
+                throw new RuntimeException("failed to write checkpoint " + checkpointFile, ioe);
+            } finally {
+                checkpointing = false;
+            }
+            releaseDeferredBlocks();
+            try {
+                log.rollover(recordBytes);
+            } catch (IOException ioe) {
+                // the records are replayed on top of the new checkpoint again.
+                logger.warn("[rollOver] failed to roll over " + walFile, ioe);
+            }
+            logger.info("[rollOver] {} entries are written into {}.", entries, checkpointFile);
+        }
+    }
+
+    /**
+     * Writes the entries of {@code index} into a temporary file, forces it and the values, and replaces
+     * the checkpoint with it.
+     *
+     * @param index     the index to write.
+     * @param state     the state of the checkpoint.
+     * @param allocated the blocks of the written entries are set if not null.
+     * @return the number of the written entries.
+     * @throws IOException if an I/O error occurs.
+     */
+    private int writeCheckpoint(Index<K, Ref<V>> index, byte state, BitSet[] allocated) throws IOException {
+        Coder.Encoder<K> keyEncoder = getKeyCoder().createEncoder();
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        int entries = 0;
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            writeHeader(out, state);
+            for (ByteBlockManager byteBlockManager : byteBlockManagers) {
+                ((FreeListSupport) byteBlockManager).writeFreeList(out);
+            }
+            for (Map.Entry<K, Ref<V>> entry : index.entrySet()) {
+                ByteBuffer ref = encodeRef(entry.getValue());
+                if (ref.getInt(ref.position()) == 0) {
+                    continue; // the ref is freed.
+                }
+                if (allocated != null) {
+                    // [int bytes][int the number of blocks][long packed block]...[long id]
+                    long[] blocks = new long[ref.getInt(ref.position() + 4)];
+                    for (int i = 0; i < blocks.length; i++) {
+                        blocks[i] = ref.getLong(ref.position() + 8 + i * 8);
+                    }
+                    setBlocks(allocated, blocks);
+                }
+                byte[] keyBytes = toBytes(keyEncoder.encode(entry.getKey()));
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeInt(ref.remaining());
+                out.write(toBytes(ref));
+                entries++;
+            }
+            out.writeInt(-1);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+        // the values must reach the files before the checkpoint refers to them.
+        force();
+        FileSupport.replace(tmp, checkpointFile);
+        return entries;
+    }
+
+    private void appendLog(byte type, long id, ByteBuffer payload) {
+        try {
+            wal.append(type, id, payload);
+        } catch (IOException ioe) {
+            throw new RuntimeException("failed to append to " + walFile, ioe);
+        }
+    }
+
+    @Override
+    protected long nextRefId() {
+        return (wal != null) ? refIds.incrementAndGet() : 0;
+    }
+
+    @Override
+    public void update(K key, V value, Index<K, Ref<V>> index) {
+        super.update(key, value, index);
+        rollOverIfNecessary(index);
+    }
+
+    @Override
+    public void update(Map<K, V> keyValues, Index<K, Ref<V>> index) {
+        super.update(keyValues, index);
+        rollOverIfNecessary(index);
+    }
+
+    /**
+     * Schedules {@link #rollOver(Index)} if the records in the log reach {@code checkpointBytes}.
+     */
+    private void rollOverIfNecessary(final Index<K, Ref<V>> index) {
+        WriteAheadLog log = wal;
+        if (log == null || checkpointFile == null || checkpointBytes == 0
+                || log.getRecordBytes() < checkpointBytes || !checkpointScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            checkpointExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rollOver(index);
+                    } catch (RuntimeException re) {
+                        logger.warn("[rollOver] failed to write a checkpoint.", re);
+                    } finally {
+                        checkpointScheduled.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            checkpointScheduled.set(false); // disposed.
+        }
+    }
+
+    private synchronized ExecutorService checkpointExecutor() {
+        if (checkpointExecutorClosed) {
+            throw new RejectedExecutionException("disposed.");
+        }
+        if (checkpointExecutor == null) {
+            checkpointExecutor = Executors.newSingleThreadExecutor(new CountThreadFactory("FileCacheAccessorCheckpoint"));
+        }
+        return checkpointExecutor;
+    }
+
+    @Override
+    protected void updated(K key, long id, ByteBuffer encoded) {
+        if (wal != null) {
+            appendLog(WriteAheadLog.PUT, id, encoded);
+        }
+    }
+
+    @Override
+    protected void removed(K key, long id) {
+        if (wal != null) {
+            appendLog(WriteAheadLog.REMOVE, id, walKeyEncoder.encode(key));
+        }
+    }
+
+    /**
+     * Forces the values written into the files to the storage.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected void force() throws IOException {
+        for (ByteBlockManager byteBlockManager : byteBlockManagers) {
+            if (byteBlockManager instanceof BlockedFile) {
+                ((BlockedFile) byteBlockManager).force();
+            }
+        }
     }
 
     protected ByteBlockManager createInstance(
             String name, File file, RandomAccessFile randomAccessFile, int blockSize) throws IOException {
+        FileInfo.Mode mode = FileInfo.Mode.READ_WRITE;
+        for (FileInfo fileInfo : fileInfos) {
+            if (fileInfo.file.equals(file)) {
+                mode = fileInfo.mode;
+            }
+        }
         BlockedFile blockedFile =
-                new BlockedFile(file.getAbsolutePath(), randomAccessFile, blockSize);
+                new BlockedFile(file.getAbsolutePath(), randomAccessFile, blockSize, mode);
         blockedFile.setName(name);
         return blockedFile;
     }
 
+    @Override
+    public CacheFuture<V> readAsync(Ref<V> ref) {
+        return readAsync(ref, readExecutor());
+    }
+
+    private synchronized ExecutorService readExecutor() {
+        if (readExecutor == null) {
+            readExecutor = Executors.newFixedThreadPool(readThreads, new CountThreadFactory("FileCacheAccessorRead"));
+        }
+        return readExecutor;
+    }
+
     @Override
     public void dispose() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = checkpointExecutor;
+            checkpointExecutor = null;
+            checkpointExecutorClosed = true;
+        }
+        if (executor != null) {
+            // the running checkpoint is completed, so the log and the files are not closed under it.
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
         super.dispose();
         synchronized (this) {
+            if (readExecutor != null) {
+                readExecutor.shutdownNow();
+                readExecutor = null;
+            }
+            if (wal != null) {
+                wal.close();
+                wal = null;
+            }
+            if (checkpointEntries != null) {
+                try {
+                    checkpointEntries.close();
+                } catch (IOException ioe) {
+                    logger.warn("[dispose]", ioe);
+                }
+                checkpointEntries = null;
+            }
+            if (byteBlockManagers != null) {
+                for (ByteBlockManager byteBlockManager : byteBlockManagers) {
+                    if (byteBlockManager instanceof BlockedFile) {
+                        try {
+                            // closes the file opened again after an interrupt.
+                            ((BlockedFile) byteBlockManager).close();
+                        } catch (IOException ioe) {
+                            logger.warn("[dispose]", ioe);
+                        }
+                    }
+                }
+            }
             for (RandomAccessFile randomAccessFile : randomAccessFiles) {
                 try {
                     randomAccessFile.close();
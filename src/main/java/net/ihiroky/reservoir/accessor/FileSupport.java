@@ -0,0 +1,85 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.channels.FileChannel;
+
+/**
+ * Provides the operations to replace the files durably.
+ *
+ * @author Hiroki Itoh
+ */
+final class FileSupport {
+
+    private static Logger logger = LoggerFactory.getLogger(FileSupport.class);
+
+    private FileSupport() {
+        throw new AssertionError("this class can't be instantiated.");
+    }
+
+    /**
+     * Renames {@code source} to {@code target}, and forces the parent directory of {@code target}.
+     * The rename replaces {@code target} atomically on the platform which supports it, so a crash leaves either
+     * the old target or the new one. Only if the rename fails, such as on the platform which can't replace
+     * an existing file, {@code target} is deleted and the rename is retried.
+     *
+     * @param source the file to rename, which is already forced to the storage.
+     * @param target the file to be replaced.
+     * @throws IOException if the rename fails.
+     */
+    static void replace(File source, File target) throws IOException {
+        if (!source.renameTo(target)) {
+            if (target.exists() && !target.delete()) {
+                throw new IOException("failed to delete " + target);
+            }
+            if (!source.renameTo(target)) {
+                throw new IOException("failed to rename " + source + " to " + target);
+            }
+        }
+        syncDirectory(target);
+    }
+
+    /**
+     * Forces the directory entries of the parent directory of {@code file}, so a renamed file survives a crash.
+     * This needs the file channel of a directory available since Java 7, and does nothing on the older runtime
+     * or the platform which can't open a directory.
+     *
+     * @param file the file renamed in the directory.
+     */
+    static void syncDirectory(File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null) {
+            return;
+        }
+        FileChannel directoryChannel;
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Object read = Enum.valueOf((Class) Class.forName("java.nio.file.StandardOpenOption"), "READ");
+            Object options = Array.newInstance(openOptionClass, 1);
+            Array.set(options, 0, read);
+            Object path = File.class.getMethod("toPath").invoke(directory);
+            directoryChannel = (FileChannel) FileChannel.class.getMethod("open", pathClass, options.getClass())
+                    .invoke(null, path, options);
+        } catch (Exception e) {
+            // no java.nio.file, or the directory can't be opened.
+            logger.debug("[syncDirectory] failed to open {}", directory);
+            return;
+        }
+        try {
+            directoryChannel.force(true);
+        } catch (IOException ioe) {
+            logger.debug("[syncDirectory] failed to force " + directory, ioe);
+        } finally {
+            try {
+                directoryChannel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Implemented by a {@code ByteBlockManager} whose free list is linked in its storage, so that the free list
+ * can be restored only by the head, the tail and the number of the allocated blocks.
+ *
+ * @author Hiroki Itoh
+ */
+interface FreeListSupport {
+
+    void writeFreeList(DataOutput out) throws IOException;
+
+    void readFreeList(DataInput in) throws IOException;
+
+    /**
+     * Links the blocks not set in {@code allocated} into the free list in the order of their indices,
+     * for example when the links in the storage may be stale.
+     *
+     * @param allocated the indices of the allocated blocks.
+     * @throws IOException if an I/O error occurs.
+     */
+    void rebuildFreeList(BitSet allocated) throws IOException;
+}
@@ -1,61 +1,227 @@
 package net.ihiroky.reservoir.accessor;
 
+import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.CountThreadFactory;
+import net.ihiroky.reservoir.PropertiesSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created on 12/10/31, 16:51
+ * <p/>
+ * A file is mapped as a series of segments of {@code segmentSize} bytes, so a file larger than
+ * {@code Integer.MAX_VALUE} bytes can be used as it is.
+ * <p/>
+ * The segments written since their last force are tracked, and only the dirty segments are forced by
+ * {@link #sync()}. A background flusher syncs every {@code flushInterval} milliseconds, and as soon as
+ * the dirty bytes of a file reach {@code flushBytes}, so that the writing threads are never stalled by
+ * the forces. The latency of the syncs and the dirty bytes are exposed by the MBean.
  *
  * @author Hiroki Itoh
  */
 public class MemoryMappedFileCacheAccessor<K, V>
         extends FileCacheAccessor<K, V> implements MemoryMappedFileCacheAccessorMBean {
 
-    private Collection<MappedByteBuffer> mappedByteBuffers = Collections.emptyList();
-    private Logger logger = LoggerFactory.getLogger(FileCacheAccessor.class);
+    private Logger logger = LoggerFactory.getLogger(MemoryMappedFileCacheAccessor.class);
+
+    private volatile Collection<BlockedMappedFile> mappedFiles = Collections.emptyList();
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long flushIntervalMillis;
+    private long flushBytes;
+    private ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedBytes = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    private static final String KEY_SEGMENT_SIZE = "segmentSize";
+    private static final String KEY_FLUSH_INTERVAL = "flushInterval";
+    private static final String KEY_FLUSH_BYTES = "flushBytes";
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    @Override
+    public void prepare(String name, Properties props) {
+        setSegmentSize(PropertiesSupport.intValue(
+                props, PropertiesSupport.key(MemoryMappedFileCacheAccessor.class, KEY_SEGMENT_SIZE),
+                DEFAULT_SEGMENT_SIZE));
+        setFlush(PropertiesSupport.longValue(
+                        props, PropertiesSupport.key(MemoryMappedFileCacheAccessor.class, KEY_FLUSH_INTERVAL), 0),
+                PropertiesSupport.longValue(
+                        props, PropertiesSupport.key(MemoryMappedFileCacheAccessor.class, KEY_FLUSH_BYTES), 0));
+        super.prepare(name, props);
+    }
+
+    @Override
+    public void prepare(String name, int blockSize, Coder<V> coder,
+                        Collection<FileInfo> fileInfos, File checkpointFile) throws IOException {
+        super.prepare(name, blockSize, coder, fileInfos, checkpointFile);
+        if (flushIntervalMillis == 0 && flushBytes == 0) {
+            return;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new CountThreadFactory("MemoryMappedFileFlusher"));
+        final Runnable flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flushRequested.set(false);
+                try {
+                    sync();
+                } catch (RuntimeException re) {
+                    logger.warn("[flush] failed to flush.", re);
+                }
+            }
+        };
+        if (flushIntervalMillis > 0) {
+            flusher.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (flushBytes > 0) {
+            Runnable trigger = new Runnable() {
+                @Override
+                public void run() {
+                    if (flushRequested.compareAndSet(false, true)) {
+                        try {
+                            flusher.execute(flushTask);
+                        } catch (RejectedExecutionException ignored) {
+                            // disposed.
+                        }
+                    }
+                }
+            };
+            for (BlockedMappedFile mappedFile : mappedFiles) {
+                mappedFile.setFlushTrigger(flushBytes, trigger);
+            }
+        }
+        logger.info("[prepare] flushInterval: {}, flushBytes: {}", flushIntervalMillis, flushBytes);
+    }
+
+    /**
+     * Sets the conditions to flush the dirty segments in background. This must be called before the preparation.
+     *
+     * @param intervalMillis the interval to flush, or 0 not to flush periodically.
+     * @param bytes          the dirty bytes of a file to flush, or 0 not to flush by the dirty bytes.
+     */
+    public void setFlush(long intervalMillis, long bytes) {
+        if (intervalMillis < 0 || bytes < 0) {
+            throw new IllegalArgumentException("intervalMillis and bytes must be >= 0.");
+        }
+        this.flushIntervalMillis = intervalMillis;
+        this.flushBytes = bytes;
+    }
+
+    /**
+     * Sets the maximum size of a mapped segment. This must be called before the preparation.
+     *
+     * @param segmentSize the maximum size of a segment in bytes.
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize must be positive.");
+        }
+        this.segmentSize = segmentSize;
+    }
 
     @Override
     protected ByteBlockManager createInstance(
             String name, File file, RandomAccessFile randomAccessFile, int blockSize) throws IOException {
-        long size = randomAccessFile.length();
-        if (size > Integer.MAX_VALUE) {
-            size = Integer.MAX_VALUE;
-            randomAccessFile.setLength(size);
-            logger.warn("[createInstance] truncate {} to {} because of the MemoryByteBuffer limitation.",
-                    file, size);
-        }
-        MappedByteBuffer byteBuffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        BlockedMappedFile mappedFile = new BlockedMappedFile(
+                file.getPath(), randomAccessFile, blockSize, Math.max(segmentSize, blockSize));
+        mappedFile.setName(name.concat(file.getName()));
         synchronized (this) {
-            if (mappedByteBuffers.isEmpty()) {
-                mappedByteBuffers = new ArrayList<MappedByteBuffer>();
+            if (mappedFiles.isEmpty()) {
+                mappedFiles = new ArrayList<BlockedMappedFile>();
             }
-            mappedByteBuffers.add(byteBuffer);
+            mappedFiles.add(mappedFile);
         }
-        BlockedByteBuffer blockedByteBuffer = new BlockedByteBuffer(byteBuffer, blockSize);
-        blockedByteBuffer.setName(name.concat(file.getName()));
-        return blockedByteBuffer;
+        return mappedFile;
     }
 
     @Override
     public void dispose() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
         super.dispose();
-        mappedByteBuffers = Collections.emptyList();
+        mappedFiles = Collections.emptyList();
+    }
+
+    @Override
+    protected void force() throws IOException {
+        sync();
     }
 
+    /**
+     * Forces the dirty segments of the files to the storage.
+     */
+    @Override
     public void sync() {
-        synchronized (this) {
-            for (MappedByteBuffer mappedByteBuffer : mappedByteBuffers) {
-                mappedByteBuffer.force();
-            }
+        long start = System.nanoTime();
+        long flushed = 0;
+        for (BlockedMappedFile mappedFile : mappedFiles) {
+            flushed += mappedFile.flush();
+        }
+        if (flushed == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        flushedBytes.addAndGet(flushed);
+        flushNanos.addAndGet(elapsed);
+        lastFlushNanos = elapsed;
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed; // racy, but only the flusher and the explicit syncs update it.
+        }
+    }
+
+    @Override
+    public long getDirtyBytes() {
+        long dirty = 0;
+        for (BlockedMappedFile mappedFile : mappedFiles) {
+            dirty += mappedFile.getDirtyBytes();
         }
+        return dirty;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return flushedBytes.get();
+    }
+
+    @Override
+    public long getAverageFlushLatencyMicros() {
+        long n = flushes.get();
+        return (n > 0) ? TimeUnit.NANOSECONDS.toMicros(flushNanos.get() / n) : 0;
+    }
+
+    @Override
+    public long getLastFlushLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(lastFlushNanos);
+    }
+
+    @Override
+    public long getMaxFlushLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxFlushNanos);
     }
 }
@@ -10,4 +10,31 @@ import javax.management.MXBean;
 @MXBean
 public interface MemoryMappedFileCacheAccessorMBean extends BlockedByteCacheAccessorMBean {
     void sync();
+
+    /**
+     * Returns the bytes written into the files since they are forced last.
+     *
+     * @return the dirty bytes.
+     */
+    long getDirtyBytes();
+
+    /**
+     * Returns the number of the syncs which forced any dirty segment.
+     *
+     * @return the number of the syncs.
+     */
+    long getFlushes();
+
+    /**
+     * Returns the dirty bytes forced by the syncs in total.
+     *
+     * @return the forced bytes.
+     */
+    long getFlushedBytes();
+
+    long getAverageFlushLatencyMicros();
+
+    long getLastFlushLatencyMicros();
+
+    long getMaxFlushLatencyMicros();
 }
@@ -0,0 +1,243 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Selects a partition ({@code ByteBlockManager}) to allocate blocks from.
+ * <p/>
+ * The number of free blocks of each partition is kept in an atomic counter, and blocks are reserved from the
+ * counter before the partition is locked by its allocation. A partition is selected by the power of two choices;
+ * the one having more free blocks of two partitions picked at random by a per-thread generator. So allocations
+ * are spread over the partitions regardless of the key hashes, and the empty partitions are skipped without
+ * locking. If the whole partitions have not enough free blocks, the allocation fails without any lock.
+ * <p/>
+ * The number of allocations and the number of the contended allocations, which another thread is allocating
+ * from the same partition at the same time, are counted for each partition.
+ *
+ * @author Hiroki Itoh
+ */
+class PartitionSelector {
+
+    private final ByteBlockManager[] partitions;
+    private final AtomicLongArray freeBlocks;
+    private final AtomicLong wholeFreeBlocks;
+    private final AtomicIntegerArray allocating;
+    private final AtomicLongArray allocations;
+    private final AtomicLongArray contentions;
+
+    /** returned by {@link #allocate(int, int, int)} if no block is allocated. */
+    static final long NO_BLOCK = -1L;
+
+    private static final ThreadLocal<int[]> SEED = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int seed = (int) Thread.currentThread().getId() * 0x9E3779B9;
+            return new int[]{(seed != 0) ? seed : 1};
+        }
+    };
+
+    PartitionSelector(ByteBlockManager[] partitions) {
+        int length = partitions.length;
+        this.partitions = partitions;
+        this.freeBlocks = new AtomicLongArray(length);
+        this.allocating = new AtomicIntegerArray(length);
+        this.allocations = new AtomicLongArray(length);
+        this.contentions = new AtomicLongArray(length);
+        long whole = 0;
+        for (int i = 0; i < length; i++) {
+            long free = partitions[i].getBlocks() - partitions[i].getAllocatedBlocks();
+            freeBlocks.set(i, free);
+            whole += free;
+        }
+        this.wholeFreeBlocks = new AtomicLong(whole);
+    }
+
+    /**
+     * Returns a random number in [0, bound) by the xorshift generator of the current thread.
+     */
+    private static int nextInt(int bound) {
+        int[] seed = SEED.get();
+        int x = seed[0];
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed[0] = x;
+        return (x & 0x7FFFFFFF) % bound;
+    }
+
+    private boolean reserve(int partition, int blocks) {
+        for (;;) {
+            long free = freeBlocks.get(partition);
+            if (free < blocks) {
+                return false;
+            }
+            if (freeBlocks.compareAndSet(partition, free, free - blocks)) {
+                wholeFreeBlocks.addAndGet(-blocks);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code blocks} reserved or freed to the partition.
+     */
+    void release(int partition, int blocks) {
+        freeBlocks.addAndGet(partition, blocks);
+        wholeFreeBlocks.addAndGet(blocks);
+    }
+
+    private ByteBlock allocateFrom(int partition, int blocks) {
+        if (!reserve(partition, blocks)) {
+            return null;
+        }
+        ByteBlock block = null;
+        if (allocating.getAndIncrement(partition) > 0) {
+            contentions.incrementAndGet(partition);
+        }
+        try {
+            block = (blocks == 1) ? partitions[partition].allocate() : partitions[partition].allocate(blocks);
+        } finally {
+            allocating.decrementAndGet(partition);
+            if (block == null) {
+                release(partition, blocks);
+            }
+        }
+        if (block != null) {
+            allocations.incrementAndGet(partition);
+        }
+        return block;
+    }
+
+    /**
+     * Allocates {@code blocks} adjacent blocks from a partition in [{@code from}, {@code from + length}).
+     *
+     * @param from   the first index of the partitions to select.
+     * @param length the number of the partitions to select.
+     * @param blocks the number of the adjacent blocks.
+     * @return the allocated blocks packed by {@link AbstractBlockedByteCacheAccessor#pack(int, ByteBlock, int)},
+     * or {@link #NO_BLOCK} if no partition has the free blocks.
+     */
+    long allocate(int from, int length, int blocks) {
+        if (wholeFreeBlocks.get() < blocks) {
+            return NO_BLOCK;
+        }
+
+        int first = from + nextInt(length);
+        if (length > 1) {
+            int second = from + nextInt(length);
+            if (freeBlocks.get(second) > freeBlocks.get(first)) {
+                first = second;
+            }
+        }
+        ByteBlock block = allocateFrom(first, blocks);
+        if (block != null) {
+            return AbstractBlockedByteCacheAccessor.pack(first, block, blocks);
+        }
+
+        // the counters may be changed concurrently, or the partition can't find adjacent blocks.
+        for (int i = 1; i < length; i++) {
+            int partition = from + (first - from + i) % length;
+            if (freeBlocks.get(partition) >= blocks && (block = allocateFrom(partition, blocks)) != null) {
+                return AbstractBlockedByteCacheAccessor.pack(partition, block, blocks);
+            }
+        }
+        return NO_BLOCK;
+    }
+
+    private int reserveUpTo(int partition, int blocks) {
+        for (;;) {
+            long free = freeBlocks.get(partition);
+            if (free <= 0) {
+                return 0;
+            }
+            int reserved = (free < blocks) ? (int) free : blocks;
+            if (freeBlocks.compareAndSet(partition, free, free - reserved)) {
+                wholeFreeBlocks.addAndGet(-reserved);
+                return reserved;
+            }
+        }
+    }
+
+    /**
+     * Allocates {@code reserved} single blocks from the partition with
+     * {@link ByteBlockManager#allocate(int, ByteBlock[], int)}, which acquires the lock of the manager once
+     * for the blocks if the manager allocates under a lock.
+     */
+    private int allocateFrom(int partition, int reserved, long[] blocks, int offset) {
+        ByteBlockManager manager = partitions[partition];
+        ByteBlock[] allocatedBlocks = new ByteBlock[reserved];
+        int allocated = 0;
+        if (allocating.getAndIncrement(partition) > 0) {
+            contentions.incrementAndGet(partition);
+        }
+        try {
+            allocated = manager.allocate(reserved, allocatedBlocks, 0);
+            for (int i = 0; i < allocated; i++) {
+                blocks[offset + i] = AbstractBlockedByteCacheAccessor.pack(partition, allocatedBlocks[i], 1);
+            }
+        } finally {
+            allocating.decrementAndGet(partition);
+            if (allocated < reserved) {
+                release(partition, reserved - allocated);
+            }
+        }
+        if (allocated > 0) {
+            allocations.incrementAndGet(partition);
+        }
+        return allocated;
+    }
+
+    /**
+     * Allocates up to {@code count} single blocks from the partitions in [{@code from}, {@code from + length})
+     * for a batch of values. The blocks are taken from as few partitions as possible, starting at the one
+     * having more free blocks of two picked at random.
+     *
+     * @param from   the first index of the partitions to select.
+     * @param length the number of the partitions to select.
+     * @param count  the number of the blocks to allocate.
+     * @param blocks the array to store the blocks packed by
+     *               {@link AbstractBlockedByteCacheAccessor#pack(int, ByteBlock, int)}.
+     * @param offset the index of {@code blocks} to store the first block.
+     * @return the number of the allocated blocks, which is less than {@code count} if the partitions don't
+     * have enough free blocks.
+     */
+    int allocate(int from, int length, int count, long[] blocks, int offset) {
+        if (wholeFreeBlocks.get() <= 0) {
+            return 0;
+        }
+        int first = from + nextInt(length);
+        if (length > 1) {
+            int second = from + nextInt(length);
+            if (freeBlocks.get(second) > freeBlocks.get(first)) {
+                first = second;
+            }
+        }
+        int allocated = 0;
+        for (int i = 0; i < length && allocated < count; i++) {
+            int partition = from + (first - from + i) % length;
+            int reserved = reserveUpTo(partition, count - allocated);
+            if (reserved > 0) {
+                allocated += allocateFrom(partition, reserved, blocks, offset + allocated);
+            }
+        }
+        return allocated;
+    }
+
+    long freeBlocks(int partition) {
+        return freeBlocks.get(partition);
+    }
+
+    long wholeFreeBlocks() {
+        return wholeFreeBlocks.get();
+    }
+
+    long allocations(int partition) {
+        return allocations.get(partition);
+    }
+
+    long contentions(int partition) {
+        return contentions.get(partition);
+    }
+}
@@ -0,0 +1,226 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.PropertiesSupport;
+import net.ihiroky.reservoir.coder.SerializableCoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A cache accessor which manages byte buffers in several size classes, like slab classes of memcached.
+ * <p/>
+ * The block size of the size classes grows geometrically from {@code minBlockSize} to {@code maxBlockSize},
+ * and each class has its own {@code BlockedByteBuffer} partitions. An encoded value is stored in a block of
+ * the smallest class which can hold it. If the class has no free block, a larger class is used. A value larger
+ * than {@code maxBlockSize} is stored in blocks of the largest class, and the remainder in the best fitting class.
+ * <p/>
+ * The {@code size} bytes are split evenly among the classes, so a smaller class has more blocks than a larger
+ * one. The split is fixed when the accessor is prepared, and a class is not rebalanced by the distribution of
+ * the value sizes. If the values concentrate on a few classes, the other classes stay idle. In that case, narrow
+ * {@code minBlockSize} and {@code maxBlockSize} to the value sizes or raise {@code growthFactor} to reduce the
+ * number of classes.
+ *
+ * @author Hiroki Itoh
+ */
+public class SlabCacheAccessor<K, V> extends AbstractBlockedByteCacheAccessor<K, V> implements SlabCacheAccessorMBean {
+
+    private int[] classBlockSizes;
+    private BlockedByteBuffer[][] classPartitions;
+    private int[] classManagerOffsets;
+
+    private static final String KEY_DIRECT = "reservoir.SlabCacheAccessor.direct";
+    private static final String KEY_SIZE = "reservoir.SlabCacheAccessor.size";
+    private static final String KEY_MIN_BLOCK_SIZE = "reservoir.SlabCacheAccessor.minBlockSize";
+    private static final String KEY_MAX_BLOCK_SIZE = "reservoir.SlabCacheAccessor.maxBlockSize";
+    private static final String KEY_GROWTH_FACTOR = "reservoir.SlabCacheAccessor.growthFactor";
+    private static final String KEY_PARTITIONS = "reservoir.SlabCacheAccessor.partitions";
+    private static final String KEY_CODER = "reservoir.SlabCacheAccessor.coder";
+
+    private static final boolean DEFAULT_DIRECT = false;
+    private static final long DEFAULT_SIZE = 512 * 1024 * 1024;
+    private static final int DEFAULT_MIN_BLOCK_SIZE = 64;
+    private static final int DEFAULT_MAX_BLOCK_SIZE = 16384;
+    private static final double DEFAULT_GROWTH_FACTOR = 1.25d;
+    private static final int DEFAULT_PARTITIONS = 4;
+
+    private static final int ALIGNMENT = 8;
+
+    static int[] classBlockSizes(int minBlockSize, int maxBlockSize, double growthFactor) {
+        List<Integer> sizeList = new ArrayList<Integer>();
+        int size = minBlockSize;
+        while (size < maxBlockSize) {
+            sizeList.add(size);
+            int next = (int) Math.ceil(size * growthFactor);
+            next = (next + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            size = (next > size) ? next : size + ALIGNMENT;
+        }
+        sizeList.add(maxBlockSize);
+
+        int[] sizes = new int[sizeList.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = sizeList.get(i);
+        }
+        return sizes;
+    }
+
+    public void prepare(String name, boolean direct, long size,
+                        int minBlockSize, int maxBlockSize, double growthFactor, int partitions, Coder<V> coder) {
+        if (name == null) {
+            throw new NullPointerException("name must not be null.");
+        }
+        if (coder == null) {
+            throw new NullPointerException("coder must not be null.");
+        }
+        if (minBlockSize < BlockedByteBuffer.MIN_BYTES_PER_BLOCK
+                || maxBlockSize < minBlockSize
+                || growthFactor <= 1d
+                || partitions <= 0
+                || name.length() == 0) {
+            throw new IllegalArgumentException();
+        }
+
+        int[] sizes = classBlockSizes(minBlockSize, maxBlockSize, growthFactor);
+        // each class has the same bytes, not the same blocks.
+        long classSize = size / sizes.length;
+        BlockedByteBuffer[][] classPartitions = new BlockedByteBuffer[sizes.length][];
+        int[] classManagerOffsets = new int[sizes.length];
+        List<BlockedByteBuffer> bbbList = new ArrayList<BlockedByteBuffer>();
+        for (int c = 0; c < sizes.length; c++) {
+            int blockSize = sizes[c];
+            int maxPartitionSize = (Integer.MAX_VALUE / blockSize) * blockSize;
+            long partitionSizeHint = classSize / partitions;
+            int partitionSize = (partitionSizeHint < maxPartitionSize) ? (int) partitionSizeHint : maxPartitionSize;
+            if (partitionSize < blockSize) {
+                partitionSize = blockSize;
+            }
+            int classPartitionCount = (int) (classSize / partitionSize);
+            if (classPartitionCount == 0) {
+                classPartitionCount = 1;
+            }
+            classPartitions[c] = new BlockedByteBuffer[classPartitionCount];
+            classManagerOffsets[c] = bbbList.size();
+            for (int p = 0; p < classPartitionCount; p++) {
+                ByteBuffer byteBuffer = direct
+                        ? ByteBuffer.allocateDirect(partitionSize) : ByteBuffer.allocate(partitionSize);
+                BlockedByteBuffer bbb = new BlockedByteBuffer(byteBuffer, blockSize);
+                bbb.setName(name + '-' + String.format("%5d", blockSize) + '-' + String.format("%3d", p));
+                classPartitions[c][p] = bbb;
+                bbbList.add(bbb);
+            }
+        }
+
+        this.classBlockSizes = sizes;
+        this.classPartitions = classPartitions;
+        this.classManagerOffsets = classManagerOffsets;
+        prepare(name, bbbList.toArray(new ByteBlockManager[bbbList.size()]), maxBlockSize, coder);
+    }
+
+    @Override
+    public void prepare(String name, Properties props) {
+        @SuppressWarnings("unchecked")
+        Coder<V> coder = (Coder<V>) PropertiesSupport.newInstance(props, KEY_CODER, SerializableCoder.class);
+        coder.init(props);
+
+        boolean direct = PropertiesSupport.booleanValue(props, KEY_DIRECT, DEFAULT_DIRECT);
+        long size = PropertiesSupport.longValue(props, KEY_SIZE, DEFAULT_SIZE);
+        int minBlockSize = PropertiesSupport.intValue(props, KEY_MIN_BLOCK_SIZE, DEFAULT_MIN_BLOCK_SIZE);
+        int maxBlockSize = PropertiesSupport.intValue(props, KEY_MAX_BLOCK_SIZE, DEFAULT_MAX_BLOCK_SIZE);
+        double growthFactor = PropertiesSupport.doubleValue(props, KEY_GROWTH_FACTOR, DEFAULT_GROWTH_FACTOR);
+        int partitions = PropertiesSupport.intValue(props, KEY_PARTITIONS, DEFAULT_PARTITIONS);
+        prepare(name, direct, size, minBlockSize, maxBlockSize, growthFactor, partitions, coder);
+    }
+
+    private int classIndexFor(int bytes) {
+        int index = Arrays.binarySearch(classBlockSizes, bytes);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return (index < classBlockSizes.length) ? index : classBlockSizes.length - 1;
+    }
+
+    @Override
+    protected long allocate(K key, int listPosition, int bytes) {
+        for (int c = classIndexFor(bytes); c < classPartitions.length; c++) {
+            long block = allocateFrom(classManagerOffsets[c], classPartitions[c].length, 1);
+            if (block != PartitionSelector.NO_BLOCK) {
+                return block;
+            }
+        }
+        throw new IllegalStateException("no free block.");
+    }
+
+    /**
+     * Returns 0; the blocks are allocated from the class of each value, not from the whole partitions.
+     */
+    @Override
+    protected int batchBlocksFor(int bytes) {
+        return 0;
+    }
+
+    @Override
+    protected long capacityFor(int bytes) {
+        if (bytes == 0) {
+            return 0;
+        }
+        int maxBlockSize = classBlockSizes[classBlockSizes.length - 1];
+        long fullBlocks = (bytes - 1) / maxBlockSize;
+        int remainder = (int) (bytes - fullBlocks * maxBlockSize);
+        return fullBlocks * maxBlockSize + classBlockSizes[classIndexFor(remainder)];
+    }
+
+    /**
+     * Returns the block size if the class of {@code block} is the class for {@code bytes} or larger, or 0;
+     * a value is never stored in a smaller class.
+     */
+    @Override
+    protected long usableBytes(long block, int bytes) {
+        int managerIndex = managerIndexOf(block);
+        int c = classPartitions.length - 1;
+        while (classManagerOffsets[c] > managerIndex) {
+            c--;
+        }
+        return (c >= classIndexFor(bytes)) ? classBlockSizes[c] : 0;
+    }
+
+    @Override
+    public int[] getClassBlockSizes() {
+        return classBlockSizes.clone();
+    }
+
+    @Override
+    public long[] getClassBlocks() {
+        long[] result = new long[classPartitions.length];
+        for (int c = 0; c < result.length; c++) {
+            for (BlockedByteBuffer bbb : classPartitions[c]) {
+                result[c] += bbb.getBlocks();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getClassAllocatedBlocks() {
+        long[] result = new long[classPartitions.length];
+        for (int c = 0; c < result.length; c++) {
+            for (BlockedByteBuffer bbb : classPartitions[c]) {
+                result[c] += bbb.getAllocatedBlocks();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double[] getClassUtilizations() {
+        long[] blocks = getClassBlocks();
+        long[] allocatedBlocks = getClassAllocatedBlocks();
+        double[] result = new double[blocks.length];
+        for (int c = 0; c < result.length; c++) {
+            result[c] = (blocks[c] > 0) ? (double) allocatedBlocks[c] / blocks[c] : 0d;
+        }
+        return result;
+    }
+}
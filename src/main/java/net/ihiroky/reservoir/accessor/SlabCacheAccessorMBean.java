@@ -0,0 +1,18 @@
+package net.ihiroky.reservoir.accessor;
+
+import javax.management.MXBean;
+
+/**
+ * @author Hiroki Itoh
+ */
+@MXBean
+public interface SlabCacheAccessorMBean extends BlockedByteCacheAccessorMBean {
+
+    int[] getClassBlockSizes();
+
+    long[] getClassBlocks();
+
+    long[] getClassAllocatedBlocks();
+
+    double[] getClassUtilizations();
+}
@@ -0,0 +1,67 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.LatencyHistogram;
+
+/**
+ * Samples the time spent in the stages of storing and reading a value. Each stage is sampled once in
+ * {@code interval} executions, counted by a racy counter per stage; a lost count only shifts the samples.
+ *
+ * @author Hiroki Itoh
+ */
+final class StageTiming {
+
+    static final int ENCODE = 0;
+    static final int LOCK_WAIT = 1;
+    static final int ALLOCATE = 2;
+    static final int WRITE = 3;
+    static final int READ = 4;
+    static final int DECODE = 5;
+    private static final int STAGES = 6;
+
+    /** 16 ints = 64 bytes, a counter per cache line. */
+    private static final int PADDING_SHIFT = 4;
+
+    private final LatencyHistogram[] histograms;
+    private final int[] counters;
+    private final int interval;
+    private final int mask;
+
+    /**
+     * @param interval the interval of the samples, rounded up to a power of two.
+     */
+    StageTiming(int interval) {
+        int i = 1;
+        while (i < interval) {
+            i <<= 1;
+        }
+        this.interval = i;
+        this.mask = i - 1;
+        histograms = new LatencyHistogram[STAGES];
+        for (int s = 0; s < STAGES; s++) {
+            histograms[s] = new LatencyHistogram();
+        }
+        counters = new int[STAGES << PADDING_SHIFT];
+    }
+
+    int interval() {
+        return interval;
+    }
+
+    boolean sample(int stage) {
+        return (++counters[stage << PADDING_SHIFT] & mask) == 0;
+    }
+
+    void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    LatencyHistogram.Summary summary(int stage) {
+        return histograms[stage].summary();
+    }
+
+    void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.CountThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the puts and the removes, committed in groups.
+ * <p/>
+ * A record is [int payload length][byte type][long id][payload][int CRC32 of the type, the id and the payload].
+ * The id identifies the ref of the entry, so the records of a key can be ordered by its refs. Appended records
+ * are buffered and written into the file, and the file is forced to the storage when the unsynced bytes
+ * reach {@code syncBytes}, or every {@code syncIntervalMillis} by a background thread; one force commits all
+ * the records appended by then. So at most the records appended in the interval are lost by a crash.
+ * A torn record at the tail is detected by its length or its checksum, and discarded on the replay.
+ * <p/>
+ * The records are written at the offsets tracked by the log, so the file is opened again and the I/O is retried
+ * if the channel is closed by an interrupt of a thread which appends or syncs.
+ *
+ * @author Hiroki Itoh
+ */
+class WriteAheadLog {
+
+    /** a record type of a put; the payload is [int key length][key][value]. */
+    static final byte PUT = 1;
+
+    /** a record type of a remove; the payload is [key]. */
+    static final byte REMOVE = 2;
+
+    /**
+     * Receives the records on the replay.
+     */
+    interface Handler {
+        void handle(byte type, long id, ByteBuffer payload);
+    }
+
+    private static final long MAGIC = 0x5273727657616c32L;
+    private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private final File file;
+    private final long syncBytes;
+    private final int headerLength;
+    private final ScheduledExecutorService syncExecutor;
+
+    // replaced in reopenLock.
+    private final Object reopenLock = new Object();
+    private volatile RandomAccessFile randomAccessFile;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+
+    // guarded by this.
+    private final ByteBuffer buffer;
+    private final CRC32 crc32;
+    private long appendedBytes;
+
+    // guarded by syncLock.
+    private final Object syncLock = new Object();
+    private volatile long syncedBytes;
+    private volatile long syncs;
+
+    /**
+     * Opens the log.
+     *
+     * @param file               the log file; created if it does not exist.
+     * @param identity           a string to identify the format of the payloads, such as the coders.
+     *                           The records written with another identity are discarded.
+     * @param syncIntervalMillis the interval to force the file, or 0 not to force periodically.
+     * @param syncBytes          the unsynced bytes to force the file by the appending thread,
+     *                           or 0 to force on every append.
+     * @throws IOException if an I/O error occurs.
+     */
+    WriteAheadLog(File file, String identity, long syncIntervalMillis, long syncBytes) throws IOException {
+        if (syncIntervalMillis < 0 || syncBytes < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis and syncBytes must be >= 0.");
+        }
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.syncBytes = syncBytes;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.crc32 = new CRC32();
+
+        byte[] identityBytes = identity.getBytes("UTF-8");
+        ByteBuffer header = ByteBuffer.allocate(8 + 4 + identityBytes.length);
+        header.putLong(MAGIC).putInt(identityBytes.length).put(identityBytes).flip();
+        this.headerLength = header.capacity();
+        ByteBuffer existing = ByteBuffer.allocate(headerLength);
+        if (readFully(existing, 0) < headerLength || !existing.flip().equals(header)) {
+            logger.info("[WriteAheadLog] initialize {} for {}", file, identity);
+            channel.truncate(0);
+            writeFully(header, 0);
+            channel.force(false);
+        }
+        appendedBytes = channel.size();
+        syncedBytes = appendedBytes;
+
+        if (syncIntervalMillis > 0) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(new CountThreadFactory("WriteAheadLogSync"));
+            syncExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sync();
+                    } catch (IOException ioe) {
+                        logger.warn("[sync] failed to sync " + WriteAheadLog.this.file, ioe);
+                    }
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    private int readFully(ByteBuffer byteBuffer, long position) throws IOException {
+        int read = 0;
+        boolean interrupted = false;
+        try {
+            while (byteBuffer.hasRemaining()) {
+                FileChannel c = channel;
+                int n;
+                try {
+                    n = c.read(byteBuffer, position + read);
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                    continue;
+                }
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return read;
+    }
+
+    private void writeFully(ByteBuffer byteBuffer, long position) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (byteBuffer.hasRemaining()) {
+                FileChannel c = channel;
+                try {
+                    position += c.write(byteBuffer, position);
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void force() throws IOException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                FileChannel c = channel;
+                try {
+                    c.force(false);
+                    return;
+                } catch (ClosedChannelException cce) {
+                    interrupted |= reopen(c);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the file again if {@code closedChannel} is still the channel of the log.
+     *
+     * @param closedChannel the channel closed while it is used.
+     * @return true if the current thread is interrupted; the interrupt status is cleared to retry the I/O.
+     * @throws ClosedChannelException if the log is closed.
+     * @throws IOException if the file can't be opened.
+     */
+    private boolean reopen(FileChannel closedChannel) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        synchronized (reopenLock) {
+            if (closed) {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new ClosedChannelException();
+            }
+            if (channel == closedChannel) {
+                logger.info("[reopen] {} is closed by an interrupt, and is opened again.", file);
+                RandomAccessFile newFile = new RandomAccessFile(file, "rw");
+                randomAccessFile = newFile;
+                channel = newFile.getChannel();
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * Returns true if the log has no record.
+     *
+     * @return true if the log has no record.
+     */
+    synchronized boolean isEmpty() {
+        return appendedBytes == headerLength;
+    }
+
+    /**
+     * Passes the records to {@code handler} from the head of the log, and truncates a torn record at the tail.
+     * The records appended by {@code handler} are not passed to it. A torn record can be truncated only before
+     * any append.
+     *
+     * @param handler the handler to receive the records.
+     * @return the number of the replayed records.
+     * @throws IOException if an I/O error occurs.
+     */
+    synchronized int replay(Handler handler) throws IOException {
+        long position = headerLength;
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(13);
+        ByteBuffer tail = ByteBuffer.allocate(4);
+        int records = 0;
+        for (;;) {
+            head.clear();
+            if (readFully(head, position) < 13) {
+                break;
+            }
+            int length = head.getInt(0);
+            byte type = head.get(4);
+            if (length < 0 || position + RECORD_OVERHEAD + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + 13);
+            tail.clear();
+            readFully(tail, position + 13 + length);
+            crc32.reset();
+            crc32.update(head.array(), 4, 9);
+            crc32.update(payload.array(), 0, length);
+            if ((int) crc32.getValue() != tail.getInt(0)) {
+                break;
+            }
+            payload.flip();
+            handler.handle(type, head.getLong(5), payload);
+            position += RECORD_OVERHEAD + length;
+            records++;
+        }
+        if (position < size) {
+            if (appendedBytes != size) {
+                throw new IOException("a torn record is found in " + file + " after the appends.");
+            }
+            logger.warn("[replay] discard the torn tail of {}, {} bytes.", file, size - position);
+            channel.truncate(position);
+            appendedBytes = position;
+            syncedBytes = position;
+        }
+        return records;
+    }
+
+    /**
+     * Appends a record. The file is forced if the unsynced bytes reach {@code syncBytes}.
+     *
+     * @param type    the type of the record.
+     * @param id      the id of the ref of the entry.
+     * @param payload the payload of the record.
+     * @throws IOException if an I/O error occurs.
+     */
+    void append(byte type, long id, ByteBuffer payload) throws IOException {
+        long unsynced;
+        synchronized (this) {
+            int length = payload.remaining();
+            crc32.reset();
+            crc32.update(type);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                crc32.update((int) (id >>> shift));
+            }
+            if (payload.hasArray()) {
+                crc32.update(payload.array(), payload.arrayOffset() + payload.position(), length);
+            } else {
+                for (int i = payload.position(); i < payload.limit(); i++) {
+                    crc32.update(payload.get(i));
+                }
+            }
+            if (buffer.remaining() < RECORD_OVERHEAD + length) {
+                drain();
+            }
+            if (buffer.remaining() < RECORD_OVERHEAD + length) {
+                ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + length);
+                record.putInt(length).put(type).putLong(id).put(payload.duplicate()).putInt((int) crc32.getValue());
+                record.flip();
+                writeFully(record, appendedBytes); // the buffer is drained.
+            } else {
+                buffer.putInt(length).put(type).putLong(id).put(payload.duplicate()).putInt((int) crc32.getValue());
+            }
+            appendedBytes += RECORD_OVERHEAD + length;
+            unsynced = appendedBytes - syncedBytes;
+        }
+        if (unsynced >= syncBytes) {
+            sync();
+        }
+    }
+
+    // must be called in synchronized (this).
+    private void drain() throws IOException {
+        long position = appendedBytes - buffer.position();
+        buffer.flip();
+        writeFully(buffer, position);
+        buffer.clear();
+    }
+
+    /**
+     * Writes the buffered records and forces the file to the storage.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    void sync() throws IOException {
+        synchronized (syncLock) {
+            long target;
+            synchronized (this) {
+                drain();
+                target = appendedBytes;
+            }
+            if (target > syncedBytes) {
+                // the appending threads are not blocked while forcing.
+                force();
+                syncedBytes = target;
+                syncs++;
+            }
+        }
+    }
+
+    /**
+     * Discards all the records.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    void truncate() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                buffer.clear();
+                channel.truncate(headerLength);
+                force();
+                appendedBytes = headerLength;
+                syncedBytes = headerLength;
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the appended records.
+     *
+     * @return the bytes of the records.
+     */
+    synchronized long getRecordBytes() {
+        return appendedBytes - headerLength;
+    }
+
+    /**
+     * Discards the records appended before the first {@code recordBytes} bytes of the records, which must be
+     * returned by {@link #getRecordBytes()}. The rest of the records are copied into a new file, which replaces
+     * the log after it is forced, so a crash leaves either the old log or the new one. The appending threads
+     * are blocked while the rest is copied.
+     *
+     * @param recordBytes the bytes of the records to discard.
+     * @throws IOException if an I/O error occurs; the log is kept as it is.
+     */
+    void rollover(long recordBytes) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (recordBytes < 0 || recordBytes > appendedBytes - headerLength) {
+                    throw new IllegalArgumentException("recordBytes is out of the log: " + recordBytes);
+                }
+                drain();
+                File tmp = new File(file.getPath() + ".tmp");
+                RandomAccessFile newFile = new RandomAccessFile(tmp, "rw");
+                boolean replaced = false;
+                try {
+                    FileChannel newChannel = newFile.getChannel();
+                    newChannel.truncate(0);
+                    transferFully(0, headerLength, newChannel);
+                    transferFully(headerLength + recordBytes, appendedBytes - headerLength - recordBytes, newChannel);
+                    newChannel.force(false);
+                    FileSupport.replace(tmp, file);
+                    replaced = true;
+                } finally {
+                    if (!replaced) {
+                        newFile.close();
+                        if (tmp.exists() && !tmp.delete()) {
+                            logger.warn("[rollover] failed to delete {}", tmp);
+                        }
+                    }
+                }
+                synchronized (reopenLock) {
+                    try {
+                        randomAccessFile.close();
+                    } catch (IOException ioe) {
+                        logger.warn("[rollover] failed to close the old " + file, ioe);
+                    }
+                    randomAccessFile = newFile;
+                    channel = newFile.getChannel();
+                }
+                appendedBytes = channel.size();
+                syncedBytes = appendedBytes;
+            }
+        }
+        logger.debug("[rollover] {} bytes of the records are discarded from {}.", recordBytes, file);
+    }
+
+    // must be called in synchronized (this).
+    private void transferFully(long position, long count, FileChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = channel.transferTo(position + transferred, count - transferred, target);
+            if (n <= 0) {
+                throw new IOException("failed to copy the records of " + file);
+            }
+            transferred += n;
+        }
+    }
+
+    /**
+     * Syncs and closes the log.
+     */
+    void close() {
+        if (syncExecutor != null) {
+            // not interrupted, so that the running sync is completed.
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            sync();
+        } catch (IOException ioe) {
+            logger.warn("[close] failed to sync " + file, ioe);
+        }
+        synchronized (reopenLock) {
+            closed = true;
+            try {
+                randomAccessFile.close();
+            } catch (IOException ioe) {
+                logger.warn("[close] failed to close " + file, ioe);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the records which are not forced to the storage yet.
+     *
+     * @return the unsynced bytes.
+     */
+    synchronized long getUnsyncedBytes() {
+        return appendedBytes - syncedBytes;
+    }
+
+    /**
+     * Returns the number of the forces.
+     *
+     * @return the number of the forces.
+     */
+    long getSyncs() {
+        return syncs;
+    }
+}
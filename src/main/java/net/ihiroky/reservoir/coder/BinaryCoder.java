@@ -0,0 +1,179 @@
+package net.ihiroky.reservoir.coder;
+
+import net.ihiroky.reservoir.BasicCache;
+import net.ihiroky.reservoir.Cache;
+import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.StreamingCoder;
+import net.ihiroky.reservoir.StringResolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A {@code StreamingCoder} which writes entries as the bytes encoded by {@code Coder}s.
+ * <p/>
+ * An entry is written as [int key length][key][int value length][value], and the entries are followed by
+ * int -1. If a cache is a {@code BasicCache} whose cache accessor stores the encoded keys, and its key and
+ * value coders are equal to the ones of this coder, the stored bytes are written without decoding. The coders
+ * are compared by {@code equals()}, so a coder which doesn't override it must be the same instance as
+ * the cache uses; otherwise the entries are decoded and encoded again.
+ *
+ * @author Hiroki Itoh
+ */
+public class BinaryCoder<K, V> implements StreamingCoder<K, V> {
+
+    private final Coder<K> keyCoder;
+    private final Coder<V> valueCoder;
+    private final Coder.Encoder<K> keyEncoder;
+    private final Coder.Decoder<K> keyDecoder;
+    private final Coder.Encoder<V> valueEncoder;
+    private final Coder.Decoder<V> valueDecoder;
+    private final StringResolver<K> keyResolver;
+
+    private static final int END = -1;
+    private static final String MATCH_ALL = ".*";
+
+    public BinaryCoder(Coder<K> keyCoder, Coder<V> valueCoder, StringResolver<K> keyResolver) {
+        if (keyCoder == null) {
+            throw new NullPointerException("keyCoder must not be null.");
+        }
+        if (valueCoder == null) {
+            throw new NullPointerException("valueCoder must not be null.");
+        }
+        if (keyResolver == null) {
+            throw new NullPointerException("keyResolver must not be null.");
+        }
+        this.keyCoder = keyCoder;
+        this.valueCoder = valueCoder;
+        this.keyEncoder = keyCoder.createEncoder();
+        this.keyDecoder = keyCoder.createDecoder();
+        this.valueEncoder = valueCoder.createEncoder();
+        this.valueDecoder = valueCoder.createDecoder();
+        this.keyResolver = keyResolver;
+    }
+
+    private static void writeBytes(DataOutputStream output, ByteBuffer bytes) throws IOException {
+        int length = bytes.remaining();
+        output.writeInt(length);
+        if (bytes.hasArray()) {
+            output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+        } else {
+            byte[] b = new byte[length];
+            bytes.duplicate().get(b);
+            output.write(b);
+        }
+    }
+
+    private static ByteBuffer readBytes(DataInputStream input, int length) throws IOException {
+        byte[] b = new byte[length];
+        input.readFully(b);
+        return ByteBuffer.wrap(b);
+    }
+
+    @Override
+    public void write(String key, Cache<K, V> cache, OutputStream outputStream) throws Exception {
+        K k = keyResolver.resolve(key);
+        write(k, (k != null) ? cache.get(k) : null, outputStream);
+    }
+
+    private void write(K key, V value, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        if (value != null) {
+            writeBytes(output, keyEncoder.encode(key));
+            writeBytes(output, valueEncoder.encode(value));
+        }
+        output.writeInt(END);
+        output.flush();
+    }
+
+    @Override
+    public void write(Pattern pattern, Cache<K, V> cache, OutputStream outputStream) throws Exception {
+        write(pattern, cache, outputStream, false);
+    }
+
+    private static boolean isSame(Coder<?> cacheCoder, Coder<?> coder) {
+        return cacheCoder != null && (cacheCoder == coder || cacheCoder.equals(coder));
+    }
+
+    private boolean hasSameCoders(Cache<K, V> cache) {
+        if (!(cache instanceof BasicCache)) {
+            return false;
+        }
+        BasicCache<K, V> basicCache = (BasicCache<K, V>) cache;
+        return isSame(basicCache.getKeyCoder(), keyCoder) && isSame(basicCache.getValueCoder(), valueCoder);
+    }
+
+    private void write(Pattern pattern, Cache<K, V> cache, OutputStream outputStream,
+                       boolean removeIfMatched) throws Exception {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        boolean matchAll = MATCH_ALL.equals(pattern.pattern());
+        if (hasSameCoders(cache)) {
+            Map.Entry<ByteBuffer, ByteBuffer> entry;
+            for (Iterator<Map.Entry<ByteBuffer, ByteBuffer>> iterator = ((BasicCache<K, V>) cache).encodedIterator();
+                 iterator.hasNext(); ) {
+                entry = iterator.next();
+                if (matchAll || pattern.matcher(String.valueOf(keyDecoder.decode(entry.getKey().duplicate()))).find()) {
+                    writeBytes(output, entry.getKey());
+                    writeBytes(output, entry.getValue());
+                    if (removeIfMatched) {
+                        iterator.remove();
+                    }
+                }
+            }
+        } else {
+            Map.Entry<K, V> entry;
+            for (Iterator<Map.Entry<K, V>> iterator = cache.iterator(); iterator.hasNext(); ) {
+                entry = iterator.next();
+                if (matchAll || pattern.matcher(String.valueOf(entry.getKey())).find()) {
+                    writeBytes(output, keyEncoder.encode(entry.getKey()));
+                    writeBytes(output, valueEncoder.encode(entry.getValue()));
+                    if (removeIfMatched) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        output.writeInt(END);
+        output.flush();
+    }
+
+    @Override
+    public void read(Cache<K, V> cache, InputStream inputStream) throws Exception {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        for (int length = input.readInt(); length != END; length = input.readInt()) {
+            K key = keyDecoder.decode(readBytes(input, length));
+            V value = valueDecoder.decode(readBytes(input, input.readInt()));
+            cache.put(key, value);
+        }
+    }
+
+    @Override
+    public void delete(String key, Cache<K, V> cache, OutputStream outputStream) throws Exception {
+        K k = keyResolver.resolve(key);
+        write(k, (k != null) ? cache.poll(k) : null, outputStream);
+    }
+
+    @Override
+    public void delete(Pattern pattern, Cache<K, V> cache, OutputStream outputStream) throws Exception {
+        write(pattern, cache, outputStream, true);
+    }
+
+    @Override
+    public void delete(Cache<K, V> cache, InputStream inputStream) throws Exception {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        for (int length = input.readInt(); length != END; length = input.readInt()) {
+            K key = keyDecoder.decode(readBytes(input, length));
+            readBytes(input, input.readInt());
+            cache.remove(key);
+        }
+    }
+}
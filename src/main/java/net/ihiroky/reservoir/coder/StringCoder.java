@@ -33,6 +33,26 @@ public class StringCoder implements Coder<String> {
         }
     }
 
+    /**
+     * Returns true if {@code object} is a {@code StringCoder} of the same charset, which encodes strings
+     * into the same bytes.
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object == null || object.getClass() != getClass()) {
+            return false;
+        }
+        return charset.equals(((StringCoder) object).charset);
+    }
+
+    @Override
+    public int hashCode() {
+        return charset.hashCode();
+    }
+
     @Override
     public Encoder<String> createEncoder() {
         return new StringEncoder(charset);
@@ -1,7 +1,10 @@
 package net.ihiroky.reservoir.index;
 
 /**
- * Created on 12/10/15, 19:13
+ * An {@code Index} which evicts the least recently used entry.
+ * <p/>
+ * A hit is recorded in a striped lossy read buffer and the LRU list is reordered in batches, so the eviction
+ * order is approximate while many threads read concurrently.
  *
  * @author Hiroki Itoh
  */
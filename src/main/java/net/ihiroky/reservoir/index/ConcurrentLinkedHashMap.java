@@ -12,8 +12,10 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -225,6 +227,25 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
         return RemoveEldestPolicy.DO_NOTHING;
     }
 
+    /**
+     * Evicts the eldest entry which is not ready to remove, regardless of the size of this map.
+     * How to evict is decided by {@link #evictEntry(Entry)}.
+     *
+     * @return true if the eldest entry is found.
+     */
+    public boolean evictEldest() {
+        Node<K, V> eldestNode = orderQueue.peekValid();
+        if (eldestNode == null) {
+            return false;
+        }
+        evictEntry(eldestNode).execute(this, eldestNode);
+        return true;
+    }
+
+    protected RemoveEldestPolicy evictEntry(Entry<K, V> eldestEntry) {
+        return RemoveEldestPolicy.REMOVE;
+    }
+
     @Override
     public V remove(Object key) {
         if (key == null) {
@@ -920,13 +941,82 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
 
     }
 
+    /**
+     * A doubly linked list of the nodes ordered by insertion or access.
+     * <p/>
+     * Structural changes are guarded by the lock of this queue. Promotions by {@code get} are not applied
+     * immediately; they are recorded in striped lossy ring buffers, {@link ReadBuffer}, and applied in a batch
+     * by a reader which acquires the lock with {@code tryLock()} once {@link #DRAIN_THRESHOLD} promotions are
+     * pending in its buffer, or before any other operation on the lock. A promotion of a node removed after it
+     * is recorded is skipped. A hit costs only a ring buffer write and readers never wait for the lock.
+     * A promotion may be dropped if its buffer is full or contended, so the access order is approximate under
+     * heavy reads.
+     */
     // TODO check if 'readyToRemove' node exists for a long time.
-    // TODO use non-blockng algorighm link ConcurrentLinkedQueue.
     protected static class OrderQueue<K, V> extends AbstractQueue<Entry<K, V>> {
         Node<K, V> head;
         Node<K, V> tail;
 
+        private final ReentrantLock lock;
+        private final ReadBuffer<K, V>[] readBuffers;
+        private final int readBufferMask;
+
+        private static final int MAX_READ_BUFFERS = 64;
+
+        /** the number of the pending promotions in a read buffer to start draining. */
+        static final int DRAIN_THRESHOLD = ReadBuffer.SIZE / 2;
+
         OrderQueue() {
+            int buffers = 1;
+            int processors = Runtime.getRuntime().availableProcessors();
+            while (buffers < processors && buffers < MAX_READ_BUFFERS) {
+                buffers <<= 1;
+            }
+            @SuppressWarnings("unchecked")
+            ReadBuffer<K, V>[] readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[buffers];
+            for (int i = 0; i < buffers; i++) {
+                readBuffers[i] = new ReadBuffer<K, V>();
+            }
+            this.lock = new ReentrantLock();
+            this.readBuffers = readBuffers;
+            this.readBufferMask = buffers - 1;
+        }
+
+        private ReadBuffer<K, V> readBufferForCurrentThread() {
+            long id = Thread.currentThread().getId();
+            int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+            return readBuffers[(h ^ (h >>> 16)) & readBufferMask];
+        }
+
+        private boolean isLinked(Node<K, V> node) {
+            return node.prev != null || head == node;
+        }
+
+        void promoteNow(Node<K, V> node) {
+            // skip the node removed after it is recorded.
+            if (node != tail && isLinked(node)) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+
+        /**
+         * Applies the recorded promotions. The caller must hold the lock of this queue.
+         */
+        private void drainPromotions() {
+            for (ReadBuffer<K, V> buffer : readBuffers) {
+                buffer.drainTo(this);
+            }
+        }
+
+        private void tryDrainPromotions() {
+            if (lock.tryLock()) {
+                try {
+                    drainPromotions();
+                } finally {
+                    lock.unlock();
+                }
+            }
         }
 
         private void linkLast(Node<K, V> node) {
@@ -981,17 +1071,24 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
         @Override
         public int size() {
             long size = 0;
-            synchronized (this) {
+            lock.lock();
+            try {
                 for (Node<K, V> n = head; n != null; n = n.next) {
                     size++;
                 }
+            } finally {
+                lock.unlock();
             }
             return (size > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) size;
         }
 
         public void offer(Node<K, V> node) {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 linkLast(node);
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -1003,56 +1100,81 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
 
         @Override
         public Node<K, V> poll() {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 return unlinkHead();
+            } finally {
+                lock.unlock();
             }
         }
 
         @Override
         public Node<K, V> peek() {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 return head;
+            } finally {
+                lock.unlock();
             }
         }
 
         public Node<K, V> peekValid() {
             Node<K, V> node;
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 node = head;
                 while (node != null && node.readyToRemove) {
                     node = node.next;
                 }
+            } finally {
+                lock.unlock();
             }
             return node;
         }
 
         public void remove(Node<K, V> node) {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 unlink(node);
+            } finally {
+                lock.unlock();
             }
         }
 
         public void removeAndOffer(Node<K, V> remove, Node<K, V> offer) {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
                 unlink(remove);
                 offer(offer);
+            } finally {
+                lock.unlock();
             }
         }
 
         public void promote(Node<K, V> node) {
-            synchronized (this) {
-                if (node == tail) {
-                    return;
-                }
-                unlink(node);
-                linkLast(node);
+            if (readBufferForCurrentThread().record(node) >= DRAIN_THRESHOLD) {
+                tryDrainPromotions();
             }
         }
 
         @Override
         public void clear() {
-            synchronized (this) {
+            lock.lock();
+            try {
+                drainPromotions();
+                Node<K, V> next;
+                for (Node<K, V> n = head; n != null; n = next) {
+                    next = n.next;
+                    n.prev = n.next = null;
+                }
                 head = tail = null;
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -1071,7 +1193,13 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
 
             OrderQueueIterator(ConcurrentLinkedHashMap<K, V> map) {
                 Node<K, V> current = new Node<K, V>(null, null);
-                current.next = OrderQueue.this.head;
+                OrderQueue.this.lock.lock();
+                try {
+                    drainPromotions();
+                    current.next = OrderQueue.this.head;
+                } finally {
+                    OrderQueue.this.lock.unlock();
+                }
 
                 this.current = current;
                 this.map = map;
@@ -1079,8 +1207,11 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
 
             @Override
             public boolean hasNext() {
-                synchronized (OrderQueue.this) {
+                OrderQueue.this.lock.lock();
+                try {
                     return (current != null) && (current.next != null);
+                } finally {
+                    OrderQueue.this.lock.unlock();
                 }
             }
 
@@ -1090,8 +1221,11 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
                     return null;
                 }
                 Node<K, V> result;
-                synchronized (OrderQueue.this) {
+                OrderQueue.this.lock.lock();
+                try {
                     result = current.next;
+                } finally {
+                    OrderQueue.this.lock.unlock();
                 }
                 current = result;
                 return result;
@@ -1106,4 +1240,57 @@ public class ConcurrentLinkedHashMap<K, V> implements ConcurrentMap<K, V> {
             }
         }
     }
+
+    /**
+     * A bounded lossy ring buffer which records the nodes read by {@code get}.
+     * <p/>
+     * Writers claim a slot with CAS on {@code writeCount}; a record is dropped if the buffer is full or the CAS
+     * fails. The records are consumed by a single drainer which holds the lock of {@code OrderQueue}.
+     */
+    static final class ReadBuffer<K, V> {
+        private final AtomicReferenceArray<Node<K, V>> ring;
+        private final AtomicLong writeCount;
+        private volatile long readCount;
+
+        static final int SIZE = 32;
+        private static final int MASK = SIZE - 1;
+
+        ReadBuffer() {
+            ring = new AtomicReferenceArray<Node<K, V>>(SIZE);
+            writeCount = new AtomicLong();
+        }
+
+        /**
+         * Records a node.
+         *
+         * @param node the node to be promoted
+         * @return the number of the pending records, including {@code node} if it is recorded
+         */
+        int record(Node<K, V> node) {
+            long w = writeCount.get();
+            long pending = w - readCount;
+            if (pending < SIZE && writeCount.compareAndSet(w, w + 1)) {
+                ring.lazySet((int) (w & MASK), node);
+                pending++;
+            }
+            return (int) pending;
+        }
+
+        void drainTo(OrderQueue<K, V> queue) {
+            long r = readCount;
+            long w = writeCount.get();
+            Node<K, V> node;
+            int index;
+            for (; r < w; r++) {
+                index = (int) (r & MASK);
+                node = ring.get(index);
+                if (node == null) {
+                    break; // the slot is claimed but not published yet.
+                }
+                ring.lazySet(index, null);
+                queue.promoteNow(node);
+            }
+            readCount = r;
+        }
+    }
 }
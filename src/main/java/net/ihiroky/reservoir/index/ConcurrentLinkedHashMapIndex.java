@@ -1,5 +1,6 @@
 package net.ihiroky.reservoir.index;
 
+import net.ihiroky.reservoir.EvictionSupport;
 import net.ihiroky.reservoir.Index;
 import net.ihiroky.reservoir.IndexEventListener;
 import net.ihiroky.reservoir.Pair;
@@ -15,7 +16,7 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * @author Hiroki Itoh
  */
-public class ConcurrentLinkedHashMapIndex<K, V> implements Index<K, V> {
+public class ConcurrentLinkedHashMapIndex<K, V> implements Index<K, V>, EvictionSupport {
 
     private ConcurrentLinkedHashMap<K, V> map;
     private AtomicLong capacity;
@@ -38,6 +39,12 @@ public class ConcurrentLinkedHashMapIndex<K, V> implements Index<K, V> {
                 }
                 return RemoveEldestPolicy.DO_NOTHING;
             }
+
+            @Override
+            protected RemoveEldestPolicy evictEntry(Map.Entry<K, V> eldestEntry) {
+                return eventListener.onCacheOut(ConcurrentLinkedHashMapIndex.this,
+                        eldestEntry.getKey(), eldestEntry.getValue()) ? RemoveEldestPolicy.REMOVE : RemoveEldestPolicy.READY_TO_REMOVE;
+            }
         };
 
     }
@@ -160,6 +167,11 @@ public class ConcurrentLinkedHashMapIndex<K, V> implements Index<K, V> {
         return (c > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) c;
     }
 
+    @Override
+    public boolean evict() {
+        return map.evictEldest();
+    }
+
     @Override
     public String toString() {
         return map.toString();
@@ -0,0 +1,705 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.EvictionSupport;
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.IndexEventListener;
+import net.ihiroky.reservoir.Pair;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@code Index} which expires entries of another index after time-to-live (since the last write) or
+ * time-to-idle (since the last access).
+ * <p/>
+ * The defaults are given to the constructor, and can be overridden per entry with
+ * {@link #setExpiration(Object, long, long, java.util.concurrent.TimeUnit)}, or by writing the entry through
+ * {@link #withExpiration(long, long, java.util.concurrent.TimeUnit)}. The deadlines are held in
+ * a {@link TimingWheel}, which is advanced while the index is used; an expired entry is passed to
+ * {@link IndexEventListener#onCacheOut(Index, Object, Object)} and removed from the delegate if the listener
+ * returns true. A read of an entry checks its deadline, so an expired entry is never returned even if the wheel
+ * has not reached it yet. {@link #putIfAbsent(Object, Object)} on an existing key is regarded as a write,
+ * because cache accessors update the value of the ref returned by it.
+ *
+ * @author Hiroki Itoh
+ */
+public class ExpiringIndex<K, V> implements Index<K, V>, EvictionSupport {
+
+    private final Index<K, V> delegate;
+    private final long timeToLiveNanos;
+    private final long timeToIdleNanos;
+    private final ConcurrentHashMap<K, ExpirationNode<K, V>> nodes;
+    private final TimingWheel timingWheel;
+    private final ReentrantLock lock;
+    private volatile IndexEventListener<K, V> eventListener;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an expiring index.
+     *
+     * @param delegate an index which holds entries
+     * @param timeToLive a default time to live; 0 means no limit
+     * @param timeToIdle a default time to idle; 0 means no limit
+     * @param unit the unit of {@code timeToLive} and {@code timeToIdle}
+     */
+    public ExpiringIndex(Index<K, V> delegate, long timeToLive, long timeToIdle, TimeUnit unit) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate must not be null.");
+        }
+        if (timeToLive < 0 || timeToIdle < 0) {
+            throw new IllegalArgumentException("timeToLive and timeToIdle must not be negative.");
+        }
+        this.delegate = delegate;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.timeToIdleNanos = unit.toNanos(timeToIdle);
+        this.nodes = new ConcurrentHashMap<K, ExpirationNode<K, V>>();
+        this.timingWheel = new TimingWheel(currentNanos());
+        this.lock = new ReentrantLock();
+        this.eventListener = SimpleIndex.nullEventListener();
+        delegate.setEventListener(new DelegateEventListener());
+    }
+
+    /**
+     * Returns the index which holds entries.
+     */
+    public Index<K, V> delegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the innermost index of {@code index} if it is an {@code ExpiringIndex} or its view.
+     */
+    public static <K, V> Index<K, V> unwrap(Index<K, V> index) {
+        for (;;) {
+            if (index instanceof ExpiringIndex) {
+                index = ((ExpiringIndex<K, V>) index).delegate;
+            } else if (index instanceof ExpirationView) {
+                index = ((ExpirationView<K, V>) index).owner.delegate;
+            } else {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Returns a view of this index whose writes set {@code timeToLive} and {@code timeToIdle} to the written
+     * entries instead of the defaults, under the same lock as the defaults are set. The other operations are
+     * the same as this index.
+     *
+     * @param timeToLive a time to live; 0 means no limit
+     * @param timeToIdle a time to idle; 0 means no limit
+     * @param unit the unit of {@code timeToLive} and {@code timeToIdle}
+     * @return the view
+     */
+    public Index<K, V> withExpiration(long timeToLive, long timeToIdle, TimeUnit unit) {
+        if (timeToLive < 0 || timeToIdle < 0) {
+            throw new IllegalArgumentException("timeToLive and timeToIdle must not be negative.");
+        }
+        return new ExpirationView<K, V>(this, unit.toNanos(timeToLive), unit.toNanos(timeToIdle));
+    }
+
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getTimeToIdle(TimeUnit unit) {
+        return unit.convert(timeToIdleNanos, TimeUnit.NANOSECONDS);
+    }
+
+    protected long currentNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Sets the time to live and time to idle of an entry. They are reset to the defaults when the entry is
+     * written next time.
+     *
+     * @param key the key of the entry
+     * @param timeToLive a time to live; 0 means no limit
+     * @param timeToIdle a time to idle; 0 means no limit
+     * @param unit the unit of {@code timeToLive} and {@code timeToIdle}
+     * @return true if the entry exists
+     */
+    public boolean setExpiration(K key, long timeToLive, long timeToIdle, TimeUnit unit) {
+        if (timeToLive < 0 || timeToIdle < 0) {
+            throw new IllegalArgumentException("timeToLive and timeToIdle must not be negative.");
+        }
+        V value = (nodes.get(key) == null) ? delegate.get(key) : null;
+        long now = currentNanos();
+        lock.lock();
+        try {
+            ExpirationNode<K, V> node = nodes.get(key);
+            if (node == null) {
+                if (value == null) {
+                    return false;
+                }
+                node = new ExpirationNode<K, V>(key);
+                node.value = value;
+                nodes.put(key, node);
+            }
+            node.expired = false;
+            node.timeToLiveNanos = unit.toNanos(timeToLive);
+            node.timeToIdleNanos = unit.toNanos(timeToIdle);
+            node.writeNanos = now;
+            node.accessNanos = now;
+            reschedule(node);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Expires the entries whose deadlines have come.
+     */
+    public void expire() {
+        long now = currentNanos();
+        List<TimingWheel.Timer> expired = new ArrayList<TimingWheel.Timer>();
+        List<V> values;
+        lock.lock();
+        try {
+            timingWheel.advance(now, expired);
+            values = markExpired(expired);
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(expired, values);
+    }
+
+    private void tryExpire(long now) {
+        if (!timingWheel.needsAdvance(now) || !lock.tryLock()) {
+            return;
+        }
+        List<TimingWheel.Timer> expired = new ArrayList<TimingWheel.Timer>();
+        List<V> values;
+        try {
+            timingWheel.advance(now, expired);
+            values = markExpired(expired);
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(expired, values);
+    }
+
+    /**
+     * Marks the nodes expired, and returns their values at the marking. Must be called with the lock.
+     */
+    private List<V> markExpired(List<TimingWheel.Timer> expired) {
+        List<V> values = new ArrayList<V>(expired.size());
+        for (TimingWheel.Timer timer : expired) {
+            @SuppressWarnings("unchecked") ExpirationNode<K, V> node = (ExpirationNode<K, V>) timer;
+            node.expired = true;
+            values.add(node.value);
+        }
+        return values;
+    }
+
+    /**
+     * Returns true if {@code node} is still expired with {@code value}; it is not written after the marking.
+     */
+    private boolean isStillExpired(ExpirationNode<K, V> node, V value) {
+        lock.lock();
+        try {
+            return node.expired && nodes.get(node.key) == node && node.value == value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cacheOut(List<TimingWheel.Timer> expired, List<V> values) {
+        IndexEventListener<K, V> listener = eventListener;
+        for (int i = 0; i < expired.size(); i++) {
+            @SuppressWarnings("unchecked") ExpirationNode<K, V> node = (ExpirationNode<K, V>) expired.get(i);
+            V value = values.get(i);
+            if (!isStillExpired(node, value)) {
+                continue;
+            }
+            if (!delegate.contains(node.key)) {
+                nodes.remove(node.key, node);
+                continue;
+            }
+            if (listener.onCacheOut(this, node.key, value)) {
+                delegate.removeSilently(node.key, value);
+                nodes.remove(node.key, node);
+            }
+        }
+    }
+
+    /**
+     * Expires a node found on read. Returns true if the node is expired.
+     */
+    private boolean expireIfNeeded(ExpirationNode<K, V> node, long now) {
+        if (node.expired) {
+            return true;
+        }
+        if (!node.isExpired(now)) {
+            return false;
+        }
+        V value;
+        lock.lock();
+        try {
+            if (node.expired || nodes.get(node.key) != node) {
+                return true;
+            }
+            timingWheel.unschedule(node);
+            node.expired = true;
+            value = node.value;
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(Collections.<TimingWheel.Timer>singletonList(node), Collections.singletonList(value));
+        return true;
+    }
+
+    /**
+     * Must be called with the lock.
+     */
+    private void reschedule(ExpirationNode<K, V> node) {
+        if (node.timeToLiveNanos == 0 && node.timeToIdleNanos == 0) {
+            timingWheel.unschedule(node);
+            return;
+        }
+        node.deadline = node.computeDeadline();
+        timingWheel.schedule(node);
+    }
+
+    private void onWrite(K key, V value) {
+        onWrite(key, value, timeToLiveNanos, timeToIdleNanos);
+    }
+
+    private void onWrite(K key, V value, long timeToLiveNanos, long timeToIdleNanos) {
+        long now = currentNanos();
+        List<TimingWheel.Timer> expired = new ArrayList<TimingWheel.Timer>();
+        List<V> values;
+        lock.lock();
+        try {
+            ExpirationNode<K, V> node = nodes.get(key);
+            if (timeToLiveNanos == 0 && timeToIdleNanos == 0) {
+                // no expiration; drop the expiration set per entry.
+                if (node != null) {
+                    timingWheel.unschedule(node);
+                    nodes.remove(key);
+                }
+            } else {
+                if (node == null) {
+                    node = new ExpirationNode<K, V>(key);
+                    nodes.put(key, node);
+                }
+                node.value = value;
+                node.timeToLiveNanos = timeToLiveNanos;
+                node.timeToIdleNanos = timeToIdleNanos;
+                node.writeNanos = now;
+                node.accessNanos = now;
+                node.expired = false;
+                reschedule(node);
+            }
+            timingWheel.advance(now, expired);
+            values = markExpired(expired);
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(expired, values);
+    }
+
+    private void unschedule(K key, V value) {
+        lock.lock();
+        try {
+            ExpirationNode<K, V> node = nodes.get(key);
+            if (node != null && value.equals(node.value)) {
+                timingWheel.unschedule(node);
+                nodes.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        long now = currentNanos();
+        ExpirationNode<K, V> node = nodes.get(key);
+        if (node != null) {
+            if (expireIfNeeded(node, now)) {
+                return null;
+            }
+            node.accessNanos = now; // the deadline is updated when the wheel reaches the node.
+        }
+        V value = delegate.get(key);
+        tryExpire(now);
+        return value;
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> get(Collection<K> keys) {
+        Collection<Map.Entry<K, V>> result = new ArrayList<Map.Entry<K, V>>(keys.size());
+        V value;
+        for (K key : keys) {
+            value = get(key);
+            if (value != null) {
+                result.add(Pair.newImmutableEntry(key, value));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V oldValue = delegate.put(key, value);
+        onWrite(key, value);
+        return oldValue;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V oldValue = delegate.putIfAbsent(key, value);
+        onWrite(key, (oldValue != null) ? oldValue : value);
+        return oldValue;
+    }
+
+    @Override
+    public void put(Collection<Map.Entry<K, V>> keyValues) {
+        for (Map.Entry<K, V> entry : keyValues) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        V value = delegate.remove(key);
+        if (value != null) {
+            unschedule(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void removeSilently(K key, V value) {
+        delegate.removeSilently(key, value);
+        unschedule(key, value);
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> remove(Collection<K> keys) {
+        Collection<Map.Entry<K, V>> result = delegate.remove(keys);
+        for (Map.Entry<K, V> entry : result) {
+            unschedule(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(K key) {
+        ExpirationNode<K, V> node = nodes.get(key);
+        if (node != null && expireIfNeeded(node, currentNanos())) {
+            return false;
+        }
+        return delegate.contains(key);
+    }
+
+    @Override
+    public boolean containsAll(Collection<K> keys) {
+        for (K key : keys) {
+            if (!contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return (entrySet != null) ? entrySet : (entrySet = new EntrySet());
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        lock.lock();
+        try {
+            timingWheel.clear();
+            nodes.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setEventListener(IndexEventListener<K, V> eventListener) {
+        IndexEventListener<K, V> nullEventListener = SimpleIndex.nullEventListener();
+        this.eventListener = (eventListener != null) ? eventListener : nullEventListener;
+    }
+
+    /**
+     * Returns the number of the entries, including the expired entries which are not removed yet.
+     */
+    @Override
+    public int size() {
+        tryExpire(currentNanos());
+        return delegate.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return delegate.maxSize();
+    }
+
+    int scheduledSize() {
+        lock.lock();
+        try {
+            return timingWheel.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts an entry by the delegate index if it supports {@code EvictionSupport}.
+     */
+    @Override
+    public boolean evict() {
+        return (delegate instanceof EvictionSupport) && ((EvictionSupport) delegate).evict();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    private class DelegateEventListener implements IndexEventListener<K, V> {
+        @Override
+        public void onPut(Index<K, V> index, K key, V value) {
+            eventListener.onPut(ExpiringIndex.this, key, value);
+        }
+
+        @Override
+        public void onRemove(Index<K, V> index, K key, V value) {
+            unschedule(key, value);
+            eventListener.onRemove(ExpiringIndex.this, key, value);
+        }
+
+        @Override
+        public boolean onCacheOut(Index<K, V> index, K key, V value) {
+            boolean result = eventListener.onCacheOut(ExpiringIndex.this, key, value);
+            if (result) {
+                unschedule(key, value);
+            }
+            return result;
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Map.Entry<K, V>> base = delegate.entrySet().iterator();
+            final long now = currentNanos();
+            return new Iterator<Map.Entry<K, V>>() {
+                Map.Entry<K, V> next = nextValid();
+                Map.Entry<K, V> current;
+
+                Map.Entry<K, V> nextValid() {
+                    Map.Entry<K, V> entry;
+                    ExpirationNode<K, V> node;
+                    while (base.hasNext()) {
+                        entry = base.next();
+                        node = nodes.get(entry.getKey());
+                        if (node == null || !(node.expired || node.isExpired(now))) {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    current = next;
+                    next = nextValid();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    removeSilently(current.getKey(), current.getValue());
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ExpiringIndex.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ExpiringIndex.this.clear();
+        }
+    }
+
+    /**
+     * A view which writes entries with the expiration given to {@link #withExpiration(long, long, TimeUnit)}.
+     */
+    private static class ExpirationView<K, V> implements Index<K, V>, EvictionSupport {
+
+        final ExpiringIndex<K, V> owner;
+        final long timeToLiveNanos;
+        final long timeToIdleNanos;
+
+        ExpirationView(ExpiringIndex<K, V> owner, long timeToLiveNanos, long timeToIdleNanos) {
+            this.owner = owner;
+            this.timeToLiveNanos = timeToLiveNanos;
+            this.timeToIdleNanos = timeToIdleNanos;
+        }
+
+        @Override
+        public V get(K key) {
+            return owner.get(key);
+        }
+
+        @Override
+        public Collection<Map.Entry<K, V>> get(Collection<K> keys) {
+            return owner.get(keys);
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V oldValue = owner.delegate.put(key, value);
+            owner.onWrite(key, value, timeToLiveNanos, timeToIdleNanos);
+            return oldValue;
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            V oldValue = owner.delegate.putIfAbsent(key, value);
+            owner.onWrite(key, (oldValue != null) ? oldValue : value, timeToLiveNanos, timeToIdleNanos);
+            return oldValue;
+        }
+
+        @Override
+        public void put(Collection<Map.Entry<K, V>> keyValues) {
+            for (Map.Entry<K, V> entry : keyValues) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public V remove(K key) {
+            return owner.remove(key);
+        }
+
+        @Override
+        public void removeSilently(K key, V value) {
+            owner.removeSilently(key, value);
+        }
+
+        @Override
+        public Collection<Map.Entry<K, V>> remove(Collection<K> keys) {
+            return owner.remove(keys);
+        }
+
+        @Override
+        public boolean contains(K key) {
+            return owner.contains(key);
+        }
+
+        @Override
+        public boolean containsAll(Collection<K> keys) {
+            return owner.containsAll(keys);
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return owner.entrySet();
+        }
+
+        @Override
+        public void clear() {
+            owner.clear();
+        }
+
+        @Override
+        public void setEventListener(IndexEventListener<K, V> eventListener) {
+            owner.setEventListener(eventListener);
+        }
+
+        @Override
+        public int size() {
+            return owner.size();
+        }
+
+        @Override
+        public int maxSize() {
+            return owner.maxSize();
+        }
+
+        @Override
+        public boolean evict() {
+            return owner.evict();
+        }
+
+        @Override
+        public String toString() {
+            return owner.toString();
+        }
+    }
+
+    static class ExpirationNode<K, V> extends TimingWheel.Timer {
+        final K key;
+        volatile V value;
+        volatile long writeNanos;
+        volatile long accessNanos;
+        volatile long timeToLiveNanos;
+        volatile long timeToIdleNanos;
+        volatile boolean expired;
+
+        ExpirationNode(K key) {
+            this.key = key;
+        }
+
+        long computeDeadline() {
+            long ttl = timeToLiveNanos;
+            long tti = timeToIdleNanos;
+            if (ttl == 0) {
+                return accessNanos + tti;
+            }
+            long writeDeadline = writeNanos + ttl;
+            if (tti == 0) {
+                return writeDeadline;
+            }
+            long idleDeadline = accessNanos + tti;
+            return (idleDeadline - writeDeadline < 0) ? idleDeadline : writeDeadline;
+        }
+
+        @Override
+        void updateDeadline() {
+            deadline = computeDeadline();
+        }
+
+        boolean isExpired(long now) {
+            long ttl = timeToLiveNanos;
+            long tti = timeToIdleNanos;
+            return (ttl != 0 && now - (writeNanos + ttl) >= 0)
+                    || (tti != 0 && now - (accessNanos + tti) >= 0);
+        }
+    }
+}
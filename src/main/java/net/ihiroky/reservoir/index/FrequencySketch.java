@@ -0,0 +1,127 @@
+package net.ihiroky.reservoir.index;
+
+/**
+ * A count-min sketch which estimates the access frequencies of keys with 4-bit counters.
+ * <p/>
+ * Each key is mapped to four counters in the table, and its frequency is the minimum of them. When the number
+ * of increments reaches the sample size, all counters are halved so that the old history ages out.
+ * Note that this implementation is not synchronized.
+ *
+ * @author Hiroki Itoh
+ */
+public class FrequencySketch {
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    private static final int MAX_TABLE_LENGTH = 1 << 20;
+    private static final int MIN_TABLE_LENGTH = 16;
+    private static final int MAX_FREQUENCY = 15;
+    private static final int SAMPLE_FACTOR = 10;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L,
+    };
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Constructs a sketch for {@code capacity} keys.
+     *
+     * @param capacity the expected maximum number of keys
+     */
+    public FrequencySketch(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0.");
+        }
+        int length = MIN_TABLE_LENGTH;
+        while (length < capacity && length < MAX_TABLE_LENGTH) {
+            length <<= 1;
+        }
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        long sampleSize = capacity * SAMPLE_FACTOR;
+        this.sampleSize = (sampleSize > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) sampleSize;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * Returns the estimated frequency of {@code key}, in [0, 15].
+     */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2; // one of four groups of counters in a long.
+        int frequency = MAX_FREQUENCY;
+        int count;
+        for (int i = 0; i < 4; i++) {
+            count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xFL);
+            if (count < frequency) {
+                frequency = count;
+            }
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the frequency of {@code key} if it is not saturated.
+     */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters.
+     */
+    void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    /**
+     * Clears all counters.
+     */
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0L;
+        }
+        size = 0;
+    }
+
+    int sampleSize() {
+        return sampleSize;
+    }
+}
@@ -1,5 +1,6 @@
 package net.ihiroky.reservoir.index;
 
+import net.ihiroky.reservoir.EvictionSupport;
 import net.ihiroky.reservoir.Index;
 import net.ihiroky.reservoir.IndexEventListener;
 import net.ihiroky.reservoir.Pair;
@@ -8,6 +9,7 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -22,7 +24,7 @@ import java.util.Set;
  *
  * @author Hiroki Itoh
  */
-public class LinkedHashMapIndex<K, V> implements Index<K, V> {
+public class LinkedHashMapIndex<K, V> implements Index<K, V>, EvictionSupport {
 
     private LinkedHashMap<K, V> index;
     private int capacity;
@@ -194,4 +196,18 @@ public class LinkedHashMapIndex<K, V> implements Index<K, V> {
     public int maxSize() {
         return capacity;
     }
+
+    @Override
+    public boolean evict() {
+        Iterator<Map.Entry<K, V>> iterator = index.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        Map.Entry<K, V> eldest = iterator.next();
+        if (eventListener.onCacheOut(this, eldest.getKey(), eldest.getValue())) {
+            iterator.remove();
+            return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,618 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.IndexEventListener;
+import net.ihiroky.reservoir.accessor.ByteBlock;
+import net.ihiroky.reservoir.accessor.ExtentBlockedByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An {@code Index} which stores its hash table, keys and values in direct byte buffers.
+ * <p/>
+ * Keys and values are encoded by {@code Coder}s and kept as records in the direct buffers, so only
+ * transient objects created by {@link #get(Object)} and the other methods live in the Java heap.
+ * An equality of keys is decided by their encoded bytes, so the key {@code Coder} must encode equal keys
+ * into the same bytes. A value returned by this index is a copy decoded from the stored bytes; a change
+ * to it is not reflected to this index until it is put again.
+ * <p/>
+ * The entries are divided into segments by hash, and each segment is guarded by its own read/write lock.
+ * Each segment has an open addressing hash table with linear probing, and the records are allocated from
+ * {@code ExtentBlockedByteBuffer}s which are added as the segment grows. This index does not cache out entries.
+ *
+ * @author Hiroki Itoh
+ */
+public class OffHeapIndex<K, V> implements Index<K, V> {
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final Coder.Encoder<K> keyEncoder;
+    private final Coder.Decoder<K> keyDecoder;
+    private final Coder.Encoder<V> valueEncoder;
+    private final Coder.Decoder<V> valueDecoder;
+    private IndexEventListener<K, V> eventListener;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    private static final int SEGMENTS = 16;
+    private static final int MIN_SEGMENT_CAPACITY = 4;
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 30;
+
+    /* a slot of the hash table: [long address + 1 of the record, or EMPTY/DELETED][int hash] */
+    private static final int SLOT_BYTES = 12;
+    private static final int HASH_OFFSET = 8;
+    private static final long EMPTY = 0L;
+    private static final long DELETED = -1L;
+
+    /* a record: [int key length][int value length][key][value], in a run of blocks */
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int RECORD_BLOCK_SIZE = 16;
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int CHUNK_SHIFT = 32;
+    private static final long BLOCK_MASK = 0xFFFFFFFFL;
+
+    public OffHeapIndex(Coder<K> keyCoder, Coder<V> valueCoder) {
+        this(DEFAULT_INITIAL_CAPACITY, keyCoder, valueCoder);
+    }
+
+    public OffHeapIndex(int initialCapacity, Coder<K> keyCoder, Coder<V> valueCoder) {
+        if (keyCoder == null) {
+            throw new NullPointerException("keyCoder must not be null.");
+        }
+        if (valueCoder == null) {
+            throw new NullPointerException("valueCoder must not be null.");
+        }
+        if (initialCapacity <= 0 || initialCapacity == Integer.MAX_VALUE) {
+            initialCapacity = DEFAULT_INITIAL_CAPACITY;
+        }
+        int segmentCapacity = MIN_SEGMENT_CAPACITY;
+        while (segmentCapacity * SEGMENTS * 3 / 4 < initialCapacity && segmentCapacity < MAX_SEGMENT_CAPACITY) {
+            segmentCapacity <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        Segment[] segments = (Segment[]) new OffHeapIndex<?, ?>.Segment[SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.segments = segments;
+        this.segmentShift = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+        this.keyEncoder = keyCoder.createEncoder();
+        this.keyDecoder = keyCoder.createDecoder();
+        this.valueEncoder = valueCoder.createEncoder();
+        this.valueDecoder = valueCoder.createDecoder();
+        this.eventListener = SimpleIndex.nullEventListener();
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> segmentShift];
+    }
+
+    /**
+     * A set of records allocated from one direct byte buffer.
+     */
+    private static class Chunk {
+
+        final ByteBuffer byteBuffer;
+        final ExtentBlockedByteBuffer blocks;
+
+        Chunk(int size) {
+            byteBuffer = ByteBuffer.allocateDirect(size);
+            blocks = new ExtentBlockedByteBuffer(byteBuffer, RECORD_BLOCK_SIZE);
+        }
+    }
+
+    private class Segment {
+
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        ByteBuffer table;
+        int capacity;
+        volatile int size;
+        int used;
+        List<Chunk> chunks;
+
+        Segment(int capacity) {
+            this.table = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+            this.capacity = capacity;
+            this.chunks = new ArrayList<Chunk>();
+        }
+
+        long slotAt(int slot) {
+            return table.getLong(slot * SLOT_BYTES);
+        }
+
+        int hashAt(int slot) {
+            return table.getInt(slot * SLOT_BYTES + HASH_OFFSET);
+        }
+
+        void setSlot(int slot, long address, int hash) {
+            int offset = slot * SLOT_BYTES;
+            table.putLong(offset, address);
+            table.putInt(offset + HASH_OFFSET, hash);
+        }
+
+        Chunk chunkOf(long address) {
+            return chunks.get((int) (address >>> CHUNK_SHIFT));
+        }
+
+        int offsetOf(long address) {
+            return (int) (address & BLOCK_MASK) * RECORD_BLOCK_SIZE;
+        }
+
+        int keyLengthAt(long address) {
+            return chunkOf(address).byteBuffer.getInt(offsetOf(address));
+        }
+
+        int valueLengthAt(long address) {
+            return chunkOf(address).byteBuffer.getInt(offsetOf(address) + 4);
+        }
+
+        /**
+         * Returns a view of the bytes in the record at {@code address}.
+         */
+        ByteBuffer view(long address, int position, int length) {
+            ByteBuffer bb = chunkOf(address).byteBuffer.duplicate();
+            int offset = offsetOf(address) + position;
+            bb.limit(offset + length).position(offset);
+            return bb;
+        }
+
+        boolean equalBytes(long address, int position, ByteBuffer bytes) {
+            ByteBuffer stored = chunkOf(address).byteBuffer;
+            int offset = offsetOf(address) + position;
+            int length = bytes.remaining();
+            int base = bytes.position();
+            for (int i = 0; i < length; i++) {
+                if (stored.get(offset + i) != bytes.get(base + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean keyEquals(long address, ByteBuffer keyBytes) {
+            return keyLengthAt(address) == keyBytes.remaining()
+                    && equalBytes(address, RECORD_HEADER_BYTES, keyBytes);
+        }
+
+        boolean valueEquals(long address, ByteBuffer valueBytes) {
+            return valueLengthAt(address) == valueBytes.remaining()
+                    && equalBytes(address, RECORD_HEADER_BYTES + keyLengthAt(address), valueBytes);
+        }
+
+        K keyAt(long address) {
+            return keyDecoder.decode(view(address, RECORD_HEADER_BYTES, keyLengthAt(address)));
+        }
+
+        V valueAt(long address) {
+            return valueDecoder.decode(
+                    view(address, RECORD_HEADER_BYTES + keyLengthAt(address), valueLengthAt(address)));
+        }
+
+        /**
+         * Returns the slot which has the key, or -1 if no slot has it.
+         */
+        int find(int hash, ByteBuffer keyBytes) {
+            int mask = capacity - 1;
+            for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+                long s = slotAt(slot);
+                if (s == EMPTY) {
+                    return -1;
+                }
+                if (s != DELETED && hashAt(slot) == hash && keyEquals(s - 1, keyBytes)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        long allocateRecord(ByteBuffer keyBytes, ByteBuffer valueBytes) {
+            int keyLength = keyBytes.remaining();
+            int valueLength = valueBytes.remaining();
+            long recordBytes = (long) RECORD_HEADER_BYTES + keyLength + valueLength;
+            if (recordBytes > Integer.MAX_VALUE - RECORD_BLOCK_SIZE) {
+                throw new IllegalArgumentException("too large entry: " + recordBytes + " bytes.");
+            }
+            int blocks = (int) ((recordBytes + RECORD_BLOCK_SIZE - 1) / RECORD_BLOCK_SIZE);
+
+            long address = -1;
+            for (int i = chunks.size() - 1; i >= 0; i--) {
+                ByteBlock block = chunks.get(i).blocks.allocate(blocks);
+                if (block != null) {
+                    address = ((long) i << CHUNK_SHIFT) | block.getBlockIndex();
+                    break;
+                }
+            }
+            if (address == -1) {
+                int chunkSize = blocks * RECORD_BLOCK_SIZE;
+                chunks.add(new Chunk((chunkSize > DEFAULT_CHUNK_SIZE) ? chunkSize : DEFAULT_CHUNK_SIZE));
+                int i = chunks.size() - 1;
+                address = ((long) i << CHUNK_SHIFT) | chunks.get(i).blocks.allocate(blocks).getBlockIndex();
+            }
+
+            ByteBuffer bb = chunkOf(address).byteBuffer.duplicate();
+            bb.position(offsetOf(address));
+            bb.putInt(keyLength).putInt(valueLength);
+            bb.put(keyBytes.duplicate()).put(valueBytes.duplicate());
+            return address;
+        }
+
+        void freeRecord(long address) {
+            long recordBytes = (long) RECORD_HEADER_BYTES + keyLengthAt(address) + valueLengthAt(address);
+            int blocks = (int) ((recordBytes + RECORD_BLOCK_SIZE - 1) / RECORD_BLOCK_SIZE);
+            chunkOf(address).blocks.blockAt(address & BLOCK_MASK, blocks).free();
+        }
+
+        /**
+         * Puts the key and the value, and returns the old value or null.
+         */
+        V put(int hash, ByteBuffer keyBytes, ByteBuffer valueBytes, boolean onlyIfAbsent) {
+            int slot = find(hash, keyBytes);
+            if (slot != -1) {
+                long old = slotAt(slot) - 1;
+                V oldValue = valueAt(old);
+                if (!onlyIfAbsent) {
+                    long address = allocateRecord(keyBytes, valueBytes);
+                    setSlot(slot, address + 1, hash);
+                    freeRecord(old);
+                }
+                return oldValue;
+            }
+
+            if ((used + 1) > capacity * 3 / 4) {
+                rehash((size + 1 > capacity / 2 && capacity < MAX_SEGMENT_CAPACITY) ? capacity << 1 : capacity);
+            }
+            long address = allocateRecord(keyBytes, valueBytes);
+            int mask = capacity - 1;
+            for (slot = hash & mask; ; slot = (slot + 1) & mask) {
+                long s = slotAt(slot);
+                if (s == EMPTY || s == DELETED) {
+                    if (s == EMPTY) {
+                        used++;
+                    }
+                    setSlot(slot, address + 1, hash);
+                    size++;
+                    return null;
+                }
+            }
+        }
+
+        void removeAt(int slot) {
+            freeRecord(slotAt(slot) - 1);
+            setSlot(slot, DELETED, 0);
+            size--;
+        }
+
+        void rehash(int newCapacity) {
+            ByteBuffer oldTable = table;
+            int oldCapacity = capacity;
+            table = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+            capacity = newCapacity;
+            used = 0;
+            int mask = newCapacity - 1;
+            for (int i = 0; i < oldCapacity; i++) {
+                long s = oldTable.getLong(i * SLOT_BYTES);
+                if (s == EMPTY || s == DELETED) {
+                    continue;
+                }
+                int hash = oldTable.getInt(i * SLOT_BYTES + HASH_OFFSET);
+                int slot = hash & mask;
+                while (slotAt(slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                setSlot(slot, s, hash);
+                used++;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < capacity; i++) {
+                setSlot(i, EMPTY, 0);
+            }
+            for (Chunk chunk : chunks) {
+                chunk.blocks.free();
+            }
+            size = 0;
+            used = 0;
+        }
+
+        List<Map.Entry<K, V>> entries() {
+            List<Map.Entry<K, V>> list = new ArrayList<Map.Entry<K, V>>(size);
+            for (int i = 0; i < capacity; i++) {
+                long s = slotAt(i);
+                if (s != EMPTY && s != DELETED) {
+                    list.add(new AbstractMap.SimpleImmutableEntry<K, V>(keyAt(s - 1), valueAt(s - 1)));
+                }
+            }
+            return list;
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        int hash = hash(key);
+        ByteBuffer keyBytes = keyEncoder.encode(key);
+        Segment segment = segmentFor(hash);
+        ReentrantReadWriteLock.ReadLock readLock = segment.lock.readLock();
+        readLock.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            return (slot != -1) ? segment.valueAt(segment.slotAt(slot) - 1) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> get(Collection<K> keys) {
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        Collection<Map.Entry<K, V>> result = new ArrayList<Map.Entry<K, V>>(keys.size());
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.add(new AbstractMap.SimpleImmutableEntry<K, V>(key, value));
+            }
+        }
+        return result;
+    }
+
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        int hash = hash(key);
+        ByteBuffer keyBytes = keyEncoder.encode(key);
+        ByteBuffer valueBytes = valueEncoder.encode(value);
+        Segment segment = segmentFor(hash);
+        ReentrantReadWriteLock.WriteLock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            return segment.put(hash, keyBytes, valueBytes, onlyIfAbsent);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            return null;
+        }
+        V old = put(key, value, false);
+        eventListener.onPut(this, key, value);
+        return old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        V oldValue = put(key, value, true);
+        if (oldValue == null) {
+            eventListener.onPut(this, key, value);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public void put(Collection<Map.Entry<K, V>> keyValues) {
+        for (Map.Entry<K, V> entry : keyValues) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private V removeEntry(K key) {
+        int hash = hash(key);
+        ByteBuffer keyBytes = keyEncoder.encode(key);
+        Segment segment = segmentFor(hash);
+        ReentrantReadWriteLock.WriteLock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot == -1) {
+                return null;
+            }
+            V value = segment.valueAt(segment.slotAt(slot) - 1);
+            segment.removeAt(slot);
+            return value;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        V value = removeEntry(key);
+        if (value != null) {
+            eventListener.onRemove(this, key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void removeSilently(K key, V value) {
+        if (key == null || value == null) {
+            return;
+        }
+        int hash = hash(key);
+        ByteBuffer keyBytes = keyEncoder.encode(key);
+        ByteBuffer valueBytes = valueEncoder.encode(value);
+        Segment segment = segmentFor(hash);
+        ReentrantReadWriteLock.WriteLock writeLock = segment.lock.writeLock();
+        writeLock.lock();
+        try {
+            int slot = segment.find(hash, keyBytes);
+            if (slot != -1 && segment.valueEquals(segment.slotAt(slot) - 1, valueBytes)) {
+                segment.removeAt(slot);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> remove(Collection<K> keys) {
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        Collection<Map.Entry<K, V>> result = new ArrayList<Map.Entry<K, V>>(keys.size());
+        for (K key : keys) {
+            V value = remove(key);
+            if (value != null) {
+                result.add(new AbstractMap.SimpleImmutableEntry<K, V>(key, value));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(K key) {
+        if (key == null) {
+            return false;
+        }
+        int hash = hash(key);
+        ByteBuffer keyBytes = keyEncoder.encode(key);
+        Segment segment = segmentFor(hash);
+        ReentrantReadWriteLock.ReadLock readLock = segment.lock.readLock();
+        readLock.lock();
+        try {
+            return segment.find(hash, keyBytes) != -1;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsAll(Collection<K> keys) {
+        for (K key : keys) {
+            if (!contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a set view of the entries. The iterator decodes the entries segment by segment, so it
+     * does not reflect changes to a segment already visited.
+     *
+     * @return a set view of the entries.
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return OffHeapIndex.this.size();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+        int segmentIndex;
+        Iterator<Map.Entry<K, V>> current = Collections.<Map.Entry<K, V>>emptyList().iterator();
+        Map.Entry<K, V> last;
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (segmentIndex == segments.length) {
+                    return false;
+                }
+                Segment segment = segments[segmentIndex++];
+                ReentrantReadWriteLock.ReadLock readLock = segment.lock.readLock();
+                readLock.lock();
+                try {
+                    current = segment.entries().iterator();
+                } finally {
+                    readLock.unlock();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = current.next();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            removeEntry(last.getKey());
+            last = null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            List<Map.Entry<K, V>> entries;
+            ReentrantReadWriteLock.WriteLock writeLock = segment.lock.writeLock();
+            writeLock.lock();
+            try {
+                entries = segment.entries();
+                segment.clear();
+            } finally {
+                writeLock.unlock();
+            }
+            for (Map.Entry<K, V> entry : entries) {
+                eventListener.onRemove(this, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void setEventListener(IndexEventListener<K, V> eventListener) {
+        IndexEventListener<K, V> nullListener = SimpleIndex.nullEventListener();
+        this.eventListener = (eventListener != null) ? eventListener : nullListener;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public int maxSize() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,177 @@
+package net.ihiroky.reservoir.index;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel which holds timers ordered by their deadlines in nanoseconds.
+ * <p/>
+ * The wheel has five levels whose buckets span about 1 second, 1 minute, 1 hour, 1.6 days and 6.5 days
+ * (the last level is a single bucket for the far future). A timer is put into the bucket of the lowest level
+ * which covers its delay. When the wheel advances, only the buckets whose time has passed are visited; the timers
+ * whose deadlines have come are returned, and the others are cascaded to the lower levels. So scheduling,
+ * unscheduling and expiration cost O(1) amortized time. Deadlines are compared as {@code System.nanoTime()}
+ * values, so the difference must be used.
+ * <p/>
+ * Note that this implementation is not synchronized.
+ *
+ * @author Hiroki Itoh
+ */
+class TimingWheel {
+
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final int[] SHIFTS = {30, 36, 42, 47, 49};
+
+    private final Timer[][] wheel;
+    private long nanos;
+
+    /**
+     * A timer linked in a bucket of the wheel. Subclasses must set {@code deadline} before
+     * {@link #schedule(Timer)}, and may postpone it in {@link #updateDeadline()}.
+     */
+    abstract static class Timer {
+        long deadline;
+        Timer prev;
+        Timer next;
+
+        /**
+         * Called when the wheel reaches this timer, to update {@code deadline} if it has changed.
+         */
+        void updateDeadline() {
+        }
+
+        boolean isScheduled() {
+            return prev != null;
+        }
+    }
+
+    private static class Sentinel extends Timer {
+        Sentinel() {
+            prev = next = this;
+        }
+    }
+
+    TimingWheel(long nanos) {
+        this.nanos = nanos;
+        this.wheel = new Timer[BUCKETS.length][];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            wheel[i] = new Timer[BUCKETS[i]];
+            for (int j = 0; j < BUCKETS[i]; j++) {
+                wheel[i][j] = new Sentinel();
+            }
+        }
+    }
+
+    long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns true if {@code now} is in a lowest level tick different from the last advance.
+     */
+    boolean needsAdvance(long now) {
+        return ((now >>> SHIFTS[0]) - (nanos >>> SHIFTS[0])) > 0;
+    }
+
+    private Timer bucketFor(long deadline) {
+        long delay = deadline - nanos;
+        if (delay < 0) {
+            delay = 0;
+            deadline = nanos;
+        }
+        int last = BUCKETS.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (delay < (1L << SHIFTS[i + 1])) {
+                return wheel[i][(int) (deadline >>> SHIFTS[i]) & (BUCKETS[i] - 1)];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    void schedule(Timer timer) {
+        if (timer.isScheduled()) {
+            unschedule(timer);
+        }
+        Timer sentinel = bucketFor(timer.deadline);
+        Timer tail = sentinel.prev;
+        timer.prev = tail;
+        timer.next = sentinel;
+        tail.next = timer;
+        sentinel.prev = timer;
+    }
+
+    void unschedule(Timer timer) {
+        if (!timer.isScheduled()) {
+            return;
+        }
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = timer.next = null;
+    }
+
+    /**
+     * Advances the wheel to {@code now}.
+     *
+     * @param now the current time in nanoseconds
+     * @param expired a list to which the timers whose deadlines have come are added; they are unscheduled
+     */
+    void advance(long now, List<Timer> expired) {
+        long previous = nanos;
+        nanos = now;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            long previousTicks = previous >>> SHIFTS[i];
+            long delta = (now >>> SHIFTS[i]) - previousTicks;
+            if (delta <= 0) {
+                break;
+            }
+            int buckets = BUCKETS[i];
+            int mask = buckets - 1;
+            int start = (int) (previousTicks & mask);
+            int end = start + ((delta >= buckets) ? buckets - 1 : (int) delta);
+            for (int b = start; b <= end; b++) {
+                expire(wheel[i][b & mask], now, expired);
+            }
+        }
+    }
+
+    private void expire(Timer sentinel, long now, List<Timer> expired) {
+        Timer timer = sentinel.next;
+        sentinel.prev = sentinel.next = sentinel;
+        Timer next;
+        while (timer != sentinel) {
+            next = timer.next;
+            timer.prev = timer.next = null;
+            timer.updateDeadline();
+            if (timer.deadline - now <= 0) {
+                expired.add(timer);
+            } else {
+                schedule(timer);
+            }
+            timer = next;
+        }
+    }
+
+    void clear() {
+        for (Timer[] level : wheel) {
+            for (Timer sentinel : level) {
+                Timer next;
+                for (Timer timer = sentinel.next; timer != sentinel; timer = next) {
+                    next = timer.next;
+                    timer.prev = timer.next = null;
+                }
+                sentinel.prev = sentinel.next = sentinel;
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Timer[] level : wheel) {
+            for (Timer sentinel : level) {
+                for (Timer timer = sentinel.next; timer != sentinel; timer = timer.next) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,676 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.EvictionSupport;
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.IndexEventListener;
+import net.ihiroky.reservoir.Pair;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@code Index} which evicts entries with W-TinyLFU policy.
+ * <p/>
+ * A new entry enters a small LRU window (1% of the capacity). An entry evicted from the window is a candidate
+ * to the main space, which is a segmented LRU of probation and protected (80% of the main space) lists. The
+ * candidate is admitted only if its frequency estimated by {@link FrequencySketch} is greater than the one of
+ * the victim at the head of the main space; otherwise the candidate itself is evicted. So entries hit only once
+ * can not flush out the frequently used entries.
+ * <p/>
+ * Lookup is done on a {@code ConcurrentHashMap} without locks, and accesses are recorded in striped lossy ring
+ * buffers, and applied to the policy in batches by a reader which acquires the lock with {@code tryLock()}, or
+ * before any update. Updates are serialized by a lock. The buffers are bounded, so an access may be dropped if
+ * its buffer is full or contended, and a drain applies at most the records in the buffers when it starts.
+ *
+ * @author Hiroki Itoh
+ */
+public class TinyLFUIndex<K, V> implements Index<K, V>, EvictionSupport {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final int capacity;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final int protectedCapacity;
+    private final FrequencySketch sketch;
+    private final NodeList<K, V> window;
+    private final NodeList<K, V> probation;
+    private final NodeList<K, V> protectedList;
+    private final ReentrantLock lock;
+    private final ReadBuffer<K, V>[] readBuffers;
+    private final int readBufferMask;
+    private volatile IndexEventListener<K, V> eventListener;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    private static final int MAX_READ_BUFFERS = 64;
+
+    private static final double WINDOW_RATIO = 0.01d;
+    private static final double PROTECTED_RATIO = 0.8d;
+
+    static final int NONE = 0;
+    static final int WINDOW = 1;
+    static final int PROBATION = 2;
+    static final int PROTECTED = 3;
+
+    public TinyLFUIndex(long initialCapacity, long capacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity must not be negative.");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0.");
+        }
+        int c = (capacity > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) capacity;
+        int windowCapacity = (int) (c * WINDOW_RATIO);
+        if (windowCapacity == 0) {
+            windowCapacity = 1;
+        }
+        this.capacity = c;
+        this.windowCapacity = windowCapacity;
+        this.mainCapacity = c - windowCapacity;
+        this.protectedCapacity = (int) (mainCapacity * PROTECTED_RATIO);
+        this.map = new ConcurrentHashMap<K, Node<K, V>>(
+                (initialCapacity > Integer.MAX_VALUE) ? Integer.MAX_VALUE : (int) initialCapacity);
+        this.sketch = new FrequencySketch(c);
+        this.window = new NodeList<K, V>(WINDOW);
+        this.probation = new NodeList<K, V>(PROBATION);
+        this.protectedList = new NodeList<K, V>(PROTECTED);
+        this.lock = new ReentrantLock();
+        int buffers = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (buffers < processors && buffers < MAX_READ_BUFFERS) {
+            buffers <<= 1;
+        }
+        @SuppressWarnings("unchecked")
+        ReadBuffer<K, V>[] readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[buffers];
+        for (int i = 0; i < buffers; i++) {
+            readBuffers[i] = new ReadBuffer<K, V>();
+        }
+        this.readBuffers = readBuffers;
+        this.readBufferMask = buffers - 1;
+        this.eventListener = SimpleIndex.nullEventListener();
+    }
+
+    private NodeList<K, V> listOf(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protectedList;
+            default:
+                return null;
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        NodeList<K, V> list = listOf(node);
+        if (list != null) {
+            list.unlink(node);
+        }
+    }
+
+    private ReadBuffer<K, V> readBufferForCurrentThread() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return readBuffers[(h ^ (h >>> 16)) & readBufferMask];
+    }
+
+    private void recordAccess(Node<K, V> node) {
+        if (readBufferForCurrentThread().record(node) && lock.tryLock()) {
+            try {
+                drainAccesses();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies the buffered accesses. The caller must hold the lock.
+     */
+    private void drainAccesses() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                protectedList.linkLast(node);
+                while (protectedList.size > protectedCapacity) {
+                    Node<K, V> demoted = protectedList.head;
+                    protectedList.unlink(demoted);
+                    probation.linkLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedList.moveToLast(node);
+                break;
+            default:
+                // the node is already evicted or removed.
+        }
+    }
+
+    /**
+     * Moves the overflowed entries from the window to the main space, and selects the entries to be evicted.
+     * The caller must hold the lock.
+     *
+     * @return the evicted nodes, or null if no node is evicted
+     */
+    private List<Node<K, V>> evictOverflow() {
+        List<Node<K, V>> evicted = null;
+        Node<K, V> candidate;
+        Node<K, V> victim;
+        while (window.size > windowCapacity) {
+            candidate = window.head;
+            window.unlink(candidate);
+            if (probation.size + protectedList.size < mainCapacity) {
+                probation.linkLast(candidate);
+                continue;
+            }
+            victim = (probation.head != null) ? probation.head : protectedList.head;
+            if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                unlink(victim);
+                probation.linkLast(candidate);
+                candidate = victim;
+            }
+            if (evicted == null) {
+                evicted = new ArrayList<Node<K, V>>(2);
+            }
+            evicted.add(candidate);
+        }
+        return evicted;
+    }
+
+    private void cacheOut(List<Node<K, V>> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        IndexEventListener<K, V> listener = eventListener;
+        for (Node<K, V> node : evicted) {
+            if (listener.onCacheOut(this, node.key, node.value)) {
+                map.remove(node.key, node);
+            }
+        }
+    }
+
+    /**
+     * Links a new node for {@code key}. The caller must hold the lock.
+     */
+    private List<Node<K, V>> insert(K key, V value) {
+        Node<K, V> node = new Node<K, V>(key, value);
+        map.put(key, node);
+        sketch.increment(key);
+        window.linkLast(node);
+        return evictOverflow();
+    }
+
+    @Override
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        recordAccess(node);
+        return node.value;
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> get(Collection<K> keys) {
+        Collection<Map.Entry<K, V>> result = new ArrayList<Map.Entry<K, V>>(keys.size());
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                result.add(Pair.newImmutableEntry(key, value));
+            }
+        }
+        return result;
+    }
+
+    private V putOne(K key, V value) {
+        V oldValue = null;
+        List<Node<K, V>> evicted = null;
+        lock.lock();
+        try {
+            drainAccesses();
+            Node<K, V> node = map.get(key);
+            if (node != null && node.queue != NONE) {
+                oldValue = node.value;
+                node.value = value;
+                onAccess(node);
+            } else {
+                if (node != null) {
+                    oldValue = node.value;
+                }
+                evicted = insert(key, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(evicted);
+        eventListener.onPut(this, key, value);
+        return oldValue;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return putOne(key, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        List<Node<K, V>> evicted;
+        lock.lock();
+        try {
+            drainAccesses();
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                onAccess(node);
+                return node.value;
+            }
+            evicted = insert(key, value);
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(evicted);
+        eventListener.onPut(this, key, value);
+        return null;
+    }
+
+    @Override
+    public void put(Collection<Map.Entry<K, V>> keyValues) {
+        for (Map.Entry<K, V> entry : keyValues) {
+            putOne(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Node<K, V> removeNode(K key) {
+        Node<K, V> node;
+        lock.lock();
+        try {
+            node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return node;
+    }
+
+    @Override
+    public V remove(K key) {
+        Node<K, V> node = removeNode(key);
+        if (node == null) {
+            return null;
+        }
+        eventListener.onRemove(this, key, node.value);
+        return node.value;
+    }
+
+    @Override
+    public void removeSilently(K key, V value) {
+        lock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null && node.value.equals(value)) {
+                map.remove(key);
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Map.Entry<K, V>> remove(Collection<K> keys) {
+        Collection<Map.Entry<K, V>> result = new ArrayList<Map.Entry<K, V>>(keys.size());
+        Node<K, V> node;
+        for (K key : keys) {
+            node = removeNode(key);
+            if (node != null) {
+                eventListener.onRemove(this, key, node.value);
+                result.add(Pair.newImmutableEntry(key, node.value));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsAll(Collection<K> keys) {
+        for (K key : keys) {
+            if (!map.containsKey(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return (entrySet != null) ? entrySet : (entrySet = new EntrySet());
+    }
+
+    @Override
+    public void clear() {
+        List<Node<K, V>> nodes;
+        lock.lock();
+        try {
+            drainAccesses();
+            nodes = new ArrayList<Node<K, V>>(map.values());
+            map.clear();
+            window.clear();
+            probation.clear();
+            protectedList.clear();
+            sketch.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Node<K, V> node : nodes) {
+            eventListener.onRemove(this, node.key, node.value);
+        }
+    }
+
+    @Override
+    public void setEventListener(IndexEventListener<K, V> eventListener) {
+        IndexEventListener<K, V> nullEventListener = SimpleIndex.nullEventListener();
+        this.eventListener = (eventListener != null) ? eventListener : nullEventListener;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return capacity;
+    }
+
+    /**
+     * Evicts the victim of the main space, which is the head of the probation (or protected) list.
+     * If the main space is empty, the head of the window is evicted.
+     */
+    @Override
+    public boolean evict() {
+        Node<K, V> victim;
+        lock.lock();
+        try {
+            drainAccesses();
+            victim = (probation.head != null) ? probation.head
+                    : (protectedList.head != null) ? protectedList.head : window.head;
+            if (victim == null) {
+                return false;
+            }
+            unlink(victim);
+        } finally {
+            lock.unlock();
+        }
+        cacheOut(Collections.singletonList(victim));
+        return true;
+    }
+
+    /**
+     * Returns the keys in the policy order; the window, the probation and the protected list,
+     * each from the eldest.
+     */
+    List<K> policyOrder() {
+        List<K> keys = new ArrayList<K>();
+        lock.lock();
+        try {
+            drainAccesses();
+            window.appendKeysTo(keys);
+            probation.appendKeysTo(keys);
+            protectedList.appendKeysTo(keys);
+        } finally {
+            lock.unlock();
+        }
+        return keys;
+    }
+
+    int frequency(K key) {
+        lock.lock();
+        try {
+            drainAccesses();
+            return sketch.frequency(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return map.values().toString();
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            final Iterator<Node<K, V>> base = map.values().iterator();
+            return new Iterator<Map.Entry<K, V>>() {
+                Node<K, V> current;
+
+                @Override
+                public boolean hasNext() {
+                    return base.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    return (current = base.next());
+                }
+
+                @Override
+                public void remove() {
+                    if (current == null) {
+                        throw new IllegalStateException();
+                    }
+                    removeSilently(current.key, current.value);
+                    current = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Node<K, V> node = map.get(e.getKey());
+            return node != null && node.value.equals(e.getValue());
+        }
+
+        @Override
+        public void clear() {
+            TinyLFUIndex.this.clear();
+        }
+    }
+
+    /**
+     * A bounded lossy ring buffer which records the nodes read by {@code get}, in the same way as
+     * {@code ConcurrentLinkedHashMap.ReadBuffer}.
+     * <p/>
+     * Writers claim a slot with CAS on {@code writeCount}; a record is dropped if the buffer is full or the CAS
+     * fails. The records are consumed by a single drainer which holds the lock of the index, and a drain
+     * consumes at most {@link #SIZE} records, which are written before it starts.
+     */
+    static final class ReadBuffer<K, V> {
+        private final AtomicReferenceArray<Node<K, V>> ring;
+        private final AtomicLong writeCount;
+        private volatile long readCount;
+
+        static final int SIZE = 32;
+        private static final int MASK = SIZE - 1;
+
+        /** the number of the pending records to request a drain. */
+        static final int DRAIN_THRESHOLD = SIZE / 2;
+
+        ReadBuffer() {
+            ring = new AtomicReferenceArray<Node<K, V>>(SIZE);
+            writeCount = new AtomicLong();
+        }
+
+        /**
+         * Records a node.
+         *
+         * @param node the accessed node
+         * @return true if this buffer should be drained
+         */
+        boolean record(Node<K, V> node) {
+            long w = writeCount.get();
+            long pending = w - readCount;
+            if (pending < SIZE && writeCount.compareAndSet(w, w + 1)) {
+                ring.lazySet((int) (w & MASK), node);
+                pending++;
+            }
+            return pending >= DRAIN_THRESHOLD;
+        }
+
+        void drainTo(TinyLFUIndex<K, V> index) {
+            long r = readCount;
+            long w = writeCount.get();
+            Node<K, V> node;
+            int i;
+            for (; r < w; r++) {
+                i = (int) (r & MASK);
+                node = ring.get(i);
+                if (node == null) {
+                    break; // the slot is claimed but not published yet.
+                }
+                ring.lazySet(i, null);
+                index.onAccess(node);
+            }
+            readCount = r;
+        }
+    }
+
+    static class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        volatile V value;
+        Node<K, V> prev;
+        Node<K, V> next;
+        int queue;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes from the eldest. Guarded by the lock of the index.
+     */
+    static class NodeList<K, V> {
+        final int queue;
+        Node<K, V> head;
+        Node<K, V> tail;
+        int size;
+
+        NodeList(int queue) {
+            this.queue = queue;
+        }
+
+        void linkLast(Node<K, V> node) {
+            Node<K, V> t = tail;
+            node.prev = t;
+            node.next = null;
+            node.queue = queue;
+            tail = node;
+            if (t == null) {
+                head = node;
+            } else {
+                t.next = node;
+            }
+            size++;
+        }
+
+        void unlink(Node<K, V> node) {
+            Node<K, V> prev = node.prev;
+            Node<K, V> next = node.next;
+            if (prev == null) {
+                head = next;
+            } else {
+                prev.next = next;
+            }
+            if (next == null) {
+                tail = prev;
+            } else {
+                next.prev = prev;
+            }
+            node.prev = node.next = null;
+            node.queue = NONE;
+            size--;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (node != tail) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+
+        void appendKeysTo(List<K> keys) {
+            for (Node<K, V> node = head; node != null; node = node.next) {
+                keys.add(node.key);
+            }
+        }
+
+        void clear() {
+            Node<K, V> next;
+            for (Node<K, V> node = head; node != null; node = next) {
+                next = node.next;
+                node.prev = node.next = null;
+                node.queue = NONE;
+            }
+            head = tail = null;
+            size = 0;
+        }
+    }
+}
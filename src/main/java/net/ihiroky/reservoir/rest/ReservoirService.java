@@ -1,6 +1,9 @@
 package net.ihiroky.reservoir.rest;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import net.ihiroky.reservoir.Cache;
+import net.ihiroky.reservoir.LatencyHistogram;
 import net.ihiroky.reservoir.coder.JSONCoder;
 import net.ihiroky.reservoir.coder.XMLCoder;
 
@@ -34,6 +37,7 @@ import java.util.regex.Pattern;
 public class ReservoirService {
 
     private ConcurrentMap<String, Container> cacheMap;
+    private JsonFactory jsonFactory;
 
     static class Container {
         final Cache<Object, Object> cache;
@@ -82,6 +86,7 @@ public class ReservoirService {
 
     public ReservoirService() {
         cacheMap = new ConcurrentHashMap<String, Container>();
+        jsonFactory = new JsonFactory();
     }
 
     // compile time K, V type check.
@@ -297,6 +302,57 @@ public class ReservoirService {
         }
     }
 
+    /**
+     * Writes the statistics of the cache as a JSON object. The latencies are in nanoseconds.
+     */
+    @GET
+    @Path("/{cache}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamingOutput getStatistics(@PathParam("cache") final String cache) {
+        final Container container = cacheMap.get(cache);
+        checkNull(container, cache);
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                Cache<?, ?> c = container.cache;
+                JsonGenerator generator = jsonFactory.createGenerator(outputStream);
+                try {
+                    generator.writeStartObject();
+                    generator.writeStringField("name", c.getName());
+                    generator.writeNumberField("size", c.size());
+                    generator.writeBooleanField("statisticsEnabled", c.isStatisticsEnabled());
+                    generator.writeNumberField("hits", c.getHits());
+                    generator.writeNumberField("misses", c.getMisses());
+                    generator.writeNumberField("hitRatio", c.getHitRatio());
+                    generator.writeNumberField("puts", c.getPuts());
+                    generator.writeNumberField("removes", c.getRemoves());
+                    generator.writeNumberField("evictions", c.getEvictions());
+                    writeLatency(generator, "getLatency", c.getGetLatency());
+                    writeLatency(generator, "putLatency", c.getPutLatency());
+                    writeLatency(generator, "removeLatency", c.getRemoveLatency());
+                    writeLatency(generator, "encodeLatency", c.getEncodeLatency());
+                    writeLatency(generator, "decodeLatency", c.getDecodeLatency());
+                    generator.writeEndObject();
+                } finally {
+                    generator.close();
+                }
+            }
+        };
+    }
+
+    private static void writeLatency(
+            JsonGenerator generator, String name, LatencyHistogram.Summary summary) throws IOException {
+        generator.writeObjectFieldStart(name);
+        generator.writeNumberField("count", summary.getCount());
+        generator.writeNumberField("mean", summary.getMeanNanos());
+        generator.writeNumberField("p50", summary.getP50Nanos());
+        generator.writeNumberField("p90", summary.getP90Nanos());
+        generator.writeNumberField("p99", summary.getP99Nanos());
+        generator.writeNumberField("p999", summary.getP999Nanos());
+        generator.writeNumberField("max", summary.getMaxNanos());
+        generator.writeEndObject();
+    }
+
     @HEAD
     @Path("/{cache}")
     public Response getMetadata(@PathParam("cache") final String cache) {
@@ -1,14 +1,19 @@
 package net.ihiroky.reservoir;
 
 import net.ihiroky.reservoir.accessor.HeapCacheAccessor;
+import net.ihiroky.reservoir.accessor.NoEnoughFreeBlockException;
 import net.ihiroky.reservoir.coder.JSONCoder;
 import net.ihiroky.reservoir.index.LRUIndex;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -19,6 +24,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -355,6 +362,135 @@ public class BasicCacheTest {
         assertThat(basicCache.get(2), is(6));
         assertThat(basicCache.size(), is(3));
     }
+
+    @Test
+    public void testStatistics() throws Exception {
+        BasicCache<Integer, String> basicCache = Reservoir.newCacheBuilder()
+                .name("BasicCacheTest#testStatistics")
+                .indexType(Reservoir.IndexType.LRU)
+                .maxCacheSize(2)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", "256")
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "32")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder")
+                .statistics(true)
+                .build();
+        disposeInAfterSet.add(basicCache);
+
+        basicCache.put(1, "a");
+        basicCache.put(2, "b");
+        basicCache.put(3, "c"); // evicts 1
+        assertThat(basicCache.get(1), is(nullValue()));
+        assertThat(basicCache.get(2), is("b"));
+        assertThat(basicCache.get(Arrays.asList(2, 3, 4)).size(), is(2));
+        basicCache.remove(2);
+        basicCache.remove(2);
+
+        assertThat(basicCache.isStatisticsEnabled(), is(true));
+        assertThat(basicCache.getHits(), is(3L));
+        assertThat(basicCache.getMisses(), is(2L));
+        assertThat(basicCache.getHitRatio(), is(0.6d));
+        assertThat(basicCache.getPuts(), is(3L));
+        assertThat(basicCache.getRemoves(), is(1L));
+        assertThat(basicCache.getEvictions(), is(1L));
+        assertThat(basicCache.getGetLatency().getCount(), is(2L));
+        assertThat(basicCache.getPutLatency().getCount(), is(3L));
+        assertThat(basicCache.getRemoveLatency().getCount(), is(2L));
+        assertThat(basicCache.getEncodeLatency().getCount(), is(3L));
+        assertThat(basicCache.getDecodeLatency().getCount(), is(3L));
+
+        // the summaries are readable as open data through JMX.
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName =
+                new ObjectName("net.ihiroky.reservoir:type=BasicCache,name=BasicCacheTest#testStatistics");
+        CompositeData putLatency = (CompositeData) mBeanServer.getAttribute(objectName, "PutLatency");
+        assertThat((Long) putLatency.get("count"), is(3L));
+        assertThat((Long) mBeanServer.getAttribute(objectName, "Hits"), is(3L));
+
+        basicCache.resetStatistics();
+        assertThat(basicCache.getHits(), is(0L));
+        assertThat(basicCache.getGetLatency().getCount(), is(0L));
+
+        basicCache.setStatisticsEnabled(false);
+        basicCache.get(3);
+        assertThat(basicCache.isStatisticsEnabled(), is(false));
+        assertThat(basicCache.getHits(), is(0L));
+        assertThat(basicCache.getDecodeLatency().getCount(), is(0L));
+    }
+
+    private BasicCache<Integer, String> createBulkCache(String name, Reservoir.IndexType indexType, int size,
+                                                       ExecutorService executor) {
+        BasicCache<Integer, String> basicCache = Reservoir.newCacheBuilder()
+                .name(name)
+                .indexType(indexType)
+                .initialCacheSize(128)
+                .maxCacheSize(1024)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", String.valueOf(size))
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "8")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder")
+                .bulkExecutor(executor, 10)
+                .build();
+        disposeInAfterSet.add(basicCache);
+        return basicCache;
+    }
+
+    @Test
+    public void testBulkExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // put(Map) runs on the calling thread with FRAGILE_LRU.
+            for (Reservoir.IndexType indexType : Arrays.asList(
+                    Reservoir.IndexType.SIMPLE, Reservoir.IndexType.LRU, Reservoir.IndexType.FRAGILE_LRU)) {
+                BasicCache<Integer, String> basicCache =
+                        createBulkCache("BasicCacheTest#testBulkExecutor" + indexType, indexType, 8192, executor);
+                Map<Integer, String> map = new HashMap<Integer, String>();
+                for (int i = 0; i < 100; i++) {
+                    map.put(i, "v" + i);
+                }
+                basicCache.put(map);
+                assertThat(basicCache.size(), is(100));
+                assertThat(basicCache.get(map.keySet()), is(map));
+
+                List<Integer> keys = new ArrayList<Integer>();
+                for (int i = 0; i < 50; i++) {
+                    keys.add(i);
+                }
+                Map<Integer, String> polled = basicCache.poll(keys);
+                assertThat(polled.size(), is(50));
+                for (int i = 0; i < 50; i++) {
+                    assertThat(polled.get(i), is("v" + i));
+                }
+                basicCache.remove(map.keySet());
+                assertThat(basicCache.size(), is(0));
+                assertThat(basicCache.get(map.keySet()).size(), is(0));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBulkExecutorMergesFailedKeys() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // 64 blocks for 100 values of a block.
+            BasicCache<Integer, String> basicCache = createBulkCache(
+                    "BasicCacheTest#testBulkExecutorMergesFailedKeys", Reservoir.IndexType.SIMPLE, 512, executor);
+            Map<Integer, String> map = new HashMap<Integer, String>();
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "v" + i);
+            }
+            try {
+                basicCache.put(map);
+                fail();
+            } catch (NoEnoughFreeBlockException e) {
+                assertThat(e.failedKeys().size(), is(36));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
 
 class IntegerJSONCoder extends JSONCoder<Integer, Integer> {
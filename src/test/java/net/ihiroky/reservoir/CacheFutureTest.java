@@ -0,0 +1,120 @@
+package net.ihiroky.reservoir;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class CacheFutureTest {
+
+    static class MockCallback implements CacheFuture.Callback<String> {
+
+        List<String> values = new ArrayList<String>();
+        List<Throwable> causes = new ArrayList<Throwable>();
+
+        @Override
+        public void onCompleted(String value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onFailed(Throwable cause) {
+            causes.add(cause);
+        }
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        CacheFuture<String> future = new CacheFuture<String>();
+        MockCallback before = new MockCallback();
+        future.addCallback(before);
+        assertThat(future.isDone(), is(false));
+        assertThat(before.values.isEmpty(), is(true));
+
+        assertThat(future.set("a"), is(true));
+        assertThat(future.set("b"), is(false));
+        assertThat(future.setException(new Exception()), is(false));
+        MockCallback after = new MockCallback();
+        future.addCallback(after);
+
+        assertThat(future.isDone(), is(true));
+        assertThat(future.isCancelled(), is(false));
+        assertThat(future.get(), is("a"));
+        assertThat(before.values, is(Arrays.asList("a")));
+        assertThat(after.values, is(Arrays.asList("a")));
+        assertThat(before.causes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCompleted() throws Exception {
+        CacheFuture<String> future = CacheFuture.completed(null);
+        assertThat(future.isDone(), is(true));
+        assertThat(future.get(0, TimeUnit.SECONDS), is(nullValue()));
+    }
+
+    @Test
+    public void testSetException() throws Exception {
+        CacheFuture<String> future = new CacheFuture<String>();
+        MockCallback callback = new MockCallback();
+        future.addCallback(callback);
+        Exception cause = new Exception();
+        future.setException(cause);
+
+        assertThat(callback.causes.get(0), is(sameInstance((Throwable) cause)));
+        assertThat(callback.values.isEmpty(), is(true));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException ee) {
+            assertThat(ee.getCause(), is(sameInstance((Throwable) cause)));
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CacheFuture<String> future = new CacheFuture<String>();
+        MockCallback callback = new MockCallback();
+        future.addCallback(callback);
+        assertThat(future.cancel(false), is(true));
+        assertThat(future.set("a"), is(false));
+
+        assertThat(future.isCancelled(), is(true));
+        assertThat(callback.causes.get(0), is(instanceOf(CancellationException.class)));
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGetTimeout() throws Exception {
+        new CacheFuture<String>().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testCallbackException() throws Exception {
+        CacheFuture<String> future = new CacheFuture<String>();
+        future.addCallback(new MockCallback() {
+            @Override
+            public void onCompleted(String value) {
+                throw new RuntimeException("ignored");
+            }
+        });
+        MockCallback callback = new MockCallback();
+        future.addCallback(callback);
+        future.set("a");
+        assertThat(callback.values.get(0), is("a"));
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -200,6 +201,19 @@ public class CompoundCacheTest {
         assertThat(sub.size(), is(2));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testDemoteBehindRequiresConcurrentIndex() {
+        BasicCache<Integer, Integer> simple = Reservoir.newCacheBuilder().name("simple")
+                .indexType(Reservoir.IndexType.SIMPLE)
+                .cacheAccessorType(Reservoir.CacheAccessorType.HEAP)
+                .build();
+        try {
+            new CompoundCache<Integer, Integer>("compound", simple, sub, false, true);
+        } finally {
+            simple.dispose();
+        }
+    }
+
     // @Test(timeout = 3000)
     @Test
     public void testPutMultiDemoteBehind() throws Exception {
@@ -358,4 +372,51 @@ public class CompoundCacheTest {
         assertThat(resultList.get(6), is(Pair.newImmutableEntry(6, 16)));
         assertThat(resultList.size(), is(7));
     }
+
+    @Test
+    public void testGetAsync() throws Exception {
+        cache = new CompoundCache<Integer, Integer>("compound", main, sub, true, false);
+        for (int i = 0; i < 6; i++) {
+            cache.put(i, i + 10);
+        }
+        assertThat(sub.containsKey(0), is(true));
+
+        assertThat(cache.getAsync(0).get(3, TimeUnit.SECONDS), is(10));
+        assertThat(cache.getAsync(5).get(3, TimeUnit.SECONDS), is(15));
+        assertThat(cache.getAsync(6).get(3, TimeUnit.SECONDS), is(nullValue()));
+        assertThat(main.containsKey(0), is(true));
+        assertThat(sub.containsKey(0), is(false));
+    }
+
+    @Test
+    public void testStatistics() {
+        cache = new CompoundCache<Integer, Integer>("compound", main, sub);
+        cache.setStatisticsEnabled(true);
+        assertThat(main.isStatisticsEnabled(), is(true));
+        assertThat(sub.isStatisticsEnabled(), is(true));
+
+        for (int i = 0; i < 6; i++) {
+            cache.put(i, i + 10); // demotes 0
+        }
+        assertThat(cache.get(0), is(10));
+        assertThat(cache.get(5), is(15));
+        assertThat(cache.get(6), is(nullValue()));
+
+        assertThat(cache.getPuts(), is(6L));
+        assertThat(cache.getHits(), is(2L));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getGetLatency().getCount(), is(3L));
+        assertThat(main.getEvictions(), is(1L));
+        assertThat(sub.getPuts(), is(1L));
+        assertThat(cache.getDecodeLatency().getCount(), is(1L));
+
+        cache.remove(1);
+        cache.remove(6);
+        assertThat(cache.getRemoves(), is(1L));
+        assertThat(cache.getRemoveLatency().getCount(), is(2L));
+
+        cache.setStatisticsEnabled(false);
+        assertThat(main.isStatisticsEnabled(), is(false));
+        assertThat(sub.isStatisticsEnabled(), is(false));
+    }
 }
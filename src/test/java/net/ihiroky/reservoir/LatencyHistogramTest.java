@@ -0,0 +1,87 @@
+package net.ihiroky.reservoir;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucket() {
+        assertThat(LatencyHistogram.bucketOf(-1), is(0));
+        assertThat(LatencyHistogram.bucketOf(127), is(127));
+        assertThat(LatencyHistogram.bucketOf(128), is(128));
+        assertThat(LatencyHistogram.upperBoundOf(128), is(129L));
+        assertThat(LatencyHistogram.bucketOf(255), is(191));
+        assertThat(LatencyHistogram.upperBoundOf(191), is(255L));
+        assertThat(LatencyHistogram.bucketOf(256), is(192));
+        assertThat(LatencyHistogram.upperBoundOf(192), is(259L));
+        int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        assertThat(LatencyHistogram.bucketOf((1L << 40) - 1), is(last));
+        assertThat(LatencyHistogram.upperBoundOf(last), is((1L << 40) - 1));
+
+        for (long nanos = 1; nanos < (1L << 40); nanos = nanos * 3 + 1) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(nanos));
+            assertThat(upper >= nanos, is(true));
+            assertThat(upper - nanos <= nanos / 64, is(true));
+        }
+    }
+
+    @Test
+    public void testSummary() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.summary().getCount(), is(0L));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertThat(summary.getCount(), is(1000L));
+        assertThat(summary.getMeanNanos(), is(500L));
+        assertThat(summary.getP50Nanos(), is(503L));
+        assertThat(summary.getP90Nanos(), is(903L));
+        assertThat(summary.getP99Nanos(), is(991L));
+        assertThat(summary.getP999Nanos(), is(999L));
+        assertThat(summary.getMaxNanos(), is(1000L));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(5000);
+        summary = LatencyHistogram.summaryOf(histogram, other, null);
+        assertThat(summary.getCount(), is(1001L));
+        assertThat(summary.getMaxNanos(), is(5000L));
+
+        histogram.reset();
+        assertThat(histogram.summary().getCount(), is(0L));
+    }
+
+    @Test
+    public void testRecordConcurrently() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int nanos = (t + 1) * 100;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        histogram.record(nanos);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Summary summary = histogram.summary();
+        assertThat(summary.getCount(), is(4000L));
+        assertThat(summary.getMeanNanos(), is(250L));
+        assertThat(summary.getMaxNanos(), is(400L));
+
+        histogram.reset();
+        assertThat(histogram.summary().getCount(), is(0L));
+    }
+}
@@ -9,6 +9,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -88,4 +89,93 @@ public class ReservoirTest {
         assertThat(queue.poll(), is(b[2]));
         assertThat(queue.poll(), is(nullValue()));
     }
+
+    @Test
+    public void testBuildOffHeapIndexCache() throws Exception {
+        Cache<Integer, String> cache = Reservoir.newCacheBuilder()
+                .indexType(Reservoir.IndexType.OFF_HEAP)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", "8192")
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "8")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder")
+                .build();
+        disposeList.add(cache);
+
+        cache.put(0, "fizzbuzz");
+        cache.put(1, "0123456789");
+        cache.put(0, "fizzbuzzfizzbuzz");
+        assertThat(cache.get(0), is("fizzbuzzfizzbuzz"));
+        assertThat(cache.get(1), is("0123456789"));
+        assertThat(cache.size(), is(2));
+
+        assertThat(cache.poll(1), is("0123456789"));
+        assertThat(cache.containsKey(1), is(false));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildOffHeapIndexCacheWithHeapAccessor() throws Exception {
+        Reservoir.newCacheBuilder()
+                .indexType(Reservoir.IndexType.OFF_HEAP)
+                .cacheAccessorType(Reservoir.CacheAccessorType.HEAP)
+                .build();
+    }
+
+    @Test
+    public void testBuildTinyLFUIndexCache() throws Exception {
+        Cache<Integer, String> cache = Reservoir.newCacheBuilder()
+                .indexType(Reservoir.IndexType.TINY_LFU)
+                .maxCacheSize(10)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", "1024")
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "64")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder")
+                .build();
+        disposeList.add(cache);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, "value" + i);
+        }
+        for (int n = 0; n < 3; n++) {
+            for (int i = 0; i < 5; i++) {
+                cache.get(i);
+            }
+        }
+        // the evicted entries free their blocks; 16 blocks are not enough without eviction.
+        for (int i = 100; i < 200; i++) {
+            cache.put(i, "value" + i);
+        }
+        assertThat(cache.size(), is(10));
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.get(i), is("value" + i));
+        }
+    }
+
+    @Test
+    public void testBuildExpiringCache() throws Exception {
+        BasicCache<Integer, String> cache = Reservoir.newCacheBuilder()
+                .indexType(Reservoir.IndexType.LRU)
+                .expireAfterWrite(1, TimeUnit.HOURS)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", "1024")
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "64")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder")
+                .build();
+        disposeList.add(cache);
+
+        cache.put(0, "value0");
+        cache.put(1, "value1", 1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+        assertThat(cache.get(0), is("value0"));
+        assertThat(cache.get(1), is(nullValue()));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPutWithExpirationWithoutExpiringIndex() throws Exception {
+        BasicCache<Integer, String> cache = Reservoir.newCacheBuilder().build();
+        disposeList.add(cache);
+
+        cache.put(0, "value0", 1, TimeUnit.SECONDS);
+    }
 }
@@ -6,6 +6,7 @@ import net.ihiroky.reservoir.Index;
 import net.ihiroky.reservoir.PropertiesSupport;
 import net.ihiroky.reservoir.Ref;
 import net.ihiroky.reservoir.index.ConcurrentLRUIndex;
+import net.ihiroky.reservoir.index.SimpleIndex;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -71,6 +72,51 @@ public class AbstractBlockedByteCacheAccessorPerfTest {
                 + result.getElapsed() + " ms, " + times + " times, " + (times / result.getElapsed() * 1000) + " times/ms");
     }
 
+    private void testGetMultiThread(String name, Properties props,
+                                    final AbstractBlockedByteCacheAccessor<Integer, String> accessor,
+                                    int threads) throws Exception {
+        accessor.prepare(name.concat("-testGetMultiThread"), props);
+        disposeSet.add(accessor);
+
+        char[] a = new char[500];
+        Arrays.fill(a, 'a');
+        final String str = new String(a);
+        final Index<Integer, Ref<String>> index = new SimpleIndex<Integer, Ref<String>>();
+        for (int i = 0; i < 8; i++) {
+            accessor.update(i, str, index);
+        }
+        final int times = PropertiesSupport.intValue(props, "times", 100000);
+        Runnable getter = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < times; i++) {
+                    index.get(i % 8).value();
+                }
+            }
+        };
+        ConcurrentTestUtil.Result<?> result =
+                ConcurrentTestUtil.runRunnable(threads, getter, TimeUnit.MILLISECONDS);
+        System.out.println(accessor.getClass() + "#testGetMultiThread : " + threads + " threads, "
+                + result.getElapsed() + " ms, " + times + " times/thread, "
+                + (times * threads / result.getElapsed()) + " times/ms");
+    }
+
+    @Test
+    public void testByteBufferCacheAccessorGet() throws Exception {
+        Properties props = PropertiesSupport.builder()
+                .set("reservoir.ByteBufferCacheAccessor.direct", "true")
+                .set("reservoir.ByteBufferCacheAccessor.size", String.valueOf(size))
+                .set("reservoir.ByteBufferCacheAccessor.blockSize", String.valueOf(blockSize))
+                .set("reservoir.ByteBufferCacheAccessor.partitions", "1")
+                .set("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.SimpleStringCoder")
+                .set("times", "500000").properties();
+
+        for (int threads = 1; threads <= 8; threads <<= 1) {
+            testGetMultiThread("ByteBufferCacheAccessorTest-" + threads, props,
+                    new ByteBufferCacheAccessor<Integer, String>(), threads);
+        }
+    }
+
     @Test
     public void testByteBufferCacheAccessor() throws Exception {
         Properties props = PropertiesSupport.builder()
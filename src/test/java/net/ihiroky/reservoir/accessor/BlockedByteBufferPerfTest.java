@@ -0,0 +1,77 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.ConcurrentTestUtil;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Compares allocate/free throughput of {@code BlockedByteBuffer} and {@code ConcurrentBlockedByteBuffer}
+ * under contention.
+ *
+ * @author Hiroki Itoh
+ */
+public class BlockedByteBufferPerfTest {
+
+    static final int blockSize = 128;
+    static final int blocks = 65536;
+    static final int blocksPerThread = 32;
+    static final int times = 1000000;
+
+    private long run(final ByteBlockManager manager, int threads) throws Exception {
+        Runnable r = new Runnable() {
+            @Override
+            public void run() {
+                ByteBlock[] blockArray = new ByteBlock[blocksPerThread];
+                for (int i = 0; i < times; i++) {
+                    int p = i % blocksPerThread;
+                    if (blockArray[p] != null) {
+                        blockArray[p].free();
+                    }
+                    blockArray[p] = manager.allocate();
+                }
+                for (ByteBlock block : blockArray) {
+                    if (block != null) {
+                        block.free();
+                    }
+                }
+            }
+        };
+        ConcurrentTestUtil.Result<?> result = ConcurrentTestUtil.runRunnable(threads, r, TimeUnit.MILLISECONDS);
+        assertThat(result.getUncaughtExceptionMap(), is(Collections.<Integer, Throwable>emptyMap()));
+        assertThat(manager.getAllocatedBlocks(), is(0L));
+        return result.getElapsed();
+    }
+
+    private void compare(int threads) throws Exception {
+        // warm up
+        run(new BlockedByteBuffer(ByteBuffer.allocateDirect(blocks * blockSize), blockSize), threads);
+        run(new ConcurrentBlockedByteBuffer(ByteBuffer.allocateDirect(blocks * blockSize), blockSize), threads);
+
+        long locked = run(new BlockedByteBuffer(ByteBuffer.allocateDirect(blocks * blockSize), blockSize), threads);
+        long lockFree = run(
+                new ConcurrentBlockedByteBuffer(ByteBuffer.allocateDirect(blocks * blockSize), blockSize), threads);
+        System.out.println("BlockedByteBufferPerfTest threads:" + threads + ", " + times + " times/thread"
+                + ", BlockedByteBuffer:" + locked + " ms, ConcurrentBlockedByteBuffer:" + lockFree + " ms");
+    }
+
+    @Test
+    public void testAllocateFree1Thread() throws Exception {
+        compare(1);
+    }
+
+    @Test
+    public void testAllocateFree4Threads() throws Exception {
+        compare(4);
+    }
+
+    @Test
+    public void testAllocateFree16Threads() throws Exception {
+        compare(16);
+    }
+}
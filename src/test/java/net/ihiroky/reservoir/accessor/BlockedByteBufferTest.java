@@ -1,5 +1,6 @@
 package net.ihiroky.reservoir.accessor;
 
+import net.ihiroky.reservoir.ConcurrentTestUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -101,6 +103,22 @@ public class BlockedByteBufferTest {
         block3.free();
     }
 
+    @Test
+    public void testAllocateBatch() {
+        ByteBlock[] blocks = new ByteBlock[5];
+        assertThat(bbb.allocate(3, blocks, 1), is(3));
+        assertThat(bbb.allocate(3, blocks, 4), is(1));
+        assertThat(bbb.allocate(1, blocks, 0), is(0));
+        assertThat(blocks[0], is(nullValue()));
+        assertThat(bbb.getAllocatedBlocks(), is(4L));
+        assertThat(bbb.hasFreeBlock(), is(false));
+
+        for (int i = 1; i < blocks.length; i++) {
+            blocks[i].free();
+        }
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+    }
+
     @Test
     public void testBlockGetPut() throws Exception {
         ByteBlock block0 = bbb.allocate();
@@ -229,4 +247,85 @@ public class BlockedByteBufferTest {
         block1.get(0, get, 0, get.length);
         assertThat(get, is(expected));
     }
+
+    @Test
+    public void testBlockGetPutByteBuffer() {
+        bbb.allocate();
+        ByteBlock block1 = bbb.allocate();
+
+        ByteBuffer put = ByteBuffer.allocate(20);
+        for (int i = 0; i < put.capacity(); i++) {
+            put.put(i, (byte) i);
+        }
+        put.position(2);
+        assertThat(block1.put(0, put), is(16));
+        assertThat(put.position(), is(18));
+        assertThat(put.limit(), is(20));
+
+        ByteBuffer get = ByteBuffer.allocateDirect(20);
+        get.position(1);
+        assertThat(block1.get(0, get), is(16));
+        assertThat(get.position(), is(17));
+        assertThat(get.limit(), is(20));
+        for (int i = 0; i < 16; i++) {
+            assertThat(get.get(i + 1), is((byte) (i + 2)));
+        }
+
+        get.clear().limit(4);
+        assertThat(block1.get(14, get), is(2));
+        assertThat(get.get(0), is((byte) 16));
+        assertThat(get.get(1), is((byte) 17));
+
+        put.position(0).limit(4);
+        assertThat(block1.put(12, put), is(4));
+        assertThat(put.hasRemaining(), is(false));
+        assertThat(block1.get(12), is(0));
+        assertThat(block1.get(15), is(3));
+        assertThat(block1.get(11), is(13));
+
+        try {
+            block1.put(-1, put);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            block1.get(17, get);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        block1.free();
+        assertThat(block1.put(0, ByteBuffer.allocate(4)), is(-1));
+        assertThat(block1.get(0, ByteBuffer.allocate(4)), is(-1));
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockGetPutMultiThread() throws Exception {
+        final ByteBlock[] blocks = new ByteBlock[4];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = bbb.allocate();
+        }
+        List<Runnable> runnableList = new ArrayList<Runnable>(blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            final ByteBlock block = blocks[i];
+            final byte value = (byte) i;
+            runnableList.add(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] put = new byte[(int) block.capacity()];
+                    byte[] get = new byte[put.length];
+                    Arrays.fill(put, value);
+                    for (int i = 0; i < 10000; i++) {
+                        block.put(0, put, 0, put.length);
+                        block.get(0, get, 0, get.length);
+                        if (!Arrays.equals(put, get)) {
+                            throw new AssertionError("unexpected content : " + Arrays.toString(get));
+                        }
+                    }
+                }
+            });
+        }
+        ConcurrentTestUtil.Result<?> result = ConcurrentTestUtil.runRunnable(runnableList, TimeUnit.MILLISECONDS);
+        assertThat(result.getUncaughtExceptionMap().isEmpty(), is(true));
+    }
 }
@@ -1,12 +1,20 @@
 package net.ihiroky.reservoir.accessor;
 
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
 
 /**
  * Created on 12/10/31, 13:11
@@ -34,4 +42,128 @@ public class BlockedFileTest extends BlockedByteBufferTest {
         }
         return list;
     }
+
+    @Test
+    public void testTooManyBlocks() throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength((BlockedFile.MAX_BLOCKS + 1) * 8);
+        try {
+            new BlockedFile(file.getPath(), raf, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testMaxBlocks() throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(BlockedFile.MAX_BLOCKS * 8);
+        BlockedFile blockedFile = new BlockedFile(file.getPath(), raf, 8);
+        assertThat(blockedFile.getBlocks(), is(BlockedFile.MAX_BLOCKS));
+        ByteBlock last = blockedFile.blockAt(BlockedFile.MAX_BLOCKS - 1, 1);
+        last.put(7, 1);
+        assertThat(last.get(7), is(1));
+        blockedFile.close();
+    }
+
+    @Test
+    public void testIOErrorIsThrown() throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(64);
+        BlockedFile blockedFile = new BlockedFile(file.getPath(), raf, 16);
+        ByteBlock block = blockedFile.allocate();
+        // the file is not opened again after it is closed.
+        blockedFile.close();
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(8);
+        try {
+            block.put(0, byteBuffer);
+            fail();
+        } catch (IllegalStateException ise) {
+            fail();
+        } catch (RuntimeException re) {
+            assertThat(re.getCause(), is(instanceOf(IOException.class)));
+        }
+        assertThat(byteBuffer.remaining(), is(8));
+        try {
+            block.get(0, byteBuffer);
+            fail();
+        } catch (IllegalStateException ise) {
+            fail();
+        } catch (RuntimeException re) {
+            assertThat(re.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+
+    @Test
+    public void testReopenAfterInterrupt() throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(64);
+        BlockedFile blockedFile = new BlockedFile(file.getPath(), raf, 16);
+        ByteBlock block = blockedFile.allocate();
+        block.put(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+
+        // the interrupted reader closes the channel.
+        Thread.currentThread().interrupt();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+        try {
+            assertThat(block.get(0, byteBuffer), is(4));
+        } finally {
+            assertThat(Thread.interrupted(), is(true));
+        }
+        assertThat(byteBuffer.array(), is(new byte[]{1, 2, 3, 4}));
+        assertThat(raf.getChannel().isOpen(), is(false));
+
+        block.put(4, ByteBuffer.wrap(new byte[]{5}));
+        assertThat(block.get(4), is(5));
+        blockedFile.force();
+        blockedFile.close();
+    }
+
+    @Test
+    public void testReopenWhileAnotherThreadIsInterrupted() throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(64);
+        final BlockedFile blockedFile = new BlockedFile(file.getPath(), raf, 16);
+        final ByteBlock block = blockedFile.allocate();
+        block.put(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    while (!isInterrupted()) {
+                        ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+                        block.get(0, byteBuffer);
+                        if (byteBuffer.get(3) != 4) {
+                            throw new AssertionError("unexpected value: " + byteBuffer.get(3));
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        };
+        reader.start();
+        started.await();
+        reader.interrupt();
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+            assertThat(block.get(0, byteBuffer), is(4));
+            assertThat(byteBuffer.get(3), is((byte) 4));
+        }
+        reader.join();
+        assertThat(error.get(), is(nullValue()));
+        blockedFile.close();
+    }
 }
@@ -0,0 +1,127 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class BlockedMappedFileTest extends BlockedByteBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BlockedMappedFile createInstance(long length, int bytesPerBlock, int segmentSize) throws Exception {
+        File file = folder.newFile();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        return new BlockedMappedFile(file.getPath(), raf, bytesPerBlock, segmentSize);
+    }
+
+    @Override
+    protected ByteBlockManager createBlockedByteManager() throws Exception {
+        // two segments of two blocks.
+        return createInstance(64, 16, 32);
+    }
+
+    @Override
+    protected List<Number> asList(Number... numbers) {
+        List<Number> list = new ArrayList<Number>(numbers.length);
+        for (Number number : numbers) {
+            list.add(number.longValue());
+        }
+        return list;
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        // the segment size is rounded down to the multiple of the block size.
+        BlockedMappedFile mappedFile = createInstance(72, 16, 40);
+        assertThat(mappedFile.getSegments(), is(2));
+        assertThat(mappedFile.getSegmentSize(), is(32L));
+        assertThat(mappedFile.getBlocks(), is(4L));
+        assertThat(mappedFile.getLength(), is(64L));
+
+        ByteBlock[] blocks = new ByteBlock[4];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = mappedFile.allocate();
+            blocks[i].put(0, i + 1);
+            blocks[i].put(15, i + 1);
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            assertThat(mappedFile.get(i * 16L), is((byte) (i + 1)));
+            assertThat(mappedFile.get(i * 16L + 15), is((byte) (i + 1)));
+        }
+
+        blocks[3].free();
+        blocks[0].free();
+        blocks[2].free();
+        assertThat(mappedFile.freeBlockListView(), is(asList(3, 0, 2)));
+        assertThat(mappedFile.allocate().getBlockIndex(), is(3L));
+        assertThat(mappedFile.allocate().getBlockIndex(), is(0L));
+        assertThat(mappedFile.allocate().getBlockIndex(), is(2L));
+    }
+
+    @Test
+    public void testTooManyBlocks() throws Exception {
+        try {
+            createInstance((BlockedFile.MAX_BLOCKS + 1) * 8, 8, 1024 * 1024 * 1024);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testMaxBlocks() throws Exception {
+        BlockedMappedFile mappedFile = createInstance(BlockedFile.MAX_BLOCKS * 8, 8, 1024 * 1024 * 1024);
+        assertThat(mappedFile.getBlocks(), is(BlockedFile.MAX_BLOCKS));
+        ByteBlock last = mappedFile.blockAt(BlockedFile.MAX_BLOCKS - 1, 1);
+        last.put(7, 1);
+        assertThat(last.get(7), is(1));
+        mappedFile.free();
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        BlockedMappedFile mappedFile = createInstance(64, 16, 16);
+        final int[] triggered = new int[1];
+        mappedFile.setFlushTrigger(20, new Runnable() {
+            @Override
+            public void run() {
+                triggered[0]++;
+            }
+        });
+        ByteBlock block0 = mappedFile.allocate();
+        ByteBlock block1 = mappedFile.allocate();
+        block0.put(0, new byte[16], 0, 16);
+        assertThat(mappedFile.getDirtyBytes(), is(16L));
+        assertThat(mappedFile.getDirtySegments(), is(1));
+        assertThat(triggered[0], is(0));
+
+        block1.put(0, 1);
+        block1.put(1, new byte[4], 0, 4);
+        assertThat(mappedFile.getDirtyBytes(), is(21L));
+        assertThat(mappedFile.getDirtySegments(), is(2));
+        assertThat(triggered[0], is(1));
+
+        assertThat(mappedFile.flush(), is(21L));
+        assertThat(mappedFile.getDirtyBytes(), is(0L));
+        assertThat(mappedFile.getDirtySegments(), is(0));
+        assertThat(mappedFile.flush(), is(0L));
+
+        // the links of the free list are written into the tail blocks, 3 and 0.
+        block0.free();
+        block1.free();
+        assertThat(mappedFile.getDirtyBytes(), is(16L));
+        assertThat(mappedFile.getDirtySegments(), is(2));
+    }
+}
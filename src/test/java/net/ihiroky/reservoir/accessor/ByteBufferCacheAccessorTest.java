@@ -1,14 +1,26 @@
 package net.ihiroky.reservoir.accessor;
 
 import net.ihiroky.reservoir.CacheAccessor;
+import net.ihiroky.reservoir.Coder;
+import net.ihiroky.reservoir.EncodedRef;
 import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.IndexEventListener;
 import net.ihiroky.reservoir.PropertiesSupport;
 import net.ihiroky.reservoir.Ref;
+import net.ihiroky.reservoir.coder.SerializableCoder;
+import net.ihiroky.reservoir.coder.StringCoder;
+import net.ihiroky.reservoir.index.ConcurrentLRUIndex;
+import net.ihiroky.reservoir.index.OffHeapIndex;
 import net.ihiroky.reservoir.index.SimpleIndex;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -106,6 +118,88 @@ public class ByteBufferCacheAccessorTest {
         assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(0L));
     }
 
+    @Test
+    public void testStageTiming() throws Exception {
+        byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testStageTiming", props);
+        assertThat(byteBufferCacheAccessor.getStageTimingSampleInterval(), is(0));
+
+        byteBufferCacheAccessor.setStageTimingSampleInterval(1);
+        byteBufferCacheAccessor.update(0, "01234567890123456789", index);
+        byteBufferCacheAccessor.update(0, "0123456789", index);
+        assertThat(index.get(0).value(), is("0123456789"));
+        assertThat(byteBufferCacheAccessor.getEncodeStageLatency().getCount(), is(2L));
+        assertThat(byteBufferCacheAccessor.getAllocateStageLatency().getCount(), is(2L));
+        assertThat(byteBufferCacheAccessor.getWriteStageLatency().getCount(), is(2L));
+        assertThat(byteBufferCacheAccessor.getReadStageLatency().getCount(), is(1L));
+        assertThat(byteBufferCacheAccessor.getDecodeStageLatency().getCount(), is(1L));
+        assertThat(byteBufferCacheAccessor.getLockWaitStageLatency().getCount(), is(3L));
+
+        // the summaries are readable as open data through JMX.
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("net.ihiroky.reservoir.accessor:type="
+                + byteBufferCacheAccessor.getClass().getSimpleName()
+                + ",name=" + ByteBufferCacheAccessorTest.class + "#testStageTiming");
+        CompositeData writeLatency = (CompositeData) mBeanServer.getAttribute(objectName, "WriteStageLatency");
+        assertThat((Long) writeLatency.get("count"), is(2L));
+
+        byteBufferCacheAccessor.setStageTimingSampleInterval(3);
+        assertThat(byteBufferCacheAccessor.getStageTimingSampleInterval(), is(4));
+        assertThat(byteBufferCacheAccessor.getEncodeStageLatency().getCount(), is(0L));
+        for (int i = 0; i < 8; i++) {
+            index.get(0).value();
+        }
+        assertThat(byteBufferCacheAccessor.getReadStageLatency().getCount(), is(2L));
+        assertThat(byteBufferCacheAccessor.getDecodeStageLatency().getCount(), is(2L));
+
+        byteBufferCacheAccessor.resetStageTiming();
+        assertThat(byteBufferCacheAccessor.getReadStageLatency().getCount(), is(0L));
+        byteBufferCacheAccessor.setStageTimingSampleInterval(0);
+        assertThat(byteBufferCacheAccessor.getStageTimingSampleInterval(), is(0));
+        assertThat(byteBufferCacheAccessor.getReadStageLatency().getCount(), is(0L));
+    }
+
+    @Test
+    public void testUpdateEvicting() {
+        byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testUpdateEvicting", props);
+        Index<Integer, Ref<String>> lruIndex = new ConcurrentLRUIndex<Integer, Ref<String>>(16, 100);
+        lruIndex.setEventListener(new IndexEventListener<Integer, Ref<String>>() {
+            @Override
+            public void onPut(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+            }
+
+            @Override
+            public void onRemove(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+            }
+
+            @Override
+            public boolean onCacheOut(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+                byteBufferCacheAccessor.remove(key, value);
+                return true;
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            byteBufferCacheAccessor.update(i, "0123456789012345678" + (i % 10), lruIndex);
+        }
+        int size = lruIndex.size();
+        assertThat(size > 0 && size < 100, is(true));
+        for (int i = 100 - size; i < 100; i++) {
+            assertThat(lruIndex.get(i).value(), is("0123456789012345678" + (i % 10)));
+        }
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks() <= byteBufferCacheAccessor.getWholeBlocks(), is(true));
+
+        char[] a = new char[(int) byteBufferCacheAccessor.getWholeBlocks() * 64];
+        Arrays.fill(a, '0');
+        try {
+            byteBufferCacheAccessor.update(0, new String(a), lruIndex);
+            fail();
+        } catch (IllegalStateException ise) {
+            assertThat(ise.getMessage(), is("no free block."));
+        }
+        assertThat(lruIndex.size(), is(0));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(0L));
+    }
+
     @Test
     public void testUpdateMulti() {
         byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testUpdateMulti", props);
@@ -128,6 +222,39 @@ public class ByteBufferCacheAccessorTest {
         assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(4L));
     }
 
+    @Test
+    public void testUpdateMultiAllocatesInBatch() {
+        byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testUpdateMultiAllocatesInBatch", props);
+
+        Map<Integer, String> map = new HashMap<Integer, String>();
+        for (int i = 0; i < 4; i++) {
+            map.put(i, "0123456789abcde" + i);
+        }
+        byteBufferCacheAccessor.update(map, index);
+        for (int i = 0; i < 4; i++) {
+            assertThat(index.get(i).value(), is("0123456789abcde" + i));
+        }
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(8L));
+        if (byteBufferCacheAccessor.batchBlocksFor(16) > 0) {
+            long allocations = 0;
+            for (long a : byteBufferCacheAccessor.getPartitionAllocations()) {
+                allocations += a;
+            }
+            // 8 blocks are allocated by a lock acquisition per partition, not by a lock acquisition per block.
+            assertThat(allocations, is(4L));
+        }
+
+        map.put(4, "0123456789abcde4");
+        try {
+            byteBufferCacheAccessor.update(map, index);
+            fail();
+        } catch (NoEnoughFreeBlockException e) {
+            assertThat(e.failedKeys().contains(4), is(true));
+        }
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(8L));
+        assertThat(index.get(0).value(), is("0123456789abcde0"));
+    }
+
     @Test
     public void testRemove() {
         byteBufferCacheAccessor.prepare(ByteBufferCacheAccessor.class + "#testRemove", props);
@@ -160,4 +287,90 @@ public class ByteBufferCacheAccessorTest {
         byteBufferCacheAccessor.remove(index.remove(Arrays.asList(0, 1, 2)));
         assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(0L));
     }
+
+    @Test
+    public void testPackBlock() {
+        BlockedByteBuffer bbb = new BlockedByteBuffer(ByteBuffer.allocate(64), 8);
+        ByteBlock block = bbb.blockAt(7, 1);
+        long packed = AbstractBlockedByteCacheAccessor.pack(65535, block, 65536);
+        assertThat(AbstractBlockedByteCacheAccessor.managerIndexOf(packed), is(65535));
+        assertThat(AbstractBlockedByteCacheAccessor.blocksOf(packed), is(65536));
+        assertThat(AbstractBlockedByteCacheAccessor.blockIndexOf(packed), is(7L));
+
+        packed = AbstractBlockedByteCacheAccessor.pack(0, block, 1);
+        assertThat(AbstractBlockedByteCacheAccessor.managerIndexOf(packed), is(0));
+        assertThat(AbstractBlockedByteCacheAccessor.blocksOf(packed), is(1));
+        assertThat(AbstractBlockedByteCacheAccessor.blockIndexOf(packed), is(7L));
+    }
+
+    @Test
+    public void testUpdateOffHeapIndex() {
+        byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testUpdateOffHeapIndex", props);
+        Index<Integer, Ref<String>> offHeapIndex = new OffHeapIndex<Integer, Ref<String>>(
+                new SerializableCoder<Integer>(), byteBufferCacheAccessor.getRefCoder());
+
+        byteBufferCacheAccessor.update(0, "01234567890123456789", offHeapIndex);
+        assertThat(offHeapIndex.get(0).value(), is("01234567890123456789"));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(3L));
+
+        byteBufferCacheAccessor.update(0, "hoge", offHeapIndex);
+        assertThat(offHeapIndex.get(0).value(), is("hoge"));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(1L));
+
+        Ref<String> ref = offHeapIndex.remove(0);
+        byteBufferCacheAccessor.remove(0, ref);
+        assertThat(ref.value(), is("hoge"));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(0L));
+    }
+
+    static class IntegerCoder implements Coder<Integer>, Coder.Encoder<Integer>, Coder.Decoder<Integer> {
+        @Override
+        public void init(Properties props) {
+        }
+
+        @Override
+        public Encoder<Integer> createEncoder() {
+            return this;
+        }
+
+        @Override
+        public Decoder<Integer> createDecoder() {
+            return this;
+        }
+
+        @Override
+        public Integer decode(ByteBuffer byteBuffer) {
+            return byteBuffer.getInt();
+        }
+
+        @Override
+        public ByteBuffer encode(Integer value) {
+            return (ByteBuffer) ByteBuffer.allocate(4).putInt(value).flip();
+        }
+    }
+
+    @Test
+    public void testKeyCoder() {
+        byteBufferCacheAccessor.prepare(ByteBufferCacheAccessorTest.class + "#testKeyCoder", props);
+        byteBufferCacheAccessor.setKeyCoder(new IntegerCoder());
+
+        byteBufferCacheAccessor.update(12345, "hoge", index);
+        EncodedRef<String> ref = (EncodedRef<String>) index.get(12345);
+        assertThat(ref.value(), is("hoge"));
+        assertThat(new IntegerCoder().decode(ref.encodedKey()), is(12345));
+        assertThat(new StringCoder().createDecoder().decode(ref.encodedValue()), is("hoge"));
+
+        try {
+            byteBufferCacheAccessor.setKeyCoder(null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        byteBufferCacheAccessor.remove(12345, index.remove(12345));
+        byteBufferCacheAccessor.setKeyCoder(null);
+        byteBufferCacheAccessor.update(0, "fuga", index);
+        ref = (EncodedRef<String>) index.get(0);
+        assertThat(ref.encodedKey(), is(nullValue()));
+        assertThat(ref.value(), is("fuga"));
+    }
 }
@@ -0,0 +1,150 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.ConcurrentTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class ConcurrentBlockedByteBufferTest {
+
+    private ConcurrentBlockedByteBuffer bbb;
+
+    private static List<Number> asList(Number... numbers) {
+        return Arrays.asList(numbers);
+    }
+
+    @Before
+    public void before() {
+        bbb = new ConcurrentBlockedByteBuffer(ByteBuffer.allocate(64), 16);
+    }
+
+    @After
+    public void after() {
+        bbb.free();
+    }
+
+    @Test
+    public void testAllocateFree() {
+        assertThat(bbb.freeBlockListView(), is(asList(0, 1, 2, 3)));
+        ByteBlock block0 = bbb.allocate();
+        ByteBlock block1 = bbb.allocate();
+        ByteBlock block2 = bbb.allocate();
+        assertThat(bbb.hasFreeBlock(), is(true));
+        assertThat(bbb.freeBlockListView(), is(asList(3)));
+        ByteBlock block3 = bbb.allocate();
+        assertThat(bbb.hasFreeBlock(), is(false));
+        assertThat(bbb.freeBlockListView(), is(Collections.<Number>emptyList()));
+        assertThat(bbb.allocate(), is(nullValue()));
+        assertThat(bbb.getAllocatedBlocks(), is(4L));
+
+        block1.free();
+        block3.free();
+        block2.free();
+        block0.free();
+        assertThat(bbb.hasFreeBlock(), is(true));
+        assertThat(bbb.freeBlockListView(), is(asList(0, 2, 3, 1)));
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+
+        block0.free(); // double free has no side effect.
+        assertThat(bbb.freeBlockListView(), is(asList(0, 2, 3, 1)));
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+
+        assertThat(bbb.allocate().getBlockIndex(), is(0L));
+        assertThat(bbb.allocate().getBlockIndex(), is(2L));
+        assertThat(bbb.freeBlockListView(), is(asList(3, 1)));
+        assertThat(bbb.getAllocatedBlocks(), is(2L));
+
+        bbb.free();
+        assertThat(bbb.freeBlockListView(), is(asList(0, 1, 2, 3)));
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+    }
+
+    @Test
+    public void testAllocateBatch() {
+        ByteBlock[] blocks = new ByteBlock[5];
+        assertThat(bbb.allocate(3, blocks, 1), is(3));
+        assertThat(bbb.allocate(3, blocks, 4), is(1));
+        assertThat(bbb.allocate(1, blocks, 0), is(0));
+        assertThat(blocks[0], is(nullValue()));
+        assertThat(bbb.getAllocatedBlocks(), is(4L));
+        assertThat(bbb.hasFreeBlock(), is(false));
+
+        for (int i = 1; i < blocks.length; i++) {
+            blocks[i].free();
+        }
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+    }
+
+    @Test
+    public void testBlockGetPut() {
+        ByteBlock block = bbb.allocate();
+        byte[] put = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        byte[] get = new byte[16];
+        assertThat(block.put(0, put, 0, put.length), is(16));
+        block.free();
+
+        // the first four bytes are overwritten by the free list link.
+        block = bbb.allocate();
+        assertThat(block.put(0, put, 0, 4), is(4));
+        assertThat(block.get(0, get, 0, get.length), is(16));
+        assertThat(get, is(put));
+    }
+
+    @Test(timeout = 10000)
+    public void testAllocateFreeMultiThread() throws Exception {
+        final int blocks = 1024;
+        final int threads = 4;
+        final ConcurrentBlockedByteBuffer buffer = new ConcurrentBlockedByteBuffer(ByteBuffer.allocate(blocks * 8), 8);
+        Callable<List<Long>> c = new Callable<List<Long>>() {
+            @Override
+            public List<Long> call() throws Exception {
+                List<ByteBlock> blockList = new ArrayList<ByteBlock>();
+                for (int i = 0; i < 10000; i++) {
+                    ByteBlock b = buffer.allocate();
+                    if (b != null) {
+                        blockList.add(b);
+                    }
+                    if (blockList.size() > 16) {
+                        blockList.remove(0).free();
+                    }
+                }
+                List<Long> result = new ArrayList<Long>();
+                for (ByteBlock b : blockList) {
+                    result.add(b.getBlockIndex());
+                }
+                return result;
+            }
+        };
+        ConcurrentTestUtil.Result<List<Long>> result = ConcurrentTestUtil.runCallable(threads, c, TimeUnit.MILLISECONDS);
+        assertThat(result.getUncaughtExceptionMap().isEmpty(), is(true));
+
+        Set<Long> allocated = new HashSet<Long>();
+        for (List<Long> list : result.getResultList()) {
+            for (Long b : list) {
+                assertThat("block " + b + " is allocated twice.", allocated.add(b), is(true));
+            }
+        }
+        assertThat(buffer.getAllocatedBlocks(), is((long) allocated.size()));
+        Set<Number> free = new HashSet<Number>(buffer.freeBlockListView());
+        assertThat(free.size(), is(blocks - allocated.size()));
+        for (Long b : allocated) {
+            assertThat(free.contains(b.intValue()), is(false));
+        }
+    }
+}
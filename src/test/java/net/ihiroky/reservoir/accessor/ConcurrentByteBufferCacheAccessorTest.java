@@ -0,0 +1,18 @@
+package net.ihiroky.reservoir.accessor;
+
+import java.util.Properties;
+
+/**
+ * Runs {@code ByteBufferCacheAccessorTest} with the lock free block allocator.
+ *
+ * @author Hiroki Itoh
+ */
+public class ConcurrentByteBufferCacheAccessorTest extends ByteBufferCacheAccessorTest {
+
+    @Override
+    protected Properties createProperties() throws Exception {
+        Properties props = super.createProperties();
+        props.setProperty("reservoir.ByteBufferCacheAccessor.allocation", "LOCK_FREE");
+        return props;
+    }
+}
@@ -0,0 +1,123 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class ExtentBlockedByteBufferTest {
+
+    private ExtentBlockedByteBuffer bbb;
+
+    private static List<Number> asList(Number... numbers) {
+        return Arrays.asList(numbers);
+    }
+
+    @Before
+    public void before() {
+        bbb = new ExtentBlockedByteBuffer(ByteBuffer.allocate(128), 16);
+    }
+
+    @After
+    public void after() {
+        bbb.free();
+    }
+
+    @Test
+    public void testAllocateFree() {
+        ByteBlock block0 = bbb.allocate();
+        ByteBlock block1 = bbb.allocate(3);
+        ByteBlock block4 = bbb.allocate(2);
+        assertThat(block0.getBlockIndex(), is(0L));
+        assertThat(block0.capacity(), is(16L));
+        assertThat(block1.getBlockIndex(), is(1L));
+        assertThat(block1.capacity(), is(48L));
+        assertThat(block4.getBlockIndex(), is(4L));
+        assertThat(block4.capacity(), is(32L));
+        assertThat(bbb.getAllocatedBlocks(), is(6L));
+        assertThat(bbb.freeBlockListView(), is(asList(6, 7)));
+        assertThat(bbb.allocate(3), is(nullValue()));
+
+        block1.free();
+        assertThat(bbb.getAllocatedBlocks(), is(3L));
+        assertThat(bbb.freeBlockListView(), is(asList(1, 2, 3, 6, 7)));
+        block1.free(); // double free has no side effect.
+        assertThat(bbb.getAllocatedBlocks(), is(3L));
+
+        // next fit: the search starts from the end of the last allocation.
+        ByteBlock block6 = bbb.allocate(2);
+        assertThat(block6.getBlockIndex(), is(6L));
+        block1 = bbb.allocate(3);
+        assertThat(block1.getBlockIndex(), is(1L));
+        assertThat(bbb.hasFreeBlock(), is(false));
+        assertThat(bbb.freeBlockListView(), is(Collections.<Number>emptyList()));
+        assertThat(bbb.allocate(), is(nullValue()));
+
+        bbb.free();
+        assertThat(bbb.getAllocatedBlocks(), is(0L));
+        assertThat(bbb.freeBlockListView(), is(asList(0, 1, 2, 3, 4, 5, 6, 7)));
+        assertThat(bbb.allocate(8).capacity(), is(128L));
+        assertThat(bbb.allocate(9), is(nullValue()));
+        assertThat(bbb.allocate(0), is(nullValue()));
+    }
+
+    @Test
+    public void testAllocateWrapAround() {
+        ByteBlock[] blocks = new ByteBlock[8];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = bbb.allocate();
+        }
+        blocks[2].free();
+        blocks[3].free();
+        blocks[6].free();
+        ByteBlock block = bbb.allocate(2);
+        assertThat(block.getBlockIndex(), is(2L));
+        assertThat(bbb.freeBlockListView(), is(asList(6)));
+    }
+
+    @Test
+    public void testLargeBitmap() {
+        ExtentBlockedByteBuffer large = new ExtentBlockedByteBuffer(ByteBuffer.allocate(200 * 4), 4);
+        ByteBlock head = large.allocate(130);
+        ByteBlock tail = large.allocate(70);
+        assertThat(head.getBlockIndex(), is(0L));
+        assertThat(tail.getBlockIndex(), is(130L));
+        assertThat(large.hasFreeBlock(), is(false));
+        head.free();
+        assertThat(large.allocate(131), is(nullValue()));
+        assertThat(large.allocate(2).getBlockIndex(), is(0L));
+        assertThat(large.allocate(128).getBlockIndex(), is(2L));
+    }
+
+    @Test
+    public void testExtentGetPut() {
+        ByteBlock block = bbb.allocate(3);
+        byte[] put = new byte[40];
+        for (int i = 0; i < put.length; i++) {
+            put[i] = (byte) i;
+        }
+        assertThat(block.put(4, put, 0, put.length), is(40));
+        ByteBuffer get = ByteBuffer.allocate(48);
+        assertThat(block.get(0, get), is(48));
+        for (int i = 0; i < put.length; i++) {
+            assertThat(get.get(i + 4), is((byte) i));
+        }
+        try {
+            block.put(9, put, 0, put.length);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        assertThat(block.get(43), is(39));
+        assertThat(block.get(47), is(0));
+    }
+}
@@ -0,0 +1,43 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@code ByteBufferCacheAccessorTest} with the extent allocation.
+ *
+ * @author Hiroki Itoh
+ */
+public class ExtentByteBufferCacheAccessorTest extends ByteBufferCacheAccessorTest {
+
+    @Override
+    protected Properties createProperties() throws Exception {
+        Properties props = super.createProperties();
+        props.setProperty("reservoir.ByteBufferCacheAccessor.allocation", "EXTENT");
+        return props;
+    }
+
+    @Test
+    public void testUpdateExtent() {
+        props.setProperty("reservoir.ByteBufferCacheAccessor.size", "128");
+        props.setProperty("reservoir.ByteBufferCacheAccessor.partitions", "2");
+        byteBufferCacheAccessor.prepare(ExtentByteBufferCacheAccessorTest.class + "#testUpdateExtent", props);
+
+        byteBufferCacheAccessor.update(0, "0123456789012345678901234567890123456789", index);
+        assertThat(index.get(0).value(), is("0123456789012345678901234567890123456789"));
+        assertThat(index.get(0).toString().matches("\\[\\d+\\]"), is(true)); // single extent
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(5L));
+
+        byteBufferCacheAccessor.update(0, "01234567", index);
+        assertThat(index.get(0).value(), is("01234567"));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(1L));
+
+        byteBufferCacheAccessor.update(0, "012345678901234567890123", index);
+        assertThat(index.get(0).value(), is("012345678901234567890123"));
+        assertThat(byteBufferCacheAccessor.getAllocatedBlocks(), is(3L));
+    }
+}
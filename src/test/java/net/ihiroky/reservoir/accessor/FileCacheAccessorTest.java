@@ -1,10 +1,20 @@
 package net.ihiroky.reservoir.accessor;
 
+import net.ihiroky.reservoir.CacheFuture;
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.Ref;
+import net.ihiroky.reservoir.coder.SerializableCoder;
+import net.ihiroky.reservoir.index.SimpleIndex;
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
 
 /**
  * Created on 12/10/31, 16:20
@@ -33,4 +43,247 @@ public class FileCacheAccessorTest extends ByteBufferCacheAccessorTest {
         }
         return props;
     }
+
+    private FileCacheAccessor<Integer, String> createPersistentInstance(Properties props) {
+        // the entries hold the serialized keys.
+        for (int i = 0; i < 4; i++) {
+            props.setProperty("reservoir.FileCacheAccessor.file." + i + ".size", "256");
+        }
+        FileCacheAccessor<Integer, String> accessor = new FileCacheAccessor<Integer, String>();
+        disposeSet.add(accessor);
+        accessor.setKeyCoder(new SerializableCoder<Integer>());
+        accessor.prepare(FileCacheAccessorTest.class.getName() + "#testCheckpointAndRestore", props);
+        return accessor;
+    }
+
+    @Test
+    public void testCheckpointAndRestore() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        props.setProperty("reservoir.FileCacheAccessor.checkpoint", checkpoint.getPath());
+
+        FileCacheAccessor<Integer, String> accessor = createPersistentInstance(props);
+        accessor.update(0, "01234567890123456789", index);
+        accessor.update(1, "a", index);
+        accessor.update(2, "0123456789", index);
+        accessor.remove(2, index.remove(2));
+        long allocatedBlocks = accessor.getAllocatedBlocks();
+        accessor.checkpoint(index);
+        accessor.dispose();
+        assertThat(checkpoint.isFile(), is(true));
+
+        accessor = createPersistentInstance(props);
+        assertThat(accessor.getAllocatedBlocks(), is(allocatedBlocks));
+        Index<Integer, Ref<String>> restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(2));
+        assertThat(restored.get(0).value(), is("01234567890123456789"));
+        assertThat(restored.get(1).value(), is("a"));
+        assertThat(checkpoint.exists(), is(false));
+
+        // the free lists are restored.
+        accessor.update(3, "0123456789", restored);
+        assertThat(restored.get(0).value(), is("01234567890123456789"));
+        assertThat(restored.get(3).value(), is("0123456789"));
+        accessor.dispose();
+
+        // no checkpoint, starts empty.
+        accessor = createPersistentInstance(props);
+        assertThat(accessor.getAllocatedBlocks(), is(0L));
+    }
+
+    @Test
+    public void testRestoreWithoutMatchedCheckpoint() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        props.setProperty("reservoir.FileCacheAccessor.checkpoint", checkpoint.getPath());
+
+        FileCacheAccessor<Integer, String> accessor = createPersistentInstance(props);
+        accessor.update(0, "01234567890123456789", index);
+        accessor.checkpoint(index);
+        accessor.dispose();
+
+        props.setProperty("reservoir.FileCacheAccessor.blockSize", "16");
+        accessor = createPersistentInstance(props);
+        Index<Integer, Ref<String>> restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(0));
+        assertThat(accessor.getAllocatedBlocks(), is(0L));
+    }
+
+    @Test
+    public void testReplayWriteAheadLog() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        props.setProperty("reservoir.FileCacheAccessor.checkpoint", checkpoint.getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal", new File(folder.getRoot(), "wal").getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncInterval", "0");
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncBytes", "0");
+
+        FileCacheAccessor<Integer, String> accessor = createPersistentInstance(props);
+        accessor.update(0, "01234567890123456789", index);
+        accessor.update(1, "a", index);
+        accessor.update(1, "b", index);
+        accessor.update(2, "0123456789", index);
+        accessor.remove(2, index.remove(2));
+        // crashes without the checkpoint.
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        Index<Integer, Ref<String>> restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(2));
+        assertThat(restored.get(0).value(), is("01234567890123456789"));
+        assertThat(restored.get(1).value(), is("b"));
+        accessor.update(3, "c", restored);
+        accessor.checkpoint(restored);
+        accessor.dispose();
+
+        // the log is truncated by the checkpoint.
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(3));
+        assertThat(restored.get(3).value(), is("c"));
+        accessor.dispose();
+
+        // crashes after the restart; the checkpoint is kept as the base of the log.
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(3));
+        assertThat(restored.get(0).value(), is("01234567890123456789"));
+        assertThat(restored.get(1).value(), is("b"));
+        assertThat(restored.get(3).value(), is("c"));
+    }
+
+    @Test
+    public void testReplayWriteAheadLogOnCheckpoint() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        props.setProperty("reservoir.FileCacheAccessor.checkpoint", checkpoint.getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal", new File(folder.getRoot(), "wal").getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncInterval", "0");
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncBytes", "0");
+
+        FileCacheAccessor<Integer, String> accessor = createPersistentInstance(props);
+        accessor.update(0, "01234567890123456789", index);
+        accessor.update(1, "a", index);
+        accessor.update(2, "0123456789", index);
+        accessor.checkpoint(index);
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        Index<Integer, Ref<String>> restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(3));
+        long allocatedBlocks = accessor.getAllocatedBlocks();
+        accessor.update(1, "b", restored);
+        long updatedBlocks = accessor.getAllocatedBlocks();
+        // the blocks of the checkpoint are not overwritten nor freed until the log is forced.
+        assertThat(updatedBlocks > allocatedBlocks, is(true));
+        accessor.remove(2, restored.remove(2));
+        assertThat(accessor.getAllocatedBlocks(), is(updatedBlocks));
+        accessor.update(3, "c", restored);
+        // crashes without the checkpoint.
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(3));
+        assertThat(restored.get(0).value(), is("01234567890123456789"));
+        assertThat(restored.get(1).value(), is("b"));
+        assertThat(restored.get(3).value(), is("c"));
+        // the free lists are linked again from the blocks not used by the checkpoint.
+        accessor.update(4, "0123456789", restored);
+        accessor.update(0, "d", restored);
+        assertThat(restored.get(3).value(), is("c"));
+        assertThat(restored.get(4).value(), is("0123456789"));
+        // crashes again.
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(4));
+        assertThat(restored.get(0).value(), is("d"));
+        assertThat(restored.get(1).value(), is("b"));
+        assertThat(restored.get(3).value(), is("c"));
+        assertThat(restored.get(4).value(), is("0123456789"));
+        accessor.checkpoint(restored);
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(4));
+        assertThat(restored.get(0).value(), is("d"));
+        assertThat(restored.get(4).value(), is("0123456789"));
+    }
+
+    @Test
+    public void testRollOverWriteAheadLog() throws Exception {
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        File wal = new File(folder.getRoot(), "wal");
+        props.setProperty("reservoir.FileCacheAccessor.checkpoint", checkpoint.getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal", wal.getPath());
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncInterval", "0");
+        props.setProperty("reservoir.FileCacheAccessor.wal.syncBytes", "0");
+        props.setProperty("reservoir.FileCacheAccessor.wal.checkpointBytes", "1024");
+
+        FileCacheAccessor<Integer, String> accessor = createPersistentInstance(props);
+        String[] values = new String[4];
+        long longest = 0;
+        boolean shrunk = false;
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int i = 0; !shrunk && System.currentTimeMillis() < deadline; i++) {
+            values[i % values.length] = "v" + i;
+            accessor.update(i % values.length, values[i % values.length], index);
+            long length = wal.length();
+            shrunk = length < longest;
+            longest = Math.max(longest, length);
+        }
+        // the log is rolled over while the accessor is in use.
+        assertThat(shrunk, is(true));
+        assertThat(checkpoint.isFile(), is(true));
+        accessor.update(0, "last", index);
+        values[0] = "last";
+        // crashes without the checkpoint on the disposal.
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        Index<Integer, Ref<String>> restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.size(), is(values.length));
+        for (int i = 0; i < values.length; i++) {
+            assertThat(restored.get(i).value(), is(values[i]));
+        }
+        // the blocks of the new checkpoint are not overwritten.
+        accessor.update(1, "updated", restored);
+        accessor.dispose();
+
+        accessor = createPersistentInstance(props);
+        restored = new SimpleIndex<Integer, Ref<String>>();
+        accessor.restore(restored);
+        assertThat(restored.get(0).value(), is("last"));
+        assertThat(restored.get(1).value(), is("updated"));
+        assertThat(restored.get(2).value(), is(values[2]));
+    }
+
+    @Test
+    public void testReadAsync() throws Exception {
+        props.setProperty("reservoir.FileCacheAccessor.readThreads", "2");
+        FileCacheAccessor<Integer, String> accessor = new FileCacheAccessor<Integer, String>();
+        disposeSet.add(accessor);
+        accessor.prepare(FileCacheAccessorTest.class.getName() + "#testReadAsync", props);
+
+        accessor.update(0, "01234567890123456789", index);
+        accessor.update(1, "a", index);
+        CacheFuture<String> future0 = accessor.readAsync(index.get(0));
+        CacheFuture<String> future1 = accessor.readAsync(index.get(1));
+        assertThat(future0.get(3, TimeUnit.SECONDS), is("01234567890123456789"));
+        assertThat(future1.get(3, TimeUnit.SECONDS), is("a"));
+
+        // the key is skipped.
+        accessor = createPersistentInstance(props);
+        accessor.update(2, "0123456789", index);
+        assertThat(accessor.readAsync(index.get(2)).get(3, TimeUnit.SECONDS), is("0123456789"));
+    }
 }
@@ -0,0 +1,59 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class FileSupportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File newFile(String name, int length) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        File source = newFile("source", 2);
+        File target = newFile("target", 1);
+
+        FileSupport.replace(source, target);
+
+        assertThat(source.exists(), is(false));
+        assertThat(target.length(), is(2L));
+    }
+
+    @Test
+    public void testReplaceNonExistentTarget() throws Exception {
+        File source = newFile("source", 2);
+        File target = new File(folder.getRoot(), "target");
+
+        FileSupport.replace(source, target);
+
+        assertThat(source.exists(), is(false));
+        assertThat(target.length(), is(2L));
+    }
+
+    @Test
+    public void testSyncDirectory() throws Exception {
+        FileSupport.syncDirectory(newFile("file", 1));
+        FileSupport.syncDirectory(new File("relative"));
+    }
+}
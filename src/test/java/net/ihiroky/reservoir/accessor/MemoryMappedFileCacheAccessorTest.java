@@ -1,11 +1,15 @@
 package net.ihiroky.reservoir.accessor;
 
 import org.junit.Rule;
+import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.util.Properties;
 
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
 /**
  * Created on 12/10/31, 17:17
  *
@@ -26,6 +30,7 @@ public class MemoryMappedFileCacheAccessorTest extends ByteBufferCacheAccessorTe
         Properties props = new Properties();
         props.setProperty("reservoir.MemoryMappedFileCacheAccessor.blockSize", "8");
         props.setProperty("reservoir.MemoryMappedFileCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder");
+        props.setProperty("reservoir.MemoryMappedFileCacheAccessor.segmentSize", "8");
         for (int i = 0; i < 4; i++) {
             File file = folder.newFile();
             props.setProperty("reservoir.MemoryMappedFileCacheAccessor.file." + i + ".path", file.getPath());
@@ -33,4 +38,38 @@ public class MemoryMappedFileCacheAccessorTest extends ByteBufferCacheAccessorTe
         }
         return props;
     }
+
+    @Test
+    public void testSync() {
+        MemoryMappedFileCacheAccessor<Integer, String> accessor =
+                (MemoryMappedFileCacheAccessor<Integer, String>) byteBufferCacheAccessor;
+        accessor.prepare(MemoryMappedFileCacheAccessorTest.class.getName() + "#testSync", props);
+
+        accessor.update(0, "0123456789", index);
+        assertThat(accessor.getDirtyBytes(), is(10L));
+        accessor.sync();
+        assertThat(accessor.getDirtyBytes(), is(0L));
+        assertThat(accessor.getFlushes(), is(1L));
+        assertThat(accessor.getFlushedBytes(), is(10L));
+        assertThat(accessor.getMaxFlushLatencyMicros() >= accessor.getLastFlushLatencyMicros(), is(true));
+
+        // no dirty segment.
+        accessor.sync();
+        assertThat(accessor.getFlushes(), is(1L));
+    }
+
+    @Test(timeout = 5000)
+    public void testFlushInBackground() throws Exception {
+        props.setProperty("reservoir.MemoryMappedFileCacheAccessor.flushBytes", "8");
+        MemoryMappedFileCacheAccessor<Integer, String> accessor =
+                (MemoryMappedFileCacheAccessor<Integer, String>) byteBufferCacheAccessor;
+        accessor.prepare(MemoryMappedFileCacheAccessorTest.class.getName() + "#testFlushInBackground", props);
+
+        // the first block fills the threshold.
+        accessor.update(0, "0123456789", index);
+        while (accessor.getFlushes() == 0) {
+            Thread.sleep(10);
+        }
+        assertThat(accessor.getFlushedBytes() >= 8, is(true));
+    }
 }
@@ -0,0 +1,110 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class PartitionSelectorTest {
+
+    ByteBlockManager[] partitions;
+    PartitionSelector selector;
+
+    @Before
+    public void before() {
+        partitions = new ByteBlockManager[4];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new BlockedByteBuffer(ByteBuffer.allocate(64), 8);
+        }
+        selector = new PartitionSelector(partitions);
+    }
+
+    @Test
+    public void testAllocateAndRelease() {
+        assertThat(selector.wholeFreeBlocks(), is(32L));
+
+        long[] blocks = new long[32];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = selector.allocate(0, partitions.length, 1);
+            assertThat(blocks[i], is(not(PartitionSelector.NO_BLOCK)));
+        }
+        assertThat(selector.wholeFreeBlocks(), is(0L));
+        long allocations = 0;
+        for (int i = 0; i < partitions.length; i++) {
+            assertThat(selector.freeBlocks(i), is(0L));
+            assertThat(partitions[i].getAllocatedBlocks(), is(8L));
+            allocations += selector.allocations(i);
+        }
+        assertThat(allocations, is(32L));
+
+        // fails fast.
+        assertThat(selector.allocate(0, partitions.length, 1), is(PartitionSelector.NO_BLOCK));
+
+        int managerIndex = AbstractBlockedByteCacheAccessor.managerIndexOf(blocks[0]);
+        partitions[managerIndex].blockAt(AbstractBlockedByteCacheAccessor.blockIndexOf(blocks[0]), 1).free();
+        selector.release(managerIndex, 1);
+        assertThat(selector.wholeFreeBlocks(), is(1L));
+        long block = selector.allocate(0, partitions.length, 1);
+        assertThat(AbstractBlockedByteCacheAccessor.managerIndexOf(block), is(managerIndex));
+    }
+
+    @Test
+    public void testAllocateSpreadsOverPartitions() {
+        for (int i = 0; i < 16; i++) {
+            selector.allocate(0, partitions.length, 1);
+        }
+        for (int i = 0; i < partitions.length; i++) {
+            // the power of two choices keeps the partitions balanced.
+            assertThat(selector.freeBlocks(i) >= 1 && selector.freeBlocks(i) <= 7, is(true));
+        }
+    }
+
+    @Test
+    public void testAllocateInRange() {
+        for (int i = 0; i < 16; i++) {
+            long block = selector.allocate(2, 2, 1);
+            int managerIndex = AbstractBlockedByteCacheAccessor.managerIndexOf(block);
+            assertThat(managerIndex == 2 || managerIndex == 3, is(true));
+        }
+        assertThat(selector.allocate(2, 2, 1), is(PartitionSelector.NO_BLOCK));
+        assertThat(selector.freeBlocks(0), is(8L));
+        assertThat(selector.freeBlocks(1), is(8L));
+    }
+
+    @Test
+    public void testAllocateAdjacentBlocks() {
+        // BlockedByteBuffer can't allocate adjacent blocks; the reservation is returned.
+        assertThat(selector.allocate(0, partitions.length, 2), is(PartitionSelector.NO_BLOCK));
+        assertThat(selector.wholeFreeBlocks(), is(32L));
+    }
+
+    @Test
+    public void testAllocateBatch() {
+        long[] blocks = new long[32];
+        assertThat(selector.allocate(0, partitions.length, 20, blocks, 0), is(20));
+        assertThat(selector.wholeFreeBlocks(), is(12L));
+        long allocations = 0;
+        for (int i = 0; i < partitions.length; i++) {
+            allocations += selector.allocations(i);
+        }
+        // a partition is locked once for its blocks.
+        assertThat(allocations <= 3L, is(true));
+
+        assertThat(selector.allocate(0, partitions.length, 20, blocks, 20), is(12));
+        assertThat(selector.wholeFreeBlocks(), is(0L));
+        assertThat(selector.allocate(0, partitions.length, 1, blocks, 0), is(0));
+        Set<Long> distinct = new HashSet<Long>();
+        for (long block : blocks) {
+            distinct.add(block);
+        }
+        assertThat(distinct.size(), is(32));
+    }
+}
@@ -0,0 +1,155 @@
+package net.ihiroky.reservoir.accessor;
+
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.IndexEventListener;
+import net.ihiroky.reservoir.Ref;
+import net.ihiroky.reservoir.index.ConcurrentLRUIndex;
+import net.ihiroky.reservoir.index.SimpleIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class SlabCacheAccessorTest {
+
+    SlabCacheAccessor<Integer, String> slabCacheAccessor;
+    Index<Integer, Ref<String>> index;
+    Properties props;
+
+    @Before
+    public void before() {
+        slabCacheAccessor = new SlabCacheAccessor<Integer, String>();
+        index = new SimpleIndex<Integer, Ref<String>>();
+        props = new Properties();
+        props.setProperty("reservoir.SlabCacheAccessor.direct", "false");
+        props.setProperty("reservoir.SlabCacheAccessor.size", "192");
+        props.setProperty("reservoir.SlabCacheAccessor.minBlockSize", "8");
+        props.setProperty("reservoir.SlabCacheAccessor.maxBlockSize", "32");
+        props.setProperty("reservoir.SlabCacheAccessor.growthFactor", "2");
+        props.setProperty("reservoir.SlabCacheAccessor.partitions", "2");
+        props.setProperty("reservoir.SlabCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder");
+    }
+
+    @After
+    public void after() {
+        slabCacheAccessor.dispose();
+    }
+
+    @Test
+    public void testClassBlockSizes() {
+        assertThat(SlabCacheAccessor.classBlockSizes(64, 256, 1.25d), is(new int[]{64, 80, 104, 136, 176, 224, 256}));
+        assertThat(SlabCacheAccessor.classBlockSizes(8, 24, 1.01d), is(new int[]{8, 16, 24}));
+        assertThat(SlabCacheAccessor.classBlockSizes(64, 64, 2d), is(new int[]{64}));
+    }
+
+    @Test
+    public void testPrepare() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testPrepare", props);
+
+        assertThat(slabCacheAccessor.getClassBlockSizes(), is(new int[]{8, 16, 32}));
+        assertThat(slabCacheAccessor.getClassBlocks(), is(new long[]{8, 4, 2}));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{0, 0, 0}));
+        assertThat(slabCacheAccessor.getPartitions(), is(6));
+        assertThat(slabCacheAccessor.getWholeBlocks(), is(14L));
+    }
+
+    @Test
+    public void testUpdate() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testUpdate", props);
+
+        slabCacheAccessor.update(0, "0123", index);
+        slabCacheAccessor.update(1, "0123456789", index);
+        slabCacheAccessor.update(2, "01234567890123456789", index);
+        assertThat(index.get(0).value(), is("0123"));
+        assertThat(index.get(1).value(), is("0123456789"));
+        assertThat(index.get(2).value(), is("01234567890123456789"));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{1, 1, 1}));
+
+        // moves to the smaller class.
+        slabCacheAccessor.update(2, "01234", index);
+        assertThat(index.get(2).value(), is("01234"));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{2, 1, 0}));
+    }
+
+    @Test
+    public void testUpdateLargerThanMaxBlockSize() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testUpdateLargerThanMaxBlockSize", props);
+
+        char[] a = new char[40];
+        Arrays.fill(a, 'a');
+        String value = new String(a);
+        slabCacheAccessor.update(0, value, index);
+        assertThat(index.get(0).value(), is(value));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{1, 0, 1}));
+    }
+
+    @Test
+    public void testUpdateFallbackToLargerClass() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testUpdateFallbackToLargerClass", props);
+
+        for (int i = 0; i < 9; i++) {
+            slabCacheAccessor.update(i, "0", index);
+        }
+        for (int i = 0; i < 9; i++) {
+            assertThat(index.get(i).value(), is("0"));
+        }
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{8, 1, 0}));
+        assertThat(slabCacheAccessor.getClassUtilizations()[0], is(1d));
+    }
+
+    @Test
+    public void testRemove() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testRemove", props);
+
+        slabCacheAccessor.update(0, "0123", index);
+        slabCacheAccessor.update(1, "01234567890123456789", index);
+        slabCacheAccessor.remove(0, index.remove(0));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{0, 0, 1}));
+        slabCacheAccessor.remove(1, index.remove(1));
+        assertThat(slabCacheAccessor.getAllocatedBlocks(), is(0L));
+    }
+
+    @Test
+    public void testUpdateEvictingFromSmallerClasses() {
+        slabCacheAccessor.prepare(SlabCacheAccessorTest.class + "#testUpdateEvictingFromSmallerClasses", props);
+        Index<Integer, Ref<String>> lruIndex = new ConcurrentLRUIndex<Integer, Ref<String>>(16, 100);
+        lruIndex.setEventListener(new IndexEventListener<Integer, Ref<String>>() {
+            @Override
+            public void onPut(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+            }
+
+            @Override
+            public void onRemove(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+            }
+
+            @Override
+            public boolean onCacheOut(Index<Integer, Ref<String>> index, Integer key, Ref<String> value) {
+                slabCacheAccessor.remove(key, value);
+                return true;
+            }
+        });
+
+        for (int i = 0; i < 12; i++) {
+            slabCacheAccessor.update(i, "0", lruIndex);
+        }
+        slabCacheAccessor.update(12, "01234567890123456789", lruIndex);
+        slabCacheAccessor.update(13, "01234567890123456789", lruIndex);
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{8, 4, 2}));
+
+        // the blocks freed from the smaller classes can't store the value.
+        slabCacheAccessor.update(14, "01234567890123456789", lruIndex);
+        assertThat(lruIndex.get(14).value(), is("01234567890123456789"));
+        assertThat(lruIndex.get(13).value(), is("01234567890123456789"));
+        assertThat(lruIndex.contains(12), is(false));
+        assertThat(lruIndex.size(), is(2));
+        assertThat(slabCacheAccessor.getClassAllocatedBlocks(), is(new long[]{0, 0, 2}));
+    }
+}
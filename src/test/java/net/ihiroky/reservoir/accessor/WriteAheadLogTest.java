@@ -0,0 +1,225 @@
+package net.ihiroky.reservoir.accessor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File file;
+    WriteAheadLog wal;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static class RecordingHandler implements WriteAheadLog.Handler {
+        List<String> records = new ArrayList<String>();
+
+        @Override
+        public void handle(byte type, long id, ByteBuffer payload) {
+            records.add(type + ":" + id + ":" + UTF8.decode(payload));
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        file = folder.newFile();
+    }
+
+    @After
+    public void after() {
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private void reopen(String identity) throws Exception {
+        if (wal != null) {
+            wal.close();
+        }
+        wal = new WriteAheadLog(file, identity, 0, 1024);
+    }
+
+    @Test
+    public void testAppendAndReplay() throws Exception {
+        reopen("a");
+        assertThat(wal.isEmpty(), is(true));
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        wal.append(WriteAheadLog.REMOVE, 11L, UTF8.encode("1"));
+        assertThat(wal.isEmpty(), is(false));
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(2));
+        assertThat(handler.records.get(0), is(WriteAheadLog.PUT + ":10:0"));
+        assertThat(handler.records.get(1), is(WriteAheadLog.REMOVE + ":11:1"));
+
+        // appends after the replayed records.
+        wal.append(WriteAheadLog.PUT, 12L, UTF8.encode("2"));
+        reopen("a");
+        handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(3));
+        assertThat(handler.records.get(2), is(WriteAheadLog.PUT + ":12:2"));
+    }
+
+    @Test
+    public void testReplayDiscardsTornTail() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("1"));
+        wal.close();
+        wal = null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(1));
+        assertThat(handler.records.get(0), is(WriteAheadLog.PUT + ":10:0"));
+        wal.append(WriteAheadLog.PUT, 12L, UTF8.encode("2"));
+
+        reopen("a");
+        handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(2));
+        assertThat(handler.records.get(1), is(WriteAheadLog.PUT + ":12:2"));
+    }
+
+    @Test
+    public void testReplayDiscardsCorruptedRecord() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("1"));
+        wal.close();
+        wal = null;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() - 5); // the payload of the last record.
+            raf.write('x');
+        } finally {
+            raf.close();
+        }
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(1));
+    }
+
+    @Test
+    public void testIdentityMismatch() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+
+        reopen("b");
+        assertThat(wal.isEmpty(), is(true));
+        assertThat(wal.replay(new RecordingHandler()), is(0));
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        wal = new WriteAheadLog(file, "a", 0, 32);
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        assertThat(wal.getUnsyncedBytes(), is(18L));
+        assertThat(wal.getSyncs(), is(0L));
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("0123456789012345"));
+        assertThat(wal.getUnsyncedBytes(), is(0L));
+        assertThat(wal.getSyncs(), is(1L));
+    }
+
+    @Test(timeout = 5000)
+    public void testPeriodicSync() throws Exception {
+        wal = new WriteAheadLog(file, "a", 10, Long.MAX_VALUE);
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        while (wal.getSyncs() == 0) {
+            Thread.sleep(10);
+        }
+        assertThat(wal.getUnsyncedBytes(), is(0L));
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        wal.truncate();
+        assertThat(wal.isEmpty(), is(true));
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("1"));
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(1));
+        assertThat(handler.records.get(0), is(WriteAheadLog.PUT + ":11:1"));
+    }
+
+    @Test
+    public void testRollover() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        long recordBytes = wal.getRecordBytes();
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("1"));
+        wal.rollover(recordBytes);
+        assertThat(wal.getRecordBytes(), is(recordBytes)); // the records have the same length.
+        wal.append(WriteAheadLog.REMOVE, 12L, UTF8.encode("2"));
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(2));
+        assertThat(handler.records.get(0), is(WriteAheadLog.PUT + ":11:1"));
+        assertThat(handler.records.get(1), is(WriteAheadLog.REMOVE + ":12:2"));
+    }
+
+    @Test
+    public void testReopenAfterInterrupt() throws Exception {
+        reopen("a");
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        // the interrupted appender closes the channel on the sync.
+        Thread.currentThread().interrupt();
+        try {
+            wal.sync();
+        } finally {
+            assertThat(Thread.interrupted(), is(true));
+        }
+        wal.append(WriteAheadLog.PUT, 11L, UTF8.encode("1"));
+        wal.sync();
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(2));
+        assertThat(handler.records.get(0), is(WriteAheadLog.PUT + ":10:0"));
+        assertThat(handler.records.get(1), is(WriteAheadLog.PUT + ":11:1"));
+    }
+
+    @Test
+    public void testCloseCompletesPeriodicSync() throws Exception {
+        wal = new WriteAheadLog(file, "a", 1, 1024);
+        wal.append(WriteAheadLog.PUT, 10L, UTF8.encode("0"));
+        Thread.sleep(10);
+        wal.close();
+        wal = null;
+
+        reopen("a");
+        RecordingHandler handler = new RecordingHandler();
+        assertThat(wal.replay(handler), is(1));
+    }
+}
@@ -0,0 +1,133 @@
+package net.ihiroky.reservoir.coder;
+
+import net.ihiroky.reservoir.BasicCache;
+import net.ihiroky.reservoir.Cache;
+import net.ihiroky.reservoir.Reservoir;
+import net.ihiroky.reservoir.StringResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class BinaryCoderTest {
+
+    List<Cache<?, ?>> disposeList;
+    BinaryCoder<String, String> coder;
+
+    @Before
+    public void before() {
+        disposeList = new ArrayList<Cache<?, ?>>();
+        coder = new BinaryCoder<String, String>(new StringCoder(), new StringCoder(), StringResolver.STRING);
+    }
+
+    @After
+    public void after() {
+        for (Cache<?, ?> cache : disposeList) {
+            cache.dispose();
+        }
+    }
+
+    private BasicCache<String, String> createCache(boolean keyCoder) {
+        Reservoir.CacheBuilder builder = Reservoir.newCacheBuilder()
+                .indexType(Reservoir.IndexType.SIMPLE)
+                .cacheAccessorType(Reservoir.CacheAccessorType.BYTE_BUFFER)
+                .property("reservoir.ByteBufferCacheAccessor.size", "8192")
+                .property("reservoir.ByteBufferCacheAccessor.blockSize", "16")
+                .property("reservoir.ByteBufferCacheAccessor.coder", "net.ihiroky.reservoir.coder.StringCoder");
+        if (keyCoder) {
+            builder.keyCoder(new StringCoder());
+        }
+        BasicCache<String, String> cache = builder.build();
+        disposeList.add(cache);
+        return cache;
+    }
+
+    @Test
+    public void testEncodedIterator() {
+        BasicCache<String, String> cache = createCache(true);
+        cache.put("key", "value");
+
+        Iterator<Map.Entry<ByteBuffer, ByteBuffer>> iterator = cache.encodedIterator();
+        Map.Entry<ByteBuffer, ByteBuffer> entry = iterator.next();
+        assertThat(new StringCoder().createDecoder().decode(entry.getKey()), is("key"));
+        assertThat(new StringCoder().createDecoder().decode(entry.getValue()), is("value"));
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(cache.get("key"), is("value"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testEncodedIteratorWithoutKeyCoder() {
+        createCache(false).encodedIterator();
+    }
+
+    private void testWriteAndRead(boolean keyCoder) throws Exception {
+        BasicCache<String, String> source = createCache(keyCoder);
+        for (int i = 0; i < 10; i++) {
+            source.put("k" + i, "v" + i);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.writeTo(out, coder);
+
+        BasicCache<String, String> destination = createCache(false);
+        destination.readFrom(new ByteArrayInputStream(out.toByteArray()), coder);
+        assertThat(destination.size(), is(10));
+        for (int i = 0; i < 10; i++) {
+            assertThat(destination.get("k" + i), is("v" + i));
+        }
+
+        out = new ByteArrayOutputStream();
+        coder.delete(Pattern.compile("k[0-4]"), source, out);
+        assertThat(source.size(), is(5));
+        destination.clear();
+        destination.readFrom(new ByteArrayInputStream(out.toByteArray()), coder);
+        assertThat(destination.size(), is(5));
+        assertThat(destination.get("k4"), is("v4"));
+        assertThat(destination.get("k5"), is(nullValue()));
+
+        out = new ByteArrayOutputStream();
+        coder.write("k7", source, out);
+        coder.delete(source, new ByteArrayInputStream(out.toByteArray()));
+        assertThat(source.containsKey("k7"), is(false));
+        assertThat(source.size(), is(4));
+    }
+
+    @Test
+    public void testWriteAndReadEncodedKey() throws Exception {
+        testWriteAndRead(true);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        testWriteAndRead(false);
+    }
+
+    @Test
+    public void testWriteWithDifferentValueCoder() throws Exception {
+        BasicCache<String, String> source = createCache(true);
+        source.put("k0", "v0");
+        BinaryCoder<String, String> serializableCoder = new BinaryCoder<String, String>(
+                new StringCoder(), new SerializableCoder<String>(), StringResolver.STRING);
+
+        // the stored values are encoded by StringCoder, so they must be decoded and encoded again.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializableCoder.write(Pattern.compile(".*"), source, out);
+        BasicCache<String, String> destination = createCache(false);
+        serializableCoder.read(destination, new ByteArrayInputStream(out.toByteArray()));
+        assertThat(destination.get("k0"), is("v0"));
+    }
+}
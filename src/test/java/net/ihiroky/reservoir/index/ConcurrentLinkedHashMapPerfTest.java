@@ -216,4 +216,64 @@ public class ConcurrentLinkedHashMapPerfTest {
         assertThat(map.entrySet().containsAll(map.orderQueue()), is(true));
         assertThat(map.orderQueue().size(), is(map.entrySet().size()));
     }
+
+    private ConcurrentTestUtil.Result<?> runMTGet(final ConcurrentLinkedHashMap<Integer, Integer> map, int threads)
+            throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+        Runnable getter = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000000; i++) {
+                    map.get(i % 1000);
+                }
+            }
+        };
+        return ConcurrentTestUtil.runRunnable(threads, getter, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(timeout = 10000)
+    public void testMTGetAccessOrder() throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        ConcurrentLinkedHashMap<Integer, Integer> insertionOrder =
+                new ConcurrentLinkedHashMap<Integer, Integer>(1000, 0.75f, 16, false);
+        ConcurrentLinkedHashMap<Integer, Integer> accessOrder =
+                new ConcurrentLinkedHashMap<Integer, Integer>(1000, 0.75f, 16, true);
+
+        ConcurrentTestUtil.Result<?> insertionResult = runMTGet(insertionOrder, threads);
+        ConcurrentTestUtil.Result<?> accessResult = runMTGet(accessOrder, threads);
+        System.out.println("get(" + threads + " threads) insertion order:" + insertionResult.getElapsed()
+                + ", access order:" + accessResult.getElapsed());
+        assertThat(insertionResult.getUncaughtExceptionMap(), is(Collections.<Integer, Throwable>emptyMap()));
+        assertThat(accessResult.getUncaughtExceptionMap(), is(Collections.<Integer, Throwable>emptyMap()));
+        assertThat(accessOrder.size(), is(1000));
+        assertThat(accessOrder.orderQueue().size(), is(accessOrder.entrySet().size()));
+        assertThat(accessOrder.entrySet().containsAll(accessOrder.orderQueue()), is(true));
+    }
+
+    @Test(timeout = 30000)
+    public void testMTGetHotKeys() throws InterruptedException {
+        final ConcurrentLRUIndex<Integer, Integer> index = new ConcurrentLRUIndex<Integer, Integer>(10000, 10000);
+        for (int i = 0; i < 10000; i++) {
+            index.put(i, i);
+        }
+        Runnable getter = new Runnable() {
+            @Override
+            public void run() {
+                // 90% of the gets hit 16 hot keys.
+                for (int i = 0; i < 1000000; i++) {
+                    index.get((i % 10 != 0) ? i & 0xF : i % 10000);
+                }
+            }
+        };
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+            ConcurrentTestUtil.Result<?> result = ConcurrentTestUtil.runRunnable(threads, getter, TimeUnit.MILLISECONDS);
+            System.out.println("hot key get(" + threads + " threads):" + result.getElapsed()
+                    + ", per 1M gets:" + (result.getElapsed() / threads));
+            assertThat(result.getUncaughtExceptionMap(), is(Collections.<Integer, Throwable>emptyMap()));
+        }
+        assertThat(index.size(), is(10000));
+    }
 }
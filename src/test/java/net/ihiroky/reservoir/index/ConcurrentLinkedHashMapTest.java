@@ -329,6 +329,51 @@ public class ConcurrentLinkedHashMapTest {
         assertThat(resultList, is(Pair.newImmutableEntries(0, 10, 1, 11, 2, 12)));
     }
 
+    @Test
+    public void testBufferedPromotion() throws Exception {
+        ConcurrentLinkedHashMap<Integer, Integer> map =
+                new ConcurrentLinkedHashMap<Integer, Integer>(32, 0.75f, 4, true);
+
+        for (int i = 0; i < 4; i++) {
+            map.put(i, i + 10);
+        }
+        for (int i = 0; i < ConcurrentLinkedHashMap.OrderQueue.DRAIN_THRESHOLD * 2 + 1; i++) {
+            map.get(i % 3);
+        }
+        map.get(1);
+        map.remove(0); // buffered promotion of a removed node is ignored.
+        map.get(2);
+        Iterator<Map.Entry<Integer, Integer>> iterator = map.orderQueue().iterator();
+        List<Map.Entry<Integer, Integer>> resultList = new ArrayList<Map.Entry<Integer, Integer>>();
+        while (iterator.hasNext()) {
+            resultList.add(Pair.newImmutableEntry(iterator.next()));
+        }
+        assertThat(resultList, is(Pair.newImmutableEntries(3, 13, 1, 11, 2, 12)));
+        assertThat(map.orderQueue().peek().getKey(), is(3));
+    }
+
+    @Test
+    public void testReadBufferDropsRecordsWhenFull() throws Exception {
+        ConcurrentLinkedHashMap.OrderQueue<Integer, Integer> queue =
+                new ConcurrentLinkedHashMap.OrderQueue<Integer, Integer>();
+        ConcurrentLinkedHashMap.Node<Integer, Integer> first =
+                new ConcurrentLinkedHashMap.Node<Integer, Integer>(0, 10);
+        ConcurrentLinkedHashMap.Node<Integer, Integer> second =
+                new ConcurrentLinkedHashMap.Node<Integer, Integer>(1, 11);
+        queue.offer(first);
+        queue.offer(second);
+        ConcurrentLinkedHashMap.ReadBuffer<Integer, Integer> buffer =
+                new ConcurrentLinkedHashMap.ReadBuffer<Integer, Integer>();
+
+        for (int i = 0; i < ConcurrentLinkedHashMap.ReadBuffer.SIZE; i++) {
+            assertThat(buffer.record(first), is(i + 1));
+        }
+        assertThat(buffer.record(second), is(ConcurrentLinkedHashMap.ReadBuffer.SIZE)); // dropped.
+        buffer.drainTo(queue);
+        assertThat(queue.peek(), is(second));
+        assertThat(buffer.record(second), is(1));
+    }
+
     @Test
     public void testToString() {
         ConcurrentLinkedHashMap<Integer, Integer> map =
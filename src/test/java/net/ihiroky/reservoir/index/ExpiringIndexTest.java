@@ -0,0 +1,306 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.Index;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class ExpiringIndexTest {
+
+    static long nanos;
+
+    MockIndexEventListener<Integer, Integer> eventListener;
+
+    static class TestExpiringIndex extends ExpiringIndex<Integer, Integer> {
+        TestExpiringIndex(Index<Integer, Integer> delegate, long timeToLive, long timeToIdle) {
+            super(delegate, timeToLive, timeToIdle, TimeUnit.SECONDS);
+        }
+
+        @Override
+        protected long currentNanos() {
+            return nanos;
+        }
+    }
+
+    private TestExpiringIndex createInstance(long timeToLive, long timeToIdle) {
+        TestExpiringIndex index = new TestExpiringIndex(
+                new ConcurrentLRUIndex<Integer, Integer>(16, 100), timeToLive, timeToIdle);
+        index.setEventListener(eventListener);
+        return index;
+    }
+
+    private static void sleep(long seconds) {
+        nanos += TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private List<Integer> cacheOutKeys() {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (MockIndexEventListener.Args<Integer, Integer> args : eventListener.argsList) {
+            if (args.method == MockIndexEventListener.Method.CACHE_OUT) {
+                keys.add(args.key);
+            }
+        }
+        return keys;
+    }
+
+    @Before
+    public void before() {
+        nanos = 0;
+        eventListener = new MockIndexEventListener<Integer, Integer>();
+    }
+
+    @Test
+    public void testTimeToLive() {
+        TestExpiringIndex index = createInstance(10, 0);
+
+        index.put(0, 10);
+        sleep(5);
+        index.put(1, 11);
+        assertThat(index.get(0), is(10));
+        sleep(5);
+        assertThat(index.get(0), is(nullValue()));
+        assertThat(index.contains(0), is(false));
+        assertThat(index.get(1), is(11));
+        assertThat(cacheOutKeys(), is(Arrays.asList(0)));
+        assertThat(index.delegate().contains(0), is(false));
+
+        sleep(5);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(0, 1)));
+        assertThat(index.size(), is(0));
+        assertThat(index.scheduledSize(), is(0));
+    }
+
+    @Test
+    public void testTimeToIdle() {
+        TestExpiringIndex index = createInstance(0, 10);
+
+        index.put(0, 10);
+        index.put(1, 11);
+        for (int i = 0; i < 5; i++) {
+            sleep(5);
+            assertThat(index.get(0), is(10));
+        }
+        index.expire();
+        assertThat(index.get(1), is(nullValue()));
+        assertThat(cacheOutKeys(), is(Arrays.asList(1)));
+        assertThat(index.size(), is(1));
+
+        sleep(10);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(1, 0)));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void testTimeToLiveAndIdle() {
+        TestExpiringIndex index = createInstance(20, 10);
+
+        index.put(0, 10);
+        sleep(8);
+        assertThat(index.get(0), is(10));
+        sleep(8);
+        assertThat(index.get(0), is(10));
+        sleep(4); // idle 4 seconds, but live 20 seconds.
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(0)));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void testPerEntryExpiration() {
+        TestExpiringIndex index = createInstance(0, 0);
+
+        index.put(0, 10);
+        index.put(1, 11);
+        assertThat(index.setExpiration(0, 3600, 0, TimeUnit.SECONDS), is(true));
+        assertThat(index.setExpiration(1, 0, 60, TimeUnit.SECONDS), is(true));
+        assertThat(index.setExpiration(2, 60, 0, TimeUnit.SECONDS), is(false));
+        assertThat(index.scheduledSize(), is(2));
+
+        sleep(61);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(1)));
+        sleep(3600 - 61);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(1, 0)));
+
+        // a write resets the expiration to the default.
+        index.put(2, 12);
+        index.setExpiration(2, 10, 0, TimeUnit.SECONDS);
+        index.put(2, 22);
+        sleep(20);
+        index.expire();
+        assertThat(index.get(2), is(22));
+        assertThat(index.scheduledSize(), is(0));
+    }
+
+    @Test
+    public void testWithExpiration() {
+        TestExpiringIndex index = createInstance(0, 0);
+        Index<Integer, Integer> view = index.withExpiration(10, 0, TimeUnit.SECONDS);
+
+        view.put(0, 10);
+        view.putIfAbsent(1, 11);
+        index.put(2, 12);
+        assertThat(index.scheduledSize(), is(2));
+        assertThat(view.get(0), is(10));
+
+        sleep(10);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(0, 1)));
+        assertThat(index.get(2), is(12));
+        assertThat(view.size(), is(1));
+
+        // a write through the view with no expiration drops the one set before.
+        view.put(2, 22);
+        index.withExpiration(0, 0, TimeUnit.SECONDS).put(2, 32);
+        sleep(20);
+        index.expire();
+        assertThat(index.get(2), is(32));
+        assertThat(index.scheduledSize(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithNegativeExpiration() {
+        createInstance(0, 0).withExpiration(-1, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testLongTimeToLive() {
+        TestExpiringIndex index = createInstance(TimeUnit.DAYS.toSeconds(30), 0);
+
+        index.put(0, 10);
+        for (int i = 0; i < 29; i++) {
+            sleep(TimeUnit.DAYS.toSeconds(1));
+            index.expire();
+        }
+        assertThat(index.get(0), is(10));
+        sleep(TimeUnit.DAYS.toSeconds(1));
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(0)));
+    }
+
+    @Test
+    public void testRemove() {
+        TestExpiringIndex index = createInstance(10, 0);
+
+        index.put(0, 10);
+        index.put(1, 11);
+        index.put(2, 12);
+        index.putIfAbsent(3, 13);
+        assertThat(index.remove(0), is(10));
+        index.removeSilently(1, 11);
+        index.remove(Arrays.asList(2));
+        assertThat(index.scheduledSize(), is(1));
+
+        sleep(10);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(3)));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void testCacheOutRejected() {
+        eventListener = new MockIndexEventListener<Integer, Integer>() {
+            @Override
+            public boolean onCacheOut(Index<Integer, Integer> index, Integer key, Integer value) {
+                super.onCacheOut(index, key, value);
+                return false;
+            }
+        };
+        TestExpiringIndex index = createInstance(10, 0);
+
+        index.put(0, 10);
+        sleep(10);
+        index.expire();
+        assertThat(cacheOutKeys(), is(Arrays.asList(0)));
+        assertThat(index.get(0), is(nullValue()));
+        assertThat(index.delegate().contains(0), is(true));
+        index.removeSilently(0, 10);
+        assertThat(index.delegate().contains(0), is(false));
+        assertThat(cacheOutKeys(), is(Arrays.asList(0)));
+    }
+
+    @Test
+    public void testWriteAfterMarkedExpiredIsKept() {
+        final TestExpiringIndex[] holder = new TestExpiringIndex[1];
+        eventListener = new MockIndexEventListener<Integer, Integer>() {
+            @Override
+            public boolean onCacheOut(Index<Integer, Integer> index, Integer key, Integer value) {
+                if (cacheOutKeys().isEmpty()) {
+                    // writes the other entry, which is already marked expired.
+                    holder[0].put(1 - key, 100);
+                }
+                return super.onCacheOut(index, key, value);
+            }
+        };
+        TestExpiringIndex index = createInstance(10, 0);
+        holder[0] = index;
+
+        index.put(0, 10);
+        index.put(1, 11);
+        sleep(10);
+        index.expire();
+        List<Integer> cacheOutKeys = cacheOutKeys();
+        assertThat(cacheOutKeys.size(), is(1));
+        int written = 1 - cacheOutKeys.get(0);
+        assertThat(index.get(written), is(100));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void testEntrySet() {
+        TestExpiringIndex index = createInstance(10, 0);
+
+        index.put(0, 10);
+        sleep(5);
+        index.put(1, 11);
+        index.put(2, 12);
+        sleep(5);
+        List<Integer> keys = new ArrayList<Integer>();
+        for (Iterator<Map.Entry<Integer, Integer>> i = index.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = i.next();
+            keys.add(entry.getKey());
+            if (entry.getKey() == 1) {
+                i.remove();
+            }
+        }
+        assertThat(keys.contains(0), is(false));
+        assertThat(keys.size(), is(2));
+        assertThat(index.scheduledSize(), is(2));
+    }
+
+    @Test
+    public void testClear() {
+        TestExpiringIndex index = createInstance(10, 0);
+
+        index.put(0, 10);
+        index.put(1, 11);
+        index.clear();
+        assertThat(index.size(), is(0));
+        assertThat(index.scheduledSize(), is(0));
+    }
+
+    @Test
+    public void testUnwrap() {
+        Index<Integer, Integer> lru = new ConcurrentLRUIndex<Integer, Integer>(16, 100);
+        Index<Integer, Integer> index = new ExpiringIndex<Integer, Integer>(lru, 1, 0, TimeUnit.SECONDS);
+        assertThat(ExpiringIndex.unwrap(index), is(sameInstance(lru)));
+        assertThat(ExpiringIndex.unwrap(lru), is(sameInstance(lru)));
+        Index<Integer, Integer> view = ((ExpiringIndex<Integer, Integer>) index).withExpiration(1, 0, TimeUnit.SECONDS);
+        assertThat(ExpiringIndex.unwrap(view), is(sameInstance(lru)));
+    }
+}
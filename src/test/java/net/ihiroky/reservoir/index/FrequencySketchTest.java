@@ -0,0 +1,65 @@
+package net.ihiroky.reservoir.index;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrement() {
+        FrequencySketch sketch = new FrequencySketch(512);
+
+        assertThat(sketch.frequency("a"), is(0));
+        sketch.increment("a");
+        assertThat(sketch.frequency("a"), is(1));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("a");
+        }
+        assertThat(sketch.frequency("a"), is(15));
+        assertThat(sketch.frequency("b"), is(0));
+    }
+
+    @Test
+    public void testReset() {
+        FrequencySketch sketch = new FrequencySketch(64);
+
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("a");
+        }
+        sketch.reset();
+        assertThat(sketch.frequency("a"), is(5));
+    }
+
+    @Test
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(64);
+
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("a");
+        }
+        int i = 0;
+        while (i < sketch.sampleSize() && sketch.frequency("a") >= 10) {
+            sketch.increment(i++);
+        }
+        assertThat(i < sketch.sampleSize(), is(true));
+        assertThat(sketch.frequency("a") < 10, is(true));
+    }
+
+    @Test
+    public void testClear() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        sketch.increment("a");
+        sketch.clear();
+        assertThat(sketch.frequency("a"), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new FrequencySketch(0);
+    }
+}
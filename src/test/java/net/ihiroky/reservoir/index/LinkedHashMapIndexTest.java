@@ -1,5 +1,6 @@
 package net.ihiroky.reservoir.index;
 
+import net.ihiroky.reservoir.EvictionSupport;
 import net.ihiroky.reservoir.Index;
 import net.ihiroky.reservoir.Pair;
 import org.junit.Test;
@@ -285,4 +286,32 @@ public class LinkedHashMapIndexTest {
         assertThat(result, is(10));
         assertThat(index.get(1), is(10));
     }
+
+    @Test
+    public void testEvict() {
+        Index<Integer, Integer> index = createInstance(16, Integer.MAX_VALUE, true);
+        MockIndexEventListener<Integer, Integer> eventListener = new MockIndexEventListener<Integer, Integer>();
+        index.setEventListener(eventListener);
+        EvictionSupport eviction = (EvictionSupport) index;
+
+        assertThat(eviction.evict(), is(false));
+        index.put(0, 10);
+        index.put(1, 11);
+        index.put(2, 12);
+        index.get(0);
+        eventListener.argsList.clear();
+
+        assertThat(eviction.evict(), is(true));
+        assertThat(index.contains(1), is(false));
+        assertThat(index.size(), is(2));
+        MockIndexEventListener.Args<Integer, Integer> args = eventListener.argsList.get(0);
+        assertThat(args.method, is(MockIndexEventListener.Method.CACHE_OUT));
+        assertThat(args.key, is(1));
+        assertThat(args.value, is(11));
+        assertThat(eviction.evict(), is(true));
+        assertThat(index.contains(2), is(false));
+        assertThat(eviction.evict(), is(true));
+        assertThat(eviction.evict(), is(false));
+        assertThat(index.size(), is(0));
+    }
 }
@@ -0,0 +1,171 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.coder.SerializableCoder;
+import net.ihiroky.reservoir.coder.StringCoder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class OffHeapIndexTest {
+
+    Index<Integer, String> index;
+
+    @Before
+    public void before() {
+        index = new OffHeapIndex<Integer, String>(
+                new SerializableCoder<Integer>(), new StringCoder());
+    }
+
+    @Test
+    public void testPut() {
+        assertThat(index.get(0), is(nullValue()));
+
+        assertThat(index.put(0, "a"), is(nullValue()));
+        assertThat(index.put(0, "bb"), is("a"));
+        assertThat(index.get(0), is("bb"));
+
+        index.put(1, "c");
+        assertThat(index.get(0), is("bb"));
+        assertThat(index.get(1), is("c"));
+        assertThat(index.get(2), is(nullValue()));
+        assertThat(index.size(), is(2));
+
+        assertThat(index.putIfAbsent(1, "d"), is("c"));
+        assertThat(index.putIfAbsent(2, "e"), is(nullValue()));
+        assertThat(index.get(1), is("c"));
+        assertThat(index.get(2), is("e"));
+        assertThat(index.size(), is(3));
+    }
+
+    @Test
+    public void testPutMany() {
+        char[] c = new char[100];
+        Arrays.fill(c, 'x');
+        String large = new String(c);
+        for (int i = 0; i < 10000; i++) {
+            index.put(i, (i % 100 == 0) ? large : String.valueOf(i));
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            index.remove(i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            if (i % 2 == 0) {
+                assertThat(index.get(i), is(nullValue()));
+            } else {
+                assertThat(index.get(i), is(String.valueOf(i)));
+            }
+        }
+        assertThat(index.size(), is(5000));
+    }
+
+    @Test
+    public void testGetCollection() {
+        index.put(0, "a");
+        index.put(1, "b");
+
+        Collection<Map.Entry<Integer, String>> result = index.get(Arrays.asList(0, 1, 2));
+        assertThat(result.size(), is(2));
+        assertThat(result.contains(new AbstractMap.SimpleImmutableEntry<Integer, String>(0, "a")), is(true));
+        assertThat(result.contains(new AbstractMap.SimpleImmutableEntry<Integer, String>(1, "b")), is(true));
+    }
+
+    @Test
+    public void testRemove() {
+        index.put(0, "a");
+        index.put(1, "b");
+        index.put(2, "c");
+
+        assertThat(index.remove(1), is("b"));
+        assertThat(index.remove(1), is(nullValue()));
+        assertThat(index.size(), is(2));
+
+        Collection<Map.Entry<Integer, String>> removed = index.remove(Arrays.asList(0, 1));
+        assertThat(removed.size(), is(1));
+        assertThat(index.get(0), is(nullValue()));
+        assertThat(index.get(2), is("c"));
+        assertThat(index.size(), is(1));
+
+        index.removeSilently(2, "d");
+        assertThat(index.get(2), is("c"));
+        index.removeSilently(2, "c");
+        assertThat(index.get(2), is(nullValue()));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void testContains() {
+        index.put(0, "a");
+        index.put(1, "b");
+        assertThat(index.contains(0), is(true));
+        assertThat(index.contains(2), is(false));
+        assertThat(index.containsAll(new HashSet<Integer>(Arrays.asList(0, 1))), is(true));
+        assertThat(index.containsAll(new HashSet<Integer>(Arrays.asList(0, 1, 2))), is(false));
+    }
+
+    @Test
+    public void testEntrySet() {
+        for (int i = 0; i < 100; i++) {
+            index.put(i, String.valueOf(i));
+        }
+        Map<Integer, String> map = new HashMap<Integer, String>();
+        for (Iterator<Map.Entry<Integer, String>> i = index.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Integer, String> entry = i.next();
+            map.put(entry.getKey(), entry.getValue());
+            if (entry.getKey() % 2 == 0) {
+                i.remove();
+            }
+        }
+        assertThat(map.size(), is(100));
+        for (int i = 0; i < 100; i++) {
+            assertThat(map.get(i), is(String.valueOf(i)));
+        }
+        assertThat(index.size(), is(50));
+        assertThat(index.entrySet().size(), is(50));
+    }
+
+    @Test
+    public void testClear() {
+        MockIndexEventListener<Integer, String> eventListener = new MockIndexEventListener<Integer, String>();
+        index.put(0, "a");
+        index.put(1, "b");
+        index.setEventListener(eventListener);
+
+        index.clear();
+        assertThat(index.size(), is(0));
+        assertThat(index.get(0), is(nullValue()));
+        assertThat(eventListener.argsList.size(), is(2));
+        assertThat(eventListener.argsList.get(0).method, is(MockIndexEventListener.Method.REMOVE));
+
+        index.put(0, "c");
+        assertThat(index.get(0), is("c"));
+    }
+
+    @Test
+    public void testEventListener() {
+        MockIndexEventListener<Integer, String> eventListener = new MockIndexEventListener<Integer, String>();
+        index.setEventListener(eventListener);
+
+        index.put(0, "a");
+        index.putIfAbsent(0, "b");
+        index.remove(0);
+        assertThat(eventListener.argsList.size(), is(2));
+        assertThat(eventListener.argsList.get(0).method, is(MockIndexEventListener.Method.PUT));
+        assertThat(eventListener.argsList.get(0).value, is("a"));
+        assertThat(eventListener.argsList.get(1).method, is(MockIndexEventListener.Method.REMOVE));
+        assertThat(eventListener.argsList.get(1).value, is("a"));
+    }
+}
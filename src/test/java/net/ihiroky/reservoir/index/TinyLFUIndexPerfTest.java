@@ -0,0 +1,122 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.Index;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Replays access traces and compares the hit ratios of the indexes.
+ * <p/>
+ * A recorded trace, which has one key per line, can be replayed by specifying its path with the system property
+ * {@code reservoir.trace.file} and the cache size with {@code reservoir.trace.cacheSize}.
+ *
+ * @author Hiroki Itoh
+ */
+public class TinyLFUIndexPerfTest {
+
+    private static final int KEYS = 100000;
+    private static final int ACCESSES = 1000000;
+    private static final int CACHE_SIZE = 2000;
+
+    private static String[] zipfTrace(int keys, int accesses, double exponent, long seed) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1d / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(seed);
+        String[] trace = new String[accesses];
+        for (int i = 0; i < accesses; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            trace[i] = String.valueOf((k >= 0) ? k : -k - 1);
+        }
+        return trace;
+    }
+
+    /**
+     * Inserts a scan of {@code scanLength} one-hit keys every {@code interval} accesses.
+     */
+    private static String[] withScans(String[] base, int interval, int scanLength) {
+        List<String> trace = new ArrayList<String>(base.length + base.length / interval * scanLength);
+        int scanKey = 0;
+        for (int i = 0; i < base.length; i++) {
+            if (i % interval == 0) {
+                for (int s = 0; s < scanLength; s++) {
+                    trace.add("scan" + scanKey++);
+                }
+            }
+            trace.add(base[i]);
+        }
+        return trace.toArray(new String[trace.size()]);
+    }
+
+    private static String[] readTrace(String path) throws Exception {
+        List<String> trace = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    trace.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace.toArray(new String[trace.size()]);
+    }
+
+    private static double replay(Index<String, String> index, String[] trace) {
+        long hits = 0;
+        for (String key : trace) {
+            if (index.get(key) != null) {
+                hits++;
+            } else {
+                index.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    private static void compare(String name, String[] trace, int cacheSize) {
+        double lru = replay(new ConcurrentLRUIndex<String, String>(cacheSize, cacheSize), trace);
+        double fifo = replay(new ConcurrentFIFOIndex<String, String>(cacheSize, cacheSize), trace);
+        double tinyLFU = replay(new TinyLFUIndex<String, String>(cacheSize, cacheSize), trace);
+        System.out.printf("%s (accesses:%d, cache size:%d) hit ratio - LRU:%.4f, FIFO:%.4f, TINY_LFU:%.4f%n",
+                name, trace.length, cacheSize, lru, fifo, tinyLFU);
+        assertThat(tinyLFU >= lru, is(true));
+    }
+
+    @Test
+    public void testZipf() {
+        compare("zipf", zipfTrace(KEYS, ACCESSES, 0.9, 1L), CACHE_SIZE);
+    }
+
+    @Test
+    public void testZipfWithScans() {
+        compare("zipf+scan", withScans(zipfTrace(KEYS, ACCESSES, 0.9, 2L), 10000, 5000), CACHE_SIZE);
+    }
+
+    @Test
+    public void testRecordedTrace() throws Exception {
+        String path = System.getProperty("reservoir.trace.file");
+        if (path == null) {
+            System.out.println("recorded trace: skipped; reservoir.trace.file is not specified.");
+            return;
+        }
+        int cacheSize = Integer.getInteger("reservoir.trace.cacheSize", CACHE_SIZE);
+        compare(path, readTrace(path), cacheSize);
+    }
+}
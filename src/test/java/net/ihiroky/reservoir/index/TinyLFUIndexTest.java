@@ -0,0 +1,239 @@
+package net.ihiroky.reservoir.index;
+
+import net.ihiroky.reservoir.Index;
+import net.ihiroky.reservoir.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Hiroki Itoh
+ */
+public class TinyLFUIndexTest {
+
+    @Test
+    public void testPutGetRemove() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+
+        assertThat(index.put(0, 10), is(nullValue()));
+        assertThat(index.put(1, 11), is(nullValue()));
+        assertThat(index.put(1, 21), is(11));
+        assertThat(index.putIfAbsent(1, 31), is(21));
+        assertThat(index.putIfAbsent(2, 12), is(nullValue()));
+        assertThat(index.get(0), is(10));
+        assertThat(index.get(1), is(21));
+        assertThat(index.get(2), is(12));
+        assertThat(index.get(3), is(nullValue()));
+        assertThat(index.size(), is(3));
+        assertThat(index.maxSize(), is(100));
+        assertThat(index.contains(2), is(true));
+        assertThat(index.containsAll(Arrays.asList(0, 1, 2)), is(true));
+        assertThat(index.containsAll(Arrays.asList(0, 3)), is(false));
+
+        assertThat(index.remove(1), is(21));
+        assertThat(index.remove(1), is(nullValue()));
+        index.removeSilently(0, 0);
+        assertThat(index.get(0), is(10));
+        index.removeSilently(0, 10);
+        assertThat(index.get(0), is(nullValue()));
+        assertThat(index.size(), is(1));
+        assertThat(index.policyOrder(), is(Arrays.asList(2)));
+    }
+
+    @Test
+    public void testMulti() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+
+        index.put(Pair.newImmutableEntries(0, 10, 1, 11, 2, 12));
+        Collection<Map.Entry<Integer, Integer>> result = index.get(Arrays.asList(0, 2, 3));
+        assertThat(result, is(Pair.newImmutableEntries(0, 10, 2, 12)));
+        result = index.remove(Arrays.asList(1, 2, 3));
+        assertThat(result, is(Pair.newImmutableEntries(1, 11, 2, 12)));
+        assertThat(index.size(), is(1));
+    }
+
+    @Test
+    public void testFrequentEntryIsNotFlushedByScan() {
+        MockIndexEventListener<Integer, Integer> eventListener = new MockIndexEventListener<Integer, Integer>();
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+        index.setEventListener(eventListener);
+
+        for (int i = 0; i < 100; i++) {
+            index.put(i, i);
+        }
+        for (int n = 0; n < 3; n++) {
+            for (int i = 0; i < 50; i++) {
+                index.get(i);
+            }
+        }
+        assertThat(eventListener.argsList.size(), is(100));
+
+        // one-hit wonders.
+        for (int i = 1000; i < 2000; i++) {
+            index.put(i, i);
+        }
+        assertThat(index.size(), is(100));
+        for (int i = 0; i < 50; i++) {
+            assertThat(index.get(i), is(i));
+        }
+        int cacheOut = 0;
+        for (MockIndexEventListener.Args<Integer, Integer> args : eventListener.argsList) {
+            if (args.method == MockIndexEventListener.Method.CACHE_OUT) {
+                cacheOut++;
+                assertThat(args.key >= 50, is(true));
+            }
+        }
+        assertThat(cacheOut, is(1000));
+    }
+
+    @Test
+    public void testAdmission() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 3);
+
+        index.put(0, 0);
+        index.put(1, 1);
+        index.put(2, 2);
+        assertThat(index.policyOrder(), is(Arrays.asList(2, 0, 1)));
+
+        // 0 is promoted to protected. 2 and 3 are not more frequent than 1 at the head of probation.
+        index.get(0);
+        index.put(3, 3);
+        index.put(4, 4);
+        assertThat(index.contains(2), is(false));
+        assertThat(index.contains(3), is(false));
+        assertThat(index.policyOrder(), is(Arrays.asList(4, 1, 0)));
+
+        // 4 gets more frequent than 1.
+        index.get(4);
+        index.get(4);
+        index.put(5, 5);
+        assertThat(index.contains(1), is(false));
+        assertThat(index.policyOrder(), is(Arrays.asList(5, 4, 0)));
+        assertThat(index.frequency(4), is(3));
+    }
+
+    @Test
+    public void testEvict() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 3);
+        MockIndexEventListener<Integer, Integer> eventListener = new MockIndexEventListener<Integer, Integer>();
+        index.setEventListener(eventListener);
+
+        index.put(0, 0);
+        index.put(1, 1);
+        index.put(2, 2);
+        index.get(0);
+        eventListener.argsList.clear();
+
+        // probation (1), protected (0), then window (2).
+        assertThat(index.evict(), is(true));
+        assertThat(index.policyOrder(), is(Arrays.asList(2, 0)));
+        assertThat(eventListener.argsList.get(0).method, is(MockIndexEventListener.Method.CACHE_OUT));
+        assertThat(eventListener.argsList.get(0).key, is(1));
+        assertThat(index.evict(), is(true));
+        assertThat(index.policyOrder(), is(Arrays.asList(2)));
+        assertThat(index.evict(), is(true));
+        assertThat(index.evict(), is(false));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void testCacheOutRejected() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 2);
+        MockIndexEventListener<Integer, Integer> eventListener = new MockIndexEventListener<Integer, Integer>() {
+            @Override
+            public boolean onCacheOut(Index<Integer, Integer> index, Integer key, Integer value) {
+                super.onCacheOut(index, key, value);
+                return false;
+            }
+        };
+        index.setEventListener(eventListener);
+
+        index.put(0, 0);
+        index.put(1, 1);
+        index.put(2, 2);
+        assertThat(index.size(), is(3)); // 1 is waiting for removeSilently().
+        assertThat(index.policyOrder(), is(Arrays.asList(2, 0)));
+        index.removeSilently(1, 1);
+        assertThat(index.size(), is(2));
+    }
+
+    @Test
+    public void testEntrySet() {
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+        index.put(0, 10);
+        index.put(1, 11);
+        index.put(2, 12);
+
+        List<Integer> keys = new ArrayList<Integer>();
+        for (Iterator<Map.Entry<Integer, Integer>> i = index.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = i.next();
+            keys.add(entry.getKey());
+            if (entry.getKey() == 1) {
+                i.remove();
+            }
+        }
+        assertThat(keys.size(), is(3));
+        assertThat(index.size(), is(2));
+        assertThat(index.contains(1), is(false));
+        assertThat(index.entrySet().contains(Pair.newImmutableEntry(2, 12)), is(true));
+        assertThat(index.policyOrder(), is(Arrays.asList(2, 0)));
+    }
+
+    @Test
+    public void testClear() {
+        MockIndexEventListener<Integer, Integer> eventListener = new MockIndexEventListener<Integer, Integer>();
+        TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+        index.put(0, 10);
+        index.put(1, 11);
+        index.setEventListener(eventListener);
+
+        index.clear();
+        assertThat(index.size(), is(0));
+        assertThat(index.policyOrder().isEmpty(), is(true));
+        assertThat(index.frequency(0), is(0));
+        assertThat(eventListener.argsList.size(), is(2));
+        assertThat(eventListener.argsList.get(0).method, is(MockIndexEventListener.Method.REMOVE));
+    }
+
+    @Test
+    public void testBufferedAccess() throws Exception {
+        final TinyLFUIndex<Integer, Integer> index = new TinyLFUIndex<Integer, Integer>(16, 100);
+        for (int i = 0; i < 3; i++) {
+            index.put(i, i + 10);
+        }
+        for (int i = 0; i < TinyLFUIndex.ReadBuffer.SIZE * 4 + 1; i++) {
+            index.get(0);
+        }
+        assertThat(index.frequency(0) > index.frequency(1), is(true));
+
+        // the readers only write to the bounded buffers, and the writer drains them.
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        index.get(i % 200);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (int i = 3; i < 200; i++) {
+            index.put(i, i + 10);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(index.policyOrder().size(), is(index.size()));
+        assertThat(index.size() <= index.maxSize(), is(true));
+    }
+}
@@ -268,4 +268,20 @@ public class ReservoirServiceTest {
         assertThat(header.get("X-CACHE-JSON-CODER"), is((Object) Arrays.asList("net.ihiroky.reservoir.rest.IntegerJSONCoder")));
         assertThat(header.size(), is(7));
     }
+
+    @Test
+    public void testGetStatistics() throws Exception {
+        integerCache.setStatisticsEnabled(true);
+        integerCache.get(0);
+        integerCache.get(-1);
+
+        StreamingOutput output = service.getStatistics(KEY_CACHE_NAME);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        output.write(result);
+        String json = result.toString("UTF-8");
+        assertThat(json, containsString("\"name\":\"" + KEY_CACHE_NAME + "\""));
+        assertThat(json, containsString("\"statisticsEnabled\":true"));
+        assertThat(json, containsString("\"hits\":1,\"misses\":1,\"hitRatio\":0.5"));
+        assertThat(json, containsString("\"getLatency\":{\"count\":2,"));
+    }
 }